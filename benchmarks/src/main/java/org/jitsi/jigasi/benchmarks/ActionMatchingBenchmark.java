@@ -0,0 +1,150 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.benchmarks;
+
+import org.jitsi.jigasi.transcription.*;
+import org.jitsi.jigasi.transcription.action.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/**
+ * Measures checking a final result against the phrases of the configured
+ * actions, which is done for every final result of every participant. The
+ * automaton of {@link PhraseMatcher} is compared with searching one case
+ * insensitive pattern per phrase, as the actions were matched before.
+ * <p>
+ * The transcription contains none of the phrases, like almost every result
+ * of a conference, so nothing is posted to the actions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActionMatchingBenchmark
+{
+    /**
+     * The prefix of the properties of the actions.
+     */
+    private final static String ACTION_PROPS_PREFIX
+        = "org.jitsi.jigasi.transcription.action";
+
+    /**
+     * The amount of configured actions.
+     */
+    @Param({ "10", "100", "1000" })
+    public int phrases;
+
+    /**
+     * The amount of words of the transcription.
+     */
+    @Param({ "20" })
+    public int words;
+
+    /**
+     * The transcriber of the participant.
+     */
+    private Transcriber transcriber;
+
+    /**
+     * The result to check.
+     */
+    private TranscriptionResult result;
+
+    /**
+     * The transcription of {@link #result}.
+     */
+    private String transcription;
+
+    /**
+     * One pattern per phrase.
+     */
+    private Pattern[] patterns;
+
+    /**
+     * The automaton of all phrases.
+     */
+    private PhraseMatcher<Integer> matcher;
+
+    @Setup
+    public void setUp()
+    {
+        Map<String, String> properties = new HashMap<>();
+        PhraseMatcher.Builder<Integer> builder = new PhraseMatcher.Builder<>();
+        patterns = new Pattern[phrases];
+        for (int i = 0; i < phrases; i++)
+        {
+            String phrase = "action " + i + " please";
+            String action = ACTION_PROPS_PREFIX + ".action" + i;
+            properties.put(action + ".PHRASE", phrase);
+            properties.put(action + ".URL", "http://127.0.0.1:1/" + i);
+
+            patterns[i] = Pattern.compile(
+                Pattern.quote(phrase), Pattern.CASE_INSENSITIVE);
+            builder.add(phrase, i);
+        }
+        matcher = builder.build();
+        BenchmarkEnvironment.install(properties);
+
+        transcriber
+            = new Transcriber("benchmark", new FakeTranscriptionService());
+        transcriber.start();
+        Participant participant = BenchmarkEnvironment.addParticipant(
+            transcriber, "participant", "Participant", 1);
+
+        transcription = FormattingBenchmark.text(words);
+        result = BenchmarkEnvironment.createResult(participant, transcription);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        transcriber.stop();
+        ActionServicesHandler.getInstance().stop();
+    }
+
+    @Benchmark
+    public int patterns()
+    {
+        int found = 0;
+        for (Pattern pattern : patterns)
+        {
+            if (pattern.matcher(transcription).find())
+            {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int phraseMatcher()
+    {
+        return matcher.findAll(transcription).size();
+    }
+
+    @Benchmark
+    public void notifyActionServices()
+    {
+        ActionServicesHandler.getInstance().notifyActionServices(result);
+    }
+}
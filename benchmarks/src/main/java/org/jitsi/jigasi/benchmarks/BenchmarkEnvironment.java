@@ -0,0 +1,333 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.benchmarks;
+
+import net.java.sip.communicator.service.protocol.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.transcription.*;
+import org.jitsi.jigasi.transcription.action.*;
+import org.jitsi.service.configuration.*;
+import org.osgi.framework.*;
+
+import javax.media.Buffer;
+import javax.media.format.*;
+import javax.media.rtp.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Lets the transcription classes run outside of OSGi. The configuration
+ * service and the few other objects they need from the rest of the
+ * application are replaced by dynamic proxies, which answer the methods the
+ * transcription classes use and return defaults for all others.
+ */
+public class BenchmarkEnvironment
+{
+    /**
+     * 16 kHz mono signed 16 bit audio, as received by the transcriber.
+     */
+    public final static AudioFormat AUDIO_FORMAT = new AudioFormat(
+        AudioFormat.LINEAR, 16000, 16, 1,
+        AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED);
+
+    /**
+     * The length in bytes of 20 ms of {@link #AUDIO_FORMAT}, the audio of a
+     * single packet.
+     */
+    public final static int FRAME_LENGTH = 640;
+
+    /**
+     * The properties returned by the configuration service.
+     */
+    private final static Map<String, String> properties
+        = new ConcurrentHashMap<>();
+
+    /**
+     * Make the configuration service, backed by the given properties,
+     * available through {@link JigasiBundleActivator} and initialize the
+     * action handlers from it.
+     *
+     * @param props the configuration properties
+     */
+    public static synchronized void install(Map<String, String> props)
+    {
+        properties.clear();
+        properties.putAll(props);
+
+        ConfigurationService config
+            = proxy(ConfigurationService.class, BenchmarkEnvironment::config);
+        ServiceReference<?> reference = proxy(ServiceReference.class,
+            (method, args) -> defaultValue(method.getReturnType()));
+        BundleContext context = proxy(BundleContext.class, (method, args) -> {
+            switch (method.getName())
+            {
+                case "getServiceReference":
+                    return reference;
+                case "getService":
+                    return config;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+
+        JigasiBundleActivator.osgiContext = context;
+        ActionServicesHandler.init(context);
+    }
+
+    /**
+     * Create a chat room member.
+     *
+     * @param id the address of the member
+     * @param name the display name of the member
+     * @return the member
+     */
+    public static ChatRoomMember createChatRoomMember(String id, String name)
+    {
+        return proxy(ChatRoomMember.class, (method, args) -> {
+            switch (method.getName())
+            {
+                case "getContactAddress":
+                    return id;
+                case "getDisplayName":
+                case "getName":
+                    return name;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * Create a stream receiving audio with the given SSRC.
+     *
+     * @param ssrc the SSRC of the stream
+     * @return the stream
+     */
+    public static ReceiveStream createReceiveStream(long ssrc)
+    {
+        return proxy(ReceiveStream.class, (method, args) ->
+            "getSSRC".equals(method.getName())
+                ? ssrc : defaultValue(method.getReturnType()));
+    }
+
+    /**
+     * Create a buffer holding a packet of audio.
+     *
+     * @return the buffer
+     */
+    public static Buffer createAudioBuffer()
+    {
+        byte[] audio = new byte[FRAME_LENGTH];
+        Random random = new Random(42);
+        for (int i = 0; i < audio.length; i += 2)
+        {
+            short sample = (short) (random.nextGaussian() * 3000);
+            audio[i] = (byte) sample;
+            audio[i + 1] = (byte) (sample >> 8);
+        }
+
+        Buffer buffer = new Buffer();
+        buffer.setData(audio);
+        buffer.setOffset(0);
+        buffer.setLength(audio.length);
+        buffer.setFormat(AUDIO_FORMAT);
+        return buffer;
+    }
+
+    /**
+     * Add a member to a started transcriber and get the participant created
+     * for it.
+     *
+     * @param transcriber the transcriber, which must have been started
+     * @param id the address of the member
+     * @param name the display name of the member
+     * @param ssrc the SSRC of the audio of the member
+     * @return the participant
+     */
+    public static Participant addParticipant(
+        Transcriber transcriber, String id, String name, long ssrc)
+    {
+        Participant[] joined = new Participant[1];
+        TranscriptionEventListener listener = (t, event) -> {
+            if (event.getEvent() == Transcript.TranscriptEventType.JOIN)
+            {
+                joined[0] = event.getParticipant();
+            }
+        };
+
+        transcriber.addTranscriptionEventListener(listener);
+        transcriber.add(createChatRoomMember(id, name), ssrc);
+        transcriber.removeTranscriptionEventListener(listener);
+
+        if (joined[0] == null)
+        {
+            throw new IllegalStateException("Transcriber is not started");
+        }
+        return joined[0];
+    }
+
+    /**
+     * Create a final result of a participant.
+     *
+     * @param participant the participant who spoke
+     * @param text the transcription
+     * @return the result
+     */
+    public static TranscriptionResult createResult(
+        Participant participant, String text)
+    {
+        return new TranscriptionResult(
+            participant,
+            UUID.randomUUID(),
+            false,
+            "en-US",
+            1.0,
+            new TranscriptionAlternative(text, 0.9));
+    }
+
+    /**
+     * Answers the methods of the configuration service from
+     * {@link #properties}.
+     *
+     * @param method the called method
+     * @param args the arguments of the call
+     * @return the result of the call
+     */
+    private static Object config(Method method, Object[] args)
+    {
+        String name = method.getName();
+        int argCount = args == null ? 0 : args.length;
+
+        if ("getPropertyNamesByPrefix".equals(name))
+        {
+            List<String> names = new ArrayList<>();
+            for (String property : properties.keySet())
+            {
+                if (property.startsWith((String) args[0]))
+                {
+                    names.add(property);
+                }
+            }
+            return names;
+        }
+        if ("setProperty".equals(name) && argCount >= 2)
+        {
+            properties.put((String) args[0], String.valueOf(args[1]));
+            return null;
+        }
+        if (!name.startsWith("get") || argCount == 0
+            || !(args[0] instanceof String))
+        {
+            return defaultValue(method.getReturnType());
+        }
+
+        String value = properties.get((String) args[0]);
+        Object defaultValue
+            = argCount > 1 ? args[1] : defaultValue(method.getReturnType());
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        Class<?> type = method.getReturnType();
+        if (type == int.class)
+            return Integer.parseInt(value);
+        if (type == long.class)
+            return Long.parseLong(value);
+        if (type == double.class)
+            return Double.parseDouble(value);
+        if (type == boolean.class)
+            return Boolean.parseBoolean(value);
+        return value;
+    }
+
+    /**
+     * Create a dynamic proxy implementing an interface.
+     *
+     * @param type the interface
+     * @param handler answers the calls of methods of the interface
+     * @param <T> the type of the interface
+     * @return the proxy
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler)
+    {
+        return (T) Proxy.newProxyInstance(
+            BenchmarkEnvironment.class.getClassLoader(),
+            new Class<?>[] { type },
+            (proxy, method, args) -> {
+                if (method.getDeclaringClass() == Object.class)
+                {
+                    switch (method.getName())
+                    {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return type.getSimpleName() + "@"
+                                + System.identityHashCode(proxy);
+                    }
+                }
+                return handler.invoke(method, args);
+            });
+    }
+
+    /**
+     * Get the value a method returns when there is nothing to answer.
+     *
+     * @param type the return type of the method
+     * @return null, or the default value of a primitive type
+     */
+    private static Object defaultValue(Class<?> type)
+    {
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        if (type == double.class)
+            return 0.0;
+        if (type == float.class)
+            return 0.0f;
+        if (type == short.class)
+            return (short) 0;
+        if (type == byte.class)
+            return (byte) 0;
+        if (type == char.class)
+            return (char) 0;
+        return null;
+    }
+
+    /**
+     * Answers the calls of the methods of a proxied interface.
+     */
+    private interface Handler
+    {
+        /**
+         * Answer a call.
+         *
+         * @param method the called method
+         * @param args the arguments of the call, null when there are none
+         * @return the result of the call
+         */
+        Object invoke(Method method, Object[] args);
+    }
+}
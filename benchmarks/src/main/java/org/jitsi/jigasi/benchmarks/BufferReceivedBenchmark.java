@@ -0,0 +1,115 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.benchmarks;
+
+import org.jitsi.jigasi.transcription.*;
+import org.openjdk.jmh.annotations.*;
+
+import javax.media.Buffer;
+import javax.media.rtp.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures the work done on the audio mixing thread for every received
+ * packet: {@link Transcriber#bufferReceived(ReceiveStream, Buffer)} looking
+ * up the participant, which buffers the audio and hands full chunks to the
+ * {@link FakeTranscriptionService}.
+ * <p>
+ * The mixing thread has 20 ms per frame for all participants, so this is
+ * the cost to keep well below 20 ms divided by the amount of participants.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferReceivedBenchmark
+{
+    /**
+     * The amount of participants of the conference.
+     */
+    @Param({ "1", "8", "32" })
+    public int participants;
+
+    /**
+     * Whether voice activity detection is enabled.
+     */
+    @Param({ "false", "true" })
+    public boolean vad;
+
+    /**
+     * The transcriber receiving the audio.
+     */
+    private Transcriber transcriber;
+
+    /**
+     * The streams of the participants.
+     */
+    private ReceiveStream[] streams;
+
+    /**
+     * A packet of audio, given for every participant.
+     */
+    private Buffer buffer;
+
+    /**
+     * The index of the participant who sends the next packet.
+     */
+    private int next = 0;
+
+    @Setup
+    public void setUp()
+    {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(Transcriber.P_NAME_VAD_ENABLED, Boolean.toString(vad));
+        BenchmarkEnvironment.install(properties);
+
+        transcriber
+            = new Transcriber("benchmark", new FakeTranscriptionService());
+        transcriber.start();
+
+        Random random = new Random(42);
+        streams = new ReceiveStream[participants];
+        for (int i = 0; i < participants; i++)
+        {
+            long ssrc = random.nextInt() & 0xffffffffL;
+            BenchmarkEnvironment.addParticipant(
+                transcriber, "participant" + i, "Participant " + i, ssrc);
+            streams[i] = BenchmarkEnvironment.createReceiveStream(ssrc);
+        }
+
+        buffer = BenchmarkEnvironment.createAudioBuffer();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        transcriber.stop();
+    }
+
+    @Benchmark
+    public void bufferReceived()
+    {
+        int index = next;
+        next = index + 1 == streams.length ? 0 : index + 1;
+
+        transcriber.bufferReceived(streams[index], buffer);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.benchmarks;
+
+import org.jitsi.jigasi.transcription.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * A {@link TranscriptionService} which transcribes nothing. It takes the
+ * requests it is given and releases them right away, so the benchmarks
+ * measure jigasi and not a speech-to-text service.
+ */
+public class FakeTranscriptionService
+    implements TranscriptionService
+{
+    /**
+     * The amount of requests which were received by all sessions.
+     */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Get the amount of requests which were received by all sessions.
+     *
+     * @return the amount of requests
+     */
+    public long getRequestCount()
+    {
+        return requestCount.get();
+    }
+
+    @Override
+    public boolean supportsFragmentTranscription()
+    {
+        return true;
+    }
+
+    @Override
+    public void sendSingleRequest(TranscriptionRequest request,
+                                  Consumer<TranscriptionResult> resultConsumer)
+    {
+        requestCount.incrementAndGet();
+        request.release();
+    }
+
+    @Override
+    public boolean supportsStreamRecognition()
+    {
+        return true;
+    }
+
+    @Override
+    public StreamingRecognitionSession initStreamingSession()
+    {
+        return new FakeSession();
+    }
+
+    @Override
+    public boolean isConfiguredProperly()
+    {
+        return true;
+    }
+
+    /**
+     * A session which releases the requests it is given.
+     */
+    private class FakeSession
+        implements StreamingRecognitionSession
+    {
+        /**
+         * The listeners of this session.
+         */
+        private final List<TranscriptionListener> listeners
+            = new CopyOnWriteArrayList<>();
+
+        /**
+         * Whether this session has ended.
+         */
+        private volatile boolean ended = false;
+
+        @Override
+        public void sendRequest(TranscriptionRequest request)
+        {
+            requestCount.incrementAndGet();
+            request.release();
+        }
+
+        @Override
+        public void end()
+        {
+            ended = true;
+            for (TranscriptionListener listener : listeners)
+            {
+                listener.completed();
+            }
+        }
+
+        @Override
+        public boolean ended()
+        {
+            return ended;
+        }
+
+        @Override
+        public void addTranscriptionListener(TranscriptionListener listener)
+        {
+            listeners.add(listener);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.benchmarks;
+
+import org.jitsi.jigasi.transcription.*;
+import org.json.simple.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures formatting a final result: as the JSON object sent to the room
+ * and to remote services, and as the JSON and text entries of the
+ * transcript, which are made for every final result as it comes in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormattingBenchmark
+{
+    /**
+     * The amount of words of the transcription.
+     */
+    @Param({ "10", "100" })
+    public int words;
+
+    /**
+     * The transcriber the participant belongs to.
+     */
+    private Transcriber transcriber;
+
+    /**
+     * The result to format.
+     */
+    private TranscriptionResult result;
+
+    /**
+     * The event of the result in the transcript.
+     */
+    private SpeechEvent speechEvent;
+
+    /**
+     * Gives access to the formatting of the JSON transcript.
+     */
+    private final JsonHandler jsonHandler = new JsonHandler();
+
+    /**
+     * Gives access to the formatting of the text transcript.
+     */
+    private final TxtHandler txtHandler = new TxtHandler();
+
+    @Setup
+    public void setUp()
+    {
+        BenchmarkEnvironment.install(Collections.emptyMap());
+
+        transcriber
+            = new Transcriber("benchmark", new FakeTranscriptionService());
+        transcriber.start();
+        Participant participant = BenchmarkEnvironment.addParticipant(
+            transcriber, "participant", "Participant", 1);
+
+        result = BenchmarkEnvironment.createResult(participant, text(words));
+
+        // the event is only created by the transcript, which hands it to
+        // its promises
+        transcriber.getTranscript().addPublishPromise(
+            new TranscriptPublisher.Promise()
+            {
+                @Override
+                public boolean hasDescription()
+                {
+                    return false;
+                }
+
+                @Override
+                public String getDescription()
+                {
+                    return "";
+                }
+
+                @Override
+                public void recorded(TranscriptEvent event)
+                {
+                    if (event instanceof SpeechEvent)
+                    {
+                        speechEvent = (SpeechEvent) event;
+                    }
+                }
+
+                @Override
+                public void publish(Transcript transcript)
+                {
+                }
+            });
+        transcriber.getTranscript().notify(result);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        transcriber.stop();
+    }
+
+    @Benchmark
+    public JSONObject createJSONObject()
+    {
+        return LocalJsonTranscriptHandler.createJSONObject(result);
+    }
+
+    @Benchmark
+    public String jsonTranscriptEntry()
+    {
+        return jsonHandler.entry(speechEvent);
+    }
+
+    @Benchmark
+    public String txtTranscriptEntry()
+    {
+        return txtHandler.entry(speechEvent);
+    }
+
+    /**
+     * Create a transcription.
+     *
+     * @param words the amount of words
+     * @return the transcription
+     */
+    static String text(int words)
+    {
+        String[] vocabulary = { "the", "quick", "brown", "fox", "jumps",
+            "over", "lazy", "dog", "transcription", "conference" };
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++)
+        {
+            if (i > 0)
+            {
+                text.append(' ');
+            }
+            text.append(vocabulary[i % vocabulary.length]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Exposes the formatting of a transcript entry.
+     */
+    private static class JsonHandler
+        extends LocalJsonTranscriptHandler
+    {
+        /**
+         * Format an event the way it is stored in the transcript.
+         *
+         * @param e the event
+         * @return the stored entry
+         */
+        String entry(SpeechEvent e)
+        {
+            return toSegmentEntry(formatEvent(e));
+        }
+    }
+
+    /**
+     * Exposes the formatting of a transcript entry.
+     */
+    private static class TxtHandler
+        extends LocalTxtTranscriptHandler
+    {
+        /**
+         * Format an event the way it is stored in the transcript.
+         *
+         * @param e the event
+         * @return the stored entry
+         */
+        String entry(SpeechEvent e)
+        {
+            return toSegmentEntry(formatEvent(e));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.benchmarks;
+
+import org.jitsi.jigasi.util.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Compares the lookup of the participant an SSRC belongs to, as done by the
+ * transcriber for every audio packet, in a boxed <tt>HashMap</tt>, a boxed
+ * <tt>ConcurrentHashMap</tt> and a {@link ConcurrentLongObjectMap}.
+ * <p>
+ * SSRCs are random 32 bit values, so almost none of them is in the cache of
+ * {@link Long#valueOf(long)} and every boxed lookup allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SsrcLookupBenchmark
+{
+    /**
+     * The amount of participants in the map.
+     */
+    @Param({ "4", "32", "256" })
+    public int participants;
+
+    /**
+     * The SSRCs of the participants.
+     */
+    private long[] ssrcs;
+
+    /**
+     * The map the transcriber used before.
+     */
+    private Map<Long, Object> hashMap;
+
+    /**
+     * The map which would be the straightforward thread-safe replacement.
+     */
+    private Map<Long, Object> concurrentHashMap;
+
+    /**
+     * The map the transcriber uses.
+     */
+    private ConcurrentLongObjectMap<Object> longObjectMap;
+
+    /**
+     * The index of the next SSRC to look up.
+     */
+    private int next = 0;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        ssrcs = new long[participants];
+        hashMap = new HashMap<>();
+        concurrentHashMap = new ConcurrentHashMap<>();
+        longObjectMap = new ConcurrentLongObjectMap<>();
+
+        for (int i = 0; i < participants; i++)
+        {
+            ssrcs[i] = random.nextInt() & 0xffffffffL;
+
+            Object participant = new Object();
+            hashMap.put(ssrcs[i], participant);
+            concurrentHashMap.put(ssrcs[i], participant);
+            longObjectMap.put(ssrcs[i], participant);
+        }
+    }
+
+    /**
+     * Get the SSRC of the next packet.
+     *
+     * @return an SSRC
+     */
+    private long nextSsrc()
+    {
+        int index = next;
+        next = index + 1 == ssrcs.length ? 0 : index + 1;
+        return ssrcs[index];
+    }
+
+    @Benchmark
+    public Object hashMap()
+    {
+        return hashMap.get(nextSsrc());
+    }
+
+    @Benchmark
+    public Object concurrentHashMap()
+    {
+        return concurrentHashMap.get(nextSsrc());
+    }
+
+    @Benchmark
+    public Object concurrentLongObjectMap()
+    {
+        return longObjectMap.get(nextSsrc());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.benchmarks;
+
+import org.jitsi.jigasi.transcription.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures a transcript of a long conference: recording every final result
+ * in the JSON and text transcripts as it comes in, and publishing both
+ * transcripts once the conference has ended.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TranscriptBenchmark
+{
+    /**
+     * The amount of final results of the conference.
+     */
+    @Param({ "10000" })
+    public int events;
+
+    /**
+     * The directory the transcripts are written to.
+     */
+    private File directory;
+
+    /**
+     * The transcriber of the conference.
+     */
+    private Transcriber transcriber;
+
+    /**
+     * The results of the conference, recorded in order.
+     */
+    private TranscriptionResult[] results;
+
+    /**
+     * The promise of the JSON transcript.
+     */
+    private TranscriptPublisher.Promise jsonPromise;
+
+    /**
+     * The promise of the text transcript.
+     */
+    private TranscriptPublisher.Promise txtPromise;
+
+    @Setup(Level.Trial)
+    public void setUpTrial()
+        throws IOException
+    {
+        directory = Files.createTempDirectory("transcripts").toFile();
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put(AbstractTranscriptPublisher.P_NAME_TRANSCRIPT_DIRECTORY,
+            directory.getAbsolutePath());
+        BenchmarkEnvironment.install(properties);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation()
+    {
+        transcriber
+            = new Transcriber("benchmark", new FakeTranscriptionService());
+        transcriber.start();
+
+        Participant[] participants = new Participant[4];
+        for (int i = 0; i < participants.length; i++)
+        {
+            participants[i] = BenchmarkEnvironment.addParticipant(
+                transcriber, "participant" + i, "Participant " + i, i + 1);
+        }
+
+        results = new TranscriptionResult[events];
+        for (int i = 0; i < events; i++)
+        {
+            results[i] = BenchmarkEnvironment.createResult(
+                participants[i % participants.length],
+                FormattingBenchmark.text(5 + i % 20));
+        }
+
+        jsonPromise = new LocalJsonTranscriptHandler().getPublishPromise();
+        txtPromise = new LocalTxtTranscriptHandler().getPublishPromise();
+        transcriber.getTranscript().addPublishPromise(jsonPromise);
+        transcriber.getTranscript().addPublishPromise(txtPromise);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation()
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial()
+    {
+        directory.delete();
+    }
+
+    @Benchmark
+    public void recordAndPublish()
+    {
+        Transcript transcript = transcriber.getTranscript();
+        for (TranscriptionResult result : results)
+        {
+            transcript.notify(result);
+        }
+
+        transcriber.stop();
+        jsonPromise.publish(transcript);
+        txtPromise.publish(transcript);
+    }
+}
@@ -24,6 +24,8 @@ import net.java.sip.communicator.util.*;
 import org.osgi.framework.*;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * An abstract Gateway which can join an jvb conference with an xmpp account
@@ -78,14 +80,75 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
     public static final long DEFAULT_JVB_INVITE_TIMEOUT = 30L * 1000L;
 
     /**
-     * A map which matches CallContext to the specific session of a Gateway.
+     * A map which matches CallContext to the specific session of a Gateway,
+     * along with the keys under which it is indexed.
      */
-    private final Map<CallContext, T> sessions = new HashMap<>();
+    private final Map<CallContext, SessionEntry<T>> sessions
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The active sessions by call resource.
+     */
+    private final Map<String, T> sessionsByCallResource
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The active sessions by the (lower case) room name of their call
+     * context.
+     */
+    private final Map<String, Set<T>> sessionsByRoomName
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The active sessions by the (lower case) JID of the MUC they joined.
+     */
+    private final Map<String, Set<T>> sessionsByMucJid
+        = new ConcurrentHashMap<>();
+
+    /**
+     * A read-only view of the active sessions, which can be iterated without
+     * copying or locking.
+     */
+    private final Collection<T> activeSessions
+        = new AbstractCollection<T>()
+        {
+            @Override
+            public Iterator<T> iterator()
+            {
+                Iterator<SessionEntry<T>> entries
+                    = sessions.values().iterator();
+                return new Iterator<T>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public T next()
+                    {
+                        return entries.next().session;
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return sessions.size();
+            }
+        };
 
     /**
      * Indicates if jigasi instance has entered graceful shutdown mode.
      */
-    private boolean shutdownInProgress;
+    private volatile boolean shutdownInProgress;
+
+    /**
+     * Whether the shutdown has been started, so it is started only once.
+     */
+    private final AtomicBoolean shutdownStarted = new AtomicBoolean();
 
     /**
      * The (OSGi) <tt>BundleContext</tt> in which this <tt>AbstractGateway</tt>
@@ -96,8 +159,8 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
     /**
      * Listeners that will be notified of changes in a Gateway.
      */
-    private final ArrayList<GatewayListener> gatewayListeners
-        = new ArrayList<>();
+    private final CopyOnWriteArrayList<GatewayListener> gatewayListeners
+        = new CopyOnWriteArrayList<>();
 
     /**
      * Creates new instance of an <tt>AbstractGateway</tt>.
@@ -127,24 +190,26 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
      */
     void notifyCallEnded(CallContext callContext)
     {
-        T session;
+        List<T> removed = new ArrayList<>(1);
+        sessions.computeIfPresent(callContext, (ctx, entry) -> {
+            // updated while the entry is locked, so the indexes always
+            // match the sessions
+            unindex(entry);
+            removed.add(entry.session);
+            return null;
+        });
 
-        synchronized (sessions)
+        if (removed.isEmpty())
         {
-            session = sessions.remove(callContext);
-
-            if (session == null)
-            {
-                // FIXME: print some gateway ID or provider here
-                logger.error(
-                    "Call resource not exists for session "
-                    + callContext.getCallResource());
-                return;
-            }
-
-            fireGatewaySessionRemoved(session);
+            // FIXME: print some gateway ID or provider here
+            logger.error(
+                "Call resource not exists for session "
+                + callContext.getCallResource());
+            return;
         }
 
+        fireGatewaySessionRemoved(removed.get(0));
+
         logger.info("Removed session for call "
                     + callContext.getCallResource());
 
@@ -172,11 +237,103 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
     @Override
     public void onJvbRoomJoined(T source)
     {
-        sessions.put(source.getCallContext(), source);
+        CallContext ctx = source.getCallContext();
+        ChatRoom chatRoom = source.getJvbChatRoom();
+        SessionEntry<T> entry = new SessionEntry<>(
+            source,
+            ctx.getCallResource(),
+            toKey(ctx.getRoomName()),
+            chatRoom != null ? toKey(chatRoom.getIdentifier()) : null);
+
+        sessions.compute(ctx, (key, previous) -> {
+            if (previous != null)
+            {
+                unindex(previous);
+            }
+            index(entry);
+            return entry;
+        });
 
         fireGatewaySessionAdded(source);
     }
 
+    /**
+     * Add a session to the indexes.
+     *
+     * @param entry the session and its keys
+     */
+    private void index(SessionEntry<T> entry)
+    {
+        if (entry.callResource != null)
+        {
+            sessionsByCallResource.put(entry.callResource, entry.session);
+        }
+        addToIndex(sessionsByRoomName, entry.roomName, entry.session);
+        addToIndex(sessionsByMucJid, entry.mucJid, entry.session);
+    }
+
+    /**
+     * Remove a session from the indexes.
+     *
+     * @param entry the session and its keys
+     */
+    private void unindex(SessionEntry<T> entry)
+    {
+        if (entry.callResource != null)
+        {
+            sessionsByCallResource.remove(entry.callResource, entry.session);
+        }
+        removeFromIndex(sessionsByRoomName, entry.roomName, entry.session);
+        removeFromIndex(sessionsByMucJid, entry.mucJid, entry.session);
+    }
+
+    /**
+     * Add a session to an index of sets of sessions.
+     *
+     * @param index the index
+     * @param key the key of the session, or null to not index it
+     * @param session the session
+     */
+    private void addToIndex(Map<String, Set<T>> index, String key, T session)
+    {
+        if (key != null)
+        {
+            index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet())
+                .add(session);
+        }
+    }
+
+    /**
+     * Remove a session from an index of sets of sessions, removing its set
+     * when it gets empty.
+     *
+     * @param index the index
+     * @param key the key of the session, or null when it was not indexed
+     * @param session the session
+     */
+    private void removeFromIndex(
+        Map<String, Set<T>> index, String key, T session)
+    {
+        if (key != null)
+        {
+            index.computeIfPresent(key, (k, set) -> {
+                set.remove(session);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    /**
+     * Get the key under which a room name or JID is indexed.
+     *
+     * @param name the room name or JID, or null
+     * @return the key, or null
+     */
+    private static String toKey(String name)
+    {
+        return name != null ? name.toLowerCase() : null;
+    }
+
     /**
      * Finds {@link AbstractGatewaySession} for given <tt>callResource</tt> if
      * one is currently active.
@@ -189,17 +346,48 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
      */
     public T getSession(String callResource)
     {
-        synchronized (sessions)
-        {
-            for (Map.Entry<CallContext, T> en
-                : sessions.entrySet())
-            {
-                if (callResource.equals(en.getKey().getCallResource()))
-                    return en.getValue();
-            }
+        return callResource != null
+            ? sessionsByCallResource.get(callResource) : null;
+    }
 
-            return null;
-        }
+    /**
+     * Finds the {@link AbstractGatewaySession}s whose call context has the
+     * given room name.
+     *
+     * @param roomName the room name, compared without case.
+     *
+     * @return the sessions, empty if there is none.
+     */
+    public Collection<T> getSessionsByRoomName(String roomName)
+    {
+        return getFromIndex(sessionsByRoomName, roomName);
+    }
+
+    /**
+     * Finds the {@link AbstractGatewaySession}s which joined the MUC with the
+     * given JID.
+     *
+     * @param mucJid the JID of the MUC, compared without case.
+     *
+     * @return the sessions, empty if there is none.
+     */
+    public Collection<T> getSessionsByMucJid(String mucJid)
+    {
+        return getFromIndex(sessionsByMucJid, mucJid);
+    }
+
+    /**
+     * Get the sessions of an index of sets of sessions.
+     *
+     * @param index the index
+     * @param name the room name or JID of the sessions
+     * @return a read-only view of the sessions, empty if there is none
+     */
+    private Collection<T> getFromIndex(Map<String, Set<T>> index, String name)
+    {
+        Set<T> found = name != null ? index.get(toKey(name)) : null;
+        return found != null
+            ? Collections.unmodifiableSet(found) : Collections.emptySet();
     }
 
     /**
@@ -207,10 +395,29 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
      */
     public List<T> getActiveSessions()
     {
-        synchronized (sessions)
-        {
-            return new ArrayList<>(sessions.values());
-        }
+        return new ArrayList<>(activeSessions);
+    }
+
+    /**
+     * Returns a read-only view of the <tt>AbstractGatewaySession</tt>s
+     * currently active. It is not a copy, so it is cheap to get and to
+     * iterate, and it reflects the sessions added or removed while it is
+     * iterated.
+     *
+     * @return the sessions currently active.
+     */
+    public Collection<T> getSessions()
+    {
+        return activeSessions;
+    }
+
+    /**
+     * @return the number of <tt>AbstractGatewaySession</tt>s currently
+     * active.
+     */
+    public int getSessionCount()
+    {
+        return sessions.size();
     }
 
     /**
@@ -281,21 +488,18 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
         if (!shutdownInProgress)
             return;
 
-        synchronized (sessions)
-        {
-            if (sessions.isEmpty())
-            {
-                this.stop();
+        if (!sessions.isEmpty() || !shutdownStarted.compareAndSet(false, true))
+            return;
 
-                ShutdownService shutdownService
-                    = ServiceUtils.getService(
-                    bundleContext,
-                    ShutdownService.class);
+        this.stop();
 
-                logger.info("Jigasi is shutting down NOW");
-                shutdownService.beginShutdown();
-            }
-        }
+        ShutdownService shutdownService
+            = ServiceUtils.getService(
+            bundleContext,
+            ShutdownService.class);
+
+        logger.info("Jigasi is shutting down NOW");
+        shutdownService.beginShutdown();
     }
 
     /**
@@ -305,11 +509,7 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
      */
     public void addGatewayListener(GatewayListener listener)
     {
-        synchronized(gatewayListeners)
-        {
-            if (!gatewayListeners.contains(listener))
-                gatewayListeners.add(listener);
-        }
+        gatewayListeners.addIfAbsent(listener);
     }
 
     /**
@@ -320,10 +520,7 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
      */
     public void removeGatewayListener(GatewayListener listener)
     {
-        synchronized(gatewayListeners)
-        {
-            gatewayListeners.remove(listener);
-        }
+        gatewayListeners.remove(listener);
     }
 
     /**
@@ -332,14 +529,7 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
      */
     private void fireGatewaySessionAdded(AbstractGatewaySession session)
     {
-        Iterable<GatewayListener> listeners;
-        synchronized (gatewayListeners)
-        {
-            listeners
-                = new ArrayList<>(gatewayListeners);
-        }
-
-        for (GatewayListener listener : listeners)
+        for (GatewayListener listener : gatewayListeners)
         {
             listener.onSessionAdded(session);
         }
@@ -351,14 +541,7 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
      */
     private void fireGatewaySessionRemoved(AbstractGatewaySession session)
     {
-        Iterable<GatewayListener> listeners;
-        synchronized (gatewayListeners)
-        {
-            listeners
-                = new ArrayList<>(gatewayListeners);
-        }
-
-        for (GatewayListener listener : listeners)
+        for (GatewayListener listener : gatewayListeners)
         {
             listener.onSessionRemoved(session);
         }
@@ -371,16 +554,54 @@ public abstract class AbstractGateway<T extends AbstractGatewaySession>
      */
     void fireGatewaySessionFailed(AbstractGatewaySession session)
     {
-        Iterable<GatewayListener> listeners;
-        synchronized (gatewayListeners)
+        for (GatewayListener listener : gatewayListeners)
         {
-            listeners
-                = new ArrayList<>(gatewayListeners);
+            listener.onSessionFailed(session);
         }
+    }
 
-        for (GatewayListener listener : listeners)
+    /**
+     * An active session along with the keys under which it is indexed, which
+     * are kept as they were when it was added so it can be removed from the
+     * indexes even when its call context changed since.
+     */
+    private static class SessionEntry<T>
+    {
+        /**
+         * The session.
+         */
+        final T session;
+
+        /**
+         * The call resource of the session, or null.
+         */
+        final String callResource;
+
+        /**
+         * The key of the room name of the session, or null.
+         */
+        final String roomName;
+
+        /**
+         * The key of the JID of the MUC of the session, or null.
+         */
+        final String mucJid;
+
+        /**
+         * Create an entry.
+         *
+         * @param session the session
+         * @param callResource the call resource of the session, or null
+         * @param roomName the key of the room name of the session, or null
+         * @param mucJid the key of the JID of the MUC of the session, or null
+         */
+        SessionEntry(
+            T session, String callResource, String roomName, String mucJid)
         {
-            listener.onSessionFailed(session);
+            this.session = session;
+            this.callResource = callResource;
+            this.roomName = roomName;
+            this.mucJid = mucJid;
         }
     }
 }
@@ -70,6 +70,13 @@ public abstract class AbstractGatewaySession
      */
     private int participantsCount = 0;
 
+    /**
+     * The blocking tasks of this session, which are cancelled together when
+     * it ends.
+     */
+    private final TaskGroup tasks
+        = new TaskGroup(BlockingTaskExecutor.getExecutor());
+
     /**
      * Creates new <tt>AbstractGatewaySession</tt> that can be used to
      * join a conference by using the {@link #createOutgoingCall()} method.
@@ -165,11 +172,35 @@ public abstract class AbstractGatewaySession
     abstract void onJvbConferenceWillStop(JvbConference jvbConference,
         int reasonCode, String reason);
 
+    /**
+     * Returns the group running the blocking tasks of this session, which are
+     * cancelled when the session ends.
+     *
+     * @return the tasks of this session
+     */
+    TaskGroup getTasks()
+    {
+        return tasks;
+    }
+
+    /**
+     * Cancels the blocking tasks of this session and refuses new ones. Called
+     * on every path ending the session, not only when it is hung up, so
+     * nothing keeps running against a session which is gone.
+     */
+    void cancelTasks()
+    {
+        tasks.cancel();
+    }
+
     /**
      * Cancels current session by leaving the muc room
      */
     public void hangUp()
     {
+        // nothing started for this session should keep running
+        cancelTasks();
+
         if (jvbConference != null)
         {
             jvbConference.stop();
@@ -203,6 +234,19 @@ public abstract class AbstractGatewaySession
         }
     }
 
+    /**
+     * Method called by {@link JvbConference} right before it joins the room,
+     * so the presence of the members already in the room can be observed.
+     *
+     * Nothing needs to done in abstract class, but
+     * implementation might not actually care; thus not abstract.
+     *
+     * @param mucRoom the room which is about to be joined
+     */
+    void notifyJvbRoomJoining(ChatRoom mucRoom)
+    {
+    }
+
     /**
      * Method called by {@link JvbConference} to notify session that it has
      * joined the room.
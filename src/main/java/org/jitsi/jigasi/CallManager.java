@@ -20,26 +20,127 @@ package org.jitsi.jigasi;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.media.*;
 import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.service.configuration.*;
 
 import java.util.*;
 import java.util.concurrent.*;
 
 /**
  * FIXME: copied from Jitsi
+ * <p>
+ * The operations on a call are run one after the other in the order they
+ * were requested, while the operations on different calls run in parallel on
+ * a shared pool of threads. A merge is ordered with the operations on each
+ * of the calls it touches.
  */
 public class CallManager
 {
 
     private final static Logger logger = Logger.getLogger(CallManager.class);
 
-    private static final int POOL_SIZE = 5;
+    /**
+     * The property name for the maximum amount of threads running the
+     * operations on calls.
+     */
+    public final static String P_NAME_CALL_CONTROL_THREADS
+        = "org.jitsi.jigasi.CALL_CONTROL_THREADS";
+
+    /**
+     * The default maximum amount of threads running the operations on calls.
+     */
+    public final static int CALL_CONTROL_THREADS_DEFAULT_VALUE
+        = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The time in ms to wait after putting a peer off hold before going on
+     * with the merge of calls.
+     */
+    private final static long PUT_OFF_HOLD_DELAY = 400;
+
+    /**
+     * The key ordering the invites which create a new conference, as they
+     * have no call yet.
+     */
+    private final static Object NEW_CONFERENCE_KEY = new Object();
 
-    private static ExecutorService threadPool
-        = Executors.newFixedThreadPool(POOL_SIZE);
+    /**
+     * Runs the operations on calls, ordered per call.
+     */
+    private static volatile KeyedExecutor callControl = null;
 
-    public synchronized static void acceptCall(Call incomingCall)
+    /**
+     * Get the executor running the operations on calls, creating it when
+     * needed.
+     *
+     * @return the executor
+     */
+    private static KeyedExecutor getCallControl()
     {
-        threadPool.submit(
+        KeyedExecutor callControl = CallManager.callControl;
+        if (callControl != null)
+        {
+            return callControl;
+        }
+
+        synchronized (CallManager.class)
+        {
+            if (CallManager.callControl != null)
+            {
+                return CallManager.callControl;
+            }
+
+            if (BlockingTaskExecutor.isVirtual())
+            {
+                // a virtual thread per operation, still ordered per call
+                callControl
+                    = new KeyedExecutor(BlockingTaskExecutor.getExecutor());
+                CallManager.callControl = callControl;
+                return callControl;
+            }
+
+            int threads = CALL_CONTROL_THREADS_DEFAULT_VALUE;
+            ConfigurationService config
+                = JigasiBundleActivator.getConfigurationService();
+            if (config != null)
+            {
+                threads = Math.max(1, config.getInt(
+                    P_NAME_CALL_CONTROL_THREADS, threads));
+            }
+
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("call-control"));
+            executor.allowCoreThreadTimeOut(true);
+            callControl = new KeyedExecutor(executor);
+            CallManager.callControl = callControl;
+            return callControl;
+        }
+    }
+
+    /**
+     * Runs a task on the threads operating on calls after a delay, ordered
+     * with the other operations on the given key (e.g. a call). No thread is
+     * used while waiting.
+     *
+     * @param key the key to order the task with
+     * @param task the task
+     * @param delay the delay after which to run the task
+     * @param unit the unit of <tt>delay</tt>
+     * @return a handle which can be used to cancel the task before it runs
+     */
+    public static HashedWheelTimer.Timeout schedule(
+        Object key, Runnable task, long delay, TimeUnit unit)
+    {
+        return getCallControl().schedule(key, task, delay, unit);
+    }
+
+    public static void acceptCall(Call incomingCall)
+    {
+        getCallControl().execute(
+            incomingCall,
             new AnswerCallThread(incomingCall, null, false));
     }
 
@@ -50,11 +151,14 @@ public class CallManager
      * @param callees the list of contacts to invite
      * @param call existing call
      */
-    public synchronized static void inviteToConferenceCall(
+    public static void inviteToConferenceCall(
         Map<ProtocolProviderService, List<String>> callees,
         Call call)
     {
-        threadPool.submit(
+        // the calls of a new conference do not exist yet, so no other
+        // operation can touch them
+        getCallControl().execute(
+            call != null ? call : NEW_CONFERENCE_KEY,
             new InviteToConferenceCallThread(callees, call));
     }
 
@@ -327,20 +431,28 @@ public class CallManager
      * @param conference the conference
      * @param calls list of calls
      */
-    public synchronized static void mergeExistingCalls(
+    public static void mergeExistingCalls(
         CallConference conference,
         Collection<Call> calls)
     {
-        threadPool.submit(
+        // ordered with the other operations on each of the calls it puts
+        // off hold, those of the conference included
+        List<Object> keys = new ArrayList<>();
+        keys.add(conference);
+        keys.addAll(conference.getCalls());
+        keys.addAll(calls);
+        getCallControl().execute(
+            keys,
             new MergeExistingCalls(conference, calls));
     }
 
     /**
      * Merges specific existing <tt>Call</tt>s into a specific telephony
-     * conference.
+     * conference. Waits a bit after putting every peer off hold, without
+     * holding a thread in the meantime.
      */
     private static class MergeExistingCalls
-        implements Runnable
+        implements KeyedExecutor.SteppedTask
     {
         /**
          * The telephony conference in which {@link #calls} are to be merged.
@@ -352,6 +464,12 @@ public class CallManager
          */
         private final Collection<Call> calls;
 
+        /**
+         * The steps of the merge which are left, null until the first step
+         * is run. Every step returns the time to wait before the next one.
+         */
+        private Queue<KeyedExecutor.SteppedTask> steps = null;
+
         /**
          * Initializes a new <tt>MergeExistingCalls</tt> instance which is to
          * merge specific existing <tt>Call</tt>s into a specific telephony
@@ -371,8 +489,8 @@ public class CallManager
         }
 
         /**
-         * Puts off hold the <tt>CallPeer</tt>s of a specific <tt>Call</tt>
-         * which are locally on hold.
+         * Adds the steps putting off hold the <tt>CallPeer</tt>s of a specific
+         * <tt>Call</tt> which are locally on hold.
          *
          * @param call the <tt>Call</tt> which is to have its <tt>CallPeer</tt>s
          * put off hold
@@ -387,33 +505,52 @@ public class CallManager
             while (peers.hasNext())
             {
                 CallPeer callPeer = peers.next();
-                boolean putOffHold = true;
+                steps.add(() -> putOffHold(telephony, callPeer));
+            }
+        }
+
+        /**
+         * Puts a <tt>CallPeer</tt> off hold when it is locally on hold.
+         *
+         * @param telephony the telephony of the peer
+         * @param callPeer the peer
+         * @return the time to wait before the next step
+         */
+        private long putOffHold(
+            OperationSetBasicTelephony<?> telephony,
+            CallPeer callPeer)
+        {
+            boolean putOffHold = true;
 
-                if(callPeer instanceof MediaAwareCallPeer)
+            if(callPeer instanceof MediaAwareCallPeer)
+            {
+                putOffHold
+                    = ((MediaAwareCallPeer<?,?,?>) callPeer)
+                    .getMediaHandler()
+                    .isLocallyOnHold();
+            }
+            if(putOffHold)
+            {
+                try
                 {
-                    putOffHold
-                        = ((MediaAwareCallPeer<?,?,?>) callPeer)
-                        .getMediaHandler()
-                        .isLocallyOnHold();
+                    telephony.putOffHold(callPeer);
+                    return PUT_OFF_HOLD_DELAY;
                 }
-                if(putOffHold)
+                catch(Exception ofe)
                 {
-                    try
-                    {
-                        telephony.putOffHold(callPeer);
-                        Thread.sleep(400);
-                    }
-                    catch(Exception ofe)
-                    {
-                        logger.error("Failed to put off hold.", ofe);
-                    }
+                    logger.error("Failed to put off hold.", ofe);
                 }
             }
+            return 0;
         }
 
-        @Override
-        public void run()
+        /**
+         * Prepares the steps of the merge.
+         */
+        private void prepareSteps()
         {
+            steps = new ArrayDeque<>();
+
             // conference
             for (Call call : conference.getCalls())
                 putOffHold(call);
@@ -434,26 +571,44 @@ public class CallManager
                      */
                     //closeCallContainerIfNotNecessary(conference, false);
 
-                    call.setConference(conference);
+                    steps.add(() -> {
+                        call.setConference(conference);
+                        return 0;
+                    });
                 }
             }
         }
+
+        @Override
+        public long runStep()
+        {
+            if (steps == null)
+                prepareSteps();
+
+            while (!steps.isEmpty())
+            {
+                long delay = steps.poll().runStep();
+                if (delay > 0)
+                    return delay;
+            }
+
+            return DONE;
+        }
     }
 
-    public synchronized static void hangupCall(Call call)
+    public static void hangupCall(Call call)
     {
         if (logger.isDebugEnabled())
         {
             logger.debug("Hanging up :" + call, new Throwable());
         }
 
-        threadPool.submit(
-            new HangupCallThread(call));
+        getCallControl().execute(call, new HangupCallThread(call));
     }
 
-    public synchronized static void hangupCall(Call   call,
-                                               int    reasonCode,
-                                               String reason)
+    public static void hangupCall(Call   call,
+                                  int    reasonCode,
+                                  String reason)
     {
         if (logger.isDebugEnabled())
         {
@@ -465,7 +620,7 @@ public class CallManager
         hangupCallThread.reasonCode = reasonCode;
         hangupCallThread.reason = reason;
 
-        threadPool.submit(hangupCallThread);
+        getCallControl().execute(call, hangupCallThread);
     }
 
     /**
@@ -594,22 +749,51 @@ public class CallManager
     }
 
     /**
-     * Shutdowns internal thread pool used and waits for all tasks to finish
-     * gracefully withing 5 seconds or <tt>TimeoutException</tt> is thrown.
+     * Get the amount of operations on calls which were requested and are not
+     * done yet.
      *
-     * @throws InterruptedException if waiting thread is interrupted.
-     * @throws TimeoutException if we fail to shutdown in 5 seconds.
+     * @return the amount of pending operations
      */
-    public static synchronized void restartPool()
-        throws InterruptedException, TimeoutException
+    public static int getQueueSize()
     {
-        threadPool.shutdown();
+        return getCallControl().getPendingTasks();
+    }
 
-        threadPool.awaitTermination(5, TimeUnit.SECONDS);
+    /**
+     * Get the average time in ms operations on calls waited before they
+     * started.
+     *
+     * @return the average wait in ms
+     */
+    public static long getAverageWaitTime()
+    {
+        return getCallControl().getAverageWaitTime();
+    }
 
-        if (!threadPool.isTerminated())
-            throw new TimeoutException();
+    /**
+     * Get the longest time in ms an operation on a call waited before it
+     * started.
+     *
+     * @return the longest wait in ms
+     */
+    public static long getMaxWaitTime()
+    {
+        return getCallControl().getMaxWaitTime();
+    }
 
-        threadPool = Executors.newFixedThreadPool(POOL_SIZE);
+    /**
+     * Waits for all requested operations on calls to finish within the given
+     * time or <tt>TimeoutException</tt> is thrown.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of <tt>timeout</tt>
+     * @throws InterruptedException if waiting thread is interrupted.
+     * @throws TimeoutException if the operations did not finish in time.
+     */
+    public static void awaitIdle(long timeout, TimeUnit unit)
+        throws InterruptedException, TimeoutException
+    {
+        if (!getCallControl().awaitIdle(timeout, unit))
+            throw new TimeoutException();
     }
 }
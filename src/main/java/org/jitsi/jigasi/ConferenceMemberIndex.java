@@ -0,0 +1,400 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Indexes the {@link ConferenceMember}s of the peer of a JVB call by the id
+ * of their endpoint, which is also the address of their
+ * {@link ChatRoomMember}, from the events of the peer. Callbacks waiting for
+ * a member which is not known yet are run as soon as it is added, instead of
+ * polling the members of the peer.
+ * <p>
+ * Members which are removed from the peer are kept, marked as removed, until
+ * they are dropped with {@link #remove(String)}, as their
+ * <tt>ChatRoomMember</tt> often leaves after the conference information was
+ * updated.
+ */
+public class ConferenceMemberIndex
+    extends CallPeerConferenceAdapter
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger
+        = Logger.getLogger(ConferenceMemberIndex.class);
+
+    /**
+     * The members by the id of their endpoint.
+     */
+    private final Map<String, Entry> members = new ConcurrentHashMap<>();
+
+    /**
+     * The callbacks waiting for a member, by the id of its endpoint.
+     */
+    private final Map<String, List<Pending>> pending
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The time in ms after which a callback stops waiting for its member.
+     */
+    private final long timeout;
+
+    /**
+     * The peer whose members are indexed, if any.
+     */
+    private CallPeer peer = null;
+
+    /**
+     * Create a new index.
+     *
+     * @param timeout the time in ms after which a callback stops waiting for
+     * its member
+     */
+    public ConferenceMemberIndex(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Start indexing the members of a peer, including those it already has.
+     *
+     * @param peer the peer whose members to index
+     */
+    public synchronized void attach(CallPeer peer)
+    {
+        if (this.peer != null)
+        {
+            this.peer.removeCallPeerConferenceListener(this);
+        }
+
+        this.peer = peer;
+        peer.addCallPeerConferenceListener(this);
+
+        for (ConferenceMember member : peer.getConferenceMembers())
+        {
+            memberAdded(member);
+        }
+    }
+
+    /**
+     * Stop indexing, forget every member and drop the waiting callbacks.
+     */
+    public synchronized void detach()
+    {
+        if (peer != null)
+        {
+            peer.removeCallPeerConferenceListener(this);
+            peer = null;
+        }
+
+        members.clear();
+        for (List<Pending> waiting : pending.values())
+        {
+            waiting.forEach(Pending::cancel);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Get the member with the given id, unless it has been removed.
+     *
+     * @param id the id of the endpoint of the member
+     * @return the member or null when not known
+     */
+    public ConferenceMember get(String id)
+    {
+        Entry entry = members.get(id);
+        return entry == null || entry.removed ? null : entry.member;
+    }
+
+    /**
+     * Drop the member with the given id, even when it has been removed from
+     * the peer already.
+     *
+     * @param id the id of the endpoint of the member
+     * @return the member or null when not known
+     */
+    public ConferenceMember remove(String id)
+    {
+        Entry entry = members.remove(id);
+        return entry == null ? null : entry.member;
+    }
+
+    /**
+     * Give the member with the given id to a callback, right away when it is
+     * known or as soon as it is added. The callback is dropped when the member
+     * is not added within the timeout of this index.
+     *
+     * @param id the id of the endpoint of the member
+     * @param callback the callback
+     */
+    public void whenAdded(String id, Consumer<ConferenceMember> callback)
+    {
+        ConferenceMember member = get(id);
+        if (member != null)
+        {
+            callback.accept(member);
+            return;
+        }
+
+        Pending waiting = new Pending(id, callback);
+        try
+        {
+            waiting.timeout = SharedTimer.schedule(
+                () -> expire(waiting), timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            logger.warn("Cannot wait for conference member " + id);
+            return;
+        }
+
+        pending.compute(id, (key, list) -> {
+            if (list == null)
+            {
+                list = new CopyOnWriteArrayList<>();
+            }
+            list.add(waiting);
+            return list;
+        });
+
+        // the member may have been added before the callback was registered
+        member = get(id);
+        if (member != null)
+        {
+            waiting.complete(member);
+        }
+    }
+
+    /**
+     * Get the amount of callbacks waiting for their member.
+     *
+     * @return the amount of waiting callbacks
+     */
+    public int getPendingCount()
+    {
+        int count = 0;
+        for (List<Pending> waiting : pending.values())
+        {
+            count += waiting.size();
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void conferenceMemberAdded(CallPeerConferenceEvent evt)
+    {
+        memberAdded(evt.getConferenceMember());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void conferenceMemberRemoved(CallPeerConferenceEvent evt)
+    {
+        ConferenceMember member = evt.getConferenceMember();
+        String id = getMemberID(member.getAddress());
+        if (id != null)
+        {
+            members.computeIfPresent(id, (key, entry) ->
+                entry.member == member ? new Entry(member, true) : entry);
+        }
+    }
+
+    /**
+     * Index an added member and give it to the callbacks waiting for it.
+     *
+     * @param member the member
+     */
+    private void memberAdded(ConferenceMember member)
+    {
+        String id = getMemberID(member.getAddress());
+        if (id == null)
+        {
+            return;
+        }
+
+        members.put(id, new Entry(member, false));
+
+        List<Pending> waiting = pending.remove(id);
+        if (waiting != null)
+        {
+            for (Pending p : waiting)
+            {
+                p.complete(member);
+            }
+        }
+    }
+
+    /**
+     * Drop a callback which waited too long for its member.
+     *
+     * @param waiting the callback
+     */
+    private void expire(Pending waiting)
+    {
+        if (!waiting.done.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        pending.computeIfPresent(waiting.id, (key, list) -> {
+            list.remove(waiting);
+            return list.isEmpty() ? null : list;
+        });
+        logger.warn("No conference member " + waiting.id + " within "
+            + timeout + " ms");
+    }
+
+    /**
+     * Get the unique identifier of a member of the room from its address
+     * in the room, which is the same as the address of its ChatRoomMember
+     *
+     * @param address the address of the member in the room
+     * @return the ID of the member or null if address cannot be parsed
+     */
+    static String getMemberID(String address)
+    {
+        if (address == null)
+        {
+            return null;
+        }
+
+        // assume address is in the form
+        // <room_name>@conference.<jitsi_meet_domain>/<some_unique_id>
+        int idx = address.lastIndexOf("/");
+        return  idx > -1 && (idx + 1) < address.length() ?
+                address.substring(idx + 1) :
+                null;
+    }
+
+    /**
+     * A member of the index.
+     */
+    private static class Entry
+    {
+        /**
+         * The member.
+         */
+        final ConferenceMember member;
+
+        /**
+         * Whether the member has been removed from the peer.
+         */
+        final boolean removed;
+
+        /**
+         * Create an entry.
+         *
+         * @param member the member
+         * @param removed whether the member has been removed from the peer
+         */
+        Entry(ConferenceMember member, boolean removed)
+        {
+            this.member = member;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * A callback waiting for a member.
+     */
+    private static class Pending
+    {
+        /**
+         * The id of the endpoint of the member.
+         */
+        final String id;
+
+        /**
+         * The callback.
+         */
+        final Consumer<ConferenceMember> callback;
+
+        /**
+         * Whether the callback has been run or dropped.
+         */
+        final AtomicBoolean done = new AtomicBoolean();
+
+        /**
+         * The timeout after which the callback is dropped.
+         */
+        volatile HashedWheelTimer.Timeout timeout;
+
+        /**
+         * Create a waiting callback.
+         *
+         * @param id the id of the endpoint of the member
+         * @param callback the callback
+         */
+        Pending(String id, Consumer<ConferenceMember> callback)
+        {
+            this.id = id;
+            this.callback = callback;
+        }
+
+        /**
+         * Run the callback, unless it has already been run or dropped.
+         *
+         * @param member the member
+         */
+        void complete(ConferenceMember member)
+        {
+            if (!done.compareAndSet(false, true))
+            {
+                return;
+            }
+
+            timeout.cancel();
+            try
+            {
+                callback.accept(member);
+            }
+            catch (Exception e)
+            {
+                logger.error("Callback for conference member " + id
+                    + " failed", e);
+            }
+        }
+
+        /**
+         * Drop the callback.
+         */
+        void cancel()
+        {
+            if (done.compareAndSet(false, true))
+            {
+                timeout.cancel();
+            }
+        }
+    }
+}
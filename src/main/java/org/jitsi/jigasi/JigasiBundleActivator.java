@@ -18,12 +18,15 @@
 package org.jitsi.jigasi;
 
 import net.java.sip.communicator.impl.protocol.jabber.*;
+import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
 import net.java.sip.communicator.impl.protocol.jabber.extensions.jitsimeet.*;
 import net.java.sip.communicator.impl.protocol.jabber.extensions.rayo.*;
 import net.java.sip.communicator.service.gui.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.jabber.*;
 import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.jigasi.xmpp.*;
 import org.jitsi.service.configuration.*;
 import org.jivesoftware.smack.provider.*;
 import org.osgi.framework.*;
@@ -84,6 +87,9 @@ public class JigasiBundleActivator
     {
         osgiContext = bundleContext;
 
+        // select how the blocking work is run before any is started
+        BlockingTaskExecutor.getExecutor();
+
         bundleContext.registerService(UIService.class, uiServiceStub, null);
 
         sipGateway = new SipGateway(bundleContext);
@@ -145,6 +151,12 @@ public class JigasiBundleActivator
         MediaPresenceExtension.registerExtensions(providerManager);
         // Register Rayo IQs
         new RayoIqProvider().registerRayoIQs(providerManager);
+        // Register the language participants want to be transcribed in
+        providerManager.addExtensionProvider(
+            TranscriptionLanguageExtension.ELEMENT_NAME,
+            TranscriptionLanguageExtension.NAMESPACE,
+            new DefaultPacketExtensionProvider<>(
+                TranscriptionLanguageExtension.class));
 
         ProtocolProviderService pps = (ProtocolProviderService) service;
 
@@ -35,6 +35,7 @@ import org.jivesoftware.smackx.packet.*;
 import org.osgi.framework.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Class takes care of handling Jitsi Videobridge conference. Currently it waits
@@ -456,6 +457,9 @@ public class JvbConference
 
         started = false;
 
+        // the session ends with the conference, whatever stopped it
+        gatewaySession.cancelTasks();
+
         JigasiBundleActivator.osgiContext.removeServiceListener(this);
 
         if (telephony != null)
@@ -537,7 +541,15 @@ public class JvbConference
         }
         else
         {
-            new RegisterThread(xmppProvider, xmppPassword).start();
+            try
+            {
+                gatewaySession.getTasks().execute(
+                    new RegisterThread(xmppProvider, xmppPassword));
+            }
+            catch (RejectedExecutionException e)
+            {
+                logger.warn(callResource + " hung up before registering");
+            }
         }
     }
 
@@ -615,6 +627,8 @@ public class JvbConference
 
             String resourceIdentifier = getResourceIdentifier();
 
+            gatewaySession.notifyJvbRoomJoining(mucRoom);
+
             if (StringUtils.isNullOrEmpty(roomPassword))
             {
                 mucRoom.joinAs(resourceIdentifier);
@@ -1150,12 +1164,13 @@ public class JvbConference
     }
 
     /**
-     * Threads handles the timeout for stopping the conference.
+     * Handles the timeout for stopping the conference.
      * For waiting for conference call invite sent by the focus or for waiting
-     * another participant to joins.
+     * another participant to joins. The timeout is kept on the shared timer
+     * and the conference is stopped on the call control threads, so no
+     * thread is used while waiting.
      */
     class JvbConferenceStopTimeout
-        implements Runnable
     {
         private final Object syncRoot = new Object();
 
@@ -1163,7 +1178,17 @@ public class JvbConference
 
         private long timeout;
 
-        Thread timeoutThread;
+        /**
+         * Increased every time the timeout is scheduled or cancelled, so a
+         * timeout which is already running when it gets cancelled does
+         * nothing.
+         */
+        private long generation = 0;
+
+        /**
+         * The pending timeout, if scheduled.
+         */
+        private HashedWheelTimer.Timeout pendingTimeout;
 
         private String errorLog = null;
         private final String endReason;
@@ -1182,38 +1207,47 @@ public class JvbConference
             {
                 this.timeout = timeout;
 
-                if (timeoutThread != null)
+                if (pendingTimeout != null)
                     throw new IllegalStateException("already scheduled");
 
-                timeoutThread = new Thread(this, name);
                 willCauseTimeout = true;
-                timeoutThread.start();
+                long scheduled = ++generation;
+                pendingTimeout = CallManager.schedule(
+                    JvbConference.this,
+                    () -> run(scheduled),
+                    timeout, TimeUnit.MILLISECONDS);
             }
         }
 
-        @Override
-        public void run()
+        /**
+         * Stop the conference, unless the timeout was cancelled or scheduled
+         * again since.
+         *
+         * @param scheduled the generation of the timeout when it was
+         * scheduled
+         */
+        private void run(long scheduled)
         {
-            synchronized (syncRoot)
+            // the conference is locked first, like stop() does, so cancel()
+            // can not come in between the check and the stop
+            synchronized (JvbConference.this)
             {
-                try
+                synchronized (syncRoot)
                 {
-                    syncRoot.wait(timeout);
+                    if (!willCauseTimeout || generation != scheduled)
+                        return;
 
-                    if (willCauseTimeout)
-                    {
-                        logger.error(errorLog + " (" + timeout + " ms)");
+                    willCauseTimeout = false;
+                    pendingTimeout = null;
 
-                        JvbConference.this.endReason = this.endReason;
-                        JvbConference.this.endReasonCode
-                            = OperationSetBasicTelephony.HANGUP_REASON_TIMEOUT;
+                    logger.error(
+                        name + ": " + errorLog + " (" + timeout + " ms)");
 
-                        stop();
-                    }
-                }
-                catch (InterruptedException e)
-                {
-                    Thread.currentThread().interrupt();
+                    JvbConference.this.endReason = this.endReason;
+                    JvbConference.this.endReasonCode
+                        = OperationSetBasicTelephony.HANGUP_REASON_TIMEOUT;
+
+                    stop();
                 }
             }
         }
@@ -1223,22 +1257,13 @@ public class JvbConference
             synchronized (syncRoot)
             {
                 willCauseTimeout = false;
+                generation++;
 
-                if (timeoutThread == null)
+                if (pendingTimeout == null)
                     return;
 
-                syncRoot.notifyAll();
-            }
-
-            try
-            {
-                timeoutThread.join();
-
-                timeoutThread = null;
-            }
-            catch (InterruptedException e)
-            {
-                Thread.currentThread().interrupt();
+                pendingTimeout.cancel();
+                pendingTimeout = null;
             }
         }
     }
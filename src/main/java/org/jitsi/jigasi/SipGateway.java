@@ -93,7 +93,7 @@ public class SipGateway
 
         initProvider(sipProvider);
 
-        new RegisterThread(sipProvider).start();
+        BlockingTaskExecutor.execute(new RegisterThread(sipProvider));
     }
 
     /**
@@ -29,6 +29,7 @@ import org.jivesoftware.smack.packet.*;
 
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Class represents gateway session which manages single SIP call instance
@@ -143,7 +144,7 @@ public class SipGatewaySession
      * FIXME: JVB room name property is not available at the moment when call
      *        is created, because header is not parsed yet
      */
-    private WaitForJvbRoomNameThread waitThread;
+    private WaitForJvbRoomNameTask waitThread;
 
     /**
      * The stats handler that handles statistics on the sip side.
@@ -210,6 +211,9 @@ public class SipGatewaySession
     {
         CallContext ctx = super.callContext;
 
+        // the SIP call may end before any JVB conference was stopped
+        cancelTasks();
+
         super.gateway.notifyCallEnded(ctx);
 
         // clear call context after notifying that session ended as
@@ -553,11 +557,11 @@ public class SipGatewaySession
             throw new IllegalStateException("Wait thread exists");
         }
 
-        waitThread = new WaitForJvbRoomNameThread();
+        waitThread = new WaitForJvbRoomNameTask();
 
         jitsiMeetTools.addRequestListener(this);
 
-        waitThread.start();
+        waitThread.schedule();
     }
 
     /**
@@ -719,23 +723,10 @@ public class SipGatewaySession
                     }
 
                     // Delay 5 seconds
-                    new Thread(new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            try
-                            {
-                                Thread.sleep(5000);
-
-                                sipCallEnded();
-                            }
-                            catch (InterruptedException e)
-                            {
-                                Thread.currentThread().interrupt();
-                            }
-                        }
-                    }).start();
+                    CallManager.schedule(
+                        call,
+                        SipGatewaySession.this::sipCallEnded,
+                        5, TimeUnit.SECONDS);
                 }
                 else
                 {
@@ -774,23 +765,10 @@ public class SipGatewaySession
             {
                 // Hangup the call with 5 sec delay, so that we can see BUSY
                 // status in jitsi-meet
-                new Thread(new Runnable()
-                {
-                    @Override
-                    public void run()
-                    {
-                        try
-                        {
-                            Thread.sleep(5000);
-                        }
-                        catch (InterruptedException e)
-                        {
-                            throw new RuntimeException(e);
-                        }
-                        CallManager.hangupCall(
-                                evt.getSourceCallPeer().getCall());
-                    }
-                }).start();
+                Call busyCall = evt.getSourceCallPeer().getCall();
+                SharedTimer.schedule(
+                    () -> CallManager.hangupCall(busyCall),
+                    5, TimeUnit.SECONDS);
             }
         }
 
@@ -802,12 +780,27 @@ public class SipGatewaySession
 
     /**
      * FIXME: to be removed
+     * <p>
+     * Waits a second for the JVB room name on the shared timer and then
+     * checks it on the call control threads, so no thread is used while
+     * waiting.
      */
-    class WaitForJvbRoomNameThread
-            extends Thread
+    class WaitForJvbRoomNameTask
+        implements Runnable
     {
         private boolean cancel = false;
 
+        /**
+         * The pending timeout, until the check has been run.
+         */
+        private HashedWheelTimer.Timeout timeout;
+
+        void schedule()
+        {
+            timeout = CallManager.schedule(
+                call, this, 1000, TimeUnit.MILLISECONDS);
+        }
+
         @Override
         public void run()
         {
@@ -815,8 +808,6 @@ public class SipGatewaySession
             {
                 try
                 {
-                    waitLock.wait(1000);
-
                     if (cancel)
                     {
                         logger.info("Wait thread cancelled");
@@ -851,10 +842,6 @@ public class SipGatewaySession
                         }
                     }
                 }
-                catch (InterruptedException e)
-                {
-                    Thread.currentThread().interrupt();
-                }
                 finally
                 {
                     jitsiMeetTools.removeRequestListener(SipGatewaySession.this);
@@ -864,26 +851,18 @@ public class SipGatewaySession
 
         void cancel()
         {
-            if (Thread.currentThread() == waitThread)
-            {
-                waitThread = null;
-                return;
-            }
-
+            // waits for the check when it is running on another thread
             synchronized (waitLock)
             {
                 cancel = true;
-                waitLock.notifyAll();
-            }
-            try
-            {
-                waitThread.join();
-                waitThread = null;
             }
-            catch (InterruptedException e)
+
+            if (timeout.cancel())
             {
-                Thread.currentThread().interrupt();
+                // the check will never run and clean up
+                jitsiMeetTools.removeRequestListener(SipGatewaySession.this);
             }
+            waitThread = null;
         }
     }
 }
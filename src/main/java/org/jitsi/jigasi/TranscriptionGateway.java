@@ -31,6 +31,24 @@ import org.osgi.framework.*;
 public class TranscriptionGateway
     extends AbstractGateway<TranscriptionGatewaySession>
 {
+    /**
+     * The property name for the speech-to-text backend to use, either
+     * {@link #SERVICE_GOOGLE} or {@link #SERVICE_LOCAL}.
+     */
+    public final static String P_NAME_TRANSCRIPTION_SERVICE
+        = "org.jitsi.jigasi.transcription.SERVICE";
+
+    /**
+     * The name of the Google Cloud speech-to-text backend, which is the
+     * default.
+     */
+    public final static String SERVICE_GOOGLE = "google";
+
+    /**
+     * The name of the backend using a local or self-hosted recognizer.
+     */
+    public final static String SERVICE_LOCAL = "local";
+
     /**
      * Class which manages the desired {@link TranscriptPublisher} and
      * {@link TranscriptionResultPublisher}
@@ -63,6 +81,34 @@ public class TranscriptionGateway
         // stop action handler
         actionServicesHandler.stop();
         actionServicesHandler = null;
+
+        // close the connections to the speech-to-text API
+        GoogleCloudTranscriptionService.shutdown();
+        GoogleSpeechClientPool.shutdown();
+
+        // close the connection to the local recognizer
+        LocalTranscriptionService.shutdown();
+
+        // stop delivering transcripts and actions to remote services
+        HttpDeliveryService.shutdown();
+    }
+
+    /**
+     * Create the speech-to-text backend of a new session, as configured by
+     * {@link #P_NAME_TRANSCRIPTION_SERVICE}.
+     *
+     * @return the backend
+     */
+    private static TranscriptionService createTranscriptionService()
+    {
+        String service = JigasiBundleActivator.getConfigurationService()
+            .getString(P_NAME_TRANSCRIPTION_SERVICE, SERVICE_GOOGLE);
+
+        if (SERVICE_LOCAL.equalsIgnoreCase(service))
+        {
+            return new LocalTranscriptionService();
+        }
+        return new GoogleCloudTranscriptionService();
     }
 
     @Override
@@ -72,7 +118,7 @@ public class TranscriptionGateway
                 new TranscriptionGatewaySession(
                     this,
                     ctx,
-                    new GoogleCloudTranscriptionService(),
+                    createTranscriptionService(),
                     this.handler);
         outgoingSession.addListener(this);
         outgoingSession.createOutgoingCall();
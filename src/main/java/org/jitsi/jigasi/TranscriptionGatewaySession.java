@@ -17,17 +17,22 @@
  */
 package org.jitsi.jigasi;
 
+import net.java.sip.communicator.impl.protocol.jabber.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.service.protocol.media.*;
 import org.jitsi.jigasi.transcription.*;
+import org.jitsi.jigasi.util.*;
 import org.jitsi.jigasi.xmpp.*;
 import org.jitsi.service.neomedia.*;
 import org.jitsi.service.neomedia.device.*;
 import org.jitsi.util.*;
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.Presence;
 
 import java.util.*;
-import java.util.function.*;
+import java.util.concurrent.*;
 
 /**
  * A TranscriptionGatewaySession is able to join a JVB conference and
@@ -52,6 +57,12 @@ public class TranscriptionGatewaySession
      */
     public final static String DISPLAY_NAME = "Transcriber";
 
+    /**
+     * The maximum amount of time in ms to wait for the ConferenceMember of a
+     * ChatRoomMember which joined or left
+     */
+    private final static long MEMBER_MATCH_TIMEOUT_MS = 5000;
+
     /**
      * The TranscriptionService used by this session
      */
@@ -73,7 +84,13 @@ public class TranscriptionGatewaySession
     /**
      * The transcriber managing transcriptions of audio
      */
-    private Transcriber transcriber = null;
+    private volatile Transcriber transcriber = null;
+
+    /**
+     * Limits the interim results of the transcriber which are sent to the
+     * room
+     */
+    private volatile InterimResultCoalescer interimCoalescer = null;
 
     /**
      * The call to the jvb room jigasi joins. This is used to get
@@ -81,6 +98,13 @@ public class TranscriptionGatewaySession
      */
     private Call jvbCall = null;
 
+    /**
+     * The ConferenceMembers of the call, by the id they share with their
+     * ChatRoomMember
+     */
+    private final ConferenceMemberIndex conferenceMembers
+        = new ConferenceMemberIndex(MEMBER_MATCH_TIMEOUT_MS);
+
     /**
      * A list of {@link TranscriptPublisher.Promise}s which will be used
      * to handle the {@link Transcript} when the session is stopped
@@ -88,6 +112,27 @@ public class TranscriptionGatewaySession
     private List<TranscriptPublisher.Promise> finalTranscriptPromises
         = new LinkedList<>();
 
+    /**
+     * The languages the members of the room told they speak in, by the id of
+     * the member, as the members already in the room send their presence
+     * before the transcriber exists
+     */
+    private final Map<String, String> memberLanguages
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The XMPP connection of the room, on which {@link #presenceListener}
+     * is registered
+     */
+    private Connection roomConnection = null;
+
+    /**
+     * Listens for the presence of the members of the room to know in which
+     * language they speak
+     */
+    private final PacketListener presenceListener
+        = packet -> processPresence((Presence) packet);
+
     /**
      * Create a TranscriptionGatewaySession which can handle the transcription
      * of a JVB conference
@@ -115,6 +160,13 @@ public class TranscriptionGatewaySession
         // We got invited to a room, ready up the transcriber!
         transcriber = new Transcriber(getJvbRoomName(), service);
         transcriber.addTranscriptionListener(this);
+        interimCoalescer = new InterimResultCoalescer(
+            JigasiBundleActivator.getConfigurationService().getLong(
+                InterimResultCoalescer.P_NAME_INTERIM_RESULT_INTERVAL,
+                InterimResultCoalescer.INTERIM_RESULT_INTERVAL_DEFAULT_VALUE),
+            this::sendTranscriptionResultToRoom,
+            BlockingTaskExecutor.getExecutor());
+        memberLanguages.forEach(transcriber::setParticipantLanguage);
         logger.debug("Invited for conference");
     }
 
@@ -167,6 +219,21 @@ public class TranscriptionGatewaySession
 
         transcriber.addTranscriptionEventListener(this);
 
+        // follow the ConferenceMembers as they are added and removed
+        Iterator<? extends CallPeer> peers = jvbConferenceCall.getCallPeers();
+        if (peers.hasNext())
+        {
+            conferenceMembers.attach(peers.next());
+        }
+
+        // the promises store the events of the transcript as they happen,
+        // so they have to be known before the initial members are added
+        finalTranscriptPromises.addAll(handler.getTranscriptPublishPromises());
+        for(TranscriptPublisher.Promise promise : finalTranscriptPromises)
+        {
+            transcriber.getTranscript().addPublishPromise(promise);
+        }
+
         // FIXME: 20/07/17 Do we want to start transcribing on joining room?
         transcriber.start();
 
@@ -177,7 +244,6 @@ public class TranscriptionGatewaySession
         StringBuilder welcomeMessage =
             new StringBuilder("Started transcription!\n");
 
-        finalTranscriptPromises.addAll(handler.getTranscriptPublishPromises());
         for(TranscriptPublisher.Promise promise : finalTranscriptPromises)
         {
             if(promise.hasDescription())
@@ -185,6 +251,18 @@ public class TranscriptionGatewaySession
                 welcomeMessage.append(promise.getDescription());
             }
         }
+        for (TranscriptionResultPublisher pub
+            : handler.getTranscriptResultPublishers())
+        {
+            // the stream is created when the transcriber starts
+            String description = pub instanceof TranscriptStreamPublisher
+                ? ((TranscriptStreamPublisher) pub).getDescription(transcriber)
+                : null;
+            if (description != null)
+            {
+                welcomeMessage.append(description);
+            }
+        }
 
         sendMessageToRoom(welcomeMessage.toString());
 
@@ -201,6 +279,14 @@ public class TranscriptionGatewaySession
         // instead of when transcription is over.
         // Need a solution for stopping the transcription earlier
 
+        if (roomConnection != null)
+        {
+            roomConnection.removePacketListener(presenceListener);
+            roomConnection = null;
+        }
+
+        conferenceMembers.detach();
+
         // The conference is over, make sure the transcriber stops
         if(!transcriber.finished())
         {
@@ -212,6 +298,14 @@ public class TranscriptionGatewaySession
             }
         }
 
+        InterimResultCoalescer coalescer = interimCoalescer;
+        if (coalescer != null)
+        {
+            coalescer.close();
+            logger.debug("Suppressed " + coalescer.getSuppressedCount()
+                + " interim results");
+        }
+
         logger.debug("Conference ended");
     }
 
@@ -225,24 +319,84 @@ public class TranscriptionGatewaySession
         }
     }
 
+    @Override
+    void notifyJvbRoomJoining(ChatRoom mucRoom)
+    {
+        super.notifyJvbRoomJoining(mucRoom);
+
+        ProtocolProviderService pps = mucRoom.getParentProvider();
+        if (!(pps instanceof ProtocolProviderServiceJabberImpl))
+        {
+            return;
+        }
+
+        String roomJid = mucRoom.getIdentifier() + "/";
+        roomConnection
+            = ((ProtocolProviderServiceJabberImpl) pps).getConnection();
+        roomConnection.addPacketListener(
+            presenceListener,
+            packet -> packet instanceof Presence
+                && packet.getFrom() != null
+                && packet.getFrom().regionMatches(
+                    true, 0, roomJid, 0, roomJid.length()));
+    }
+
+    /**
+     * Remember the language a member of the room told it speaks in, and give
+     * it to the transcriber
+     *
+     * @param presence the presence of a member of the room
+     */
+    private void processPresence(Presence presence)
+    {
+        String id = ConferenceMemberIndex.getMemberID(presence.getFrom());
+        if (id == null)
+        {
+            return;
+        }
+
+        String languageTag = null;
+        if (presence.isAvailable())
+        {
+            PacketExtension extension = presence.getExtension(
+                TranscriptionLanguageExtension.ELEMENT_NAME,
+                TranscriptionLanguageExtension.NAMESPACE);
+            if (extension instanceof TranscriptionLanguageExtension)
+            {
+                languageTag = ((TranscriptionLanguageExtension) extension)
+                    .getLanguageTag();
+            }
+        }
+
+        String previous = languageTag == null
+            ? memberLanguages.remove(id)
+            : memberLanguages.put(id, languageTag);
+
+        Transcriber transcriber = this.transcriber;
+        if (transcriber != null && !Objects.equals(previous, languageTag))
+        {
+            transcriber.setParticipantLanguage(id, languageTag);
+        }
+    }
+
     @Override
     void notifyMemberJoined(ChatRoomMember chatMember)
     {
         super.notifyMemberJoined(chatMember);
 
-        ConferenceMember confMember = findMatchingConferenceMember(chatMember);
-
-        if (confMember == null)
+        String id = getChatRoomMemberID(chatMember);
+        if (id == null)
         {
-            logger.debug("Starting WaitThread for joining ChatRoomMember "+
-                    chatMember.getDisplayName());
-            new WaitForConferenceMemberThread(chatMember,
-                    this::addParticipant).start();
+            return;
         }
-        else
+
+        if (conferenceMembers.get(id) == null)
         {
-            addParticipant(chatMember, confMember);
+            logger.debug("Waiting for the ConferenceMember of joining "
+                + "ChatRoomMember " + chatMember.getDisplayName());
         }
+        conferenceMembers.whenAdded(
+            id, confMember -> addParticipant(chatMember, confMember));
     }
 
     @Override
@@ -250,20 +404,25 @@ public class TranscriptionGatewaySession
     {
         super.notifyMemberLeft(chatMember);
 
-        ConferenceMember confMember = findMatchingConferenceMember(chatMember);
-
-        if (confMember == null)
+        String id = getChatRoomMemberID(chatMember);
+        if (id == null)
         {
-            logger.debug("Starting WaitThread for leaving ChatRoomMember "+
-                    chatMember.getDisplayName());
-
-            new WaitForConferenceMemberThread(chatMember,
-                    this::removeParticipant).start();
+            return;
         }
-        else
+
+        ConferenceMember confMember = conferenceMembers.remove(id);
+        if (confMember != null)
         {
             removeParticipant(chatMember, confMember);
+            return;
         }
+
+        logger.debug("Waiting for the ConferenceMember of leaving "
+            + "ChatRoomMember " + chatMember.getDisplayName());
+        conferenceMembers.whenAdded(id, added -> {
+            conferenceMembers.remove(id);
+            removeParticipant(chatMember, added);
+        });
     }
 
     @Override
@@ -273,23 +432,14 @@ public class TranscriptionGatewaySession
     }
 
     /**
-     * Find the ConferenceMember which has the same ID as the given
-     * ChatRoomMember, if any exists
+     * Get the ID of the given ChatRoomMember, which is the same as the ID of
+     * its ConferenceMember
      *
-     * @param chatMember the ChatRoomMember whose match to find
-     * @return the matching ConferenceMember of the given ChatRoomMember or
-     * null if no match found
+     * @param chatMember the ChatRoomMember whose ID to get
+     * @return the ID or null when the ChatRoomMember has no address
      */
-    private ConferenceMember findMatchingConferenceMember(
-            ChatRoomMember chatMember)
+    private String getChatRoomMemberID(ChatRoomMember chatMember)
     {
-        List<ConferenceMember> confMembers = getCurrentConferenceMembers();
-
-        if(confMembers == null)
-        {
-            logger.warn("ConferenceMember list is null");
-            return null;
-        }
         if(chatMember == null)
         {
             throw new IllegalArgumentException("ChatRoomMember is null");
@@ -298,26 +448,11 @@ public class TranscriptionGatewaySession
         // if Address of ChatRoomMember and ID of ConferenceMember are equal,
         // they are the same person
         String address = chatMember.getContactAddress();
-        logger.trace("Trying to find matching ConferenceMember with" +
-                " id " + address);
-
         if(address == null)
         {
             logger.warn("address of ChatRoomMember is null");
-            return null;
         }
-
-        for(ConferenceMember confMember : confMembers)
-        {
-            String id = getConferenceMemberID(confMember);
-            logger.trace("There is a ConferenceMember with id " + id);
-            if(address.equals(id))
-            {
-                return confMember;
-            }
-        }
-
-        return null;
+        return address;
     }
 
     /**
@@ -329,7 +464,15 @@ public class TranscriptionGatewaySession
     @Override
     public void notify(TranscriptionResult result)
     {
-        sendTranscriptionResultToRoom(result);
+        InterimResultCoalescer coalescer = interimCoalescer;
+        if (coalescer != null)
+        {
+            coalescer.notify(result);
+        }
+        else
+        {
+            sendTranscriptionResultToRoom(result);
+        }
     }
 
     /**
@@ -518,14 +661,7 @@ public class TranscriptionGatewaySession
      */
     private String getConferenceMemberID(ConferenceMember member)
     {
-        // assume address is in the form
-        // <room_name>@conference.<jitsi_meet_domain>/<some_unique_id>
-        String address = member.getAddress();
-
-        int idx = address.lastIndexOf("/");
-        return  idx > -1 && (idx + 1) < address.length() ?
-                address.substring(idx + 1) :
-                null;
+        return ConferenceMemberIndex.getMemberID(member.getAddress());
     }
 
     /**
@@ -593,103 +729,4 @@ public class TranscriptionGatewaySession
         }
     }
 
-    /**
-     * This Thread is used in the
-     * {@link TranscriptionGatewaySession#notifyMemberJoined(ChatRoomMember)}
-     * and
-     * {@link TranscriptionGatewaySession#notifyMemberLeft(ChatRoomMember)}
-     * methods to wait for a matching ConferenceMember, which might be added to
-     * the CallPeer later than the ChatRoomMember gets added to the ChatRoom
-     */
-    private class WaitForConferenceMemberThread
-        extends Thread
-    {
-        /**
-         * The maximum amount of time this thread tries to wait for a match
-         */
-        private final static int MAX_WAIT_TIME_IN_MS = 5000;
-
-        /**
-         * The amount of time this thread waits before trying to find a match
-         * again
-         */
-        private final static int ITERATION_WAIT_TIME_IN_MS = 500;
-
-        /**
-         * The ChatRooMember this thread is trying to match to a
-         * ConferenceMember
-         */
-        private ChatRoomMember chatMember;
-
-        /**
-         * The matching ConferenceMember, if found
-         */
-        private ConferenceMember confMember = null;
-
-        /**
-         * The time this thread started waiting
-         */
-        private long startTime;
-
-        /**
-         * The consumer to run when a match was found
-         */
-        private BiConsumer<ChatRoomMember, ConferenceMember> matchConsumer;
-
-        /**
-         * Create a new Thread which will try to match a ChatRoomMember
-         * to a ConferenceMember
-         *
-         * @param chatMember the ChatRoomMember to try to match
-         * @param c the consumer which will accept the match, if found
-         */
-        WaitForConferenceMemberThread(ChatRoomMember chatMember,
-                                      BiConsumer<ChatRoomMember,
-                                              ConferenceMember> c)
-        {
-            this.chatMember = chatMember;
-            this.matchConsumer = c;
-            setName(WaitForConferenceMemberThread.class.getSimpleName());
-        }
-
-        @Override
-        public void run()
-        {
-            startTime = System.currentTimeMillis();
-
-            try
-            {
-                while(confMember == null && hasTimeLeft())
-                {
-                    Thread.sleep(ITERATION_WAIT_TIME_IN_MS);
-                    confMember = findMatchingConferenceMember(chatMember);
-                }
-
-                if(confMember != null && matchConsumer != null)
-                {
-                    matchConsumer.accept(chatMember, confMember);
-                }
-                else
-                {
-                    logger.warn("WaitForConferenceMemberThread was" +
-                            "not able to find a match");
-                }
-            }
-            catch (InterruptedException e)
-            {
-                e.printStackTrace();
-            }
-        }
-
-        /**
-         * Get whether this Thread is allowed to keep looking for a match
-         *
-         * @return true if allowed to keep looking, false otherwise
-         */
-        private boolean hasTimeLeft()
-        {
-            return System.currentTimeMillis() - startTime < MAX_WAIT_TIME_IN_MS;
-        }
-    }
-
 }
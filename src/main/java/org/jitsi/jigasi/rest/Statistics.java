@@ -27,6 +27,8 @@ import javax.servlet.http.*;
 
 import org.eclipse.jetty.server.*;
 import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.transcription.*;
+import org.jitsi.jigasi.util.*;
 import org.json.simple.*;
 
 /**
@@ -95,6 +97,111 @@ public class Statistics
     public static final String TOTAL_CONFERENCE_SECONDS
         = "total_conference_seconds";
 
+    /**
+     * The name of the stat indicating the number of transcripts and actions
+     * delivered to remote services. Its runtime type is {@code Long}.
+     */
+    public static final String TRANSCRIPTION_DELIVERIES
+        = "transcription_deliveries";
+
+    /**
+     * The name of the stat indicating the number of transcripts and actions
+     * which could not be delivered to remote services. Its runtime type is
+     * {@code Long}.
+     */
+    public static final String TRANSCRIPTION_DELIVERY_FAILURES
+        = "transcription_delivery_failures";
+
+    /**
+     * The name of the stat indicating the number of transcripts and actions
+     * which were dropped because their delivery queue was full. Its runtime
+     * type is {@code Long}.
+     */
+    public static final String TRANSCRIPTION_DELIVERY_DROPS
+        = "transcription_delivery_drops";
+
+    /**
+     * The name of the stat indicating the number of retried deliveries. Its
+     * runtime type is {@code Long}.
+     */
+    public static final String TRANSCRIPTION_DELIVERY_RETRIES
+        = "transcription_delivery_retries";
+
+    /**
+     * The name of the stat indicating the number of transcripts and actions
+     * waiting to be delivered. Its runtime type is {@code Integer}.
+     */
+    public static final String TRANSCRIPTION_DELIVERY_QUEUE_SIZE
+        = "transcription_delivery_queue_size";
+
+    /**
+     * The name of the stat indicating the number of requests of audio
+     * waiting in the queues of the transcribed participants. Its runtime type
+     * is {@code Integer}.
+     */
+    public static final String TRANSCRIPTION_AUDIO_QUEUE_SIZE
+        = "transcription_audio_queue_size";
+
+    /**
+     * The name of the stat indicating the number of requests of audio
+     * dropped because the queue of a participant was full. Its runtime type
+     * is {@code Long}.
+     */
+    public static final String TRANSCRIPTION_AUDIO_DROPS
+        = "transcription_audio_drops";
+
+    /**
+     * The name of the stat indicating the number of requests of audio
+     * merged because the queue of a participant was full. Its runtime type
+     * is {@code Long}.
+     */
+    public static final String TRANSCRIPTION_AUDIO_COALESCED
+        = "transcription_audio_coalesced";
+
+    /**
+     * The name of the stat indicating the number of interim transcription
+     * results sent to the rooms. Its runtime type is {@code Long}.
+     */
+    public static final String TRANSCRIPTION_INTERIMS_SENT
+        = "transcription_interims_sent";
+
+    /**
+     * The name of the stat indicating the number of interim transcription
+     * results which were not sent to the rooms, as they did not change or
+     * were replaced by a newer one. Its runtime type is {@code Long}.
+     */
+    public static final String TRANSCRIPTION_INTERIMS_SUPPRESSED
+        = "transcription_interims_suppressed";
+
+    /**
+     * The name of the stat indicating the number of operations on calls
+     * (answer, invite, merge, hangup) which are waiting or running. Its
+     * runtime type is {@code Integer}.
+     */
+    public static final String CALL_CONTROL_QUEUE_SIZE
+        = "call_control_queue_size";
+
+    /**
+     * The name of the stat indicating the average time in ms operations on
+     * calls waited before they started. Its runtime type is {@code Long}.
+     */
+    public static final String CALL_CONTROL_AVERAGE_WAIT
+        = "call_control_average_wait_ms";
+
+    /**
+     * The name of the stat indicating the longest time in ms an operation on
+     * a call waited before it started. Its runtime type is {@code Long}.
+     */
+    public static final String CALL_CONTROL_MAX_WAIT
+        = "call_control_max_wait_ms";
+
+    /**
+     * The name of the stat indicating the number of delayed actions and
+     * timeouts waiting on the shared timer. Its runtime type is
+     * {@code Integer}.
+     */
+    public static final String TIMERS_PENDING = "timers_pending";
+
     /**
      * Total number of participants since started.
      */
@@ -150,9 +257,9 @@ public class Statistics
         int[] conferenceSizes = new int[CONFERENCE_SIZE_BUCKETS];
         Map<String,Object> stats = new HashMap<>();
 
-        stats.put(CONFERENCES, gateway.getActiveSessions().size());
+        stats.put(CONFERENCES, gateway.getSessionCount());
         int participants = 0;
-        for(SipGatewaySession ses : gateway.getActiveSessions())
+        for(SipGatewaySession ses : gateway.getSessions())
         {
             if (ses.getJvbChatRoom() == null)
             {
@@ -193,6 +300,39 @@ public class Statistics
 
         stats.put(SHUTDOWN_IN_PROGRESS, gateway.isShutdownInProgress());
 
+        // operations on calls
+        stats.put(CALL_CONTROL_QUEUE_SIZE, CallManager.getQueueSize());
+        stats.put(CALL_CONTROL_AVERAGE_WAIT, CallManager.getAverageWaitTime());
+        stats.put(CALL_CONTROL_MAX_WAIT, CallManager.getMaxWaitTime());
+        stats.put(TIMERS_PENDING, SharedTimer.getPendingTimeouts());
+
+        // delivery of transcripts and actions, when any was made
+        HttpDeliveryService delivery
+            = HttpDeliveryService.getInstanceIfCreated();
+        if (delivery != null)
+        {
+            stats.put(TRANSCRIPTION_DELIVERIES, delivery.getDeliveredCount());
+            stats.put(
+                TRANSCRIPTION_DELIVERY_FAILURES, delivery.getFailedCount());
+            stats.put(TRANSCRIPTION_DELIVERY_DROPS, delivery.getDroppedCount());
+            stats.put(
+                TRANSCRIPTION_DELIVERY_RETRIES, delivery.getRetriedCount());
+            stats.put(
+                TRANSCRIPTION_DELIVERY_QUEUE_SIZE, delivery.getQueueSize());
+        }
+
+        // audio waiting to be transcribed
+        stats.put(TRANSCRIPTION_AUDIO_QUEUE_SIZE,
+            AudioRequestQueue.getTotalQueued());
+        stats.put(TRANSCRIPTION_AUDIO_DROPS,
+            AudioRequestQueue.getTotalDropped());
+        stats.put(TRANSCRIPTION_AUDIO_COALESCED,
+            AudioRequestQueue.getTotalCoalesced());
+        stats.put(TRANSCRIPTION_INTERIMS_SENT,
+            InterimResultCoalescer.getTotalPublished());
+        stats.put(TRANSCRIPTION_INTERIMS_SUPPRESSED,
+            InterimResultCoalescer.getTotalSuppressed());
+
         response.setStatus(HttpServletResponse.SC_OK);
         new JSONObject(stats).writeJSONString(response.getWriter());
     }
@@ -0,0 +1,507 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.rest;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.time.*;
+import java.time.format.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.eclipse.jetty.server.*;
+import org.eclipse.jetty.server.handler.*;
+import org.jitsi.jigasi.transcription.*;
+import org.jitsi.util.*;
+import org.json.simple.*;
+
+/**
+ * Serves the {@link TranscriptArchive}, so clients can find transcripts and
+ * read only the part of them they need.
+ * <table>
+ *   <thead>
+ *     <tr>
+ *       <th>Resource</th>
+ *       <th>Response</th>
+ *     </tr>
+ *   </thead>
+ *   <tbody>
+ *     <tr>
+ *       <td>/archive</td>
+ *       <td>The descriptions of the transcripts, optionally only the ones
+ *       of the room given by the <tt>room</tt> parameter and overlapping the
+ *       <tt>from</tt> and <tt>to</tt> parameters (ISO-8601 instants).</td>
+ *     </tr>
+ *     <tr>
+ *       <td>/archive/&lt;id&gt;</td>
+ *       <td>The description of a transcript.</td>
+ *     </tr>
+ *     <tr>
+ *       <td>/archive/&lt;id&gt;/range</td>
+ *       <td>The index of the first event, the amount of events and the byte
+ *       range of the events between the <tt>from</tt> and <tt>to</tt>
+ *       parameters.</td>
+ *     </tr>
+ *     <tr>
+ *       <td>/archive/&lt;id&gt;/events</td>
+ *       <td>The events, one JSON object per line. Only the events between
+ *       the <tt>from</tt> and <tt>to</tt> parameters when given, otherwise
+ *       a single byte range can be requested with a <tt>Range</tt>
+ *       header.</td>
+ *     </tr>
+ *   </tbody>
+ * </table>
+ * The archive lists every transcript, so it is only served to clients which
+ * send the configured token in an <tt>Authorization: Bearer</tt> header, and
+ * not at all when no token is configured.
+ */
+public class TranscriptArchiveHandler
+    extends AbstractHandler
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger
+        = Logger.getLogger(TranscriptArchiveHandler.class);
+
+    /**
+     * The property name for the token which the clients of the archive have
+     * to send. The archive is not served when it is not set.
+     */
+    public final static String P_NAME_ARCHIVE_TOKEN
+        = "org.jitsi.jigasi.transcription.ARCHIVE_TOKEN";
+
+    /**
+     * The scheme of the <tt>Authorization</tt> header with the token.
+     */
+    private final static String BEARER_PREFIX = "Bearer ";
+
+    /**
+     * The target of the archive.
+     */
+    private final static String ARCHIVE_TARGET = "/archive";
+
+    /**
+     * The last part of the target of the byte range of a time range.
+     */
+    private final static String RANGE_TARGET = "range";
+
+    /**
+     * The last part of the target of the events.
+     */
+    private final static String EVENTS_TARGET = "events";
+
+    /**
+     * The name of the parameter with the room of the transcripts.
+     */
+    private final static String ROOM_PARAMETER = "room";
+
+    /**
+     * The name of the parameter with the start of a time range.
+     */
+    private final static String FROM_PARAMETER = "from";
+
+    /**
+     * The name of the parameter with the end of a time range.
+     */
+    private final static String TO_PARAMETER = "to";
+
+    /**
+     * The content type of the events.
+     */
+    private final static String EVENTS_CONTENT_TYPE = "application/x-ndjson";
+
+    /**
+     * The size of the buffer used to copy the events.
+     */
+    private final static int COPY_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The token which the clients have to send, or null when the archive is
+     * not served.
+     */
+    private final byte[] token;
+
+    /**
+     * Create a handler.
+     *
+     * @param token the token which the clients have to send, or null to not
+     * serve the archive
+     */
+    public TranscriptArchiveHandler(String token)
+    {
+        this.token = token == null || token.trim().isEmpty()
+            ? null : token.trim().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(String target,
+                       Request baseRequest,
+                       HttpServletRequest request,
+                       HttpServletResponse response)
+        throws IOException,
+               ServletException
+    {
+        if (target == null
+            || !(target.equals(ARCHIVE_TARGET)
+                || target.startsWith(ARCHIVE_TARGET + "/")))
+        {
+            return;
+        }
+        baseRequest.setHandled(true);
+
+        if (token == null)
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!isAuthorized(request))
+        {
+            response.setHeader("WWW-Authenticate", "Bearer");
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        if (!"GET".equals(request.getMethod()))
+        {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        Instant from;
+        Instant to;
+        try
+        {
+            from = getInstant(request, FROM_PARAMETER);
+            to = getInstant(request, TO_PARAMETER);
+        }
+        catch (DateTimeParseException e)
+        {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        String[] path = target.substring(ARCHIVE_TARGET.length()).split("/");
+        // the path starts with a slash, or is empty
+        if (path.length <= 1)
+        {
+            doGetList(request.getParameter(ROOM_PARAMETER), from, to, response);
+            return;
+        }
+
+        File directory = TranscriptArchivePublisher.getArchiveDirectory();
+        TranscriptArchive archive;
+        try
+        {
+            archive = TranscriptArchive.get(directory, path[1]);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.warn("Unable to read archived transcript " + path[1], e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+
+        if (archive == null || path.length > 3)
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        else if (path.length == 2)
+        {
+            writeJSON(archive.toJSON(), response);
+        }
+        else if (RANGE_TARGET.equals(path[2]))
+        {
+            doGetRange(archive, from, to, response);
+        }
+        else if (EVENTS_TARGET.equals(path[2]))
+        {
+            doGetEvents(archive, from, to, request, response);
+        }
+        else
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    /**
+     * Get whether a request carries the token of the archive.
+     *
+     * @param request the request
+     * @return true when it does
+     */
+    private boolean isAuthorized(HttpServletRequest request)
+    {
+        String header = request.getHeader("Authorization");
+        if (header == null || !header.startsWith(BEARER_PREFIX))
+        {
+            return false;
+        }
+
+        // compared in constant time, so the token cannot be guessed byte
+        // by byte
+        return MessageDigest.isEqual(token,
+            header.substring(BEARER_PREFIX.length()).trim()
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the descriptions of the transcripts matching a query.
+     *
+     * @param room the room of the transcripts, or null for every room
+     * @param from the transcripts have to end after this moment, or null
+     * @param to the transcripts have to start before this moment, or null
+     * @param response the response
+     * @throws IOException when writing the response fails
+     */
+    @SuppressWarnings("unchecked")
+    private void doGetList(String room,
+                           Instant from,
+                           Instant to,
+                           HttpServletResponse response)
+        throws IOException
+    {
+        JSONArray list = new JSONArray();
+        for (TranscriptArchive archive : TranscriptArchive.list(
+                TranscriptArchivePublisher.getArchiveDirectory()))
+        {
+            Instant start = archive.getStartTime();
+            Instant end = archive.getEndTime();
+            if ((room == null || room.equals(archive.getRoomName()))
+                && (from == null || end == null || !end.isBefore(from))
+                && (to == null || start == null || start.isBefore(to)))
+            {
+                list.add(archive.toJSON());
+            }
+        }
+
+        writeJSON(list, response);
+    }
+
+    /**
+     * Write the events and the byte range of a time range of a transcript.
+     *
+     * @param archive the transcript
+     * @param from the start of the time range, or null
+     * @param to the end of the time range, or null
+     * @param response the response
+     * @throws IOException when writing the response fails
+     */
+    @SuppressWarnings("unchecked")
+    private void doGetRange(TranscriptArchive archive,
+                            Instant from,
+                            Instant to,
+                            HttpServletResponse response)
+        throws IOException
+    {
+        long[] range = archive.findRange(from, to);
+
+        JSONObject json = new JSONObject();
+        json.put("first_event", range[0]);
+        json.put("events", range[1]);
+        json.put("start", range[2]);
+        json.put("end", range[3]);
+
+        writeJSON(json, response);
+    }
+
+    /**
+     * Write the events of a transcript, either of a time range or of the
+     * byte range requested by the client.
+     *
+     * @param archive the transcript
+     * @param from the start of the time range, or null
+     * @param to the end of the time range, or null
+     * @param request the request
+     * @param response the response
+     * @throws IOException when reading the events or writing the response
+     * fails
+     */
+    private void doGetEvents(TranscriptArchive archive,
+                             Instant from,
+                             Instant to,
+                             HttpServletRequest request,
+                             HttpServletResponse response)
+        throws IOException
+    {
+        response.setHeader("Accept-Ranges", "bytes");
+
+        long start;
+        long end;
+        if (from != null || to != null)
+        {
+            long[] range = archive.findRange(from, to);
+            start = range[2];
+            end = range[3];
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+        else
+        {
+            long size = archive.getReadableSize();
+            long[] range = parseRange(request.getHeader("Range"), size);
+            if (range == null)
+            {
+                start = 0;
+                end = size;
+                response.setStatus(HttpServletResponse.SC_OK);
+            }
+            else if (range.length == 0)
+            {
+                response.setHeader("Content-Range", "bytes */" + size);
+                response.setStatus(
+                    HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            else
+            {
+                start = range[0];
+                end = range[1];
+                response.setHeader("Content-Range",
+                    "bytes " + start + "-" + (end - 1) + "/" + size);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            }
+        }
+
+        response.setContentType(EVENTS_CONTENT_TYPE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setContentLengthLong(end - start);
+
+        try (RandomAccessFile file
+                = new RandomAccessFile(archive.getEventsFile(), "r"))
+        {
+            file.seek(start);
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long remaining = end - start;
+            while (remaining > 0)
+            {
+                int read = file.read(
+                    buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0)
+                {
+                    throw new EOFException(
+                        "Events of " + archive.getId() + " are truncated");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Parse the value of a <tt>Range</tt> header. Only a single byte range
+     * is supported, others are ignored.
+     *
+     * @param header the value of the header, or null
+     * @param size the size of the resource
+     * @return the start and the end (exclusive) of the range, an empty array
+     * when it cannot be satisfied, or null when the whole resource should be
+     * sent
+     */
+    static long[] parseRange(String header, long size)
+    {
+        if (header == null
+            || !header.startsWith("bytes=")
+            || header.indexOf(',') >= 0)
+        {
+            return null;
+        }
+
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+        {
+            return null;
+        }
+
+        long start;
+        long end;
+        try
+        {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty())
+            {
+                // the last bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0)
+                {
+                    return new long[0];
+                }
+                start = Math.max(0, size - suffix);
+                end = size;
+            }
+            else
+            {
+                start = Long.parseLong(first);
+                end = size;
+                if (!last.isEmpty())
+                {
+                    long lastByte = Long.parseLong(last);
+                    if (lastByte < start)
+                    {
+                        // an invalid range is ignored
+                        return null;
+                    }
+                    end = Math.min(size, lastByte + 1);
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+
+        return start < size ? new long[] { start, end } : new long[0];
+    }
+
+    /**
+     * Get an instant passed as a parameter.
+     *
+     * @param request the request
+     * @param name the name of the parameter
+     * @return the instant, or null when it is not set
+     * @throws DateTimeParseException when the parameter is not an instant
+     */
+    private static Instant getInstant(HttpServletRequest request, String name)
+    {
+        String value = request.getParameter(name);
+        return value == null || value.isEmpty() ? null : Instant.parse(value);
+    }
+
+    /**
+     * Write a JSON response.
+     *
+     * @param json the JSON to write
+     * @param response the response
+     * @throws IOException when writing the response fails
+     */
+    private static void writeJSON(JSONAware json, HttpServletResponse response)
+        throws IOException
+    {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(json.toJSONString());
+    }
+}
@@ -28,7 +28,9 @@ import org.osgi.framework.*;
  * Activate a jetty instance which is able to serve
  * {@link org.jitsi.jigasi.transcription.Transcript} which are locally stored
  * with a {@link org.jitsi.jigasi.transcription.LocalTxtTranscriptHandler} or
- * {@link org.jitsi.jigasi.transcription.LocalJsonTranscriptHandler}
+ * {@link org.jitsi.jigasi.transcription.LocalJsonTranscriptHandler}, and
+ * the live {@link TranscriptStream}s of the rooms being transcribed and the
+ * {@link TranscriptArchive}
  *
  * @author Nik Vaessen
  */
@@ -84,6 +86,13 @@ public class TranscriptServerBundleActivator
         fileHandler.setResourceBase(
             AbstractTranscriptPublisher.getLogDirPath());
 
-        return fileHandler;
+        HandlerList handlers = new HandlerList();
+        handlers.addHandler(new TranscriptStreamHandler());
+        handlers.addHandler(new TranscriptArchiveHandler(
+            JigasiBundleActivator.getConfigurationService()
+                .getString(TranscriptArchiveHandler.P_NAME_ARCHIVE_TOKEN)));
+        handlers.addHandler(fileHandler);
+
+        return handlers;
     }
 }
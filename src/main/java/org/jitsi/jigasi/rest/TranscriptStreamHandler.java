@@ -0,0 +1,560 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.rest;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.eclipse.jetty.server.*;
+import org.eclipse.jetty.server.handler.*;
+import org.jitsi.jigasi.transcription.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.util.*;
+
+/**
+ * Serves the live {@link TranscriptStream} of a room as Server-Sent Events
+ * under <tt>/stream/&lt;stream id&gt;</tt>, so clients can follow a
+ * transcription without every message going through the MUC. The id is
+ * random and only posted in the room, so the stream cannot be found from
+ * the name of the room.
+ * <p>
+ * Every event carries the id of the stream event, and a client which
+ * (re)connects with a <tt>Last-Event-ID</tt> header, or an <tt>offset</tt>
+ * parameter, gets the events which came after it as long as they are still
+ * buffered. Without either, all buffered events are replayed first. An
+ * <tt>end</tt> event is sent when the transcription of the room is over.
+ */
+public class TranscriptStreamHandler
+    extends AbstractHandler
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger
+        = Logger.getLogger(TranscriptStreamHandler.class);
+
+    /**
+     * The prefix of the targets of the streams.
+     */
+    private final static String STREAM_TARGET_PREFIX = "/stream/";
+
+    /**
+     * The name of the header with which a reconnecting client tells the id
+     * of the last event it got.
+     */
+    private final static String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    /**
+     * The name of the parameter with the id of the event after which to
+     * start.
+     */
+    private final static String OFFSET_PARAMETER = "offset";
+
+    /**
+     * The maximum amount of events read from a stream at once.
+     */
+    private final static int MAX_EVENTS_PER_READ = 64;
+
+    /**
+     * The time in ms after which a comment is sent to a client when there
+     * were no events, so broken connections are noticed.
+     */
+    private final static long HEARTBEAT_INTERVAL = 15 * 1000;
+
+    /**
+     * The time in ms after which a client which did not take what was
+     * written to it is dropped.
+     */
+    private final static long STALLED_TIMEOUT = 2 * HEARTBEAT_INTERVAL;
+
+    /**
+     * The amount of threads writing the events to the clients. The writes
+     * do not block, so a few are enough for every client.
+     */
+    private final static int WRITER_THREADS = 4;
+
+    /**
+     * The threads writing the events to the clients, created when needed.
+     */
+    private static ExecutorService writerExecutor = null;
+
+    /**
+     * Get the threads writing the events, creating them when needed.
+     *
+     * @return the executor writing the events
+     */
+    private static synchronized ExecutorService getWriterExecutor()
+    {
+        if (writerExecutor == null)
+        {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                WRITER_THREADS, WRITER_THREADS,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("transcript-stream"));
+            executor.allowCoreThreadTimeOut(true);
+            writerExecutor = executor;
+        }
+        return writerExecutor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(String target,
+                       Request baseRequest,
+                       HttpServletRequest request,
+                       HttpServletResponse response)
+        throws IOException,
+               ServletException
+    {
+        if (target == null || !target.startsWith(STREAM_TARGET_PREFIX))
+        {
+            return;
+        }
+        baseRequest.setHandled(true);
+
+        if (!"GET".equals(request.getMethod()))
+        {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        long afterId;
+        try
+        {
+            afterId = getAfterId(request);
+        }
+        catch (NumberFormatException e)
+        {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        TranscriptStream stream = TranscriptStream.getById(
+            target.substring(STREAM_TARGET_PREFIX.length()));
+        if (stream == null)
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Cache-Control", "no-cache");
+        response.flushBuffer();
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+        new Subscriber(stream, context, afterId).start();
+    }
+
+    /**
+     * Get the id of the event after which a client wants to start.
+     *
+     * @param request the request of the client
+     * @return the id, 0 to start with the first buffered event
+     * @throws NumberFormatException when the id is not a number
+     */
+    private static long getAfterId(HttpServletRequest request)
+    {
+        String id = request.getHeader(LAST_EVENT_ID_HEADER);
+        if (id == null)
+        {
+            id = request.getParameter(OFFSET_PARAMETER);
+        }
+        return id == null ? 0 : Long.parseLong(id.trim());
+    }
+
+    /**
+     * A client following a stream. The events are written with non-blocking
+     * writes on the threads of {@link #getWriterExecutor()}, one write at a
+     * time, so a slow client only delays itself. A client which has not
+     * taken what was written to it for {@link #STALLED_TIMEOUT} is dropped.
+     */
+    private static class Subscriber
+        implements TranscriptStream.Listener,
+                   AsyncListener,
+                   WriteListener
+    {
+        /**
+         * The stream which is followed.
+         */
+        private final TranscriptStream stream;
+
+        /**
+         * The asynchronous request of the client.
+         */
+        private final AsyncContext context;
+
+        /**
+         * Runs the writes to the client in order.
+         */
+        private final SerialExecutor executor
+            = new SerialExecutor(getWriterExecutor());
+
+        /**
+         * Whether a write of new events is already queued.
+         */
+        private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+        /**
+         * The output stream of the response, in non-blocking mode.
+         */
+        private ServletOutputStream out;
+
+        /**
+         * The id of the last event written to the client. Only accessed by
+         * {@link #executor}.
+         */
+        private long cursor;
+
+        /**
+         * The text which the client could not take yet, or null. Only
+         * accessed by {@link #executor}.
+         */
+        private byte[] pending;
+
+        /**
+         * The time in ms since which {@link #pending} waits. Only accessed
+         * by {@link #executor}.
+         */
+        private long pendingSince;
+
+        /**
+         * Whether what was written has to be flushed. Only accessed by
+         * {@link #executor}.
+         */
+        private boolean flushPending = false;
+
+        /**
+         * Whether the end of the stream is being written. Only accessed by
+         * {@link #executor}.
+         */
+        private boolean ending = false;
+
+        /**
+         * Sends the next heartbeat, or null.
+         */
+        private volatile HashedWheelTimer.Timeout heartbeat;
+
+        /**
+         * Whether the connection with the client is closed.
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * Create a subscriber.
+         *
+         * @param stream the stream to follow
+         * @param context the asynchronous request of the client
+         * @param afterId the id of the event after which to start
+         */
+        Subscriber(TranscriptStream stream, AsyncContext context, long afterId)
+        {
+            this.stream = stream;
+            this.context = context;
+            this.cursor = afterId;
+        }
+
+        /**
+         * Start following the stream, writing the buffered events first.
+         *
+         * @throws IOException when the output stream cannot be obtained
+         */
+        void start()
+            throws IOException
+        {
+            context.addListener(this);
+            out = context.getResponse().getOutputStream();
+            stream.addListener(this);
+            scheduleHeartbeat();
+            // the container calls onWritePossible() once it can be written
+            out.setWriteListener(this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void eventsAvailable(TranscriptStream stream)
+        {
+            if (closed || !flushQueued.compareAndSet(false, true))
+            {
+                return;
+            }
+            execute(this::write);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onWritePossible()
+        {
+            execute(this::write);
+        }
+
+        /**
+         * Run a task on {@link #executor}.
+         *
+         * @param task the task
+         */
+        private void execute(Runnable task)
+        {
+            try
+            {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e)
+            {
+                close();
+            }
+        }
+
+        /**
+         * Write as much as the client takes without blocking: the text which
+         * it could not take before, then the events which came after
+         * {@link #cursor}, then the end of the stream when it is over. Stops
+         * when the output stream is not ready, as {@link #onWritePossible()}
+         * is called once it is.
+         */
+        private void write()
+        {
+            flushQueued.set(false);
+            try
+            {
+                while (!closed)
+                {
+                    if (pending == null)
+                    {
+                        pending = readEvents();
+                        pendingSince = System.currentTimeMillis();
+                    }
+
+                    if (pending == null && !flushPending)
+                    {
+                        return;
+                    }
+                    if (!out.isReady())
+                    {
+                        return;
+                    }
+
+                    if (pending == null)
+                    {
+                        out.flush();
+                        flushPending = false;
+                        if (ending)
+                        {
+                            close();
+                        }
+                        continue;
+                    }
+
+                    out.write(pending);
+                    pending = null;
+                    flushPending = true;
+                }
+            }
+            catch (IOException | IllegalStateException e)
+            {
+                logger.debug("Transcript stream client of "
+                    + stream.getRoomName() + " went away", e);
+                close();
+            }
+        }
+
+        /**
+         * Format the next events after {@link #cursor}, or the end of the
+         * stream when it is over.
+         *
+         * @return the text to write, or null when there is nothing new
+         */
+        private byte[] readEvents()
+        {
+            if (ending)
+            {
+                return null;
+            }
+
+            // checked before reading, so the events appended before the end
+            // are all written
+            boolean ended = stream.isEnded();
+            List<TranscriptStream.Event> events
+                = stream.read(cursor, MAX_EVENTS_PER_READ);
+            StringBuilder text = new StringBuilder();
+            for (TranscriptStream.Event event : events)
+            {
+                text.append("id: ").append(event.getId()).append('\n');
+                for (String line : event.getData().split("\n"))
+                {
+                    text.append("data: ").append(line).append('\n');
+                }
+                text.append('\n');
+                cursor = event.getId();
+            }
+
+            if (events.isEmpty())
+            {
+                if (!ended)
+                {
+                    return null;
+                }
+                ending = true;
+                text.append("event: end\ndata: \n\n");
+            }
+            return text.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Send a comment to the client in a while, to notice when it went
+         * away while there are no events.
+         */
+        private void scheduleHeartbeat()
+        {
+            if (closed)
+            {
+                return;
+            }
+
+            try
+            {
+                heartbeat = SharedTimer.schedule(
+                    () -> execute(this::sendHeartbeat),
+                    HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                close();
+            }
+        }
+
+        /**
+         * Write a comment to the client, or drop it when it did not take
+         * what was written to it for too long.
+         */
+        private void sendHeartbeat()
+        {
+            if (closed)
+            {
+                return;
+            }
+
+            if (pending != null || flushPending)
+            {
+                if (System.currentTimeMillis() - pendingSince
+                    >= STALLED_TIMEOUT)
+                {
+                    logger.debug("Dropping stalled transcript stream client"
+                        + " of " + stream.getRoomName());
+                    close();
+                    return;
+                }
+            }
+            else
+            {
+                pending = ":\n\n".getBytes(StandardCharsets.UTF_8);
+                pendingSince = System.currentTimeMillis();
+                write();
+            }
+            scheduleHeartbeat();
+        }
+
+        /**
+         * Stop following the stream and end the request.
+         */
+        private void close()
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+
+            stream.removeListener(this);
+            HashedWheelTimer.Timeout heartbeat = this.heartbeat;
+            if (heartbeat != null)
+            {
+                heartbeat.cancel();
+            }
+            executor.shutdown();
+
+            try
+            {
+                context.complete();
+            }
+            catch (IllegalStateException e)
+            {
+                // already completed
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onError(Throwable t)
+        {
+            close();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            close();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            close();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            close();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.jitsi.jigasi.*;
 import org.jitsi.util.*;
 
 import java.io.*;
+import java.nio.charset.*;
 import java.nio.file.*;
 import java.time.*;
 import java.util.*;
@@ -58,6 +59,22 @@ public abstract class AbstractTranscriptPublisher<T>
     public final static String P_NAME_ADVERTISE_URL
         =  "org.jitsi.jigasi.transcription.ADVERTISE_URL";
 
+    /**
+     * Property name for the directory in which the events of a transcript
+     * are written while the conference goes on. It must not be served, as
+     * anyone knowing the URL of the final transcript could read them
+     */
+    public final static String P_NAME_SEGMENT_DIRECTORY
+        = "org.jitsi.jigasi.transcription.SEGMENT_DIRECTORY";
+
+    /**
+     * The property name for the time in ms between two syncs to disk of the
+     * events of a transcript written while the conference goes on, 0 to only
+     * sync when the conference ends
+     */
+    public final static String P_NAME_SEGMENT_SYNC_INTERVAL
+        = "org.jitsi.jigasi.transcription.SEGMENT_SYNC_INTERVAL";
+
     /**
      * The default for the url
      */
@@ -71,11 +88,31 @@ public abstract class AbstractTranscriptPublisher<T>
     public final static String TRANSCRIPT_DIRECTORY_DEFAULT_VALUE
         = "/var/lib/jigasi/transcripts";
 
+    /**
+     * The default directory of the segments, next to the transcript
+     * directory instead of in it
+     */
+    public final static String SEGMENT_DIRECTORY_DEFAULT_VALUE
+        = "/var/lib/jigasi/transcript-segments";
+
     /**
      * By default do not advertise the URL
      */
     public final static boolean ADVERTISE_URL_DEFAULT_VALUE = false;
 
+    /**
+     * By default the events of a transcript are synced to disk every second
+     */
+    public final static long SEGMENT_SYNC_INTERVAL_DEFAULT_VALUE = 1000;
+
+    /**
+     * The suffix of the file name of the segment in which the events of a
+     * transcript are written while the conference goes on. It is deleted
+     * once the transcript is published, whether or not the final transcript
+     * could be written
+     */
+    private final static String SEGMENT_FILE_SUFFIX = ".segment";
+
     /**
      * The logger of this class
      */
@@ -122,13 +159,39 @@ public abstract class AbstractTranscriptPublisher<T>
     }
 
     /**
-     * Save a transcript in a file
+     * Get the directory wherein the final transcripts should be stored,
+     * creating it when needed
      *
-     * @param transcript the transcript to save
+     * @return the directory, or null when it cannot be used
      */
-    protected void saveTranscriptToFile(String fileName, T transcript)
+    protected static File getLogDir()
     {
-        File logDir = Paths.get(getLogDirPath()).toFile();
+        return getDirectory(getLogDirPath());
+    }
+
+    /**
+     * Get the directory wherein the events of the transcripts are written
+     * while the conferences go on, creating it when needed
+     *
+     * @return the directory, or null when it cannot be used
+     */
+    protected static File getSegmentDir()
+    {
+        return getDirectory(JigasiBundleActivator.getConfigurationService()
+            .getString(P_NAME_SEGMENT_DIRECTORY,
+                SEGMENT_DIRECTORY_DEFAULT_VALUE));
+    }
+
+    /**
+     * Get a directory in which transcripts are stored, creating it when
+     * needed
+     *
+     * @param path the path of the directory
+     * @return the directory, or null when it cannot be used
+     */
+    private static File getDirectory(String path)
+    {
+        File logDir = Paths.get(path).toFile();
 
         // Try to make the directory
         if(!logDir.exists())
@@ -137,7 +200,7 @@ public abstract class AbstractTranscriptPublisher<T>
             {
                 logger.warn("Was not able to safe a transcript because" +
                     " unable to make a directory called " + logDir);
-                return;
+                return null;
             }
         }
 
@@ -147,19 +210,10 @@ public abstract class AbstractTranscriptPublisher<T>
         {
             logger.warn("Was not able to safe a transcript because" +
                 " there is a file called " + logDir);
-            return;
+            return null;
         }
 
-        File t = new File(logDir, fileName);
-        try(FileWriter writer = new FileWriter(t))
-        {
-            writer.write(transcript.toString());
-            logger.info("Wrote final transcript to " + t);
-        }
-        catch(IOException e)
-        {
-            logger.warn("Unable to write transcript to file " + t, e);
-        }
+        return logDir;
     }
 
     /**
@@ -208,6 +262,39 @@ public abstract class AbstractTranscriptPublisher<T>
      */
     abstract BaseFormatter getFormatter();
 
+    /**
+     * Format an event of a transcript to the used format
+     *
+     * @param e the event
+     * @return the event formatted in the desired type, or null when events of
+     * its type are not part of the transcript
+     */
+    protected T formatEvent(TranscriptEvent e)
+    {
+        switch (e.getEvent())
+        {
+            case SPEECH:
+                return formatSpeechEvent((SpeechEvent) e);
+            case JOIN:
+                return formatJoinEvent(e);
+            case LEAVE:
+                return formatLeaveEvent(e);
+            case RAISE_HAND:
+                return formatRaisedHandEvent(e);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Turn a formatted event into the entry stored for it in the segment of
+     * the transcript, which must end with a line separator
+     *
+     * @param formattedEvent the formatted event
+     * @return the entry
+     */
+    protected abstract String toSegmentEntry(T formattedEvent);
+
     /**
      * Format a speech event to the used format
      *
@@ -265,11 +352,6 @@ public abstract class AbstractTranscriptPublisher<T>
          */
         protected List<Participant> initialMembers = new LinkedList<>();
 
-        /**
-         * A map which maps a timestamp to the given event type
-         */
-        protected Map<TranscriptEvent, T> formattedEvents = new HashMap<>();
-
         /**
          * Format a transcript which includes when it started.
          * Ignored when the given event does not have the event type
@@ -316,88 +398,6 @@ public abstract class AbstractTranscriptPublisher<T>
             return this;
         }
 
-        /**
-         * Format a transcript which includes what everyone who was transcribed
-         * said. Ignored when the given event does not have the event type
-         * {@link Transcript.TranscriptEventType#SPEECH}
-         *
-         * @param events a list of events containing the transcriptions
-         * @return this formatter
-         */
-        BaseFormatter speechEvents(List<SpeechEvent> events)
-        {
-            for(SpeechEvent e : events)
-            {
-                if(e.getEvent().equals(Transcript.TranscriptEventType.SPEECH))
-                {
-                    formattedEvents.put(e, formatSpeechEvent(e));
-                }
-            }
-            return this;
-        }
-
-        /**
-         * Format a transcript which includes when anyone joined the conference.
-         * Ignored when the given event does not have the event type
-         * {@link Transcript.TranscriptEventType#JOIN}
-         *
-         * @param events a list of events containing the transcriptions
-         * @return this formatter
-         */
-        BaseFormatter joinEvents(List<TranscriptEvent> events)
-        {
-            for(TranscriptEvent e : events)
-            {
-                if(e.getEvent().equals(Transcript.TranscriptEventType.JOIN))
-                {
-                    formattedEvents.put(e, formatJoinEvent(e));
-                }
-            }
-            return this;
-        }
-
-        /**
-         * Format a transcript which includes when anyone left the conference.
-         * Ignored when the given event does not have the event type
-         * {@link Transcript.TranscriptEventType#LEAVE}
-         *
-         * @param events a list of events containing the transcriptions
-         * @return this formatter
-         */
-        BaseFormatter leaveEvents(List<TranscriptEvent> events)
-        {
-            for(TranscriptEvent e : events)
-            {
-                if(e.getEvent().equals(Transcript.TranscriptEventType.LEAVE))
-                {
-                    formattedEvents.put(e, formatLeaveEvent(e));
-                }
-            }
-            return this;
-        }
-
-
-        /**
-         * Format a transcript which includes when anyone raised their hand
-         * to speak. Ignored when the given event does not have the event type
-         * {@link Transcript.TranscriptEventType#RAISE_HAND}
-         *
-         * @param events a list of events containing the transcriptions
-         * @return this formatter
-         */
-        BaseFormatter raiseHandEvents(List<TranscriptEvent> events)
-        {
-            for(TranscriptEvent e : events)
-            {
-                if(e.getEvent().equals(
-                    Transcript.TranscriptEventType.RAISE_HAND))
-                {
-                    formattedEvents.put(e, formatRaisedHandEvent(e));
-                }
-            }
-            return this;
-        }
-
         /**
          * Format a transcript which includes when it ended. Ignored when the
          * given event does not have the event type
@@ -419,37 +419,42 @@ public abstract class AbstractTranscriptPublisher<T>
 
 
         /**
-         * Get all the events which were added to this formatter in their
-         * formatted version, sorted earliest to latest event
+         * Finish the formatting by writing the formatted transcript, with the
+         * events read from the segment they were stored in
          *
-         * @return the sorted list
+         * @param events the segment holding the formatted events, or null
+         * when there were none
+         * @param writer the writer of the transcript
+         * @throws IOException when reading the events or writing the
+         * transcript fails
          */
-        protected List<T> getSortedEvents()
-        {
-            List<TranscriptEvent> sortedKeys =
-                new ArrayList<>(formattedEvents.keySet());
-            Collections.sort(sortedKeys);
-
-            List<T> sortedEvents = new ArrayList<>(sortedKeys.size());
-            for(TranscriptEvent event : sortedKeys)
-            {
-                sortedEvents.add(formattedEvents.get(event));
-            }
-
-            return sortedEvents;
-        }
-
-        /**
-         * Finish the formatting by returning the formatted transcript
-         *
-         * @return the transcript
-         */
-        abstract T finish();
+        abstract void write(TranscriptSegment events, Writer writer)
+            throws IOException;
     }
 
+    /**
+     * A promise which stores the events of the transcript in a segment as
+     * they are recorded, and assembles the final transcript from it once
+     * the conference is over
+     */
     public abstract class BasePromise
         implements Promise
     {
+        /**
+         * The segment holding the formatted events, opened with the first
+         * event
+         */
+        private TranscriptSegment segment = null;
+
+        /**
+         * Whether the segment could not be opened
+         */
+        private boolean segmentFailed = false;
+
+        /**
+         * Whether {@link this#publish(Transcript)} has already been called once
+         */
+        private boolean published = false;
 
         @Override
         public boolean hasDescription()
@@ -464,6 +469,113 @@ public abstract class AbstractTranscriptPublisher<T>
                 getBaseURL() + getFileName() + ".\n";
         }
 
+        @Override
+        public synchronized void recorded(TranscriptEvent event)
+        {
+            if (published)
+            {
+                return;
+            }
+
+            T formattedEvent = formatEvent(event);
+            if (formattedEvent == null)
+            {
+                return;
+            }
+
+            if (segment == null && !segmentFailed)
+            {
+                segment = openSegment();
+                segmentFailed = segment == null;
+            }
+            if (segment != null)
+            {
+                segment.append(toSegmentEntry(formattedEvent));
+            }
+        }
+
+        @Override
+        public synchronized void publish(Transcript transcript)
+        {
+            if (published)
+            {
+                return;
+            }
+            published = true;
+
+            try
+            {
+                if (segment != null)
+                {
+                    try
+                    {
+                        segment.close();
+                    }
+                    catch (IOException e)
+                    {
+                        logger.warn("Transcript segment " + segment.getFile()
+                            + " is incomplete", e);
+                    }
+                }
+
+                File logDir = getLogDir();
+                if (logDir == null)
+                {
+                    return;
+                }
+
+                File t = new File(logDir, getFileName());
+                try (Writer writer = Files.newBufferedWriter(
+                        t.toPath(), StandardCharsets.UTF_8))
+                {
+                    transcript.writeTranscript(
+                        AbstractTranscriptPublisher.this, segment, writer);
+                    logger.info("Wrote final transcript to " + t);
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Unable to write transcript to file " + t, e);
+                }
+            }
+            finally
+            {
+                if (segment != null)
+                {
+                    segment.delete();
+                }
+            }
+        }
+
+        /**
+         * Open the segment for the events of the transcript, in the segment
+         * directory, which is not served
+         *
+         * @return the segment, or null when it cannot be opened
+         */
+        private TranscriptSegment openSegment()
+        {
+            File segmentDir = getSegmentDir();
+            if (segmentDir == null)
+            {
+                return null;
+            }
+
+            File file
+                = new File(segmentDir, getFileName() + SEGMENT_FILE_SUFFIX);
+            long syncInterval = JigasiBundleActivator.getConfigurationService()
+                .getLong(P_NAME_SEGMENT_SYNC_INTERVAL,
+                    SEGMENT_SYNC_INTERVAL_DEFAULT_VALUE);
+            try
+            {
+                return new TranscriptSegment(file, syncInterval);
+            }
+            catch (IOException e)
+            {
+                logger.warn("Unable to open transcript segment " + file, e);
+                return null;
+            }
+        }
+
         /**
          * Get the file name which will be used to store the {@link Transcript}
          *
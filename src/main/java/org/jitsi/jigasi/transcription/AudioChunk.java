@@ -0,0 +1,170 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A reference counted piece of audio with a fixed capacity. Chunks are
+ * normally obtained from an {@link AudioChunkPool} and go back to it once
+ * every holder has called {@link #release()}, which allows the audio of a
+ * {@link Participant} to travel all the way to the
+ * {@link TranscriptionService} without being copied again.
+ * <p>
+ * A newly acquired chunk has a reference count of 1, owned by whoever
+ * acquired it. Ownership moves along with the chunk; every additional holder
+ * should call {@link #retain()} and later {@link #release()}.
+ */
+public class AudioChunk
+{
+    /**
+     * The pool this chunk should be returned to, or null when this chunk
+     * is not pooled.
+     */
+    private final AudioChunkPool pool;
+
+    /**
+     * The backing array holding the audio.
+     */
+    private final byte[] data;
+
+    /**
+     * The amount of bytes in {@link #data} which contain audio.
+     */
+    private int length;
+
+    /**
+     * The amount of holders of this chunk.
+     */
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    /**
+     * Create an empty chunk which belongs to the given pool.
+     *
+     * @param pool the pool to return to once released
+     * @param capacity the maximum amount of bytes this chunk can hold
+     */
+    AudioChunk(AudioChunkPool pool, int capacity)
+    {
+        this.pool = pool;
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Create a chunk which is not pooled and wraps the given audio. The
+     * array is not copied.
+     *
+     * @param audio the audio to wrap
+     */
+    public AudioChunk(byte[] audio)
+    {
+        this.pool = null;
+        this.data = audio;
+        this.length = audio.length;
+        this.refCount.set(1);
+    }
+
+    /**
+     * Prepare this chunk to be handed out again by its pool.
+     */
+    void reset()
+    {
+        length = 0;
+        refCount.set(1);
+    }
+
+    /**
+     * Copy as much of the given audio as fits into the remaining space of
+     * this chunk.
+     *
+     * @param audio the array holding the audio to copy
+     * @param offset the offset of the audio in the array
+     * @param len the amount of bytes of audio
+     * @return the amount of bytes which were copied
+     */
+    int append(byte[] audio, int offset, int len)
+    {
+        int toCopy = Math.min(len, remaining());
+        System.arraycopy(audio, offset, data, length, toCopy);
+        length += toCopy;
+
+        return toCopy;
+    }
+
+    /**
+     * Get the backing array of this chunk. Only the first
+     * {@link #getLength()} bytes contain audio.
+     *
+     * @return the backing array
+     */
+    public byte[] getData()
+    {
+        return data;
+    }
+
+    /**
+     * Get the amount of bytes of audio in this chunk.
+     *
+     * @return the amount of bytes of audio
+     */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Get the amount of bytes which can still be appended to this chunk.
+     *
+     * @return the amount of free bytes
+     */
+    public int remaining()
+    {
+        return data.length - length;
+    }
+
+    /**
+     * Add a holder to this chunk.
+     *
+     * @return this chunk
+     */
+    public AudioChunk retain()
+    {
+        refCount.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Remove a holder of this chunk. When the last holder is gone the chunk is
+     * given back to its pool and its content must not be accessed anymore.
+     */
+    public void release()
+    {
+        int count = refCount.decrementAndGet();
+        if (count == 0)
+        {
+            if (pool != null)
+            {
+                pool.recycle(this);
+            }
+        }
+        else if (count < 0)
+        {
+            throw new IllegalStateException("AudioChunk released too often");
+        }
+    }
+}
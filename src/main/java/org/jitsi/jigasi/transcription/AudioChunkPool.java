@@ -0,0 +1,105 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A pool of {@link AudioChunk}s of equal capacity. Chunks which are released
+ * by all their holders are kept for reuse, up to a maximum amount, so the
+ * audio of busy conferences does not have to be reallocated every 500 ms.
+ */
+public class AudioChunkPool
+{
+    /**
+     * The capacity in bytes of every chunk handed out by this pool.
+     */
+    private final int chunkSize;
+
+    /**
+     * The chunks which are ready to be handed out again.
+     */
+    private final BlockingQueue<AudioChunk> freeChunks;
+
+    /**
+     * The amount of chunks this pool had to allocate.
+     */
+    private final AtomicLong allocatedCount = new AtomicLong();
+
+    /**
+     * Create a new pool.
+     *
+     * @param chunkSize the capacity in bytes of every chunk
+     * @param maxPooledChunks the maximum amount of released chunks to keep
+     */
+    public AudioChunkPool(int chunkSize, int maxPooledChunks)
+    {
+        this.chunkSize = chunkSize;
+        this.freeChunks = new ArrayBlockingQueue<>(maxPooledChunks);
+    }
+
+    /**
+     * Get an empty chunk, which is owned by the caller until it is released.
+     *
+     * @return an empty chunk with a reference count of 1
+     */
+    public AudioChunk acquire()
+    {
+        AudioChunk chunk = freeChunks.poll();
+        if (chunk == null)
+        {
+            allocatedCount.incrementAndGet();
+            chunk = new AudioChunk(this, chunkSize);
+        }
+
+        chunk.reset();
+        return chunk;
+    }
+
+    /**
+     * Take back a chunk which has no holders anymore. When the pool is full
+     * the chunk is left to the garbage collector.
+     *
+     * @param chunk the chunk to take back
+     */
+    void recycle(AudioChunk chunk)
+    {
+        freeChunks.offer(chunk);
+    }
+
+    /**
+     * Get the capacity of the chunks of this pool.
+     *
+     * @return the capacity in bytes
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Get the amount of chunks this pool allocated since it was created.
+     *
+     * @return the amount of allocated chunks
+     */
+    public long getAllocatedCount()
+    {
+        return allocatedCount.get();
+    }
+}
@@ -0,0 +1,810 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.jitsi.jigasi.util.*;
+import org.jitsi.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The bounded queue of the audio of a {@link Participant} which has not been
+ * given to its {@link TranscriptionService.StreamingRecognitionSession} yet.
+ * <p>
+ * The queue is drained on an executor, so the mixing thread never waits for
+ * the transcription service. Only a few requests are handed to the session
+ * at a time: when the session does not keep up, e.g. because the service
+ * became slow, the audio piles up here, where it is bounded, instead of in
+ * the session. When the queue is full, room is made according to its
+ * {@link OverflowPolicy}.
+ */
+public class AudioRequestQueue
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger
+        = Logger.getLogger(AudioRequestQueue.class);
+
+    /**
+     * What to do with the queued audio when a request is added to a full
+     * queue.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * Drop the oldest request.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Drop the oldest request which does not contain speech, or the
+         * oldest one when they all do.
+         */
+        DROP_SILENCE,
+
+        /**
+         * Merge the oldest two requests which fit in
+         * {@link #MAX_COALESCED_LENGTH}, so no audio is lost. The oldest
+         * request is dropped when no two requests can be merged.
+         */
+        COALESCE
+    }
+
+    /**
+     * The maximum amount of requests given to the session which it has not
+     * sent yet.
+     */
+    private final static int MAX_SESSION_BACKLOG = 2;
+
+    /**
+     * The delay in ms after which to try again to give requests to a
+     * session which has too many unsent requests.
+     */
+    private final static long BACKLOG_RETRY_DELAY_MS = 20;
+
+    /**
+     * The maximum length in bytes of a request made by merging requests.
+     */
+    final static int MAX_COALESCED_LENGTH = 256 * 1024;
+
+    /**
+     * The amount of requests in all queues.
+     */
+    private final static AtomicInteger totalQueued = new AtomicInteger();
+
+    /**
+     * The amount of requests dropped by all queues.
+     */
+    private final static AtomicLong totalDropped = new AtomicLong();
+
+    /**
+     * The amount of requests merged by all queues.
+     */
+    private final static AtomicLong totalCoalesced = new AtomicLong();
+
+    /**
+     * Receives the audio taken from the queue.
+     */
+    public interface Sink
+    {
+        /**
+         * Take what is needed to send the next request, e.g. a stream
+         * shared with other participants. Called before each request is
+         * taken from the queue, without holding the lock of the queue. When
+         * the sink can not send now, it has to call {@link #wake()} once it
+         * can.
+         *
+         * @return true when the sink can send a request
+         */
+        boolean acquire();
+
+        /**
+         * Get the amount of requests which were given to {@link #send} but
+         * have not been sent to the transcription service yet.
+         *
+         * @return the amount of unsent requests
+         */
+        int getBacklog();
+
+        /**
+         * Send a request. The sink takes over its ownership.
+         *
+         * @param request the request
+         */
+        void send(TranscriptionRequest request);
+
+        /**
+         * Called when the participant stopped speaking, after the audio
+         * which was queued before.
+         */
+        void endOfSpeech();
+
+        /**
+         * Called when the participant left, after the audio which was queued
+         * before. Also called for every end which was queued when the queue
+         * can not be drained anymore, so the session is not left open.
+         */
+        void end();
+    }
+
+    /**
+     * The maximum amount of requests in the queue.
+     */
+    private final int capacity;
+
+    /**
+     * What to do when the queue is full.
+     */
+    private final OverflowPolicy policy;
+
+    /**
+     * The executor on which the queue is drained.
+     */
+    private final Executor executor;
+
+    /**
+     * Receives the audio.
+     */
+    private final Sink sink;
+
+    /**
+     * Decides whether a request contains speech for
+     * {@link OverflowPolicy#DROP_SILENCE}.
+     */
+    private final VoiceActivityDetector detector
+        = new EnergyVoiceActivityDetector();
+
+    /**
+     * The queued requests and markers, oldest first. Also used
+     * as the lock of the state of the queue.
+     */
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    /**
+     * The amount of requests in {@link #entries}.
+     */
+    private int size = 0;
+
+    /**
+     * Whether the queue is being drained or is scheduled to be drained.
+     */
+    private boolean draining = false;
+
+    /**
+     * Whether {@link #wake()} was called while the queue was being drained.
+     */
+    private boolean woken = false;
+
+    /**
+     * Whether the queue has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * The amount of requests dropped by this queue.
+     */
+    private volatile long dropped = 0;
+
+    /**
+     * The amount of requests merged by this queue.
+     */
+    private volatile long coalesced = 0;
+
+    /**
+     * The drainer, as a field so it is not allocated for every drain.
+     */
+    private final Runnable drainer = this::drain;
+
+    /**
+     * Create a queue.
+     *
+     * @param capacity the maximum amount of requests in the queue
+     * @param policy what to do when the queue is full
+     * @param executor the executor on which the queue is drained
+     * @param sink receives the audio
+     */
+    public AudioRequestQueue(int capacity,
+                             OverflowPolicy policy,
+                             Executor executor,
+                             Sink sink)
+    {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.executor = executor;
+        this.sink = sink;
+    }
+
+    /**
+     * Get the amount of requests in all queues.
+     *
+     * @return the amount of queued requests
+     */
+    public static int getTotalQueued()
+    {
+        return totalQueued.get();
+    }
+
+    /**
+     * Get the amount of requests dropped by all queues because they were
+     * full.
+     *
+     * @return the amount of dropped requests
+     */
+    public static long getTotalDropped()
+    {
+        return totalDropped.get();
+    }
+
+    /**
+     * Get the amount of requests merged by all queues because they were
+     * full.
+     *
+     * @return the amount of merged requests
+     */
+    public static long getTotalCoalesced()
+    {
+        return totalCoalesced.get();
+    }
+
+    /**
+     * Add a request at the end of the queue. The queue takes over its
+     * ownership.
+     *
+     * @param request the request
+     */
+    public void offer(TranscriptionRequest request)
+    {
+        List<TranscriptionRequest> toRelease = null;
+        boolean schedule;
+        synchronized (entries)
+        {
+            if (closed)
+            {
+                toRelease = Collections.singletonList(request);
+                schedule = false;
+            }
+            else
+            {
+                while (size >= capacity)
+                {
+                    if (toRelease == null)
+                    {
+                        toRelease = new ArrayList<>();
+                    }
+                    makeRoom(toRelease);
+                }
+
+                entries.add(new Entry(request, false));
+                size++;
+                totalQueued.incrementAndGet();
+                schedule = startDraining();
+            }
+        }
+
+        if (toRelease != null)
+        {
+            toRelease.forEach(TranscriptionRequest::release);
+        }
+        if (schedule)
+        {
+            schedule();
+        }
+    }
+
+    /**
+     * Tell the sink the participant stopped speaking, after the audio which
+     * is queued.
+     */
+    public void offerEndOfSpeech()
+    {
+        offerMarker(false);
+    }
+
+    /**
+     * Tell the sink the participant left, after the audio which is queued.
+     */
+    public void offerEnd()
+    {
+        offerMarker(true);
+    }
+
+    /**
+     * Add a marker at the end of the queue.
+     *
+     * @param end true for the end of the participant, false for the end of
+     * speech
+     */
+    private void offerMarker(boolean end)
+    {
+        boolean schedule;
+        boolean wasClosed;
+        synchronized (entries)
+        {
+            wasClosed = closed;
+            if (wasClosed)
+            {
+                schedule = false;
+            }
+            else
+            {
+                entries.add(new Entry(null, end));
+                schedule = startDraining();
+            }
+        }
+
+        if (schedule)
+        {
+            schedule();
+        }
+        else if (wasClosed && end)
+        {
+            // no audio can precede it anymore, and the session must not be
+            // left open
+            deliverEnds(1);
+        }
+    }
+
+    /**
+     * Drain the queue again after the sink could not send, as it can now.
+     */
+    public void wake()
+    {
+        synchronized (entries)
+        {
+            if (closed || entries.isEmpty())
+            {
+                return;
+            }
+            if (!startDraining())
+            {
+                // the drainer may be asking the sink right now
+                woken = true;
+                return;
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Drop the queued audio and stop accepting new audio.
+     */
+    public void close()
+    {
+        closeAndCountEnds();
+    }
+
+    /**
+     * Drop the queued audio and stop accepting new audio.
+     *
+     * @return the amount of ends of the participant which were dropped
+     */
+    private int closeAndCountEnds()
+    {
+        List<TranscriptionRequest> toRelease = new ArrayList<>();
+        int ends = 0;
+        synchronized (entries)
+        {
+            closed = true;
+            for (Entry entry : entries)
+            {
+                if (entry.request != null)
+                {
+                    toRelease.add(entry.request);
+                }
+                else if (entry.end)
+                {
+                    ends++;
+                }
+            }
+            entries.clear();
+            totalQueued.addAndGet(-size);
+            size = 0;
+        }
+        toRelease.forEach(TranscriptionRequest::release);
+        return ends;
+    }
+
+    /**
+     * Close the queue as it can not be drained anymore. The audio is lost,
+     * but the sink is still told the participant ended, so its session is
+     * not left open.
+     */
+    private void abandon()
+    {
+        int lost = getSize();
+        int ends = closeAndCountEnds();
+        if (lost > 0)
+        {
+            logger.warn("Dropped " + lost + " requests of an audio queue"
+                + " which can not be drained anymore");
+        }
+
+        deliverEnds(ends);
+    }
+
+    /**
+     * Tell the sink the participant ended, without going through the
+     * queue.
+     *
+     * @param ends the amount of ends to deliver
+     */
+    private void deliverEnds(int ends)
+    {
+        for (int i = 0; i < ends; i++)
+        {
+            try
+            {
+                sink.end();
+            }
+            catch (Exception e)
+            {
+                logger.error("Failed to end the participant", e);
+            }
+        }
+    }
+
+    /**
+     * Get the amount of queued requests.
+     *
+     * @return the amount of requests
+     */
+    public int getSize()
+    {
+        synchronized (entries)
+        {
+            return size;
+        }
+    }
+
+    /**
+     * Get the amount of requests dropped by this queue because it was full.
+     *
+     * @return the amount of dropped requests
+     */
+    public long getDroppedCount()
+    {
+        return dropped;
+    }
+
+    /**
+     * Get the amount of requests merged by this queue because it was full.
+     *
+     * @return the amount of merged requests
+     */
+    public long getCoalescedCount()
+    {
+        return coalesced;
+    }
+
+    /**
+     * Remove a request from the full queue, according to the policy.
+     * Must be called with the lock held.
+     *
+     * @param toRelease receives the requests to release
+     */
+    private void makeRoom(List<TranscriptionRequest> toRelease)
+    {
+        if (policy == OverflowPolicy.COALESCE && coalesceOldest(toRelease))
+        {
+            coalesced++;
+            totalCoalesced.incrementAndGet();
+        }
+        else
+        {
+            Entry entry = policy == OverflowPolicy.DROP_SILENCE
+                ? findOldestSilence() : null;
+            if (entry == null)
+            {
+                entry = findOldestRequest();
+            }
+
+            entries.remove(entry);
+            toRelease.add(entry.request);
+            dropped++;
+            totalDropped.incrementAndGet();
+        }
+
+        size--;
+        totalQueued.decrementAndGet();
+    }
+
+    /**
+     * Find the oldest request.
+     *
+     * @return the oldest entry holding a request
+     */
+    private Entry findOldestRequest()
+    {
+        for (Entry entry : entries)
+        {
+            if (entry.request != null)
+            {
+                return entry;
+            }
+        }
+        throw new IllegalStateException("No request in a full queue");
+    }
+
+    /**
+     * Find the oldest request which does not contain speech.
+     *
+     * @return the entry, or null when every request contains speech
+     */
+    private Entry findOldestSilence()
+    {
+        for (Entry entry : entries)
+        {
+            if (entry.request != null && !entry.containsSpeech())
+            {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Merge the oldest two consecutive requests of the same language and
+     * format which fit in {@link #MAX_COALESCED_LENGTH}.
+     *
+     * @param toRelease receives the merged requests
+     * @return true when two requests were merged
+     */
+    private boolean coalesceOldest(List<TranscriptionRequest> toRelease)
+    {
+        Entry previous = null;
+        for (Entry entry : entries)
+        {
+            if (entry.request == null)
+            {
+                // audio is not merged across the end of an utterance
+                previous = null;
+                continue;
+            }
+
+            if (previous != null && canMerge(previous.request, entry.request))
+            {
+                previous.request = merge(previous.request, entry.request);
+                previous.speech = null;
+                entries.remove(entry);
+                toRelease.add(entry.request);
+                return true;
+            }
+            previous = entry;
+        }
+        return false;
+    }
+
+    /**
+     * Get whether two requests can be merged.
+     *
+     * @param first the first request
+     * @param second the request following it
+     * @return true when they have the same language and format and fit in
+     * {@link #MAX_COALESCED_LENGTH}
+     */
+    private static boolean canMerge(
+        TranscriptionRequest first, TranscriptionRequest second)
+    {
+        return first.getAudioLength() + second.getAudioLength()
+                <= MAX_COALESCED_LENGTH
+            && first.getLocale().equals(second.getLocale())
+            && first.getFormat().equals(second.getFormat());
+    }
+
+    /**
+     * Merge two requests into a new one. The first request is released, the
+     * second one has to be released by the caller.
+     *
+     * @param first the first request
+     * @param second the request following it
+     * @return the merged request
+     */
+    private static TranscriptionRequest merge(
+        TranscriptionRequest first, TranscriptionRequest second)
+    {
+        int firstLength = first.getAudioLength();
+        byte[] audio = new byte[firstLength + second.getAudioLength()];
+        System.arraycopy(first.getAudio(), 0, audio, 0, firstLength);
+        System.arraycopy(second.getAudio(), 0,
+            audio, firstLength, second.getAudioLength());
+
+        TranscriptionRequest merged = new TranscriptionRequest(
+            audio, first.getFormat(), first.getLocale());
+        first.release();
+        return merged;
+    }
+
+    /**
+     * Mark the queue as being drained. Must be called with the lock held.
+     *
+     * @return true when the drainer has to be scheduled
+     */
+    private boolean startDraining()
+    {
+        if (draining)
+        {
+            return false;
+        }
+        draining = true;
+        return true;
+    }
+
+    /**
+     * Give the drainer to the executor.
+     */
+    private void schedule()
+    {
+        try
+        {
+            executor.execute(drainer);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the transcriber is done with the participant
+            abandon();
+        }
+    }
+
+    /**
+     * Give the queued audio to the sink, as long as it has not too many
+     * unsent requests. The sink is asked without holding the lock, so the
+     * mixing thread adding audio never waits for it.
+     */
+    private void drain()
+    {
+        while (true)
+        {
+            Entry entry;
+            synchronized (entries)
+            {
+                entry = entries.peek();
+                if (entry == null || closed)
+                {
+                    draining = false;
+                    return;
+                }
+                woken = false;
+            }
+
+            if (entry.request != null)
+            {
+                if (!sink.acquire())
+                {
+                    synchronized (entries)
+                    {
+                        if (woken)
+                        {
+                            // the sink could send again in the meantime
+                            continue;
+                        }
+                        // the sink wakes the queue once it can send
+                        draining = false;
+                        return;
+                    }
+                }
+                if (sink.getBacklog() >= MAX_SESSION_BACKLOG)
+                {
+                    // keep the audio here, where it is bounded, and try
+                    // again once the session had time to send
+                    break;
+                }
+            }
+
+            TranscriptionRequest request;
+            synchronized (entries)
+            {
+                if (entries.peek() != entry)
+                {
+                    // dropped to make room in the meantime
+                    continue;
+                }
+
+                entries.poll();
+                request = entry.request;
+                if (request != null)
+                {
+                    size--;
+                    totalQueued.decrementAndGet();
+                }
+            }
+
+            try
+            {
+                if (request != null)
+                {
+                    sink.send(request);
+                }
+                else if (entry.end)
+                {
+                    sink.end();
+                }
+                else
+                {
+                    sink.endOfSpeech();
+                }
+            }
+            catch (Exception e)
+            {
+                logger.error("Failed to send queued audio", e);
+            }
+        }
+
+        try
+        {
+            SharedTimer.schedule(
+                this::schedule, BACKLOG_RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // jigasi is shutting down
+            abandon();
+        }
+    }
+
+    /**
+     * A queued request, or a marker of the end of speech or of the
+     * participant.
+     */
+    private class Entry
+    {
+        /**
+         * The request, or null for a marker.
+         */
+        TranscriptionRequest request;
+
+        /**
+         * Whether the marker is the end of the participant.
+         */
+        final boolean end;
+
+        /**
+         * Whether the request contains speech, null until known.
+         */
+        Boolean speech;
+
+        /**
+         * Create an entry.
+         *
+         * @param request the request, or null for a marker
+         * @param end whether the marker is the end of the participant
+         */
+        Entry(TranscriptionRequest request, boolean end)
+        {
+            this.request = request;
+            this.end = end;
+        }
+
+        /**
+         * Get whether the request contains speech.
+         *
+         * @return true when it does
+         */
+        boolean containsSpeech()
+        {
+            if (speech == null)
+            {
+                speech = detector.isSpeech(request.getAudio(), 0,
+                    request.getAudioLength(), request.getFormat());
+            }
+            return speech;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import javax.media.format.*;
+import java.util.*;
+
+/**
+ * Converts 16 bit linear audio to mono audio with a lower sample rate, so
+ * less audio has to be sent to the {@link TranscriptionService}. Speech
+ * recognizers do not need more than 16 kHz, while the mixer delivers 48 kHz.
+ * <p>
+ * The channels are averaged and the sample rate is converted by a polyphase
+ * filter: the rate is changed by the ratio <tt>L / M</tt> of the output and
+ * the input rate, which is the same as inserting <tt>L - 1</tt> zeros
+ * between the input samples, filtering out everything above the lowest of
+ * the two Nyquist frequencies and keeping every <tt>M</tt>th sample. Only the
+ * output samples which are kept are computed and the inserted zeros are
+ * skipped, so every output sample costs {@link #TAPS_PER_PHASE}
+ * multiplications.
+ * <p>
+ * The filter and the history are allocated once, so converting audio does
+ * not allocate. An instance keeps the history of the stream it converts and
+ * must therefore be used for a single stream, by one thread at a time.
+ */
+public class AudioResampler
+{
+    /**
+     * The amount of input samples every output sample is computed from.
+     */
+    private final static int TAPS_PER_PHASE = 24;
+
+    /**
+     * The cutoff of the filter relative to the lowest Nyquist frequency,
+     * leaving room for the transition band so it does not alias.
+     */
+    private final static double CUTOFF = 0.9;
+
+    /**
+     * The format of the converted audio.
+     */
+    private final AudioFormat outputFormat;
+
+    /**
+     * The amount of channels of the input.
+     */
+    private final int channels;
+
+    /**
+     * Whether the input samples are big endian.
+     */
+    private final boolean bigEndian;
+
+    /**
+     * The factor by which the input is upsampled.
+     */
+    private final int up;
+
+    /**
+     * The factor by which the upsampled input is downsampled.
+     */
+    private final int down;
+
+    /**
+     * The coefficients of the filter, by phase. The coefficients of a phase
+     * are the ones applied to the input samples, newest first, for output
+     * samples falling on that phase of the upsampled stream.
+     */
+    private final float[][] filter;
+
+    /**
+     * The last {@link #TAPS_PER_PHASE} mono input samples, twice, so the
+     * newest samples can always be read as a contiguous range.
+     */
+    private final float[] history = new float[2 * TAPS_PER_PHASE];
+
+    /**
+     * The position in {@link #history} at which the next sample is written.
+     */
+    private int historyPosition = 0;
+
+    /**
+     * The phase of the next output sample in the upsampled stream,
+     * relative to the newest input sample.
+     */
+    private int phase = 0;
+
+    /**
+     * Create a resampler.
+     *
+     * @param inputFormat the format of the audio to convert, which has to be
+     * 16 bit linear audio
+     * @param outputSampleRate the sample rate of the converted audio, which
+     * must not be higher than the one of the input
+     * @throws IllegalArgumentException when the formats are not supported
+     */
+    public AudioResampler(AudioFormat inputFormat, int outputSampleRate)
+    {
+        int inputSampleRate = (int) inputFormat.getSampleRate();
+        if (inputFormat.getSampleSizeInBits() != 16)
+        {
+            throw new IllegalArgumentException(
+                "Only 16 bit audio can be resampled: " + inputFormat);
+        }
+        if (outputSampleRate <= 0 || outputSampleRate > inputSampleRate)
+        {
+            throw new IllegalArgumentException("Cannot resample "
+                + inputSampleRate + " Hz audio to " + outputSampleRate + " Hz");
+        }
+
+        this.channels = Math.max(1, inputFormat.getChannels());
+        this.bigEndian = inputFormat.getEndian() == AudioFormat.BIG_ENDIAN;
+
+        int gcd = gcd(inputSampleRate, outputSampleRate);
+        this.up = outputSampleRate / gcd;
+        this.down = inputSampleRate / gcd;
+        this.filter = createFilter(up, down);
+
+        this.outputFormat = new AudioFormat(
+            AudioFormat.LINEAR,
+            outputSampleRate,
+            16,
+            1,
+            AudioFormat.LITTLE_ENDIAN,
+            AudioFormat.SIGNED);
+    }
+
+    /**
+     * Get the format of the converted audio, which is 16 bit little endian
+     * mono audio.
+     *
+     * @return the output format
+     */
+    public AudioFormat getOutputFormat()
+    {
+        return outputFormat;
+    }
+
+    /**
+     * Get the maximum amount of bytes {@link #process} writes for the given
+     * amount of input bytes.
+     *
+     * @param inputLength the amount of input bytes
+     * @return the maximum amount of output bytes
+     */
+    public int getMaxOutputLength(int inputLength)
+    {
+        long samples = inputLength / (2 * channels);
+        return 2 * (int) ((samples * up) / down + 1);
+    }
+
+    /**
+     * Forget the audio converted so far, e.g. because the next audio does
+     * not follow it.
+     */
+    public void reset()
+    {
+        Arrays.fill(history, 0);
+        historyPosition = 0;
+        phase = 0;
+    }
+
+    /**
+     * Convert audio.
+     *
+     * @param input the array holding the audio to convert
+     * @param inputOffset the offset of the audio in <tt>input</tt>
+     * @param inputLength the amount of bytes to convert, which should be a
+     * multiple of the frame size of the input
+     * @param output the array receiving the converted audio, which needs to
+     * have room for {@link #getMaxOutputLength(int)} bytes
+     * @param outputOffset the offset at which to write in <tt>output</tt>
+     * @return the amount of bytes written to <tt>output</tt>
+     */
+    public int process(byte[] input, int inputOffset, int inputLength,
+                       byte[] output, int outputOffset)
+    {
+        int frameSize = 2 * channels;
+        int frames = inputLength / frameSize;
+        int out = outputOffset;
+
+        for (int i = 0, pos = inputOffset; i < frames; i++, pos += frameSize)
+        {
+            int sum = 0;
+            for (int c = 0, p = pos; c < channels; c++, p += 2)
+            {
+                sum += bigEndian
+                    ? (input[p] << 8) | (input[p + 1] & 0xff)
+                    : (input[p + 1] << 8) | (input[p] & 0xff);
+            }
+
+            // the sample is stored twice, so the newest TAPS_PER_PHASE
+            // samples always start at historyPosition, newest last
+            float sample = (float) sum / channels;
+            history[historyPosition] = sample;
+            history[historyPosition + TAPS_PER_PHASE] = sample;
+            historyPosition = (historyPosition + 1) % TAPS_PER_PHASE;
+
+            for (; phase < up; phase += down)
+            {
+                float[] coefficients = filter[phase];
+                float value = 0;
+                int newest = historyPosition + TAPS_PER_PHASE - 1;
+                for (int k = 0; k < TAPS_PER_PHASE; k++)
+                {
+                    value += coefficients[k] * history[newest - k];
+                }
+
+                int converted = Math.round(value);
+                if (converted > Short.MAX_VALUE)
+                {
+                    converted = Short.MAX_VALUE;
+                }
+                else if (converted < Short.MIN_VALUE)
+                {
+                    converted = Short.MIN_VALUE;
+                }
+
+                output[out++] = (byte) converted;
+                output[out++] = (byte) (converted >> 8);
+            }
+            phase -= up;
+        }
+
+        return out - outputOffset;
+    }
+
+    /**
+     * Create the coefficients of a windowed sinc low-pass filter for the
+     * upsampled stream, split by phase.
+     *
+     * @param up the factor by which the input is upsampled
+     * @param down the factor by which the upsampled input is downsampled
+     * @return the coefficients by phase
+     */
+    private static float[][] createFilter(int up, int down)
+    {
+        int length = up * TAPS_PER_PHASE;
+        double cutoff = CUTOFF * 0.5 / Math.max(up, down);
+        double center = (length - 1) / 2.0;
+
+        float[][] filter = new float[up][TAPS_PER_PHASE];
+        for (int n = 0; n < length; n++)
+        {
+            double x = n - center;
+            double sinc = x == 0
+                ? 2 * cutoff
+                : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double window = 0.42
+                - 0.5 * Math.cos(2 * Math.PI * n / (length - 1))
+                + 0.08 * Math.cos(4 * Math.PI * n / (length - 1));
+
+            // the gain compensates for the inserted zeros
+            filter[n % up][n / up] = (float) (up * sinc * window);
+        }
+        return filter;
+    }
+
+    /**
+     * Get the greatest common divisor of two positive numbers.
+     *
+     * @param a the first number
+     * @param b the second number
+     * @return the greatest common divisor
+     */
+    private static int gcd(int a, int b)
+    {
+        while (b != 0)
+        {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
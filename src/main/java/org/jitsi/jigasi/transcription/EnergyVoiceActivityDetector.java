@@ -0,0 +1,121 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import javax.media.format.*;
+
+/**
+ * A {@link VoiceActivityDetector} looking at the energy and the zero-crossing
+ * rate of a frame of 16 bit linear audio. A frame is considered to contain
+ * speech when it is loud enough and does not cross zero so often that it is
+ * more likely to be noise (e.g. hiss or the comfort noise of a muted
+ * client).
+ * <p>
+ * When audio has more than one channel only the first one is looked at.
+ */
+public class EnergyVoiceActivityDetector
+    implements VoiceActivityDetector
+{
+    /**
+     * The default root mean square amplitude a frame needs to have to be
+     * considered speech, on the scale of 16 bit samples.
+     */
+    public final static int ENERGY_THRESHOLD_DEFAULT_VALUE = 400;
+
+    /**
+     * The default maximum ratio of consecutive samples with a different sign
+     * for a frame to be considered speech.
+     */
+    public final static double MAX_ZERO_CROSSING_RATE_DEFAULT_VALUE = 0.35;
+
+    /**
+     * The squared root mean square amplitude a frame needs to have.
+     */
+    private final long energyThresholdSquared;
+
+    /**
+     * The maximum zero-crossing rate of a frame.
+     */
+    private final double maxZeroCrossingRate;
+
+    /**
+     * Create a detector with the default thresholds.
+     */
+    public EnergyVoiceActivityDetector()
+    {
+        this(ENERGY_THRESHOLD_DEFAULT_VALUE,
+            MAX_ZERO_CROSSING_RATE_DEFAULT_VALUE);
+    }
+
+    /**
+     * Create a detector with the given thresholds.
+     *
+     * @param energyThreshold the root mean square amplitude a frame needs to
+     * have to be considered speech
+     * @param maxZeroCrossingRate the maximum ratio, between 0 and 1, of
+     * consecutive samples with a different sign
+     */
+    public EnergyVoiceActivityDetector(
+        int energyThreshold, double maxZeroCrossingRate)
+    {
+        this.energyThresholdSquared = (long) energyThreshold * energyThreshold;
+        this.maxZeroCrossingRate = maxZeroCrossingRate;
+    }
+
+    @Override
+    public boolean isSpeech(
+        byte[] audio, int offset, int length, AudioFormat format)
+    {
+        int channels = Math.max(1, format.getChannels());
+        int frameSize = 2 * channels;
+        int samples = length / frameSize;
+        if (samples == 0)
+        {
+            return false;
+        }
+
+        boolean bigEndian = format.getEndian() == AudioFormat.BIG_ENDIAN;
+
+        long sumOfSquares = 0;
+        int zeroCrossings = 0;
+        boolean wasNegative = false;
+        for (int i = 0, pos = offset; i < samples; i++, pos += frameSize)
+        {
+            int sample = bigEndian
+                ? (audio[pos] << 8) | (audio[pos + 1] & 0xff)
+                : (audio[pos + 1] << 8) | (audio[pos] & 0xff);
+
+            sumOfSquares += sample * sample;
+
+            boolean negative = sample < 0;
+            if (i > 0 && negative != wasNegative)
+            {
+                zeroCrossings++;
+            }
+            wasNegative = negative;
+        }
+
+        if (sumOfSquares < energyThresholdSquared * samples)
+        {
+            return false;
+        }
+
+        return samples == 1
+            || zeroCrossings <= maxZeroCrossingRate * (samples - 1);
+    }
+}
@@ -0,0 +1,735 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import javax.media.format.*;
+import java.util.*;
+
+/**
+ * Encodes 16 bit linear audio to a FLAC stream, which is about half the size
+ * of the raw audio for speech and is accepted by the speech-to-text APIs.
+ * <p>
+ * The encoder is kept simple and fast rather than producing the smallest
+ * possible stream: every channel is coded independently, either as a
+ * constant (e.g. digital silence), with the best of the fixed polynomial
+ * predictors of FLAC, or verbatim when prediction does not help. The
+ * residual of the predictor is Rice coded in partitions whose parameters
+ * are estimated from their mean. The stream uses the variable block size
+ * strategy, so every request can be encoded into its own frames.
+ * <p>
+ * The buffers are allocated once, so encoding does not allocate after the
+ * first frames. An instance must be used by one thread at a time. The
+ * encoded bytes are returned in {@link #getData()}, which is overwritten by
+ * the next call.
+ */
+public class FlacEncoder
+{
+    /**
+     * The maximum amount of samples per channel in a frame. FLAC decoders
+     * for streams only need to support 4608 samples for audio up to 48 kHz.
+     */
+    final static int MAX_BLOCK_SIZE = 4096;
+
+    /**
+     * The highest order of the fixed predictors of FLAC.
+     */
+    private final static int MAX_FIXED_ORDER = 4;
+
+    /**
+     * The highest partition order tried for the residual.
+     */
+    private final static int MAX_PARTITION_ORDER = 6;
+
+    /**
+     * The highest Rice parameter of the 4 bit Rice coding method.
+     */
+    private final static int MAX_RICE_PARAMETER = 14;
+
+    /**
+     * The sample rates which have their own code in a frame header, indexed
+     * by the code.
+     */
+    private final static int[] SAMPLE_RATE_CODES = {
+        0, 88200, 176400, 192000, 8000, 16000, 22050, 24000, 32000, 44100,
+        48000, 96000
+    };
+
+    /**
+     * The table of the CRC-8 of the frame headers, with polynomial
+     * x^8 + x^2 + x^1 + x^0.
+     */
+    private final static int[] CRC8_TABLE = createCrcTable(0x07, 8);
+
+    /**
+     * The table of the CRC-16 of the frames, with polynomial
+     * x^16 + x^15 + x^2 + x^0.
+     */
+    private final static int[] CRC16_TABLE = createCrcTable(0x8005, 16);
+
+    /**
+     * The sample rate of the audio.
+     */
+    private final int sampleRate;
+
+    /**
+     * The amount of channels of the audio.
+     */
+    private final int channels;
+
+    /**
+     * Whether the samples of the audio are big endian.
+     */
+    private final boolean bigEndian;
+
+    /**
+     * Collects the encoded bits.
+     */
+    private final BitWriter writer = new BitWriter();
+
+    /**
+     * The samples of the current frame, by channel.
+     */
+    private final int[][] samples;
+
+    /**
+     * The zigzag encoded residual of the predictor of the current subframe.
+     */
+    private final int[] residual = new int[MAX_BLOCK_SIZE];
+
+    /**
+     * The Rice parameters of the partitions of the current subframe.
+     */
+    private final int[] riceParameters = new int[1 << MAX_PARTITION_ORDER];
+
+    /**
+     * The sums of the absolute residuals of the fixed predictors, by order.
+     */
+    private final long[] residualSums = new long[MAX_FIXED_ORDER + 1];
+
+    /**
+     * The number of the first sample of the next frame.
+     */
+    private long sampleNumber = 0;
+
+    /**
+     * Create an encoder.
+     *
+     * @param format the format of the audio, which has to be 16 bit linear
+     * audio with at most 8 channels
+     * @throws IllegalArgumentException when the format is not supported
+     */
+    public FlacEncoder(AudioFormat format)
+    {
+        if (format.getSampleSizeInBits() != 16
+            || format.getChannels() > 8
+            || format.getSampleRate() <= 0)
+        {
+            throw new IllegalArgumentException(
+                "Only 16 bit audio can be encoded to FLAC: " + format);
+        }
+
+        this.sampleRate = (int) format.getSampleRate();
+        this.channels = Math.max(1, format.getChannels());
+        this.bigEndian = format.getEndian() == AudioFormat.BIG_ENDIAN;
+        this.samples = new int[channels][MAX_BLOCK_SIZE];
+    }
+
+    /**
+     * Get the bytes written by the last call to {@link #encodeStreamHeader()}
+     * or {@link #encode(byte[], int, int)}.
+     *
+     * @return the array holding the encoded bytes, from index 0
+     */
+    public byte[] getData()
+    {
+        return writer.buffer;
+    }
+
+    /**
+     * Encode the header which has to precede the frames of a stream: the
+     * FLAC marker and the stream info. It can be written again to start a
+     * new stream.
+     *
+     * @return the amount of bytes of the header in {@link #getData()}
+     */
+    public int encodeStreamHeader()
+    {
+        writer.reset();
+
+        writer.write('f', 8);
+        writer.write('L', 8);
+        writer.write('a', 8);
+        writer.write('C', 8);
+
+        // last metadata block, of type STREAMINFO, 34 bytes long
+        writer.write(1, 1);
+        writer.write(0, 7);
+        writer.write(34, 24);
+
+        // the block sizes vary, the frame sizes, the amount of samples and
+        // the MD5 of the audio are unknown
+        writer.write(16, 16);
+        writer.write(MAX_BLOCK_SIZE, 16);
+        writer.write(0, 24);
+        writer.write(0, 24);
+        writer.write(sampleRate, 20);
+        writer.write(channels - 1, 3);
+        writer.write(15, 5);
+        writer.write(0, 4);
+        writer.write(0, 32);
+        for (int i = 0; i < 4; i++)
+        {
+            writer.write(0, 32);
+        }
+
+        return writer.length();
+    }
+
+    /**
+     * Encode audio into frames.
+     *
+     * @param audio the array holding the audio
+     * @param offset the offset of the audio in the array
+     * @param length the amount of bytes of audio, which should be a
+     * multiple of the frame size of the audio
+     * @return the amount of bytes of the frames in {@link #getData()}
+     */
+    public int encode(byte[] audio, int offset, int length)
+    {
+        writer.reset();
+
+        int frameSize = 2 * channels;
+        int remaining = length / frameSize;
+        while (remaining > 0)
+        {
+            int blockSize = Math.min(remaining, MAX_BLOCK_SIZE);
+            readSamples(audio, offset, blockSize);
+            writeFrame(blockSize);
+
+            offset += blockSize * frameSize;
+            remaining -= blockSize;
+        }
+
+        return writer.length();
+    }
+
+    /**
+     * Split interleaved audio into the samples of every channel.
+     *
+     * @param audio the array holding the audio
+     * @param offset the offset of the audio in the array
+     * @param blockSize the amount of samples per channel to read
+     */
+    private void readSamples(byte[] audio, int offset, int blockSize)
+    {
+        for (int i = 0, pos = offset; i < blockSize; i++)
+        {
+            for (int c = 0; c < channels; c++, pos += 2)
+            {
+                samples[c][i] = bigEndian
+                    ? (audio[pos] << 8) | (audio[pos + 1] & 0xff)
+                    : (audio[pos + 1] << 8) | (audio[pos] & 0xff);
+            }
+        }
+    }
+
+    /**
+     * Write a frame holding the samples read by {@link #readSamples}.
+     *
+     * @param blockSize the amount of samples per channel
+     */
+    private void writeFrame(int blockSize)
+    {
+        int frameStart = writer.length();
+
+        // sync code, reserved bit and the variable block size strategy
+        writer.write(0x3ffe, 14);
+        writer.write(0, 1);
+        writer.write(1, 1);
+
+        // the block size is given in 16 bits after the sample number
+        writer.write(7, 4);
+
+        int sampleRateCode = getSampleRateCode();
+        writer.write(sampleRateCode, 4);
+
+        // independent channels, 16 bits per sample, reserved bit
+        writer.write(channels - 1, 4);
+        writer.write(4, 3);
+        writer.write(0, 1);
+
+        writeUtf8(sampleNumber);
+        writer.write(blockSize - 1, 16);
+        if (sampleRateCode == 12)
+        {
+            writer.write(sampleRate / 1000, 8);
+        }
+        else if (sampleRateCode == 13)
+        {
+            writer.write(sampleRate, 16);
+        }
+        else if (sampleRateCode == 14)
+        {
+            writer.write(sampleRate / 10, 16);
+        }
+        writer.write(writer.crc(CRC8_TABLE, 8, frameStart), 8);
+
+        for (int c = 0; c < channels; c++)
+        {
+            writeSubframe(samples[c], blockSize);
+        }
+
+        writer.alignToByte();
+        writer.write(writer.crc(CRC16_TABLE, 16, frameStart), 16);
+
+        sampleNumber = (sampleNumber + blockSize) & 0xfffffffffL;
+    }
+
+    /**
+     * Get the code of the sample rate in a frame header.
+     *
+     * @return the code
+     */
+    private int getSampleRateCode()
+    {
+        for (int code = 1; code < SAMPLE_RATE_CODES.length; code++)
+        {
+            if (SAMPLE_RATE_CODES[code] == sampleRate)
+            {
+                return code;
+            }
+        }
+
+        if (sampleRate % 1000 == 0 && sampleRate / 1000 <= 0xff)
+        {
+            return 12;
+        }
+        if (sampleRate <= 0xffff)
+        {
+            return 13;
+        }
+        if (sampleRate % 10 == 0 && sampleRate / 10 <= 0xffff)
+        {
+            return 14;
+        }
+        // taken from the stream info
+        return 0;
+    }
+
+    /**
+     * Write a number in the UTF-8 like coding of FLAC frame headers.
+     *
+     * @param value the number, of at most 36 bits
+     */
+    private void writeUtf8(long value)
+    {
+        if (value < 0x80)
+        {
+            writer.write((int) value, 8);
+            return;
+        }
+
+        int bytes = 2;
+        while (bytes < 7 && value >= 1L << (5 * bytes + 1))
+        {
+            bytes++;
+        }
+
+        int shift = 6 * (bytes - 1);
+        int prefix = (0xff00 >> bytes) & 0xff;
+        writer.write(prefix | (int) (value >>> shift), 8);
+        while (shift > 0)
+        {
+            shift -= 6;
+            writer.write(0x80 | (int) ((value >>> shift) & 0x3f), 8);
+        }
+    }
+
+    /**
+     * Write the subframe of a channel, choosing the smallest coding.
+     *
+     * @param channel the samples of the channel
+     * @param blockSize the amount of samples
+     */
+    private void writeSubframe(int[] channel, int blockSize)
+    {
+        boolean constant = true;
+        for (int i = 1; i < blockSize && constant; i++)
+        {
+            constant = channel[i] == channel[0];
+        }
+
+        if (constant)
+        {
+            writer.write(0, 1);
+            writer.write(0, 6);
+            writer.write(0, 1);
+            writer.write(channel[0], 16);
+            return;
+        }
+
+        int order = chooseFixedOrder(channel, blockSize);
+        computeResidual(channel, blockSize, order);
+        int partitionOrder = choosePartitionOrder(blockSize, order);
+        long bits = 16L * order + 6
+            + estimateResidualBits(blockSize, order, partitionOrder);
+
+        if (bits >= 16L * blockSize)
+        {
+            // prediction does not help, e.g. for noise
+            writer.write(0, 1);
+            writer.write(1, 6);
+            writer.write(0, 1);
+            for (int i = 0; i < blockSize; i++)
+            {
+                writer.write(channel[i], 16);
+            }
+            return;
+        }
+
+        writer.write(0, 1);
+        writer.write(8 | order, 6);
+        writer.write(0, 1);
+        for (int i = 0; i < order; i++)
+        {
+            writer.write(channel[i], 16);
+        }
+
+        // Rice coding with 4 bit parameters
+        writer.write(0, 2);
+        writer.write(partitionOrder, 4);
+
+        // estimateResidualBits left the parameters of this order
+        int partitions = 1 << partitionOrder;
+        int partitionSize = blockSize >> partitionOrder;
+        int i = order;
+        for (int p = 0; p < partitions; p++)
+        {
+            int k = riceParameters[p];
+            writer.write(k, 4);
+            for (int end = (p + 1) * partitionSize; i < end; i++)
+            {
+                writer.writeRice(residual[i], k);
+            }
+        }
+    }
+
+    /**
+     * Choose the fixed predictor with the smallest sum of the absolute
+     * values of its residual.
+     *
+     * @param channel the samples
+     * @param blockSize the amount of samples
+     * @return the order of the predictor
+     */
+    private int chooseFixedOrder(int[] channel, int blockSize)
+    {
+        int maxOrder = Math.min(MAX_FIXED_ORDER, blockSize - 1);
+        long[] sums = residualSums;
+        Arrays.fill(sums, 0);
+        for (int i = MAX_FIXED_ORDER; i < blockSize; i++)
+        {
+            int e0 = channel[i];
+            int e1 = e0 - channel[i - 1];
+            int e2 = e1 - (channel[i - 1] - channel[i - 2]);
+            int e3 = e2 - (channel[i - 1] - 2 * channel[i - 2]
+                + channel[i - 3]);
+            int e4 = e3 - (channel[i - 1] - 3 * channel[i - 2]
+                + 3 * channel[i - 3] - channel[i - 4]);
+            sums[0] += Math.abs(e0);
+            sums[1] += Math.abs(e1);
+            sums[2] += Math.abs(e2);
+            sums[3] += Math.abs(e3);
+            sums[4] += Math.abs(e4);
+        }
+
+        int best = 0;
+        for (int order = 1; order <= maxOrder; order++)
+        {
+            if (sums[order] < sums[best])
+            {
+                best = order;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compute the zigzag encoded residual of a fixed predictor into
+     * {@link #residual}.
+     *
+     * @param channel the samples
+     * @param blockSize the amount of samples
+     * @param order the order of the predictor
+     */
+    private void computeResidual(int[] channel, int blockSize, int order)
+    {
+        for (int i = order; i < blockSize; i++)
+        {
+            int prediction;
+            switch (order)
+            {
+            case 0:
+                prediction = 0;
+                break;
+            case 1:
+                prediction = channel[i - 1];
+                break;
+            case 2:
+                prediction = 2 * channel[i - 1] - channel[i - 2];
+                break;
+            case 3:
+                prediction = 3 * channel[i - 1] - 3 * channel[i - 2]
+                    + channel[i - 3];
+                break;
+            default:
+                prediction = 4 * channel[i - 1] - 6 * channel[i - 2]
+                    + 4 * channel[i - 3] - channel[i - 4];
+                break;
+            }
+
+            int error = channel[i] - prediction;
+            residual[i] = (error << 1) ^ (error >> 31);
+        }
+    }
+
+    /**
+     * Choose the partition order which makes the Rice coded residual the
+     * smallest.
+     *
+     * @param blockSize the amount of samples
+     * @param order the order of the predictor
+     * @return the partition order
+     */
+    private int choosePartitionOrder(int blockSize, int order)
+    {
+        int best = 0;
+        long bestBits = Long.MAX_VALUE;
+        for (int partitionOrder = 0;
+                partitionOrder <= MAX_PARTITION_ORDER;
+                partitionOrder++)
+        {
+            if ((blockSize & ((1 << partitionOrder) - 1)) != 0
+                || (blockSize >> partitionOrder) <= order)
+            {
+                break;
+            }
+
+            long bits = estimateResidualBits(blockSize, order, partitionOrder);
+            if (bits < bestBits)
+            {
+                best = partitionOrder;
+                bestBits = bits;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the Rice parameters of the partitions of the residual and
+     * the amount of bits of the coded residual. The parameters are left in
+     * {@link #riceParameters}.
+     *
+     * @param blockSize the amount of samples
+     * @param order the order of the predictor
+     * @param partitionOrder the partition order
+     * @return the amount of bits of the coded residual
+     */
+    private long estimateResidualBits(
+        int blockSize, int order, int partitionOrder)
+    {
+        int partitions = 1 << partitionOrder;
+        int partitionSize = blockSize >> partitionOrder;
+        long bits = 0;
+        int i = order;
+        for (int p = 0; p < partitions; p++)
+        {
+            int start = i;
+            int end = (p + 1) * partitionSize;
+            long sum = 0;
+            for (; i < end; i++)
+            {
+                sum += residual[i];
+            }
+
+            int count = end - start;
+            int k = 0;
+            if (count > 0)
+            {
+                long mean = sum / count;
+                while (k < MAX_RICE_PARAMETER && (mean >> k) > 0)
+                {
+                    k++;
+                }
+            }
+            riceParameters[p] = k;
+
+            bits += 4 + (long) count * (k + 1);
+            for (int j = start; j < end; j++)
+            {
+                bits += residual[j] >>> k;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Create the table of a CRC with the given polynomial.
+     *
+     * @param polynomial the polynomial, without its highest term
+     * @param width the width of the CRC in bits
+     * @return the table, indexed by the byte which is added
+     */
+    private static int[] createCrcTable(int polynomial, int width)
+    {
+        int topBit = 1 << (width - 1);
+        int mask = (1 << width) - 1;
+        int[] table = new int[256];
+        for (int b = 0; b < 256; b++)
+        {
+            int crc = b << (width - 8);
+            for (int bit = 0; bit < 8; bit++)
+            {
+                crc = (crc & topBit) != 0 ? (crc << 1) ^ polynomial : crc << 1;
+            }
+            table[b] = crc & mask;
+        }
+        return table;
+    }
+
+    /**
+     * Writes bits most significant first into a growing array.
+     */
+    private static class BitWriter
+    {
+        /**
+         * The array holding the written bytes.
+         */
+        byte[] buffer = new byte[4096];
+
+        /**
+         * The amount of complete bytes written to {@link #buffer}.
+         */
+        private int position = 0;
+
+        /**
+         * The bits which do not make a complete byte yet, in the lowest
+         * {@link #cacheBits} bits.
+         */
+        private long cache = 0;
+
+        /**
+         * The amount of bits in {@link #cache}.
+         */
+        private int cacheBits = 0;
+
+        /**
+         * Forget everything written so far.
+         */
+        void reset()
+        {
+            position = 0;
+            cache = 0;
+            cacheBits = 0;
+        }
+
+        /**
+         * Get the amount of complete bytes written.
+         *
+         * @return the amount of bytes
+         */
+        int length()
+        {
+            return position;
+        }
+
+        /**
+         * Write the lowest bits of a value.
+         *
+         * @param value the value
+         * @param bits the amount of bits to write, at most 32
+         */
+        void write(int value, int bits)
+        {
+            cache = (cache << bits) | (value & ((1L << bits) - 1));
+            cacheBits += bits;
+            while (cacheBits >= 8)
+            {
+                cacheBits -= 8;
+                if (position == buffer.length)
+                {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                }
+                buffer[position++] = (byte) (cache >>> cacheBits);
+            }
+        }
+
+        /**
+         * Write a Rice coded value: the higher bits in unary and the lowest
+         * <tt>k</tt> bits as they are.
+         *
+         * @param value the zigzag encoded value
+         * @param k the Rice parameter
+         */
+        void writeRice(int value, int k)
+        {
+            int quotient = value >>> k;
+            while (quotient >= 32)
+            {
+                write(0, 32);
+                quotient -= 32;
+            }
+            write(1, quotient + 1);
+            if (k > 0)
+            {
+                write(value, k);
+            }
+        }
+
+        /**
+         * Pad the last byte with zeros.
+         */
+        void alignToByte()
+        {
+            if (cacheBits > 0)
+            {
+                write(0, 8 - cacheBits);
+            }
+        }
+
+        /**
+         * Compute a CRC over the complete bytes written since a position.
+         *
+         * @param table the table of the CRC
+         * @param width the width of the CRC in bits
+         * @param start the position of the first byte
+         * @return the CRC
+         */
+        int crc(int[] table, int width, int start)
+        {
+            int mask = (1 << width) - 1;
+            int crc = 0;
+            for (int i = start; i < position; i++)
+            {
+                int index = ((crc >>> (width - 8)) ^ buffer[i]) & 0xff;
+                crc = ((crc << 8) ^ table[index]) & mask;
+            }
+            return crc;
+        }
+    }
+}
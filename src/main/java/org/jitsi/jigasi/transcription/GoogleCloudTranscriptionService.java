@@ -18,11 +18,13 @@
 package org.jitsi.jigasi.transcription;
 
 import com.google.api.gax.grpc.*;
-import com.google.auth.oauth2.*;
 import com.google.cloud.speech.spi.v1.*;
 import com.google.cloud.speech.v1.*;
 import com.google.protobuf.*;
+import org.jitsi.jigasi.*;
 import org.jitsi.jigasi.transcription.action.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.service.configuration.*;
 import org.jitsi.util.*;
 
 import javax.media.format.*;
@@ -145,6 +147,13 @@ public class GoogleCloudTranscriptionService
             "cmn-Hans-CN",
         };
 
+    /**
+     * The set of {@link #SUPPORTED_LANGUAGE_TAGS}, to validate language tags
+     * without scanning the array
+     */
+    private final static Set<String> SUPPORTED_LANGUAGE_TAG_SET
+        = new HashSet<>(Arrays.asList(SUPPORTED_LANGUAGE_TAGS));
+
     /**
      * The logger for this class
      */
@@ -164,12 +173,6 @@ public class GoogleCloudTranscriptionService
      */
     private final static boolean RETRIEVE_INTERIM_RESULTS = true;
 
-    /**
-     * Whether the Google Cloud API only listens for a single utterance
-     * or continuous to listen once an utterance is over
-     */
-    private final static boolean SINGLE_UTTERANCE_ONLY = true;
-
     /**
      * The amount of ms after which a StreamingRecognize session will be closed
      * when no new audio is given. This is to make sure the session retrieves
@@ -178,6 +181,142 @@ public class GoogleCloudTranscriptionService
      */
     private final static int STREAMING_SESSION_TIMEOUT_MS = 2000;
 
+    /**
+     * The property name for the amount of threads shared by all streaming
+     * sessions to send their audio
+     */
+    public final static String P_NAME_SESSION_THREADS
+        = "org.jitsi.jigasi.transcription.google.SESSION_THREADS";
+
+    /**
+     * The default amount of threads shared by all streaming sessions, which
+     * only hand audio over to gRPC and thus do not need many threads
+     */
+    public final static int SESSION_THREADS_DEFAULT_VALUE
+        = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The property name for whether a stream is kept open across utterances
+     * instead of being closed after every final result
+     */
+    public final static String P_NAME_CONTINUOUS_STREAMING
+        = "org.jitsi.jigasi.transcription.google.CONTINUOUS_STREAMING";
+
+    /**
+     * The property name for the age in ms after which a continuous stream is
+     * replaced by a new one at the end of the next utterance
+     */
+    public final static String P_NAME_STREAM_ROTATION_INTERVAL
+        = "org.jitsi.jigasi.transcription.google.STREAM_ROTATION_INTERVAL";
+
+    /**
+     * The property name for the maximum duration in ms of a stream, after
+     * which the API closes it
+     */
+    public final static String P_NAME_MAX_STREAM_DURATION
+        = "org.jitsi.jigasi.transcription.google.MAX_STREAM_DURATION";
+
+    /**
+     * The property name for the time in ms during which the audio is sent to
+     * both the old and the new stream when a continuous stream has to be
+     * replaced in the middle of an utterance
+     */
+    public final static String P_NAME_STREAM_OVERLAP
+        = "org.jitsi.jigasi.transcription.google.STREAM_OVERLAP";
+
+    /**
+     * By default a stream only lives for a single utterance
+     */
+    public final static boolean CONTINUOUS_STREAMING_DEFAULT_VALUE = false;
+
+    /**
+     * The default age after which a continuous stream is replaced at the end
+     * of an utterance
+     */
+    public final static long STREAM_ROTATION_INTERVAL_DEFAULT_VALUE
+        = 45 * 1000;
+
+    /**
+     * The default maximum duration of a stream, a bit less than the limit of
+     * the API of about a minute
+     */
+    public final static long MAX_STREAM_DURATION_DEFAULT_VALUE = 55 * 1000;
+
+    /**
+     * The default overlap of an old and a new stream
+     */
+    public final static long STREAM_OVERLAP_DEFAULT_VALUE = 1000;
+
+    /**
+     * The property name for the amount of streams kept open and configured
+     * for every language in use, so the first words of an utterance do not
+     * wait for a stream to be opened
+     */
+    public final static String P_NAME_WARM_STREAMS
+        = "org.jitsi.jigasi.transcription.google.WARM_STREAMS";
+
+    /**
+     * The property name for the age in ms after which a stream which is
+     * kept warm is replaced, before the API closes it for not getting audio
+     */
+    public final static String P_NAME_WARM_STREAM_MAX_AGE
+        = "org.jitsi.jigasi.transcription.google.WARM_STREAM_MAX_AGE";
+
+    /**
+     * By default no streams are kept warm
+     */
+    public final static int WARM_STREAMS_DEFAULT_VALUE = 0;
+
+    /**
+     * The default maximum age of a warm stream
+     */
+    public final static long WARM_STREAM_MAX_AGE_DEFAULT_VALUE = 5000;
+
+    /**
+     * The property name for the encoding in which the audio is sent to the
+     * API: {@link #AUDIO_ENCODING_LINEAR16} or {@link #AUDIO_ENCODING_FLAC}
+     */
+    public final static String P_NAME_AUDIO_ENCODING
+        = "org.jitsi.jigasi.transcription.google.AUDIO_ENCODING";
+
+    /**
+     * The encoding of audio which is sent as it is read
+     */
+    public final static String AUDIO_ENCODING_LINEAR16 = "LINEAR16";
+
+    /**
+     * The encoding of audio which is compressed to FLAC before it is sent
+     */
+    public final static String AUDIO_ENCODING_FLAC = "FLAC";
+
+    /**
+     * By default the audio is sent as it is read
+     */
+    public final static String AUDIO_ENCODING_DEFAULT_VALUE
+        = AUDIO_ENCODING_LINEAR16;
+
+    /**
+     * The time in ms after which streams are not kept warm anymore for a
+     * configuration which has not been used
+     */
+    private final static long KEEP_WARM_MS = 60 * 1000;
+
+    /**
+     * The streams kept warm, null when disabled or not created yet
+     */
+    private static WarmStreamPool warmStreamPool = null;
+
+    /**
+     * Whether {@link #warmStreamPool} has been created when enabled
+     */
+    private static boolean warmStreamPoolInitialized = false;
+
+    /**
+     * The pool shared by all streaming sessions, each of which runs its tasks
+     * in order on it through its own {@link SerialExecutor}
+     */
+    private static ExecutorService sessionExecutor = null;
+
     /**
      * List of <tt>SpeechContext</tt>s to be inserted in
      * the <tt>RecognitionConfig</tt>. This is a list of phrases to be used as
@@ -186,8 +325,17 @@ public class GoogleCloudTranscriptionService
     private static List<SpeechContext> speechContexts = null;
 
     /**
-     * Creates the RecognitionConfig the Google service uses based
-     * on the TranscriptionRequest
+     * The RecognitionConfigs which have been built, by language tag, encoding
+     * and sample rate of the audio. They are immutable and thus shared by all
+     * sessions
+     */
+    private final static Map<String, RecognitionConfig> recognitionConfigs
+        = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the RecognitionConfig the Google service uses based
+     * on the TranscriptionRequest. The config is built once for every
+     * language and audio format
      *
      * @param request the transcriptionRequest which will need to be transcribed
      * @return the config based on the audio contained in the request
@@ -197,17 +345,55 @@ public class GoogleCloudTranscriptionService
     private static RecognitionConfig getRecognitionConfig(TranscriptionRequest
                                                               request)
         throws UnsupportedOperationException
+    {
+        AudioFormat format = request.getFormat();
+        String languageTag = request.getLocale().toLanguageTag();
+        String key = languageTag + "/" + format.getEncoding()
+            + "/" + (int) format.getSampleRate();
+
+        RecognitionConfig config = recognitionConfigs.get(key);
+        if (config == null)
+        {
+            config = buildRecognitionConfig(format, languageTag);
+            recognitionConfigs.putIfAbsent(key, config);
+        }
+        return config;
+    }
+
+    /**
+     * Forget every RecognitionConfig which has been built, so they are built
+     * again with the current phrases of the action handlers
+     */
+    public static synchronized void clearRecognitionConfigs()
+    {
+        speechContexts = null;
+        recognitionConfigs.clear();
+    }
+
+    /**
+     * Builds a RecognitionConfig
+     *
+     * @param format the format of the audio
+     * @param languageTag the language of the audio
+     * @return the config
+     * @throws UnsupportedOperationException when this service cannot process
+     * audio of the given format or language
+     */
+    private static RecognitionConfig buildRecognitionConfig(
+        AudioFormat format, String languageTag)
+        throws UnsupportedOperationException
     {
         RecognitionConfig.Builder builder = RecognitionConfig.newBuilder();
 
         // Set the sampling rate and encoding of the audio
-        AudioFormat format = request.getFormat();
         builder.setSampleRateHertz(new Double(format.getSampleRate())
             .intValue());
         switch(format.getEncoding())
         {
             case "LINEAR":
-                builder.setEncoding(RecognitionConfig.AudioEncoding.LINEAR16);
+                builder.setEncoding(isFlacEncoded(format)
+                    ? RecognitionConfig.AudioEncoding.FLAC
+                    : RecognitionConfig.AudioEncoding.LINEAR16);
                 break;
             default:
                 throw new IllegalArgumentException("Given AudioFormat" +
@@ -216,7 +402,6 @@ public class GoogleCloudTranscriptionService
         }
 
         // set the Language tag
-        String languageTag = request.getLocale().toLanguageTag();
         validateLanguageTag(languageTag);
         builder.setLanguageCode(languageTag);
 
@@ -228,6 +413,39 @@ public class GoogleCloudTranscriptionService
         return builder.build();
     }
 
+    /**
+     * Get whether audio of the given format is compressed to FLAC before it
+     * is sent, which is done for 16 bit mono audio when configured
+     *
+     * @param format the format of the audio
+     * @return true when the audio is sent as FLAC
+     */
+    private static boolean isFlacEncoded(AudioFormat format)
+    {
+        String encoding = JigasiBundleActivator.getConfigurationService()
+            .getString(P_NAME_AUDIO_ENCODING, AUDIO_ENCODING_DEFAULT_VALUE);
+
+        return AUDIO_ENCODING_FLAC.equalsIgnoreCase(encoding)
+            && format.getSampleSizeInBits() == 16
+            && format.getChannels() <= 1;
+    }
+
+    /**
+     * Encode the audio of a request to a complete FLAC stream
+     *
+     * @param request the request holding the audio
+     * @return the FLAC stream
+     */
+    private static ByteString encodeFlac(TranscriptionRequest request)
+    {
+        FlacEncoder encoder = new FlacEncoder(request.getFormat());
+        int length = encoder.encodeStreamHeader();
+        ByteString header = ByteString.copyFrom(encoder.getData(), 0, length);
+        length = encoder.encode(
+            request.getAudio(), 0, request.getAudioLength());
+        return header.concat(ByteString.copyFrom(encoder.getData(), 0, length));
+    }
+
     /**
      * Check whether the given string contains a supported language tag
      *
@@ -238,18 +456,114 @@ public class GoogleCloudTranscriptionService
     private static void validateLanguageTag(String tag)
         throws UnsupportedOperationException
     {
-        for(String supportedTag : SUPPORTED_LANGUAGE_TAGS)
+        if(SUPPORTED_LANGUAGE_TAG_SET.contains(tag))
         {
-            if(supportedTag.equals(tag))
-            {
-                return;
-            }
+            return;
         }
         throw new UnsupportedOperationException(tag + " is not a language " +
             "supported by the Google " +
             "Cloud speech-to-text API");
     }
 
+    /**
+     * Get the streams kept warm, creating the pool when needed
+     *
+     * @return the pool, or null when no streams are kept warm
+     */
+    private static synchronized WarmStreamPool getWarmStreamPool()
+    {
+        if (!warmStreamPoolInitialized)
+        {
+            ConfigurationService config
+                = JigasiBundleActivator.getConfigurationService();
+            int size = config.getInt(
+                P_NAME_WARM_STREAMS, WARM_STREAMS_DEFAULT_VALUE);
+            long maxAge = config.getLong(P_NAME_WARM_STREAM_MAX_AGE,
+                WARM_STREAM_MAX_AGE_DEFAULT_VALUE);
+            if (size > 0 && maxAge > 0)
+            {
+                warmStreamPool = new WarmStreamPool(size, maxAge);
+            }
+            warmStreamPoolInitialized = true;
+        }
+        return warmStreamPool;
+    }
+
+    /**
+     * Close the streams which are kept warm, before the clients of the
+     * {@link GoogleSpeechClientPool} are closed
+     */
+    public static synchronized void shutdown()
+    {
+        if (warmStreamPool != null)
+        {
+            warmStreamPool.close();
+            warmStreamPool = null;
+        }
+        warmStreamPoolInitialized = false;
+    }
+
+    /**
+     * Open a stream and send its config, which needs to be the **only**
+     * content of the first request
+     *
+     * @param client the client with which to open the stream
+     * @param streamingConfig the config of the stream
+     * @param responseObserver receives the results of the stream
+     * @return the observer to which to send the audio
+     */
+    private static ApiStreamObserver<StreamingRecognizeRequest> openStream(
+        SpeechClient client,
+        StreamingRecognitionConfig streamingConfig,
+        ResponseApiStreamingObserver<StreamingRecognizeResponse>
+            responseObserver)
+    {
+        // StreamingCallable manages sending the audio and receiving
+        // the results
+        StreamingCallable<StreamingRecognizeRequest,
+            StreamingRecognizeResponse> callable = client
+            .streamingRecognizeCallable();
+
+        // An ApiObserver which will be used to send all requests
+        // The responses will be delivered to the responseObserver
+        // which is already created
+        ApiStreamObserver<StreamingRecognizeRequest> requestObserver
+            = callable.bidiStreamingCall(responseObserver);
+        responseObserver.requestObserver = requestObserver;
+
+        requestObserver.onNext(
+            StreamingRecognizeRequest.newBuilder()
+                .setStreamingConfig(streamingConfig)
+                .build());
+
+        return requestObserver;
+    }
+
+    /**
+     * Get the pool shared by all streaming sessions, creating it when needed
+     *
+     * @return the pool of the streaming sessions
+     */
+    private static synchronized ExecutorService getSessionExecutor()
+    {
+        if (sessionExecutor == null)
+        {
+            int threads = Math.max(1,
+                JigasiBundleActivator.getConfigurationService().getInt(
+                    P_NAME_SESSION_THREADS, SESSION_THREADS_DEFAULT_VALUE));
+
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("google-stt-session"));
+            executor.allowCoreThreadTimeOut(true);
+
+            sessionExecutor = executor;
+        }
+        return sessionExecutor;
+    }
+
     /**
      * Create a TranscriptionService which will send audio to the google cloud
      * platform to get a transcription
@@ -268,7 +582,7 @@ public class GoogleCloudTranscriptionService
     {
         try
         {
-            GoogleCredentials.getApplicationDefault();
+            GoogleSpeechClientPool.getInstance().getCredentials();
             return true;
         }
         catch (IOException e)
@@ -289,14 +603,17 @@ public class GoogleCloudTranscriptionService
     public void sendSingleRequest(final TranscriptionRequest request,
                             final Consumer<TranscriptionResult> resultConsumer)
     {
-        // Try to create the client, which can throw an IOException
+        // Try to get the shared client, which can throw an IOException
         try
         {
-            SpeechClient client = SpeechClient.create();
+            SpeechClient client
+                = GoogleSpeechClientPool.getInstance().getClient();
 
             RecognitionConfig config = getRecognitionConfig(request);
 
-            ByteString audioBytes = ByteString.copyFrom(request.getAudio());
+            ByteString audioBytes
+                = config.getEncoding() == RecognitionConfig.AudioEncoding.FLAC
+                    ? encodeFlac(request) : wrapAudio(request);
             RecognitionAudio audio = RecognitionAudio.newBuilder()
                     .setContent(audioBytes)
                     .build();
@@ -304,8 +621,6 @@ public class GoogleCloudTranscriptionService
             RecognizeResponse recognizeResponse =
                     client.recognize(config, audio);
 
-            client.close();
-
             StringBuilder builder = new StringBuilder();
             for (SpeechRecognitionResult result :
                     recognizeResponse.getResultsList())
@@ -328,6 +643,25 @@ public class GoogleCloudTranscriptionService
         {
             e.printStackTrace();
         }
+        finally
+        {
+            request.release();
+        }
+    }
+
+    /**
+     * Wrap the audio of a request in a {@link ByteString} without copying it.
+     * The returned {@link ByteString} must not be used anymore after the
+     * request has been released, so it is only used for the blocking single
+     * requests.
+     *
+     * @param request the request holding the audio
+     * @return a {@link ByteString} backed by the audio of the request
+     */
+    private static ByteString wrapAudio(TranscriptionRequest request)
+    {
+        return UnsafeByteOperations.unsafeWrap(
+            request.getAudio(), 0, request.getAudioLength());
     }
 
     @Override
@@ -337,6 +671,12 @@ public class GoogleCloudTranscriptionService
         return new GoogleCloudStreamingRecognitionSession();
     }
 
+    @Override
+    public boolean isLanguageSupported(Locale locale)
+    {
+        return SUPPORTED_LANGUAGE_TAG_SET.contains(locale.toLanguageTag());
+    }
+
     @Override
     public boolean supportsFragmentTranscription()
     {
@@ -355,17 +695,18 @@ public class GoogleCloudTranscriptionService
      * Inserts all speechContexts to the <tt>RecognitionConfig.Builder</tt>.
      * @param builder the builder where to add speech contexts.
      */
-    private static void addSpeechContexts(RecognitionConfig.Builder builder)
+    private static synchronized void addSpeechContexts(
+        RecognitionConfig.Builder builder)
     {
         if (speechContexts == null)
         {
             speechContexts = new ArrayList<>();
             ActionServicesHandler.getInstance().getPhrases()
-                .stream().map(ph -> speechContexts.add(
+                .forEach(ph -> speechContexts.add(
                     SpeechContext.newBuilder().addPhrases(ph).build()));
         }
 
-        speechContexts.stream().map(ctx -> builder.addSpeechContexts(ctx));
+        speechContexts.forEach(builder::addSpeechContexts);
     }
 
     /**
@@ -376,12 +717,6 @@ public class GoogleCloudTranscriptionService
         implements StreamingRecognitionSession
     {
 
-        /**
-         * The SpeechClient which will be used to initiate and to end the
-         * session
-         */
-        private SpeechClient client;
-
         /**
          * A manager which acts as a ApiStreamObserver which will send new audio
          * request to be transcribed
@@ -389,10 +724,12 @@ public class GoogleCloudTranscriptionService
         private RequestApiStreamObserverManager requestManager;
 
         /**
-         * A single thread which is used to sent all requests to the API.
+         * Used to sent all requests to the API in order, on the threads
+         * shared by all sessions.
          * This is needed to reliably sent the first request to the service
          */
-        private ExecutorService service = Executors.newSingleThreadExecutor();
+        private final SerialExecutor service
+            = new SerialExecutor(getSessionExecutor());
 
         /**
          * Create a new session with the Google Cloud API
@@ -401,9 +738,19 @@ public class GoogleCloudTranscriptionService
         {
             try
             {
-                this.client = SpeechClient.create();
-                this.requestManager
-                    = new RequestApiStreamObserverManager(client);
+                ConfigurationService config
+                    = JigasiBundleActivator.getConfigurationService();
+                this.requestManager = new RequestApiStreamObserverManager(
+                    GoogleSpeechClientPool.getInstance().getClient(),
+                    service,
+                    config.getBoolean(P_NAME_CONTINUOUS_STREAMING,
+                        CONTINUOUS_STREAMING_DEFAULT_VALUE),
+                    config.getLong(P_NAME_STREAM_ROTATION_INTERVAL,
+                        STREAM_ROTATION_INTERVAL_DEFAULT_VALUE),
+                    config.getLong(P_NAME_MAX_STREAM_DURATION,
+                        MAX_STREAM_DURATION_DEFAULT_VALUE),
+                    config.getLong(P_NAME_STREAM_OVERLAP,
+                        STREAM_OVERLAP_DEFAULT_VALUE));
             }
             catch(Exception e)
             {
@@ -414,17 +761,29 @@ public class GoogleCloudTranscriptionService
         @Override
         public void sendRequest(final TranscriptionRequest request)
         {
-            this.service.submit(() -> {
-                try
-                {
-                    requestManager.sentRequest(request);
-                }
-                catch(Exception e)
-                {
-                    logger.warn("Not able to send request", e);
-                }
-            });
-            logger.trace("queued request");
+            try
+            {
+                this.service.execute(() -> {
+                    try
+                    {
+                        requestManager.sentRequest(request);
+                    }
+                    catch(Exception e)
+                    {
+                        logger.warn("Not able to send request", e);
+                    }
+                    finally
+                    {
+                        request.release();
+                    }
+                });
+                logger.trace("queued request");
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the session has ended in the meantime
+                request.release();
+            }
         }
 
         @Override
@@ -433,12 +792,33 @@ public class GoogleCloudTranscriptionService
             return service.isShutdown();
         }
 
+        @Override
+        public int getQueuedRequests()
+        {
+            return service.getQueueSize();
+        }
+
+        @Override
+        public void endOfSpeech()
+        {
+            try
+            {
+                // ordered after the requests which are still queued, so the
+                // stream is closed after the last audio has been sent
+                this.service.execute(
+                    () -> requestManager.terminateCurrentSession());
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the session has ended, which terminates the stream anyway
+            }
+        }
+
         @Override
         public void end()
         {
             try
             {
-                client.close();
                 requestManager.stop();
                 service.shutdown();
                 // Note that we can't close the responseObserver yet
@@ -462,11 +842,21 @@ public class GoogleCloudTranscriptionService
      * A Manager for RequestApiStreamObserver instances.
      * It will make sure a RequestApiStreamObserver will only be used for a
      * minute, as that is the maximum amount of time supported by the Google API
+     * <p>
+     * By default a stream is closed after every utterance. In continuous mode
+     * a stream is kept open across utterances, which saves opening a stream
+     * and sending the config for every sentence. It is replaced at the end of
+     * the first utterance after the rotation interval, which loses nothing as
+     * the utterance is final. When someone keeps talking until the stream
+     * is about to reach its maximum duration, the new stream is opened while
+     * the old one is still open and both get the audio of the overlap, so no
+     * words are lost at the seam.
      */
     private static class RequestApiStreamObserverManager
     {
         /**
-         * The SpeechClient which will be used to initiate the session
+         * The SpeechClient which will be used to initiate the session. It is
+         * shared with other sessions and thus never closed by the manager
          */
         private SpeechClient client;
 
@@ -483,15 +873,33 @@ public class GoogleCloudTranscriptionService
         private ApiStreamObserver<StreamingRecognizeRequest>
             currentRequestObserver;
 
+        /**
+         * The language of the audio sent to the currentRequestObserver
+         */
+        private Locale currentLocale;
+
         /**
          * Lock used to access the currentRequestObserver
          */
         private final Object currentRequestObserverLock = new Object();
 
         /**
-         * Thread used to terminate a session when no new requests are coming in
+         * The executor on which the requests of the session are sent, and on
+         * which the current observer is terminated when it becomes idle
+         */
+        private final Executor executor;
+
+        /**
+         * The time in ms at which the last request was sent to the current
+         * observer
+         */
+        private volatile long lastRequestTime;
+
+        /**
+         * The timeout which checks whether the current observer is idle,
+         * rescheduled as long as new requests are coming in
          */
-        private TerminatingSessionThread terminatingSessionThread;
+        private HashedWheelTimer.Timeout idleTimeout;
 
         /**
          * Whether this manager has stopped and will not make new sessions
@@ -499,34 +907,92 @@ public class GoogleCloudTranscriptionService
          */
         private boolean stopped = false;
 
+        /**
+         * Whether streams are kept open across utterances
+         */
+        private final boolean continuous;
+
+        /**
+         * The age in ms after which a continuous stream is replaced at the
+         * end of the next utterance
+         */
+        private final long rotationInterval;
+
+        /**
+         * The maximum duration in ms of a stream
+         */
+        private final long maxStreamDuration;
+
+        /**
+         * The time in ms during which the audio is sent to both the old and
+         * the new stream when a stream is replaced in the middle of an
+         * utterance
+         */
+        private final long overlap;
+
+        /**
+         * The time in ms at which the currentRequestObserver was opened
+         */
+        private long currentStartTime;
+
+        /**
+         * The stream which is being replaced by the currentRequestObserver
+         * and still gets the audio until {@link #overlapEndTime}, or null
+         */
+        private ApiStreamObserver<StreamingRecognizeRequest>
+            previousRequestObserver;
+
+        /**
+         * The time in ms at which the previousRequestObserver is closed
+         */
+        private long overlapEndTime;
+
+        /**
+         * Compresses the audio when it is sent as FLAC, null otherwise. The
+         * format of the audio of a session does not change, so neither does
+         * the encoding of its streams
+         */
+        private FlacEncoder flacEncoder;
+
         /**
          * Create a new RequestApiStreamObserverManager, which will try
          * to mimic a streaming session of indefinite lenth
          *
          * @param client the SpeechClient with which to open new sessions
+         * @param executor the executor on which the requests are sent
+         * @param continuous whether streams are kept open across utterances
+         * @param rotationInterval the age in ms after which a continuous
+         * stream is replaced at the end of an utterance
+         * @param maxStreamDuration the maximum duration in ms of a stream
+         * @param overlap the time in ms during which an old and a new stream
+         * both get the audio
          */
-        RequestApiStreamObserverManager(SpeechClient client)
+        RequestApiStreamObserverManager(SpeechClient client,
+                                        Executor executor,
+                                        boolean continuous,
+                                        long rotationInterval,
+                                        long maxStreamDuration,
+                                        long overlap)
         {
             this.client = client;
+            this.executor = executor;
+            this.continuous = continuous;
+            this.rotationInterval = rotationInterval;
+            this.maxStreamDuration = maxStreamDuration;
+            this.overlap = Math.max(0, Math.min(overlap, maxStreamDuration));
         }
 
         /**
          * Create a new ApiStreamObserver by instantiating it and sending the
          * first request, which contains the configuration
          *
-         * @param config the configuration of the session
+         * @param request the request whose audio will be sent first
          * @return the ApiStreamObserver
          */
         private ApiStreamObserver<StreamingRecognizeRequest> createObserver(
-            RecognitionConfig config)
+            TranscriptionRequest request)
         {
-            // Each observer gets its own responseObserver to be able to
-            // to get an unique ID
-            ResponseApiStreamingObserver<StreamingRecognizeResponse>
-                responseObserver =
-                new ResponseApiStreamingObserver<StreamingRecognizeResponse>(
-                    this,
-                    config.getLanguageCode());
+            RecognitionConfig config = getRecognitionConfig(request);
 
             // StreamingRecognitionConfig which will hold information
             // about the streaming session, including the RecognitionConfig
@@ -534,40 +1000,62 @@ public class GoogleCloudTranscriptionService
                 StreamingRecognitionConfig.newBuilder()
                     .setConfig(config)
                     .setInterimResults(RETRIEVE_INTERIM_RESULTS)
-                    .setSingleUtterance(SINGLE_UTTERANCE_ONLY)
+                    .setSingleUtterance(!continuous)
                     .build();
 
-            // StreamingCallable manages sending the audio and receiving
-            // the results
-            StreamingCallable<StreamingRecognizeRequest,
-                StreamingRecognizeResponse> callable = client
-                .streamingRecognizeCallable();
-
-            // An ApiObserver which will be used to send all requests
-            // The responses will be delivered to the responseObserver
-            // which is already created
+            // Use a stream which has already been opened and configured
+            // when there is one
             ApiStreamObserver<StreamingRecognizeRequest> requestObserver
-                = callable.bidiStreamingCall(responseObserver);
-
-            // Sent the first request which needs to **only** contain the
-            // StreamingRecognitionConfig
-            requestObserver.onNext(
-                StreamingRecognizeRequest.newBuilder()
-                    .setStreamingConfig(streamingRecognitionConfig)
-                    .build());
-
-            // Create the thread which will cancel this session when
-            // it is not receiving audio
-            terminatingSessionThread
-                = new TerminatingSessionThread(this,
-                                                STREAMING_SESSION_TIMEOUT_MS);
-            terminatingSessionThread.start();
+                = null;
+            WarmStreamPool warmStreams = getWarmStreamPool();
+            if (warmStreams != null)
+            {
+                requestObserver
+                    = warmStreams.take(streamingRecognitionConfig, this);
+            }
+
+            if (requestObserver == null)
+            {
+                // Each observer gets its own responseObserver to be able to
+                // to get an unique ID
+                ResponseApiStreamingObserver<StreamingRecognizeResponse>
+                    responseObserver =
+                    new ResponseApiStreamingObserver<>(
+                        this,
+                        config.getLanguageCode());
+
+                requestObserver = openStream(
+                    client, streamingRecognitionConfig, responseObserver);
+            }
+
+            if (config.getEncoding() == RecognitionConfig.AudioEncoding.FLAC)
+            {
+                // the audio of every stream starts with the FLAC header
+                if (flacEncoder == null)
+                {
+                    flacEncoder = new FlacEncoder(request.getFormat());
+                }
+                int length = flacEncoder.encodeStreamHeader();
+                requestObserver.onNext(
+                    StreamingRecognizeRequest.newBuilder()
+                        .setAudioContent(ByteString.copyFrom(
+                            flacEncoder.getData(), 0, length))
+                        .build());
+            }
+
+            // Start checking whether this observer stops receiving audio,
+            // in which case it will be terminated
+            lastRequestTime = currentStartTime = System.currentTimeMillis();
+            scheduleIdleCheck(requestObserver, STREAMING_SESSION_TIMEOUT_MS);
 
             return requestObserver;
         }
 
         /**
-         * Sent a request to the streaming observer to be transcribed
+         * Sent a request to the streaming observer to be transcribed. The
+         * audio of the request is copied, as a stream which has not started
+         * yet serializes its messages later, after the request has been
+         * released and its chunk has been reused
          *
          * @param request the request to transcribe
          */
@@ -580,33 +1068,152 @@ public class GoogleCloudTranscriptionService
                 return;
             }
 
-            // If the first request with the config has been sent,
-            // all other requests need to contain **only** the audio
-            // ByteString
-            byte[] audio = request.getAudio();
-            ByteString audioBytes = ByteString.copyFrom(audio);
-
             synchronized(currentRequestObserverLock)
             {
+                if(currentRequestObserver != null
+                    && !request.getLocale().equals(currentLocale))
+                {
+                    // the language changed, which needs a new config
+                    terminateCurrentSession();
+                }
+
+                long now = System.currentTimeMillis();
                 if(currentRequestObserver == null)
                 {
                     if (logger.isDebugEnabled())
                         logger.debug("Created a new session");
 
-                    currentRequestObserver
-                        = createObserver(getRecognitionConfig(request));
+                    currentRequestObserver = createObserver(request);
+                    currentLocale = request.getLocale();
                 }
+                else if(continuous && previousRequestObserver == null
+                    && now - currentStartTime >= maxStreamDuration - overlap)
+                {
+                    // the utterance did not end before the stream reaches
+                    // its limit, the new stream takes over after the overlap
+                    if (logger.isDebugEnabled())
+                        logger.debug("Replacing a session in an utterance");
 
-                currentRequestObserver.onNext(
-                    StreamingRecognizeRequest.newBuilder()
-                        .setAudioContent(audioBytes)
-                        .build());
+                    cancelIdleCheck();
+                    previousRequestObserver = currentRequestObserver;
+                    overlapEndTime = now + overlap;
+                    currentRequestObserver = createObserver(request);
+                }
 
-                terminatingSessionThread.interrupt();
+                // If the first request with the config has been sent,
+                // all other requests need to contain **only** the audio
+                // ByteString
+                StreamingRecognizeRequest audioRequest
+                    = StreamingRecognizeRequest.newBuilder()
+                        .setAudioContent(encodeAudio(request))
+                        .build();
+                currentRequestObserver.onNext(audioRequest);
+
+                if(previousRequestObserver != null)
+                {
+                    previousRequestObserver.onNext(audioRequest);
+                    if(now >= overlapEndTime)
+                    {
+                        closePreviousSession();
+                    }
+                }
+
+                // the idle check will notice this and postpone itself
+                lastRequestTime = now;
             }
             logger.trace("Sent a request");
         }
 
+        /**
+         * Get the audio of a request as it is sent to the streams. The audio
+         * is copied: a stream which has not started yet serializes its
+         * messages later, after the request has been released and the
+         * buffer of the encoder has been reused
+         *
+         * @param request the request holding the audio
+         * @return the audio to send
+         */
+        private ByteString encodeAudio(TranscriptionRequest request)
+        {
+            if (flacEncoder == null)
+            {
+                return ByteString.copyFrom(
+                    request.getAudio(), 0, request.getAudioLength());
+            }
+
+            int length = flacEncoder.encode(
+                request.getAudio(), 0, request.getAudioLength());
+            return ByteString.copyFrom(flacEncoder.getData(), 0, length);
+        }
+
+        /**
+         * Schedule a check whether the given observer has stopped receiving
+         * audio. The check runs on the timer shared by all sessions and
+         * reschedules itself for the remaining time as long as audio keeps
+         * coming in, so sending audio never has to touch the timer.
+         *
+         * @param observer the observer to check
+         * @param delay the delay in ms after which to check
+         */
+        private void scheduleIdleCheck(
+            ApiStreamObserver<StreamingRecognizeRequest> observer,
+            long delay)
+        {
+            idleTimeout = SharedTimer.schedule(
+                () -> onIdleCheck(observer), delay, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Called by the timer to check whether the given observer has been
+         * idle for {@link #STREAMING_SESSION_TIMEOUT_MS}. The actual check is
+         * done on the executor of the session, so it is ordered with the
+         * requests being sent.
+         *
+         * @param observer the observer to check
+         */
+        private void onIdleCheck(
+            ApiStreamObserver<StreamingRecognizeRequest> observer)
+        {
+            try
+            {
+                executor.execute(() -> checkIdle(observer));
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the session ended, which terminates the observer anyway
+            }
+        }
+
+        /**
+         * Terminate the given observer when it has been idle for
+         * {@link #STREAMING_SESSION_TIMEOUT_MS}, or check again later
+         *
+         * @param observer the observer to check
+         */
+        private void checkIdle(
+            ApiStreamObserver<StreamingRecognizeRequest> observer)
+        {
+            synchronized(currentRequestObserverLock)
+            {
+                if (currentRequestObserver != observer)
+                {
+                    // it has already been terminated
+                    return;
+                }
+
+                long idle = System.currentTimeMillis() - lastRequestTime;
+                if (idle >= STREAMING_SESSION_TIMEOUT_MS)
+                {
+                    terminateCurrentSession();
+                }
+                else
+                {
+                    scheduleIdleCheck(
+                        observer, STREAMING_SESSION_TIMEOUT_MS - idle);
+                }
+            }
+        }
+
         /**
          * Add a listener to the list of listeners to be notified when a new
          * result comes in
@@ -639,7 +1246,18 @@ public class GoogleCloudTranscriptionService
         }
 
         /**
-         * Close the currentRequestObserver if there is one
+         * Get whether streams are kept open across utterances
+         *
+         * @return true in continuous mode
+         */
+        boolean isContinuous()
+        {
+            return continuous;
+        }
+
+        /**
+         * Close the currentRequestObserver if there is one, and the session
+         * it is replacing
          */
         void terminateCurrentSession()
         {
@@ -654,13 +1272,75 @@ public class GoogleCloudTranscriptionService
                     currentRequestObserver = null;
                 }
 
-                if(terminatingSessionThread != null &&
-                    terminatingSessionThread.isAlive())
+                closePreviousSession();
+                cancelIdleCheck();
+            }
+        }
+
+        /**
+         * Close the given session, when it is still open
+         *
+         * @param observer the session to close
+         */
+        void terminateSession(
+            ApiStreamObserver<StreamingRecognizeRequest> observer)
+        {
+            synchronized(currentRequestObserverLock)
+            {
+                if(observer == currentRequestObserver)
                 {
-                    terminatingSessionThread.setStopIfInterrupted(true);
-                    terminatingSessionThread.interrupt();
-                    terminatingSessionThread = null;
+                    terminateCurrentSession();
                 }
+                else if(observer == previousRequestObserver)
+                {
+                    closePreviousSession();
+                }
+            }
+        }
+
+        /**
+         * Called when an utterance of the given session is final. A session
+         * which only holds a single utterance is closed, a continuous one
+         * only when it is due to be replaced.
+         *
+         * @param observer the session of the utterance
+         */
+        void utteranceEnded(
+            ApiStreamObserver<StreamingRecognizeRequest> observer)
+        {
+            synchronized(currentRequestObserverLock)
+            {
+                if(!continuous
+                    || observer == previousRequestObserver
+                    || System.currentTimeMillis() - currentStartTime
+                        >= rotationInterval)
+                {
+                    terminateSession(observer);
+                }
+            }
+        }
+
+        /**
+         * Close the previousRequestObserver if there is one
+         */
+        private void closePreviousSession()
+        {
+            if(previousRequestObserver != null)
+            {
+                previousRequestObserver.onCompleted();
+                previousRequestObserver = null;
+            }
+        }
+
+        /**
+         * Cancel the check whether the currentRequestObserver is idle
+         */
+        private void cancelIdleCheck()
+        {
+            if(idleTimeout != null)
+            {
+                idleTimeout.cancel();
+                idleTimeout = null;
             }
         }
     }
@@ -681,9 +1361,14 @@ public class GoogleCloudTranscriptionService
         /**
          * The manager which is used to send new audio requests. Should be
          * notified when a final result comes in to be able to start a new
-         * session
+         * session. Null as long as the stream is kept warm
          */
-        private RequestApiStreamObserverManager requestManager;
+        private volatile RequestApiStreamObserverManager requestManager;
+
+        /**
+         * Whether the stream failed or was closed while it was kept warm
+         */
+        private volatile boolean failed = false;
 
         /**
          * The language of the speech being provided in the current session
@@ -692,15 +1377,22 @@ public class GoogleCloudTranscriptionService
 
         /**
          * A {@link UUID} which identifies the results (interim and final) of
-         * the current session
+         * the current utterance
          */
         private UUID messageID;
 
+        /**
+         * The observer sending the audio of this session
+         */
+        private volatile ApiStreamObserver<StreamingRecognizeRequest>
+            requestObserver;
+
         /**
          * Create a ResponseApiStreamingObserver which listens for transcription
          * results
          *
-         * @param manager the manager of requests
+         * @param manager the manager of requests, or null for a stream which
+         * is kept warm
          */
         ResponseApiStreamingObserver(RequestApiStreamObserverManager manager,
                                      String languageTag)
@@ -711,11 +1403,28 @@ public class GoogleCloudTranscriptionService
             messageID = UUID.randomUUID();
         }
 
+        /**
+         * Hand a stream which was kept warm over to a manager
+         *
+         * @param manager the manager which will send the audio
+         */
+        void attach(RequestApiStreamObserverManager manager)
+        {
+            this.requestManager = manager;
+        }
+
         @Override
         public void onNext(StreamingRecognizeResponse message)
         {
             if (logger.isDebugEnabled())
                 logger.debug("Received a StreamingRecognizeResponse");
+            if(requestManager == null)
+            {
+                // a warm stream has not received audio, so this can only be
+                // an error
+                failed = true;
+                return;
+            }
             if(message.hasError())
             {
                 // it is expected to get an error if the 60 seconds are exceeded
@@ -727,7 +1436,7 @@ public class GoogleCloudTranscriptionService
                     logger.debug(
                         "Received error from StreamingRecognizeResponse: "
                         + message.getError().getMessage());
-                requestManager.terminateCurrentSession();
+                requestManager.terminateSession(requestObserver);
                 return;
             }
 
@@ -741,7 +1450,11 @@ public class GoogleCloudTranscriptionService
                     logger.debug(
                         "Received a message with an empty results list");
 
-                requestManager.terminateCurrentSession();
+                // a continuous session simply waits for the next results
+                if(!requestManager.isContinuous())
+                {
+                    requestManager.terminateSession(requestObserver);
+                }
                 return;
             }
 
@@ -772,13 +1485,15 @@ public class GoogleCloudTranscriptionService
             {
                 logger.warn("Received a list of alternatives which" +
                     " was empty");
-                requestManager.terminateCurrentSession();
+                requestManager.terminateSession(requestObserver);
                 return;
             }
 
             handleResult(finalResult);
 
-            requestManager.terminateCurrentSession();
+            // the next results of a continuous session are a new utterance
+            messageID = UUID.randomUUID();
+            requestManager.utteranceEnded(requestObserver);
         }
 
         /**
@@ -838,13 +1553,27 @@ public class GoogleCloudTranscriptionService
         @Override
         public void onError(Throwable t)
         {
+            if(requestManager == null)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("A warm stream failed: " + t);
+                failed = true;
+                return;
+            }
+
             logger.warn("Received an error from the Google Cloud API", t);
-            requestManager.terminateCurrentSession();
+            requestManager.terminateSession(requestObserver);
         }
 
         @Override
         public void onCompleted()
         {
+            if(requestManager == null)
+            {
+                failed = true;
+                return;
+            }
+
             for(TranscriptionListener listener : requestManager.getListeners())
             {
                 listener.completed();
@@ -874,76 +1603,360 @@ public class GoogleCloudTranscriptionService
     }
 
     /**
-     * This thread is used to cancel a RequestObserver when no new audio is
-     * being given. The thread needs to be kept-alive by using the
-     * {@link TerminatingSessionThread#interrupt()} ()} method, which resets the
-     * timer to 0
+     * Keeps a few streams opened and configured for every configuration in
+     * use, so an utterance can start without waiting for a stream to be
+     * opened. A stream which has not been taken before it gets old is closed
+     * and replaced, as the API closes streams which do not get audio. Streams
+     * are only kept warm for configurations which have recently been used.
      */
-    private static class TerminatingSessionThread
-        extends Thread
+    private static class WarmStreamPool
     {
+        /**
+         * The amount of streams kept warm for every configuration
+         */
+        private final int size;
 
         /**
-         * The manager which will be told to terminate the current session
-         * when the specified amount of time has passed
+         * The age in ms after which a warm stream is replaced
          */
-        private RequestApiStreamObserverManager manager;
+        private final long maxAge;
 
         /**
-         * The amount of ms after which the manager should be told to terminate
-         * the session
+         * The warm streams by configuration
          */
-        private int terminateAfter;
+        private final Map<StreamingRecognitionConfig, WarmStreams> streams
+            = new HashMap<>();
 
         /**
-         * If this is set to true, interrupting the thread will kill the thread
-         * instead of resetting the counter
+         * The timeout which replaces old streams
          */
-        private boolean stopIfInterrupted = false;
+        private HashedWheelTimer.Timeout recycleTimeout;
 
         /**
-         * Create a Thread which will tell the given manager to terminate its
-         * thread as soon as the given amount of ms has passed, unless
-         * {@link TerminatingSessionThread#interrupt()} ()} has been called
+         * Whether the pool has been closed
+         */
+        private boolean closed = false;
+
+        /**
+         * Create a pool
          *
-         * @param manager the manager
-         * @param ms the amount of time in ms
+         * @param size the amount of streams kept warm for every configuration
+         * @param maxAge the age in ms after which a warm stream is replaced
          */
-        TerminatingSessionThread(RequestApiStreamObserverManager manager,
-                                        int ms)
+        WarmStreamPool(int size, long maxAge)
         {
-            this.manager = manager;
-            this.terminateAfter = ms;
+            this.size = size;
+            this.maxAge = maxAge;
+
+            scheduleRecycle();
         }
 
-        @Override
-        public void run()
+        /**
+         * Take a warm stream of the given configuration, and start to open
+         * a new one in its place
+         *
+         * @param config the configuration of the stream
+         * @param manager the manager which will send the audio
+         * @return the observer to which to send the audio, or null when no
+         * stream of the configuration is ready
+         */
+        ApiStreamObserver<StreamingRecognizeRequest> take(
+            StreamingRecognitionConfig config,
+            RequestApiStreamObserverManager manager)
+        {
+            long now = System.currentTimeMillis();
+            WarmStream taken = null;
+            List<WarmStream> stale = new ArrayList<>();
+
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    return null;
+                }
+
+                WarmStreams warm = streams.get(config);
+                if (warm == null)
+                {
+                    warm = new WarmStreams();
+                    streams.put(config, warm);
+                }
+                warm.lastTaken = now;
+
+                WarmStream stream;
+                while ((stream = warm.ready.poll()) != null)
+                {
+                    if (stream.isUsable(now))
+                    {
+                        taken = stream;
+                        break;
+                    }
+                    stale.add(stream);
+                }
+            }
+
+            closeAll(stale);
+            fillLater(config);
+
+            if (taken == null)
+            {
+                return null;
+            }
+
+            taken.responseObserver.attach(manager);
+            return taken.requestObserver;
+        }
+
+        /**
+         * Close every stream and stop opening new ones
+         */
+        void close()
+        {
+            List<WarmStream> toClose = new ArrayList<>();
+            synchronized (this)
+            {
+                closed = true;
+                if (recycleTimeout != null)
+                {
+                    recycleTimeout.cancel();
+                    recycleTimeout = null;
+                }
+                for (WarmStreams warm : streams.values())
+                {
+                    toClose.addAll(warm.ready);
+                }
+                streams.clear();
+            }
+            closeAll(toClose);
+        }
+
+        /**
+         * Open the missing streams of a configuration on the executor of the
+         * sessions
+         *
+         * @param config the configuration
+         */
+        private void fillLater(StreamingRecognitionConfig config)
         {
             try
             {
-                sleep(terminateAfter);
-                manager.terminateCurrentSession();
+                getSessionExecutor().execute(() -> fill(config));
             }
-            catch(InterruptedException e)
+            catch (RejectedExecutionException e)
+            {
+                // the streams are opened the next time
+            }
+        }
+
+        /**
+         * Open the missing streams of a configuration
+         *
+         * @param config the configuration
+         */
+        private void fill(StreamingRecognitionConfig config)
+        {
+            int missing;
+            synchronized (this)
             {
-                if(!stopIfInterrupted)
+                WarmStreams warm = streams.get(config);
+                if (closed || warm == null)
+                {
+                    return;
+                }
+                missing = size - warm.ready.size() - warm.opening;
+                if (missing <= 0)
                 {
-                    run();
+                    return;
                 }
+                warm.opening += missing;
             }
+
+            List<WarmStream> opened = new ArrayList<>(missing);
+            try
+            {
+                SpeechClient client
+                    = GoogleSpeechClientPool.getInstance().getClient();
+                for (int i = 0; i < missing; i++)
+                {
+                    ResponseApiStreamingObserver<StreamingRecognizeResponse>
+                        responseObserver = new ResponseApiStreamingObserver<>(
+                            null, config.getConfig().getLanguageCode());
+                    opened.add(new WarmStream(
+                        openStream(client, config, responseObserver),
+                        responseObserver));
+                }
+            }
+            catch (IOException | RuntimeException e)
+            {
+                logger.warn("Failed to open warm streams", e);
+            }
+
+            boolean keep;
+            synchronized (this)
+            {
+                WarmStreams warm = streams.get(config);
+                keep = !closed && warm != null;
+                if (warm != null)
+                {
+                    warm.opening -= missing;
+                }
+                if (keep)
+                {
+                    warm.ready.addAll(opened);
+                }
+            }
+            if (!keep)
+            {
+                closeAll(opened);
+            }
+        }
+
+        /**
+         * Schedule the next replacement of old streams
+         */
+        private synchronized void scheduleRecycle()
+        {
+            if (!closed)
+            {
+                recycleTimeout = SharedTimer.schedule(
+                    this::recycle, maxAge / 2, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Close the streams which are too old or failed and open new ones,
+         * and stop keeping streams warm for unused configurations
+         */
+        private void recycle()
+        {
+            long now = System.currentTimeMillis();
+            List<WarmStream> toClose = new ArrayList<>();
+            List<StreamingRecognitionConfig> toFill = new ArrayList<>();
+
+            synchronized (this)
+            {
+                Iterator<Map.Entry<StreamingRecognitionConfig, WarmStreams>>
+                    it = streams.entrySet().iterator();
+                while (it.hasNext())
+                {
+                    Map.Entry<StreamingRecognitionConfig, WarmStreams> entry
+                        = it.next();
+                    WarmStreams warm = entry.getValue();
+
+                    if (now - warm.lastTaken > KEEP_WARM_MS)
+                    {
+                        toClose.addAll(warm.ready);
+                        it.remove();
+                        continue;
+                    }
+
+                    // replace a stream a bit before it is too old, so it is
+                    // never taken when it is about to be closed by the API
+                    warm.ready.removeIf(stream -> {
+                        if (stream.isUsable(now + maxAge / 2))
+                        {
+                            return false;
+                        }
+                        toClose.add(stream);
+                        return true;
+                    });
+                    toFill.add(entry.getKey());
+                }
+            }
+
+            closeAll(toClose);
+            toFill.forEach(this::fillLater);
+            scheduleRecycle();
         }
 
         /**
-         * Set whether the thread should kill itself when interrupted or reset
-         * the counter
+         * Close streams which will not be used
          *
-         * @param stopIfInterrupted If true, thread will kill itself when
-         *                          interrupted, otherwise counter will be reset
+         * @param toClose the streams to close
          */
-        void setStopIfInterrupted(boolean stopIfInterrupted)
+        private static void closeAll(Collection<WarmStream> toClose)
         {
-            this.stopIfInterrupted = stopIfInterrupted;
+            for (WarmStream stream : toClose)
+            {
+                try
+                {
+                    stream.requestObserver.onCompleted();
+                }
+                catch (RuntimeException e)
+                {
+                    // the stream has already failed
+                }
+            }
         }
-    }
 
+        /**
+         * The warm streams of a configuration
+         */
+        private static class WarmStreams
+        {
+            /**
+             * The streams which are ready to be taken, oldest first
+             */
+            final Deque<WarmStream> ready = new ArrayDeque<>();
+
+            /**
+             * The amount of streams which are being opened
+             */
+            int opening = 0;
+
+            /**
+             * The time in ms at which a stream of the configuration was last
+             * asked for
+             */
+            long lastTaken;
+        }
+
+        /**
+         * A stream which has been opened and configured
+         */
+        private class WarmStream
+        {
+            /**
+             * The observer to which to send the audio
+             */
+            final ApiStreamObserver<StreamingRecognizeRequest> requestObserver;
+
+            /**
+             * The observer receiving the results
+             */
+            final ResponseApiStreamingObserver<StreamingRecognizeResponse>
+                responseObserver;
+
+            /**
+             * The time in ms at which the stream was opened
+             */
+            final long created = System.currentTimeMillis();
+
+            /**
+             * Create a warm stream
+             *
+             * @param requestObserver the observer to which to send the audio
+             * @param responseObserver the observer receiving the results
+             */
+            WarmStream(
+                ApiStreamObserver<StreamingRecognizeRequest> requestObserver,
+                ResponseApiStreamingObserver<StreamingRecognizeResponse>
+                    responseObserver)
+            {
+                this.requestObserver = requestObserver;
+                this.responseObserver = responseObserver;
+            }
+
+            /**
+             * Get whether the stream can still be taken
+             *
+             * @param now the current time in ms
+             * @return true when the stream has neither failed nor got too old
+             */
+            boolean isUsable(long now)
+            {
+                return !responseObserver.failed && now - created < maxAge;
+            }
+        }
+    }
 }
@@ -0,0 +1,321 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import com.google.api.gax.core.*;
+import com.google.api.gax.grpc.*;
+import com.google.auth.oauth2.*;
+import com.google.cloud.speech.spi.v1.*;
+import io.grpc.*;
+import io.grpc.auth.*;
+import io.grpc.netty.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.service.configuration.*;
+import org.jitsi.util.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Manages the {@link SpeechClient}s used to talk to the Google Cloud
+ * speech-to-text API. A small, fixed amount of gRPC channels is opened once
+ * for the whole process and every recognition session is multiplexed over
+ * them, instead of every session opening its own TLS connection and thread
+ * pool.
+ */
+public class GoogleSpeechClientPool
+{
+    /**
+     * The logger for this class
+     */
+    private final static Logger logger
+        = Logger.getLogger(GoogleSpeechClientPool.class);
+
+    /**
+     * The property name for the amount of gRPC channels opened to the
+     * Google Cloud API.
+     */
+    public final static String P_NAME_CHANNEL_COUNT
+        = "org.jitsi.jigasi.transcription.google.CHANNEL_COUNT";
+
+    /**
+     * The property name for the time in ms without activity after which a
+     * keep-alive ping is sent on a channel.
+     */
+    public final static String P_NAME_KEEP_ALIVE_TIME
+        = "org.jitsi.jigasi.transcription.google.KEEP_ALIVE_TIME";
+
+    /**
+     * The property name for the time in ms to wait for the answer to a
+     * keep-alive ping before the channel is considered broken.
+     */
+    public final static String P_NAME_KEEP_ALIVE_TIMEOUT
+        = "org.jitsi.jigasi.transcription.google.KEEP_ALIVE_TIMEOUT";
+
+    /**
+     * The default amount of channels. Every channel is a single HTTP/2
+     * connection which can carry many concurrent recognition streams.
+     */
+    public final static int CHANNEL_COUNT_DEFAULT_VALUE = 2;
+
+    /**
+     * The default keep-alive time in ms.
+     */
+    public final static long KEEP_ALIVE_TIME_DEFAULT_VALUE = 60 * 1000;
+
+    /**
+     * The default keep-alive timeout in ms.
+     */
+    public final static long KEEP_ALIVE_TIMEOUT_DEFAULT_VALUE = 20 * 1000;
+
+    /**
+     * The address of the Google Cloud speech-to-text API.
+     */
+    private final static String SPEECH_API_HOST = "speech.googleapis.com";
+
+    /**
+     * The port of the Google Cloud speech-to-text API.
+     */
+    private final static int SPEECH_API_PORT = 443;
+
+    /**
+     * The OAuth scopes needed to use the speech-to-text API.
+     */
+    private final static List<String> SPEECH_API_SCOPES
+        = Collections.singletonList(
+            "https://www.googleapis.com/auth/cloud-platform");
+
+    /**
+     * The amount of threads used by all clients for their callbacks.
+     */
+    private final static int CLIENT_EXECUTOR_THREADS = 4;
+
+    /**
+     * The single instance of this pool.
+     */
+    private static GoogleSpeechClientPool instance = null;
+
+    /**
+     * The application default credentials, loaded once.
+     */
+    private GoogleCredentials credentials;
+
+    /**
+     * The channels opened to the API, null until the first client is needed.
+     */
+    private ManagedChannel[] channels;
+
+    /**
+     * One client per channel.
+     */
+    private volatile SpeechClient[] clients;
+
+    /**
+     * The executor shared by all clients.
+     */
+    private ScheduledExecutorService clientExecutor;
+
+    /**
+     * Used to hand out the clients in a round robin fashion.
+     */
+    private final AtomicInteger nextClient = new AtomicInteger();
+
+    /**
+     * Returns the single instance of this pool, creating it when needed.
+     *
+     * @return the pool
+     */
+    public static synchronized GoogleSpeechClientPool getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new GoogleSpeechClientPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Closes every client and channel of the pool, if it was ever created.
+     */
+    public static synchronized void shutdown()
+    {
+        if (instance != null)
+        {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Use {@link #getInstance()}.
+     */
+    private GoogleSpeechClientPool()
+    {
+    }
+
+    /**
+     * Get the application default credentials. They are loaded from disk only
+     * once.
+     *
+     * @return the credentials
+     * @throws IOException when the credentials are not properly set
+     */
+    public synchronized GoogleCredentials getCredentials()
+        throws IOException
+    {
+        if (credentials == null)
+        {
+            GoogleCredentials appDefault
+                = GoogleCredentials.getApplicationDefault();
+            if (appDefault.createScopedRequired())
+            {
+                appDefault = appDefault.createScoped(SPEECH_API_SCOPES);
+            }
+            credentials = appDefault;
+        }
+        return credentials;
+    }
+
+    /**
+     * Get a client to use for a request or a streaming session. The client is
+     * shared and must not be closed by the caller.
+     *
+     * @return a client
+     * @throws IOException when the channels could not be created
+     */
+    public SpeechClient getClient()
+        throws IOException
+    {
+        SpeechClient[] clients = this.clients;
+        if (clients == null)
+        {
+            clients = getClients();
+        }
+
+        int index = Math.abs(nextClient.getAndIncrement() % clients.length);
+        return clients[index];
+    }
+
+    /**
+     * Get all clients of this pool, creating them when needed.
+     *
+     * @return the clients
+     * @throws IOException when the channels could not be created
+     */
+    private synchronized SpeechClient[] getClients()
+        throws IOException
+    {
+        if (clients != null)
+        {
+            return clients;
+        }
+
+        ConfigurationService config
+            = JigasiBundleActivator.getConfigurationService();
+        int channelCount = Math.max(1,
+            config.getInt(P_NAME_CHANNEL_COUNT, CHANNEL_COUNT_DEFAULT_VALUE));
+        long keepAliveTime = config.getLong(
+            P_NAME_KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_DEFAULT_VALUE);
+        long keepAliveTimeout = config.getLong(
+            P_NAME_KEEP_ALIVE_TIMEOUT, KEEP_ALIVE_TIMEOUT_DEFAULT_VALUE);
+
+        GoogleCredentials credentials = getCredentials();
+        clientExecutor
+            = Executors.newScheduledThreadPool(CLIENT_EXECUTOR_THREADS);
+
+        ManagedChannel[] newChannels = new ManagedChannel[channelCount];
+        SpeechClient[] newClients = new SpeechClient[channelCount];
+        try
+        {
+            for (int i = 0; i < channelCount; i++)
+            {
+                newChannels[i] = NettyChannelBuilder
+                    .forAddress(SPEECH_API_HOST, SPEECH_API_PORT)
+                    .negotiationType(NegotiationType.TLS)
+                    .keepAliveTime(keepAliveTime, TimeUnit.MILLISECONDS)
+                    .keepAliveTimeout(keepAliveTimeout, TimeUnit.MILLISECONDS)
+                    .intercept(
+                        new ClientAuthInterceptor(credentials, clientExecutor))
+                    .build();
+
+                SpeechSettings settings = SpeechSettings.defaultBuilder()
+                    .setChannelProvider(
+                        FixedChannelProvider.create(newChannels[i]))
+                    .setExecutorProvider(
+                        FixedExecutorProvider.create(clientExecutor))
+                    .build();
+
+                newClients[i] = SpeechClient.create(settings);
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            for (ManagedChannel channel : newChannels)
+            {
+                if (channel != null)
+                {
+                    channel.shutdownNow();
+                }
+            }
+            clientExecutor.shutdownNow();
+            clientExecutor = null;
+            throw e;
+        }
+
+        logger.info("Opened " + channelCount + " channels to "
+            + SPEECH_API_HOST);
+
+        channels = newChannels;
+        clients = newClients;
+        return clients;
+    }
+
+    /**
+     * Closes every client and channel.
+     */
+    private synchronized void close()
+    {
+        if (clients == null)
+        {
+            return;
+        }
+
+        for (SpeechClient client : clients)
+        {
+            try
+            {
+                client.close();
+            }
+            catch (Exception e)
+            {
+                logger.warn("Failed to close SpeechClient", e);
+            }
+        }
+        for (ManagedChannel channel : channels)
+        {
+            channel.shutdown();
+        }
+        clientExecutor.shutdown();
+
+        clients = null;
+        channels = null;
+        clientExecutor = null;
+    }
+}
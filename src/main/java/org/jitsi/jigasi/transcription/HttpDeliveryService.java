@@ -0,0 +1,777 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.service.configuration.*;
+import org.jitsi.util.*;
+import org.json.simple.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Delivers JSON documents to remote HTTP services, e.g. the services
+ * receiving the transcription results or the detected actions, without
+ * blocking the caller.
+ * <p>
+ * Every URL gets its own bounded queue whose documents are posted in order,
+ * one request at a time, on a small pool of threads shared by all URLs. So a
+ * slow or unreachable service only delays its own documents. When its queue
+ * is full, either the oldest or the newest document is dropped.
+ * <p>
+ * Failed posts are retried with an exponential backoff. Connections are kept
+ * alive and reused between posts to the same host. Optionally, documents
+ * queued within a time window are posted together as a single JSON array.
+ */
+public class HttpDeliveryService
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger
+        = Logger.getLogger(HttpDeliveryService.class);
+
+    /**
+     * The property name for the maximum amount of documents queued for a
+     * single URL.
+     */
+    public final static String P_NAME_QUEUE_SIZE
+        = "org.jitsi.jigasi.transcription.delivery.QUEUE_SIZE";
+
+    /**
+     * The property name for what to drop when a queue is full, either
+     * <tt>DROP_OLDEST</tt> or <tt>DROP_NEWEST</tt>.
+     */
+    public final static String P_NAME_OVERFLOW_POLICY
+        = "org.jitsi.jigasi.transcription.delivery.OVERFLOW_POLICY";
+
+    /**
+     * The property name for the time in ms during which documents are
+     * collected to be posted together. 0 disables batching.
+     */
+    public final static String P_NAME_BATCH_WINDOW
+        = "org.jitsi.jigasi.transcription.delivery.BATCH_WINDOW";
+
+    /**
+     * The property name for the maximum amount of documents posted together.
+     */
+    public final static String P_NAME_MAX_BATCH_SIZE
+        = "org.jitsi.jigasi.transcription.delivery.MAX_BATCH_SIZE";
+
+    /**
+     * The property name for the amount of times a failed post is retried.
+     */
+    public final static String P_NAME_MAX_RETRIES
+        = "org.jitsi.jigasi.transcription.delivery.MAX_RETRIES";
+
+    /**
+     * The property name for the time in ms before the first retry, which is
+     * doubled for every next retry.
+     */
+    public final static String P_NAME_RETRY_BACKOFF
+        = "org.jitsi.jigasi.transcription.delivery.RETRY_BACKOFF";
+
+    /**
+     * The property name for the connect timeout in ms.
+     */
+    public final static String P_NAME_CONNECT_TIMEOUT
+        = "org.jitsi.jigasi.transcription.delivery.CONNECT_TIMEOUT";
+
+    /**
+     * The property name for the read timeout in ms.
+     */
+    public final static String P_NAME_READ_TIMEOUT
+        = "org.jitsi.jigasi.transcription.delivery.READ_TIMEOUT";
+
+    /**
+     * The property name for the amount of threads posting documents.
+     */
+    public final static String P_NAME_THREADS
+        = "org.jitsi.jigasi.transcription.delivery.THREADS";
+
+    /**
+     * The default maximum amount of queued documents per URL.
+     */
+    public final static int QUEUE_SIZE_DEFAULT_VALUE = 1000;
+
+    /**
+     * The default overflow policy.
+     */
+    public final static OverflowPolicy OVERFLOW_POLICY_DEFAULT_VALUE
+        = OverflowPolicy.DROP_OLDEST;
+
+    /**
+     * The default batch window, which disables batching as it changes the
+     * body of the posts.
+     */
+    public final static long BATCH_WINDOW_DEFAULT_VALUE = 0;
+
+    /**
+     * The default maximum amount of documents posted together.
+     */
+    public final static int MAX_BATCH_SIZE_DEFAULT_VALUE = 50;
+
+    /**
+     * The default amount of retries.
+     */
+    public final static int MAX_RETRIES_DEFAULT_VALUE = 3;
+
+    /**
+     * The default time in ms before the first retry.
+     */
+    public final static long RETRY_BACKOFF_DEFAULT_VALUE = 500;
+
+    /**
+     * The default connect timeout in ms.
+     */
+    public final static int CONNECT_TIMEOUT_DEFAULT_VALUE = 5000;
+
+    /**
+     * The default read timeout in ms.
+     */
+    public final static int READ_TIMEOUT_DEFAULT_VALUE = 10000;
+
+    /**
+     * The default amount of threads posting documents.
+     */
+    public final static int THREADS_DEFAULT_VALUE = 4;
+
+    /**
+     * The longest time in ms to wait before a retry.
+     */
+    private final static long MAX_RETRY_BACKOFF = 30 * 1000;
+
+    /**
+     * What to drop when the queue of a URL is full.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * Drop the document which has been queued the longest.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Drop the document which is being queued.
+         */
+        DROP_NEWEST
+    }
+
+    /**
+     * The single instance of this service.
+     */
+    private static HttpDeliveryService instance = null;
+
+    /**
+     * The maximum amount of queued documents per URL.
+     */
+    private final int queueSize;
+
+    /**
+     * What to drop when a queue is full.
+     */
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * The time in ms during which documents are collected to be posted
+     * together, 0 when batching is disabled.
+     */
+    private final long batchWindow;
+
+    /**
+     * The maximum amount of documents posted together.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * The amount of times a failed post is retried.
+     */
+    private final int maxRetries;
+
+    /**
+     * The time in ms before the first retry.
+     */
+    private final long retryBackoff;
+
+    /**
+     * The connect timeout in ms.
+     */
+    private final int connectTimeout;
+
+    /**
+     * The read timeout in ms.
+     */
+    private final int readTimeout;
+
+    /**
+     * The threads posting the documents.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The endpoints documents have been queued for, by URL.
+     */
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * The amount of documents which were delivered.
+     */
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    /**
+     * The amount of documents which could not be delivered, also after
+     * retrying.
+     */
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * The amount of documents which were dropped because their queue was
+     * full or the service was stopped.
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * The amount of posts which were retried.
+     */
+    private final AtomicLong retriedCount = new AtomicLong();
+
+    /**
+     * Whether this service has been stopped.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Returns the single instance of this service, creating it when needed.
+     *
+     * @return the service
+     */
+    public static synchronized HttpDeliveryService getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new HttpDeliveryService(
+                JigasiBundleActivator.getConfigurationService());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the single instance of this service, if it has been created.
+     *
+     * @return the service or null
+     */
+    public static synchronized HttpDeliveryService getInstanceIfCreated()
+    {
+        return instance;
+    }
+
+    /**
+     * Stops the service, if it was ever created. Documents which are already
+     * being posted are finished, the others are dropped.
+     */
+    public static synchronized void shutdown()
+    {
+        if (instance != null)
+        {
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    /**
+     * Create the service.
+     *
+     * @param config the configuration service to read the settings from
+     */
+    private HttpDeliveryService(ConfigurationService config)
+    {
+        this.queueSize = Math.max(1,
+            config.getInt(P_NAME_QUEUE_SIZE, QUEUE_SIZE_DEFAULT_VALUE));
+        this.batchWindow = Math.max(0,
+            config.getLong(P_NAME_BATCH_WINDOW, BATCH_WINDOW_DEFAULT_VALUE));
+        this.maxBatchSize = Math.max(1, config.getInt(
+            P_NAME_MAX_BATCH_SIZE, MAX_BATCH_SIZE_DEFAULT_VALUE));
+        this.maxRetries = Math.max(0,
+            config.getInt(P_NAME_MAX_RETRIES, MAX_RETRIES_DEFAULT_VALUE));
+        this.retryBackoff = Math.max(1, config.getLong(
+            P_NAME_RETRY_BACKOFF, RETRY_BACKOFF_DEFAULT_VALUE));
+        this.connectTimeout = config.getInt(
+            P_NAME_CONNECT_TIMEOUT, CONNECT_TIMEOUT_DEFAULT_VALUE);
+        this.readTimeout = config.getInt(
+            P_NAME_READ_TIMEOUT, READ_TIMEOUT_DEFAULT_VALUE);
+
+        OverflowPolicy policy = OVERFLOW_POLICY_DEFAULT_VALUE;
+        String policyName = config.getString(P_NAME_OVERFLOW_POLICY);
+        if (policyName != null)
+        {
+            try
+            {
+                policy = OverflowPolicy.valueOf(policyName.trim());
+            }
+            catch (IllegalArgumentException e)
+            {
+                logger.warn("Unknown overflow policy " + policyName);
+            }
+        }
+        this.overflowPolicy = policy;
+
+        int threads = Math.max(1,
+            config.getInt(P_NAME_THREADS, THREADS_DEFAULT_VALUE));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new NamedThreadFactory("http-delivery"));
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    /**
+     * Queue a JSON document to be posted to the given URL. Returns
+     * immediately.
+     *
+     * @param url the URL to post the document to
+     * @param json the document, which is serialized before this method
+     * returns and may thus be changed afterwards
+     */
+    public void post(String url, JSONObject json)
+    {
+        if (stopped)
+        {
+            droppedCount.incrementAndGet();
+            return;
+        }
+
+        endpoints.computeIfAbsent(url, Endpoint::new)
+            .offer(json.toJSONString());
+    }
+
+    /**
+     * Get the amount of documents which were delivered.
+     *
+     * @return the amount of delivered documents
+     */
+    public long getDeliveredCount()
+    {
+        return deliveredCount.get();
+    }
+
+    /**
+     * Get the amount of documents which could not be delivered, also after
+     * retrying.
+     *
+     * @return the amount of failed documents
+     */
+    public long getFailedCount()
+    {
+        return failedCount.get();
+    }
+
+    /**
+     * Get the amount of documents which were dropped because their queue was
+     * full or the service was stopped.
+     *
+     * @return the amount of dropped documents
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    /**
+     * Get the amount of posts which were retried.
+     *
+     * @return the amount of retries
+     */
+    public long getRetriedCount()
+    {
+        return retriedCount.get();
+    }
+
+    /**
+     * Get the amount of documents waiting to be posted, for all URLs.
+     *
+     * @return the amount of queued documents
+     */
+    public int getQueueSize()
+    {
+        int size = 0;
+        for (Endpoint endpoint : endpoints.values())
+        {
+            size += endpoint.size();
+        }
+        return size;
+    }
+
+    /**
+     * Stop posting documents.
+     */
+    private void stop()
+    {
+        stopped = true;
+        executor.shutdown();
+    }
+
+    /**
+     * Post a body to a URL.
+     *
+     * @param url the URL
+     * @param body the JSON body
+     * @return the HTTP status code of the response, or -1 when no response
+     * was received
+     */
+    private int send(String url, String body)
+    {
+        try
+        {
+            HttpURLConnection conn
+                = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(connectTimeout);
+            conn.setReadTimeout(readTimeout);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty(
+                "Content-Type", "application/json; charset=utf-8");
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            conn.setFixedLengthStreamingMode(bytes.length);
+            try (OutputStream os = conn.getOutputStream())
+            {
+                os.write(bytes);
+            }
+
+            int code = conn.getResponseCode();
+
+            // reading the whole response and closing the stream, instead of
+            // disconnecting, lets the connection be reused
+            consume(code >= HttpURLConnection.HTTP_BAD_REQUEST
+                ? conn.getErrorStream() : conn.getInputStream());
+
+            if (code < 200 || code >= 300)
+            {
+                logger.warn("Posting to " + url + " failed: "
+                    + code + "(" + conn.getResponseMessage() + ")");
+            }
+            return code;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Posting to " + url + " failed: " + e);
+            return -1;
+        }
+    }
+
+    /**
+     * Read a stream until its end and close it.
+     *
+     * @param in the stream, may be null
+     * @throws IOException when reading fails
+     */
+    private static void consume(InputStream in)
+        throws IOException
+    {
+        if (in == null)
+        {
+            return;
+        }
+
+        try
+        {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1)
+            {
+                // discard
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Get whether a post which failed with the given status code is worth
+     * retrying.
+     *
+     * @param code the status code, or -1 when no response was received
+     * @return true when the post should be retried
+     */
+    private static boolean isRetryable(int code)
+    {
+        return code < 0
+            || code >= HttpURLConnection.HTTP_INTERNAL_ERROR
+            || code == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+            || code == 429; // too many requests
+    }
+
+    /**
+     * The queue of documents of a single URL. Its documents are posted one
+     * batch at a time, so they arrive in the order they were queued.
+     */
+    private class Endpoint
+    {
+        /**
+         * The URL the documents are posted to.
+         */
+        private final String url;
+
+        /**
+         * The documents waiting to be posted. Also used as the lock for
+         * {@link #busy} and {@link #overflowing}.
+         */
+        private final Deque<String> queue = new ArrayDeque<>();
+
+        /**
+         * Whether a post of this endpoint is scheduled or in progress.
+         */
+        private boolean busy = false;
+
+        /**
+         * Whether the queue overflowed since it was last empty, so the
+         * overflow is only logged once.
+         */
+        private boolean overflowing = false;
+
+        /**
+         * The documents being posted. Only accessed by the task posting
+         * them, which runs on one thread at a time.
+         */
+        private List<String> batch = null;
+
+        /**
+         * The amount of failed attempts to post {@link #batch}.
+         */
+        private int attempts = 0;
+
+        /**
+         * The task posting the documents.
+         */
+        private final Runnable drainer = this::drain;
+
+        /**
+         * Create an endpoint.
+         *
+         * @param url the URL the documents are posted to
+         */
+        Endpoint(String url)
+        {
+            this.url = url;
+        }
+
+        /**
+         * Queue a document.
+         *
+         * @param json the serialized document
+         */
+        void offer(String json)
+        {
+            boolean start;
+            synchronized (queue)
+            {
+                if (queue.size() >= queueSize)
+                {
+                    droppedCount.incrementAndGet();
+                    if (!overflowing)
+                    {
+                        overflowing = true;
+                        logger.warn("Queue of " + url + " is full, dropping "
+                            + (overflowPolicy == OverflowPolicy.DROP_NEWEST
+                                ? "newest" : "oldest") + " documents");
+                    }
+
+                    if (overflowPolicy == OverflowPolicy.DROP_NEWEST)
+                    {
+                        return;
+                    }
+                    queue.poll();
+                }
+
+                queue.add(json);
+                start = !busy;
+                busy = true;
+            }
+
+            if (start)
+            {
+                schedule(batchWindow);
+            }
+        }
+
+        /**
+         * Get the amount of queued documents.
+         *
+         * @return the size of the queue
+         */
+        int size()
+        {
+            synchronized (queue)
+            {
+                return queue.size();
+            }
+        }
+
+        /**
+         * Run {@link #drainer} after the given delay.
+         *
+         * @param delay the delay in ms
+         */
+        private void schedule(long delay)
+        {
+            if (delay <= 0)
+            {
+                execute();
+                return;
+            }
+
+            try
+            {
+                SharedTimer.schedule(
+                    this::execute, delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                abandon();
+            }
+        }
+
+        /**
+         * Give {@link #drainer} to the threads of the service.
+         */
+        private void execute()
+        {
+            try
+            {
+                executor.execute(drainer);
+            }
+            catch (RejectedExecutionException e)
+            {
+                abandon();
+            }
+        }
+
+        /**
+         * Drop every document, as the service has been stopped.
+         */
+        private void abandon()
+        {
+            synchronized (queue)
+            {
+                int dropped = queue.size() + (batch != null ? batch.size() : 0);
+                droppedCount.addAndGet(dropped);
+                queue.clear();
+                batch = null;
+                attempts = 0;
+                busy = false;
+            }
+        }
+
+        /**
+         * Take the next documents to post from the queue.
+         *
+         * @return the documents, or null when the queue is empty
+         */
+        private List<String> takeBatch()
+        {
+            synchronized (queue)
+            {
+                if (queue.isEmpty())
+                {
+                    busy = false;
+                    overflowing = false;
+                    return null;
+                }
+
+                int size = batchWindow > 0
+                    ? Math.min(maxBatchSize, queue.size()) : 1;
+                List<String> batch = new ArrayList<>(size);
+                for (int i = 0; i < size; i++)
+                {
+                    batch.add(queue.poll());
+                }
+                return batch;
+            }
+        }
+
+        /**
+         * Post the current batch, or the next one, and schedule what comes
+         * after it.
+         */
+        private void drain()
+        {
+            if (batch == null)
+            {
+                batch = takeBatch();
+                if (batch == null)
+                {
+                    return;
+                }
+            }
+
+            String body = batchWindow > 0
+                ? "[" + String.join(",", batch) + "]"
+                : batch.get(0);
+
+            int code = send(url, body);
+            if (code >= 200 && code < 300)
+            {
+                deliveredCount.addAndGet(batch.size());
+            }
+            else if (isRetryable(code) && attempts < maxRetries && !stopped)
+            {
+                attempts++;
+                retriedCount.incrementAndGet();
+                long delay = Math.min(
+                    MAX_RETRY_BACKOFF,
+                    retryBackoff << Math.min(attempts - 1, 16));
+                schedule(delay);
+                return;
+            }
+            else
+            {
+                failedCount.addAndGet(batch.size());
+                logger.error("Could not deliver " + batch.size()
+                    + " documents to " + url);
+            }
+
+            batch = null;
+            attempts = 0;
+
+            boolean more;
+            synchronized (queue)
+            {
+                more = !queue.isEmpty();
+                if (!more)
+                {
+                    busy = false;
+                    overflowing = false;
+                }
+            }
+
+            if (more)
+            {
+                schedule(batchWindow);
+            }
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.jitsi.jigasi.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Limits the interim {@link TranscriptionResult}s which are published, as
+ * the speech-to-text API sends several of them a second for every speaker
+ * and every one of them becomes a message in the room.
+ * <p>
+ * For every participant, an interim result is dropped when neither its
+ * text nor its stability changed, and at most one interim result is
+ * published every interval. An interim result which comes in too early is
+ * held back and replaced by newer ones until the interval is over, so the
+ * latest one is always published. A final result is published right away,
+ * after the interim result held back for another utterance if any, and
+ * replaces the one held back for its own utterance.
+ * <p>
+ * The results are published in order on an executor, as publishing sends
+ * messages to the room and must neither hold the lock of a participant nor
+ * run on the timer releasing the held back results.
+ */
+public class InterimResultCoalescer
+{
+    /**
+     * The property name for the minimum time in ms between two interim
+     * results of a participant which are published. Every interim result
+     * which changed is published when not set.
+     */
+    public final static String P_NAME_INTERIM_RESULT_INTERVAL
+        = "org.jitsi.jigasi.transcription.INTERIM_RESULT_INTERVAL";
+
+    /**
+     * By default interim results are not throttled, only the ones which did
+     * not change are dropped.
+     */
+    public final static long INTERIM_RESULT_INTERVAL_DEFAULT_VALUE = 0;
+
+    /**
+     * The amount of interim results published by all coalescers.
+     */
+    private final static AtomicLong totalPublished = new AtomicLong();
+
+    /**
+     * The amount of interim results dropped by all coalescers.
+     */
+    private final static AtomicLong totalSuppressed = new AtomicLong();
+
+    /**
+     * The minimum time in ms between two published interim results of a
+     * participant.
+     */
+    private final long interval;
+
+    /**
+     * Publishes the results which are let through.
+     */
+    private final Consumer<TranscriptionResult> publisher;
+
+    /**
+     * Runs {@link #publisher}, one result at a time and in order.
+     */
+    private final SerialExecutor executor;
+
+    /**
+     * Gets the participant to whom a result belongs, or null.
+     */
+    private final Function<TranscriptionResult, ?> speakerKey;
+
+    /**
+     * The state of every participant which had results.
+     */
+    private final Map<Object, Speaker> speakers
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The amount of interim results dropped by this coalescer.
+     */
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Whether this coalescer has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Create a coalescer.
+     *
+     * @param interval the minimum time in ms between two published interim
+     * results of a participant
+     * @param publisher publishes the results which are let through
+     * @param executor the executor on which the results are published
+     */
+    public InterimResultCoalescer(
+        long interval,
+        Consumer<TranscriptionResult> publisher,
+        Executor executor)
+    {
+        this(interval, publisher, executor,
+            TranscriptionResult::getParticipant);
+    }
+
+    /**
+     * Create a coalescer which tells the speakers apart by something else
+     * than the participant of the results.
+     *
+     * @param interval the minimum time in ms between two published interim
+     * results of a speaker
+     * @param publisher publishes the results which are let through
+     * @param executor the executor on which the results are published
+     * @param speakerKey gets the speaker to whom a result belongs, or null
+     */
+    InterimResultCoalescer(
+        long interval,
+        Consumer<TranscriptionResult> publisher,
+        Executor executor,
+        Function<TranscriptionResult, ?> speakerKey)
+    {
+        this.interval = Math.max(0, interval);
+        this.publisher = publisher;
+        this.executor = new SerialExecutor(executor);
+        this.speakerKey = speakerKey;
+    }
+
+    /**
+     * Get the amount of interim results published by all coalescers.
+     *
+     * @return the amount of published interim results
+     */
+    public static long getTotalPublished()
+    {
+        return totalPublished.get();
+    }
+
+    /**
+     * Get the amount of interim results dropped by all coalescers.
+     *
+     * @return the amount of dropped interim results
+     */
+    public static long getTotalSuppressed()
+    {
+        return totalSuppressed.get();
+    }
+
+    /**
+     * Publish a result, or hold it back or drop it when it is an interim
+     * result.
+     *
+     * @param result the result
+     */
+    public void notify(TranscriptionResult result)
+    {
+        Object speaker = speakerKey.apply(result);
+        if (speaker == null || closed)
+        {
+            publish(result);
+            return;
+        }
+
+        speakers.computeIfAbsent(speaker, s -> new Speaker())
+            .notify(result);
+    }
+
+    /**
+     * Drop the interim results which are held back. Results which come in
+     * afterwards are published right away.
+     */
+    public void close()
+    {
+        closed = true;
+        for (Speaker speaker : speakers.values())
+        {
+            speaker.close();
+        }
+        speakers.clear();
+    }
+
+    /**
+     * Get the amount of interim results dropped by this coalescer.
+     *
+     * @return the amount of dropped interim results
+     */
+    public long getSuppressedCount()
+    {
+        return suppressed.get();
+    }
+
+    /**
+     * Give a result to {@link #executor} to be published.
+     *
+     * @param result the result
+     */
+    private void publish(TranscriptionResult result)
+    {
+        try
+        {
+            executor.execute(() -> publisher.accept(result));
+        }
+        catch (RejectedExecutionException e)
+        {
+            // jigasi is shutting down, the room is left anyway
+        }
+    }
+
+    /**
+     * Count an interim result which is dropped.
+     */
+    private void suppressed()
+    {
+        suppressed.incrementAndGet();
+        totalSuppressed.incrementAndGet();
+    }
+
+    /**
+     * Get the text of the best alternative of a result.
+     *
+     * @param result the result
+     * @return the text, or an empty string when there is no alternative
+     */
+    private static String getText(TranscriptionResult result)
+    {
+        Iterator<TranscriptionAlternative> alternatives
+            = result.getAlternatives().iterator();
+        return alternatives.hasNext()
+            ? alternatives.next().getTranscription() : "";
+    }
+
+    /**
+     * The interim results of a participant. Results are given to the
+     * executor with the lock of the instance held, so they are published in
+     * order, but they are published without it.
+     */
+    private class Speaker
+    {
+        /**
+         * The message ID of the last published interim result.
+         */
+        private UUID lastMessageID;
+
+        /**
+         * The text of the last published interim result.
+         */
+        private String lastText;
+
+        /**
+         * The stability of the last published interim result.
+         */
+        private double lastStability;
+
+        /**
+         * The time in ms at which the last interim result was published.
+         */
+        private long lastTime;
+
+        /**
+         * The interim result which is held back, or null.
+         */
+        private TranscriptionResult pending;
+
+        /**
+         * Publishes {@link #pending} once the interval is over, or null.
+         */
+        private HashedWheelTimer.Timeout timeout;
+
+        /**
+         * Publish, hold back or drop a result.
+         *
+         * @param result the result
+         */
+        synchronized void notify(TranscriptionResult result)
+        {
+            if (!result.isInterim())
+            {
+                if (pending != null)
+                {
+                    if (pending.getMessageID().equals(result.getMessageID()))
+                    {
+                        suppressed();
+                    }
+                    else
+                    {
+                        publishInterim(pending);
+                    }
+                    clearPending();
+                }
+                lastMessageID = null;
+                publish(result);
+                return;
+            }
+
+            if (pending == null && isUnchanged(result))
+            {
+                suppressed();
+                return;
+            }
+
+            if (pending != null)
+            {
+                if (!pending.getMessageID().equals(result.getMessageID()))
+                {
+                    // the last words of another utterance
+                    publishInterim(pending);
+                    clearPending();
+                }
+                else
+                {
+                    // replaced by a newer one
+                    suppressed();
+                    pending = result;
+                    return;
+                }
+            }
+
+            long wait = lastTime + interval - System.currentTimeMillis();
+            if (wait <= 0)
+            {
+                publishInterim(result);
+                return;
+            }
+
+            pending = result;
+            try
+            {
+                timeout = SharedTimer.schedule(
+                    this::publishPending, wait, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // jigasi is shutting down
+                clearPending();
+                publishInterim(result);
+            }
+        }
+
+        /**
+         * Get whether an interim result has the same text and stability as
+         * the last one which was published.
+         *
+         * @param result the interim result
+         * @return true when nothing changed
+         */
+        private boolean isUnchanged(TranscriptionResult result)
+        {
+            return result.getMessageID().equals(lastMessageID)
+                && result.getStability() == lastStability
+                && getText(result).equals(lastText);
+        }
+
+        /**
+         * Publish an interim result and remember it.
+         *
+         * @param result the interim result
+         */
+        private void publishInterim(TranscriptionResult result)
+        {
+            lastMessageID = result.getMessageID();
+            lastText = getText(result);
+            lastStability = result.getStability();
+            lastTime = System.currentTimeMillis();
+
+            totalPublished.incrementAndGet();
+            publish(result);
+        }
+
+        /**
+         * Publish the interim result which was held back, unless it has
+         * been published or replaced by a final result in the meantime.
+         */
+        private synchronized void publishPending()
+        {
+            timeout = null;
+            TranscriptionResult result = pending;
+            if (result == null)
+            {
+                return;
+            }
+
+            pending = null;
+            if (isUnchanged(result))
+            {
+                suppressed();
+            }
+            else
+            {
+                publishInterim(result);
+            }
+        }
+
+        /**
+         * Forget the interim result which is held back.
+         */
+        private void clearPending()
+        {
+            pending = null;
+            if (timeout != null)
+            {
+                timeout.cancel();
+                timeout = null;
+            }
+        }
+
+        /**
+         * Drop the interim result which is held back.
+         */
+        synchronized void close()
+        {
+            if (pending != null)
+            {
+                suppressed();
+                clearPending();
+            }
+        }
+    }
+}
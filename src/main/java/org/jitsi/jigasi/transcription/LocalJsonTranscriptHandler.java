@@ -20,6 +20,7 @@ package org.jitsi.jigasi.transcription;
 import net.java.sip.communicator.service.protocol.*;
 import org.json.simple.*;
 
+import java.io.*;
 import java.time.*;
 import java.util.*;
 
@@ -244,6 +245,18 @@ public class LocalJsonTranscriptHandler
         return new JSONPublishPromise();
     }
 
+    /**
+     * Every event is stored as a single line of JSON, so the segment of a
+     * transcript is a JSON Lines file.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    protected String toSegmentEntry(JSONObject formattedEvent)
+    {
+        return formattedEvent.toJSONString() + "\n";
+    }
+
     @Override
     protected JSONObject formatSpeechEvent(SpeechEvent e)
     {
@@ -351,23 +364,21 @@ public class LocalJsonTranscriptHandler
 
     /**
      * Make a given object the "final_transcript" JSON object by adding the
-     * fields roomName, startTime, endTime, initialParticipants and events to
-     * the given object.
+     * fields roomName, startTime, endTime and initialParticipants to the
+     * given object. The events are added while it is written.
      *
      * @param jsonObject the object to add the fields to
      * @param roomName the room name
      * @param participants the initial participants
      * @param start the start time
      * @param end the end time
-     * @param events a collection of "event" json objects
      */
     @SuppressWarnings("unchecked")
     private void addTranscriptDescription(JSONObject jsonObject,
                                           String roomName,
                                           Collection<Participant> participants,
                                           Instant start,
-                                          Instant end,
-                                          Collection<JSONObject> events)
+                                          Instant end)
     {
         if(roomName != null && !roomName.isEmpty())
         {
@@ -412,12 +423,6 @@ public class LocalJsonTranscriptHandler
             jsonObject.put(JSON_KEY_FINAL_TRANSCRIPT_INITIAL_PARTICIPANTS,
                 participantArray);
         }
-        if(events != null && !events.isEmpty())
-        {
-            JSONArray eventArray = new JSONArray();
-            eventArray.addAll(events);
-            jsonObject.put(JSON_KEY_FINAL_TRANSCRIPT_EVENTS, eventArray);
-        }
     }
 
     /**
@@ -426,9 +431,16 @@ public class LocalJsonTranscriptHandler
     private class JSONFormatter
         extends BaseFormatter
     {
+        /**
+         * Writes the description of the transcript, followed by the events
+         * array streamed from the lines of the segment, so the events are
+         * never all in memory at once.
+         *
+         * {@inheritDoc}
+         */
         @Override
-        @SuppressWarnings("unchecked")
-        public JSONObject finish()
+        void write(TranscriptSegment events, Writer writer)
+            throws IOException
         {
             JSONObject transcript = new JSONObject();
 
@@ -437,10 +449,49 @@ public class LocalJsonTranscriptHandler
                 super.roomName,
                 super.initialMembers,
                 super.startInstant,
-                super.endInstant,
-                super.getSortedEvents());
+                super.endInstant);
+
+            // the description without its closing brace
+            String description = transcript.toJSONString();
+            writer.write(description, 0, description.length() - 1);
 
-            return transcript;
+            boolean hasEvents = false;
+            if (events != null)
+            {
+                try (BufferedReader reader = events.openReader())
+                {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                    {
+                        if (line.isEmpty())
+                        {
+                            continue;
+                        }
+
+                        if (hasEvents)
+                        {
+                            writer.write(',');
+                        }
+                        else
+                        {
+                            hasEvents = true;
+                            if (!transcript.isEmpty())
+                            {
+                                writer.write(',');
+                            }
+                            writer.write("\"" + JSON_KEY_FINAL_TRANSCRIPT_EVENTS
+                                + "\":[");
+                        }
+                        writer.write(line);
+                    }
+                }
+            }
+
+            if (hasEvents)
+            {
+                writer.write(']');
+            }
+            writer.write('}');
         }
     }
 
@@ -452,24 +503,6 @@ public class LocalJsonTranscriptHandler
          */
         private String fileName = generateHardToGuessFileName() + ".json";
 
-        /**
-         * Whether {@link this#publish(Transcript)} has already been called once
-         */
-        private boolean published = false;
-
-        @Override
-        public synchronized void publish(Transcript transcript)
-        {
-            if(!published)
-            {
-                published = true;
-
-                JSONObject t
-                    = transcript.getTranscript(LocalJsonTranscriptHandler.this);
-                saveTranscriptToFile(getFileName(), t);
-            }
-        }
-
         @Override
         protected String getFileName()
         {
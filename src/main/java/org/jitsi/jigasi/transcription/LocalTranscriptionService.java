@@ -0,0 +1,802 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import com.google.cloud.speech.v1.*;
+import com.google.protobuf.*;
+import io.grpc.*;
+import io.grpc.netty.*;
+import io.grpc.stub.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.transcription.action.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.service.configuration.*;
+import org.jitsi.util.Logger;
+
+import javax.media.format.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Implements a TranscriptionService which streams the audio to a local or
+ * self-hosted recognizer instead of a cloud API. The recognizer is reached
+ * over a plain gRPC connection and has to implement the
+ * <tt>google.cloud.speech.v1.Speech</tt> service, which many self-hosted
+ * recognizers offer and which needs no other dependency than the ones used
+ * for the Google Cloud API.
+ * <p>
+ * Unlike the Google Cloud API, a local recognizer has no limit on the
+ * duration of a stream, so a stream is kept open for as long as the
+ * participant is speaking and the recognizer decides when an utterance is
+ * final. A stream is only closed when the participant stops speaking, the
+ * language changes or no audio has been sent for a while.
+ * <p>
+ * With {@link #P_NAME_STAND_IN} the {@link StandInSpeechServer} is started
+ * in-process, which makes it possible to run the whole transcription path
+ * without any recognizer, e.g. to load test it.
+ */
+public class LocalTranscriptionService
+    implements TranscriptionService
+{
+    /**
+     * The logger for this class
+     */
+    private final static Logger logger
+        = Logger.getLogger(LocalTranscriptionService.class);
+
+    /**
+     * The property name for the host of the recognizer.
+     */
+    public final static String P_NAME_HOST
+        = "org.jitsi.jigasi.transcription.local.HOST";
+
+    /**
+     * The property name for the port of the recognizer.
+     */
+    public final static String P_NAME_PORT
+        = "org.jitsi.jigasi.transcription.local.PORT";
+
+    /**
+     * The property name for whether to start the {@link StandInSpeechServer}
+     * on {@link #P_NAME_PORT} instead of using a real recognizer.
+     */
+    public final static String P_NAME_STAND_IN
+        = "org.jitsi.jigasi.transcription.local.STAND_IN";
+
+    /**
+     * The default host of the recognizer.
+     */
+    public final static String HOST_DEFAULT_VALUE = "127.0.0.1";
+
+    /**
+     * The default port of the recognizer.
+     */
+    public final static int PORT_DEFAULT_VALUE = 50051;
+
+    /**
+     * The amount of ms after which a stream is closed when no new audio is
+     * given, so the recognizer finishes the utterance of a participant who
+     * muted.
+     */
+    private final static long STREAM_IDLE_TIMEOUT_MS = 2000;
+
+    /**
+     * The amount of ms to wait for the transcription of a single request.
+     */
+    private final static long SINGLE_REQUEST_TIMEOUT_MS = 30 * 1000;
+
+    /**
+     * The channel to the recognizer, shared by all instances which were not
+     * given their own channel.
+     */
+    private static ManagedChannel sharedChannel = null;
+
+    /**
+     * The stand-in recognizer, when it has been started.
+     */
+    private static Server standIn = null;
+
+    /**
+     * The pool shared by all streaming sessions, each of which runs its tasks
+     * in order on it through its own {@link SerialExecutor}
+     */
+    private static ExecutorService sessionExecutor = null;
+
+    /**
+     * The channel used by this instance, or null to use the shared one.
+     */
+    private final Channel channel;
+
+    /**
+     * Create a TranscriptionService which sends the audio to the configured
+     * recognizer.
+     */
+    public LocalTranscriptionService()
+    {
+        this(null);
+    }
+
+    /**
+     * Create a TranscriptionService which sends the audio over the given
+     * channel.
+     *
+     * @param channel the channel to the recognizer, or null to use the
+     * channel to the configured recognizer
+     */
+    LocalTranscriptionService(Channel channel)
+    {
+        this.channel = channel;
+    }
+
+    /**
+     * Close the channel to the recognizer and stop the stand-in recognizer,
+     * if they were ever created.
+     */
+    public static synchronized void shutdown()
+    {
+        if (sharedChannel != null)
+        {
+            sharedChannel.shutdown();
+            sharedChannel = null;
+        }
+        if (standIn != null)
+        {
+            standIn.shutdown();
+            standIn = null;
+        }
+        if (sessionExecutor != null)
+        {
+            sessionExecutor.shutdown();
+            sessionExecutor = null;
+        }
+    }
+
+    /**
+     * Get the channel to the configured recognizer, opening it when needed.
+     *
+     * @return the channel
+     * @throws IOException when the stand-in recognizer could not be started
+     */
+    private static synchronized Channel getSharedChannel()
+        throws IOException
+    {
+        if (sharedChannel == null)
+        {
+            ConfigurationService config
+                = JigasiBundleActivator.getConfigurationService();
+            String host = config.getString(P_NAME_HOST, HOST_DEFAULT_VALUE);
+            int port = config.getInt(P_NAME_PORT, PORT_DEFAULT_VALUE);
+
+            if (config.getBoolean(P_NAME_STAND_IN, false) && standIn == null)
+            {
+                standIn = StandInSpeechServer.start(port);
+                logger.info("Started stand-in recognizer on port " + port);
+            }
+
+            sharedChannel = NettyChannelBuilder.forAddress(host, port)
+                .negotiationType(NegotiationType.PLAINTEXT)
+                .build();
+            logger.info("Opened channel to local recognizer at "
+                + host + ":" + port);
+        }
+        return sharedChannel;
+    }
+
+    /**
+     * Get the pool shared by all streaming sessions, creating it when needed
+     *
+     * @return the pool of the streaming sessions
+     */
+    private static synchronized ExecutorService getSessionExecutor()
+    {
+        if (sessionExecutor == null)
+        {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("local-stt-session"));
+            executor.allowCoreThreadTimeOut(true);
+
+            sessionExecutor = executor;
+        }
+        return sessionExecutor;
+    }
+
+    /**
+     * Get the channel used by this instance.
+     *
+     * @return the channel
+     * @throws IOException when the channel could not be opened
+     */
+    private Channel getChannel()
+        throws IOException
+    {
+        return channel != null ? channel : getSharedChannel();
+    }
+
+    /**
+     * Builds the RecognitionConfig of the audio of a request. Unlike the
+     * Google Cloud API, any language is given to the recognizer, which
+     * rejects the ones it does not know.
+     *
+     * @param request the request which will need to be transcribed
+     * @return the config based on the audio contained in the request
+     * @throws IllegalArgumentException when the audio is not linear
+     */
+    private static RecognitionConfig buildRecognitionConfig(
+        TranscriptionRequest request)
+    {
+        AudioFormat format = request.getFormat();
+        if (!AudioFormat.LINEAR.equals(format.getEncoding()))
+        {
+            throw new IllegalArgumentException(
+                "Given AudioFormat has unexpected encoding");
+        }
+
+        RecognitionConfig.Builder builder = RecognitionConfig.newBuilder()
+            .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+            .setSampleRateHertz((int) format.getSampleRate())
+            .setLanguageCode(request.getLocale().toLanguageTag());
+
+        ActionServicesHandler actions = ActionServicesHandler.getInstance();
+        if (actions != null)
+        {
+            for (String phrase : actions.getPhrases())
+            {
+                builder.addSpeechContexts(
+                    SpeechContext.newBuilder().addPhrases(phrase));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Wrap the audio of a request in a {@link ByteString} without copying it.
+     * The returned {@link ByteString} must not be used anymore after the
+     * request has been released, so it is only used for the blocking single
+     * requests.
+     *
+     * @param request the request holding the audio
+     * @return a {@link ByteString} backed by the audio of the request
+     */
+    private static ByteString wrapAudio(TranscriptionRequest request)
+    {
+        return UnsafeByteOperations.unsafeWrap(
+            request.getAudio(), 0, request.getAudioLength());
+    }
+
+    /**
+     * Give a result to the action handlers, when it is final.
+     *
+     * @param result the result
+     */
+    private static void notifyActionServices(TranscriptionResult result)
+    {
+        ActionServicesHandler actions = ActionServicesHandler.getInstance();
+        if (!result.isInterim() && actions != null)
+        {
+            actions.notifyActionServices(result);
+        }
+    }
+
+    @Override
+    public boolean isConfiguredProperly()
+    {
+        try
+        {
+            getChannel();
+            return true;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Local recognizer is not available", e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean supportsFragmentTranscription()
+    {
+        return true;
+    }
+
+    @Override
+    public void sendSingleRequest(TranscriptionRequest request,
+                                  Consumer<TranscriptionResult> resultConsumer)
+    {
+        try
+        {
+            RecognizeRequest recognizeRequest = RecognizeRequest.newBuilder()
+                .setConfig(buildRecognitionConfig(request))
+                .setAudio(RecognitionAudio.newBuilder()
+                    .setContent(wrapAudio(request)))
+                .build();
+
+            RecognizeResponse response = SpeechGrpc
+                .newBlockingStub(getChannel())
+                .withDeadlineAfter(
+                    SINGLE_REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .recognize(recognizeRequest);
+
+            StringBuilder builder = new StringBuilder();
+            for (SpeechRecognitionResult result : response.getResultsList())
+            {
+                if (result.getAlternativesCount() > 0)
+                {
+                    builder.append(
+                        result.getAlternatives(0).getTranscript());
+                    builder.append(" ");
+                }
+            }
+
+            TranscriptionResult result = new TranscriptionResult(
+                null,
+                UUID.randomUUID(),
+                false,
+                request.getLocale().toLanguageTag(),
+                0,
+                new TranscriptionAlternative(builder.toString().trim()));
+            resultConsumer.accept(result);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.warn("Failed to transcribe request", e);
+        }
+        finally
+        {
+            request.release();
+        }
+    }
+
+    @Override
+    public boolean supportsStreamRecognition()
+    {
+        return true;
+    }
+
+    @Override
+    public StreamingRecognitionSession initStreamingSession()
+        throws UnsupportedOperationException
+    {
+        return new LocalStreamingRecognitionSession();
+    }
+
+    /**
+     * A session streaming the audio of a participant to the recognizer.
+     * All calls to the current stream are made in order on the
+     * {@link SerialExecutor} of the session.
+     */
+    private class LocalStreamingRecognitionSession
+        implements StreamingRecognitionSession
+    {
+        /**
+         * The listeners notified of the results of the session.
+         */
+        private final List<TranscriptionListener> listeners
+            = new CopyOnWriteArrayList<>();
+
+        /**
+         * Used to send all requests of the session in order, on the threads
+         * shared by all sessions.
+         */
+        private final SerialExecutor executor
+            = new SerialExecutor(getSessionExecutor());
+
+        /**
+         * The stream the audio is currently sent to, or null when a new one
+         * has to be opened for the next audio.
+         */
+        private StreamObserver<StreamingRecognizeRequest> stream;
+
+        /**
+         * The language of the audio of the current stream.
+         */
+        private Locale streamLocale;
+
+        /**
+         * The time in ms at which audio was last sent to the current stream.
+         */
+        private volatile long lastRequestTime;
+
+        /**
+         * The timeout which checks whether the current stream is idle.
+         */
+        private HashedWheelTimer.Timeout idleTimeout;
+
+        /**
+         * The amount of streams which have not completed yet.
+         */
+        private int openStreams = 0;
+
+        /**
+         * Whether {@link #end()} has been called.
+         */
+        private boolean ending = false;
+
+        /**
+         * Whether the listeners have been told the session is completed.
+         */
+        private boolean completed = false;
+
+        @Override
+        public void sendRequest(TranscriptionRequest request)
+        {
+            try
+            {
+                executor.execute(() -> {
+                    try
+                    {
+                        send(request);
+                    }
+                    catch (Exception e)
+                    {
+                        logger.warn("Not able to send request", e);
+                        closeStream();
+                    }
+                    finally
+                    {
+                        request.release();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the session has ended in the meantime
+                request.release();
+            }
+        }
+
+        @Override
+        public void endOfSpeech()
+        {
+            try
+            {
+                // the recognizer finishes the utterance once the stream is
+                // closed after the last audio
+                executor.execute(this::closeStream);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the session has ended, which closes the stream anyway
+            }
+        }
+
+        @Override
+        public void end()
+        {
+            synchronized (this)
+            {
+                ending = true;
+            }
+            try
+            {
+                // ordered after the audio which is still queued
+                executor.execute(() -> {
+                    closeStream();
+                    checkCompleted();
+                });
+                executor.shutdown();
+            }
+            catch (RejectedExecutionException e)
+            {
+                // already ended
+            }
+        }
+
+        @Override
+        public boolean ended()
+        {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public int getQueuedRequests()
+        {
+            return executor.getQueueSize();
+        }
+
+        @Override
+        public void addTranscriptionListener(TranscriptionListener listener)
+        {
+            listeners.add(listener);
+        }
+
+        /**
+         * Send the audio of a request to the current stream, opening a new
+         * stream when there is none or the language has changed. The audio
+         * is copied: a stream which has not started yet serializes its
+         * messages later, after the request has been released and its chunk
+         * has been reused.
+         *
+         * @param request the request
+         * @throws IOException when the channel could not be opened
+         */
+        private void send(TranscriptionRequest request)
+            throws IOException
+        {
+            if (stream != null && !request.getLocale().equals(streamLocale))
+            {
+                closeStream();
+            }
+            if (stream == null)
+            {
+                openStream(request);
+            }
+
+            stream.onNext(StreamingRecognizeRequest.newBuilder()
+                .setAudioContent(ByteString.copyFrom(
+                    request.getAudio(), 0, request.getAudioLength()))
+                .build());
+            lastRequestTime = System.currentTimeMillis();
+        }
+
+        /**
+         * Open a new stream and send the configuration of the audio of the
+         * given request.
+         *
+         * @param request the first request of the stream
+         * @throws IOException when the channel could not be opened
+         */
+        private void openStream(TranscriptionRequest request)
+            throws IOException
+        {
+            ResponseObserver responseObserver
+                = new ResponseObserver(request.getLocale().toLanguageTag());
+            StreamObserver<StreamingRecognizeRequest> newStream
+                = SpeechGrpc.newStub(getChannel())
+                    .streamingRecognize(responseObserver);
+            responseObserver.requestStream = newStream;
+            synchronized (this)
+            {
+                openStreams++;
+            }
+
+            newStream.onNext(StreamingRecognizeRequest.newBuilder()
+                .setStreamingConfig(StreamingRecognitionConfig.newBuilder()
+                    .setConfig(buildRecognitionConfig(request))
+                    .setInterimResults(true))
+                .build());
+
+            stream = newStream;
+            streamLocale = request.getLocale();
+            lastRequestTime = System.currentTimeMillis();
+            scheduleIdleCheck(newStream, STREAM_IDLE_TIMEOUT_MS);
+
+            if (logger.isDebugEnabled())
+                logger.debug("Opened a stream to the local recognizer");
+        }
+
+        /**
+         * Half-close the current stream, if there is one. The recognizer
+         * still sends the results of the audio it has received.
+         */
+        private void closeStream()
+        {
+            if (idleTimeout != null)
+            {
+                idleTimeout.cancel();
+                idleTimeout = null;
+            }
+            if (stream != null)
+            {
+                StreamObserver<StreamingRecognizeRequest> closed = stream;
+                stream = null;
+                try
+                {
+                    closed.onCompleted();
+                }
+                catch (RuntimeException e)
+                {
+                    // the stream has already failed
+                }
+            }
+        }
+
+        /**
+         * Schedule a check whether the given stream has stopped receiving
+         * audio, on the timer shared by all sessions.
+         *
+         * @param checked the stream to check
+         * @param delay the delay in ms after which to check
+         */
+        private void scheduleIdleCheck(
+            StreamObserver<StreamingRecognizeRequest> checked, long delay)
+        {
+            idleTimeout = SharedTimer.schedule(() -> {
+                try
+                {
+                    executor.execute(() -> checkIdle(checked));
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // the session ended, which closes the stream anyway
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Close the given stream when it has been idle for
+         * {@link #STREAM_IDLE_TIMEOUT_MS}, or check again later.
+         *
+         * @param checked the stream to check
+         */
+        private void checkIdle(
+            StreamObserver<StreamingRecognizeRequest> checked)
+        {
+            if (stream != checked)
+            {
+                return;
+            }
+
+            long idle = System.currentTimeMillis() - lastRequestTime;
+            if (idle >= STREAM_IDLE_TIMEOUT_MS)
+            {
+                closeStream();
+            }
+            else
+            {
+                scheduleIdleCheck(checked, STREAM_IDLE_TIMEOUT_MS - idle);
+            }
+        }
+
+        /**
+         * Called when a stream has completed or failed.
+         */
+        private void streamClosed()
+        {
+            synchronized (this)
+            {
+                openStreams--;
+            }
+            checkCompleted();
+        }
+
+        /**
+         * Tell the listeners the session is completed once it has ended and
+         * every stream has delivered its results.
+         */
+        private void checkCompleted()
+        {
+            synchronized (this)
+            {
+                if (!ending || openStreams > 0 || completed)
+                {
+                    return;
+                }
+                completed = true;
+            }
+
+            for (TranscriptionListener listener : listeners)
+            {
+                listener.completed();
+            }
+        }
+
+        /**
+         * Receives the results of a single stream.
+         */
+        private class ResponseObserver
+            implements StreamObserver<StreamingRecognizeResponse>
+        {
+            /**
+             * The language of the audio of the stream.
+             */
+            private final String languageTag;
+
+            /**
+             * The stream the audio is sent to.
+             */
+            private StreamObserver<StreamingRecognizeRequest> requestStream;
+
+            /**
+             * Identifies the results of the current utterance, renewed
+             * after every final result as a stream can hold many utterances.
+             */
+            private UUID messageID = UUID.randomUUID();
+
+            /**
+             * Create an observer of the results of a stream.
+             *
+             * @param languageTag the language of the audio of the stream
+             */
+            ResponseObserver(String languageTag)
+            {
+                this.languageTag = languageTag;
+            }
+
+            @Override
+            public void onNext(StreamingRecognizeResponse response)
+            {
+                if (response.hasError())
+                {
+                    logger.warn("Local recognizer returned an error: "
+                        + response.getError().getMessage());
+                    return;
+                }
+
+                for (StreamingRecognitionResult result
+                        : response.getResultsList())
+                {
+                    if (result.getAlternativesCount() == 0)
+                    {
+                        continue;
+                    }
+
+                    TranscriptionResult transcriptionResult
+                        = new TranscriptionResult(
+                            null,
+                            messageID,
+                            !result.getIsFinal(),
+                            languageTag,
+                            result.getStability());
+                    for (SpeechRecognitionAlternative alternative
+                            : result.getAlternativesList())
+                    {
+                        transcriptionResult.addAlternative(
+                            new TranscriptionAlternative(
+                                alternative.getTranscript(),
+                                alternative.getConfidence()));
+                    }
+
+                    if (result.getIsFinal())
+                    {
+                        messageID = UUID.randomUUID();
+                    }
+
+                    for (TranscriptionListener listener : listeners)
+                    {
+                        listener.notify(transcriptionResult);
+                    }
+                    notifyActionServices(transcriptionResult);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t)
+            {
+                logger.warn("Stream to local recognizer failed", t);
+                try
+                {
+                    // new audio opens a new stream
+                    executor.execute(() -> {
+                        if (stream == requestStream)
+                        {
+                            closeStream();
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // the session has ended
+                }
+                streamClosed();
+            }
+
+            @Override
+            public void onCompleted()
+            {
+                streamClosed();
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.jitsi.jigasi.transcription;
 import net.java.sip.communicator.service.protocol.*;
 import org.jitsi.util.*;
 
+import java.io.*;
 import java.time.*;
 import java.time.format.*;
 import java.util.*;
@@ -207,6 +208,12 @@ public class LocalTxtTranscriptHandler
         return new TxtFormatter();
     }
 
+    @Override
+    protected String toSegmentEntry(String formattedEvent)
+    {
+        return formattedEvent;
+    }
+
     @Override
     protected String formatSpeechEvent(SpeechEvent e)
     {
@@ -396,34 +403,32 @@ public class LocalTxtTranscriptHandler
     }
 
     /**
-     * Builds a string which can be written into a .txt file to store a
-     * final transcript
+     * Writes a .txt file to store a final transcript
      */
     private class TxtFormatter
         extends BaseFormatter
     {
         @Override
-        public String finish()
+        void write(TranscriptSegment events, Writer writer)
+            throws IOException
         {
-            String header = createHeader(super.startInstant, super.roomName,
-                super.initialMembers);
-            String footer = createFooter(super.endInstant);
-
-            final StringBuilder builder = new StringBuilder();
-            builder.append(header);
+            writer.write(createHeader(super.startInstant, super.roomName,
+                super.initialMembers));
 
-            List<TranscriptEvent> sortedKeys =
-                new ArrayList<>(super.formattedEvents.keySet());
-            Collections.sort(sortedKeys);
-
-            for(String event : super.getSortedEvents())
+            if (events != null)
             {
-                builder.append(event);
+                try (BufferedReader reader = events.openReader())
+                {
+                    char[] buffer = new char[8192];
+                    int read;
+                    while ((read = reader.read(buffer)) != -1)
+                    {
+                        writer.write(buffer, 0, read);
+                    }
+                }
             }
 
-            builder.append(footer);
-
-            return builder.toString();
+            writer.write(createFooter(super.endInstant));
         }
     }
 
@@ -435,24 +440,6 @@ public class LocalTxtTranscriptHandler
          */
         private String fileName = generateHardToGuessFileName() + ".txt";
 
-        /**
-         * Whether {@link this#publish(Transcript)} has already been called once
-         */
-        private boolean published = false;
-
-        @Override
-        public synchronized void publish(Transcript transcript)
-        {
-            if(!published)
-            {
-                published = true;
-
-                String t
-                    = transcript.getTranscript(LocalTxtTranscriptHandler.this);
-                saveTranscriptToFile(getFileName(), t);
-            }
-        }
-
         @Override
         protected String getFileName()
         {
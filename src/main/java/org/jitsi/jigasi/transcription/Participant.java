@@ -22,7 +22,6 @@ import net.java.sip.communicator.service.protocol.*;
 import org.jitsi.util.*;
 
 import javax.media.format.*;
-import java.nio.*;
 import java.util.*;
 
 /**
@@ -34,18 +33,14 @@ import java.util.*;
  * @author Boris Grozev
  */
 public class Participant
-    implements TranscriptionListener
+    implements TranscriptionListener,
+               SpeakerStreamPool.Speaker
 {
     /**
      * The logger of this class
      */
     private final static Logger logger = Logger.getLogger(Participant.class);
 
-    /**
-     * Currently assume everyone to have this locale
-     */
-    private final static Locale ENGLISH_LOCALE = Locale.forLanguageTag("en-US");
-
     /**
      * The expected amount of bytes each given buffer will have. Webrtc
      * usually has 20ms opus frames which are decoded to 2 bytes per sample
@@ -62,7 +57,7 @@ public class Participant
      * 25 results in 20 ms * 25 packets = 500 ms of audio being buffered
      * locally before being send to the TranscriptionService
      */
-    private static final int BUFFER_SIZE = EXPECTED_AUDIO_LENGTH * 25;
+    static final int BUFFER_SIZE = EXPECTED_AUDIO_LENGTH * 25;
 
     /**
      * Whether we should buffer locally before sending
@@ -97,9 +92,11 @@ public class Participant
     private TranscriptionService.StreamingRecognitionSession session;
 
     /**
-     * A buffer which is used to locally store audio before sending
+     * The chunk which is used to locally store audio before sending. It is
+     * taken from the pool of the {@link Transcriber} and handed over to the
+     * {@link TranscriptionRequest} once full
      */
-    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private AudioChunk buffer;
 
     /**
      * The AudioFormat of the audio being read. It is assumed to not change
@@ -107,11 +104,76 @@ public class Participant
      */
     private AudioFormat audioFormat;
 
+    /**
+     * The AudioFormat of the audio sent to the TranscriptionService, which
+     * differs from {@link #audioFormat} when the audio is resampled
+     */
+    private AudioFormat requestFormat;
+
+    /**
+     * Converts the audio to a lower sample rate before it is sent, or null
+     * when it is sent as it is read
+     */
+    private AudioResampler resampler;
+
+    /**
+     * The array receiving the resampled audio, reused for every packet
+     */
+    private byte[] resampled;
+
+    /**
+     * The amount of bytes of audio sent in a single request, which is
+     * {@link #BUFFER_SIZE} unless the audio is resampled
+     */
+    private int requestLength = BUFFER_SIZE;
+
     /**
      * Whether the current session is still transcribing
      */
     private boolean isCompleted = false;
 
+    /**
+     * The language this participant speaks in, or null when it did not tell
+     * and the default language of the transcriber is used
+     */
+    private volatile Locale locale;
+
+    /**
+     * The gate which keeps audio without speech from being sent, or null
+     * when voice activity detection is disabled
+     */
+    private final VoiceActivityGate voiceActivityGate;
+
+    /**
+     * The streams shared by the participants which are speaking, or null
+     * when this participant has its own session
+     */
+    private final SpeakerStreamPool speakerStreams;
+
+    /**
+     * The bounded queue of the audio which has not been given to the session
+     * yet
+     */
+    private final AudioRequestQueue audioQueue;
+
+    /**
+     * Whether the participant left and the session is to be ended once the
+     * audio queued before has been sent. Guarded by this participant.
+     */
+    private boolean endPending = false;
+
+    /**
+     * The amount of ends given to {@link #audioQueue} which the queue did
+     * not deliver yet. Guarded by this participant.
+     */
+    private int queuedEnds = 0;
+
+    /**
+     * Whether the transcriber is finishing up and the audio of this
+     * participant is being drained. Guarded by this participant.
+     */
+    private boolean finishing = false;
+
     /**
      * Create a participant with a given name and audio stream
      *
@@ -123,6 +185,12 @@ public class Participant
         this.transcriber = transcriber;
         this.chatMember = chatMember;
         this.ssrc = ssrc;
+        this.locale = transcriber.getParticipantLocale(getId());
+        this.speakerStreams = transcriber.getSpeakerStreamPool();
+        this.voiceActivityGate
+            = transcriber.createVoiceActivityGate(new GateListener());
+        this.audioQueue
+            = transcriber.createAudioRequestQueue(new QueueSink());
     }
 
     /**
@@ -192,12 +260,43 @@ public class Participant
         return chatMember.getContactAddress();
     }
 
+    /**
+     * Get the language this participant is transcribed in
+     *
+     * @return the locale of the participant
+     */
+    public Locale getLocale()
+    {
+        Locale locale = this.locale;
+        return locale != null ? locale : transcriber.getDefaultLocale();
+    }
+
+    /**
+     * Set the language this participant speaks in. It is used from the next
+     * audio which is sent on.
+     *
+     * @param locale the locale, or null to use the default language of the
+     * transcriber
+     */
+    void setLocale(Locale locale)
+    {
+        this.locale = locale;
+    }
+
     /**
      * When a participant joined it accepts audio and will send it
      * to be transcribed
      */
-    void joined()
+    synchronized void joined()
     {
+        if (speakerStreams != null)
+        {
+            return; // the audio is sent to the shared streams
+        }
+
+        // back before the audio queued before leaving was sent, the session
+        // is kept
+        endPending = false;
         if (session != null && !session.ended())
         {
             return; // no need to create new session
@@ -218,10 +317,56 @@ public class Participant
      */
     void left()
     {
-        if (session != null)
+        if (speakerStreams != null)
         {
-            session.end();
+            // frees the shared stream after the audio which is queued
+            audioQueue.offerEndOfSpeech();
+            return;
         }
+
+        // ends the session after the audio which is queued, so that audio
+        // is not sent as single requests to an ended session
+        synchronized (this)
+        {
+            endPending = true;
+            queuedEnds++;
+        }
+        audioQueue.offerEnd();
+    }
+
+    /**
+     * Send the audio which is queued and end the session after it, as the
+     * transcriber is finishing up. The transcriber is told once it is done.
+     */
+    void finish()
+    {
+        synchronized (this)
+        {
+            finishing = true;
+            endPending = speakerStreams == null;
+            queuedEnds++;
+        }
+        audioQueue.offerEnd();
+    }
+
+    /**
+     * Get whether the audio queued before {@link #finish()} was called has
+     * been given to the session.
+     *
+     * @return true when it has
+     */
+    synchronized boolean isDrained()
+    {
+        return finishing && queuedEnds == 0;
+    }
+
+    /**
+     * Drop the audio which has not been sent yet and stop accepting audio,
+     * as the transcriber is done with this participant
+     */
+    void dispose()
+    {
+        audioQueue.close();
     }
 
     /**
@@ -235,18 +380,78 @@ public class Participant
     {
         if (audioFormat == null)
         {
-            audioFormat = (AudioFormat) buffer.getFormat();
+            initFormat((AudioFormat) buffer.getFormat());
         }
 
         byte[] audio = (byte[]) buffer.getData();
+        int offset = buffer.getOffset();
+        int length = buffer.getLength();
+
+        if (voiceActivityGate != null)
+        {
+            voiceActivityGate.process(audio, offset, length, audioFormat);
+        }
+        else
+        {
+            forward(audio, offset, length);
+        }
+    }
+
+    /**
+     * Set the format of the audio being read and decide whether it is
+     * resampled before being sent
+     *
+     * @param format the format of the audio
+     */
+    private void initFormat(AudioFormat format)
+    {
+        audioFormat = format;
+        resampler = transcriber.createAudioResampler(format);
+        if (resampler == null)
+        {
+            requestFormat = format;
+            return;
+        }
+
+        requestFormat = resampler.getOutputFormat();
+        // keep the duration of a request the same
+        double ratio = requestFormat.getSampleRate()
+            / (format.getSampleRate() * Math.max(1, format.getChannels()));
+        requestLength = Math.min(BUFFER_SIZE,
+            2 * (int) (BUFFER_SIZE * ratio / 2));
+    }
+
+    /**
+     * Buffer or send the given audio
+     *
+     * @param audio the array holding the audio
+     * @param offset the offset of the audio in the array
+     * @param length the amount of bytes of audio
+     */
+    private void forward(byte[] audio, int offset, int length)
+    {
+        if (resampler != null)
+        {
+            int maxLength = resampler.getMaxOutputLength(length);
+            if (resampled == null || resampled.length < maxLength)
+            {
+                resampled = new byte[maxLength];
+            }
+
+            length = resampler.process(audio, offset, length, resampled, 0);
+            audio = resampled;
+            offset = 0;
+        }
 
         if (USE_LOCAL_BUFFER)
         {
-            buffer(audio);
+            buffer(audio, offset, length);
         }
         else
         {
-            sendRequest(audio);
+            AudioChunk chunk = transcriber.getAudioChunkPool().acquire();
+            chunk.append(audio, offset, length);
+            sendRequest(chunk);
         }
     }
 
@@ -259,6 +464,27 @@ public class Participant
         transcriber.notify(result);
     }
 
+    /**
+     * Sends the queued audio once a shared stream became free
+     */
+    @Override
+    public void streamAvailable()
+    {
+        audioQueue.wake();
+    }
+
+    /**
+     * Get how much audio waits to be sent, which tells how active this
+     * participant is while it waits for a shared stream
+     *
+     * @return the amount of queued requests
+     */
+    @Override
+    public int getWaitingAudio()
+    {
+        return audioQueue.getSize();
+    }
+
     @Override
     public void completed()
     {
@@ -273,79 +499,291 @@ public class Participant
      */
     public boolean isCompleted()
     {
-        return isCompleted;
+        // the shared streams are completed on their own
+        return isCompleted || speakerStreams != null;
     }
 
     /**
      * Store the given audio in a buffer. When the buffer is full,
      * send the audio
      *
-     * @param audio the audio to buffer
+     * @param audio the array holding the audio to buffer
+     * @param offset the offset of the audio in the array
+     * @param length the amount of bytes of audio
      */
-    private void buffer(byte[] audio)
+    private void buffer(byte[] audio, int offset, int length)
     {
-        try
+        while (length > 0)
         {
-            buffer.put(audio);
-        }
-        catch (BufferOverflowException | ReadOnlyBufferException e)
-        {
-            e.printStackTrace();
+            if (buffer == null)
+            {
+                buffer = transcriber.getAudioChunkPool().acquire();
+            }
+
+            int copied = buffer.append(audio, offset,
+                Math.min(length, requestLength - buffer.getLength()));
+            offset += copied;
+            length -= copied;
+
+            if (buffer.getLength() >= requestLength
+                || buffer.remaining() < EXPECTED_AUDIO_LENGTH)
+            {
+                // the request takes over our reference to the chunk
+                sendRequest(buffer);
+                buffer = null;
+            }
         }
+    }
 
-        int spaceLeft = buffer.limit() - buffer.position();
-        if(spaceLeft < EXPECTED_AUDIO_LENGTH)
+    /**
+     * Send the audio which is currently buffered, even though the buffer is
+     * not full yet
+     */
+    private void flush()
+    {
+        if (buffer != null && buffer.getLength() > 0)
         {
-            sendRequest(buffer.array());
-            buffer.clear();
+            sendRequest(buffer);
+            buffer = null;
         }
     }
 
+    /**
+     * Tell the session that the participant stopped speaking, after the
+     * audio which was already sent.
+     */
+    private void endOfSpeech()
+    {
+        audioQueue.offerEndOfSpeech();
+    }
+
+    /**
+     * Get the amount of audio bytes which were let through by voice activity
+     * detection.
+     *
+     * @return the amount of passed bytes, or 0 when voice activity detection
+     * is disabled
+     */
+    long getVoiceActivityPassedBytes()
+    {
+        return voiceActivityGate == null
+            ? 0 : voiceActivityGate.getPassedBytes();
+    }
+
+    /**
+     * Get the amount of audio bytes which were not sent because they did not
+     * contain speech.
+     *
+     * @return the amount of gated bytes, or 0 when voice activity detection
+     * is disabled
+     */
+    long getVoiceActivityGatedBytes()
+    {
+        return voiceActivityGate == null
+            ? 0 : voiceActivityGate.getGatedBytes();
+    }
+
+    /**
+     * Get the amount of requests dropped because the audio queue was full.
+     *
+     * @return the amount of dropped requests
+     */
+    long getDroppedAudioRequests()
+    {
+        return audioQueue.getDroppedCount();
+    }
+
+    /**
+     * Get the amount of requests merged because the audio queue was full.
+     *
+     * @return the amount of merged requests
+     */
+    long getCoalescedAudioRequests()
+    {
+        return audioQueue.getCoalescedCount();
+    }
+
     /**
      * Send the specified audio to the TranscriptionService.
      * <p>
-     * An ExecutorService is used to offload work on the mixing thread
+     * The request is put in the bounded audio queue, which is drained on
+     * the executor of the transcriber to offload work from the mixing
+     * thread
+     *
+     * @param audio the chunk holding the audio to send
+     */
+    private void sendRequest(AudioChunk audio)
+    {
+        audioQueue.offer(new TranscriptionRequest(audio,
+                                                  requestFormat,
+                                                  getLocale()));
+    }
+
+    /**
+     * Give the request to the TranscriptionService, which takes over its
+     * ownership.
      *
-     * @param audio the audio to send
+     * @param request the request to send
      */
-    private void sendRequest(byte[] audio)
+    private void sendRequest(TranscriptionRequest request)
     {
-        transcriber.executorService.submit(() ->
+        if (session != null && !session.ended())
+        {
+            session.sendRequest(request);
+        }
+        else
+        // fallback if TranscriptionService does not support streams
+        // or session got ended prematurely
         {
-            TranscriptionRequest request
-                = new TranscriptionRequest(audio,
-                                           audioFormat,
-                                           ENGLISH_LOCALE);
+            // FIXME: 22/07/17 This just assumes given BUFFER_LENGTH
+            // is long enough to get decent audio length. Also does
+            // not take into account that participant's audio will
+            // be cut of mid-sentence. For better results, try to
+            // buffer until audio volume is silent for a "decent
+            // amount of time". Only relevant if Streaming
+            // recognition is not supported by the
+            // TranscriptionService
+            transcriber.getTranscriptionService().sendSingleRequest(
+                    request,
+                    this::notify);
+        }
+    }
 
-            if (session != null && !session.ended())
+    /**
+     * Returns the transcriber instance that created this participant.
+     * @return the transcriber instance that created this participant.
+     */
+    public Transcriber getTranscriber()
+    {
+        return transcriber;
+    }
+
+    /**
+     * Receives the audio taken from the audio queue.
+     */
+    private class QueueSink
+        implements AudioRequestQueue.Sink
+    {
+        @Override
+        public boolean acquire()
+        {
+            // without a free stream the audio waits in the queue until
+            // streamAvailable() is called
+            return speakerStreams == null
+                || speakerStreams.acquire(Participant.this) != null;
+        }
+
+        @Override
+        public int getBacklog()
+        {
+            TranscriptionService.StreamingRecognitionSession session
+                = speakerStreams != null
+                    ? speakerStreams.getSession(Participant.this)
+                    : Participant.this.session;
+            return session != null ? session.getQueuedRequests() : 0;
+        }
+
+        @Override
+        public void send(TranscriptionRequest request)
+        {
+            if (speakerStreams == null)
+            {
+                sendRequest(request);
+                return;
+            }
+
+            TranscriptionService.StreamingRecognitionSession session
+                = speakerStreams.getSession(Participant.this);
+            if (session != null)
             {
                 session.sendRequest(request);
             }
             else
-            // fallback if TranscriptionService does not support streams
-            // or session got ended prematurely
             {
-                // FIXME: 22/07/17 This just assumes given BUFFER_LENGTH
-                // is long enough to get decent audio length. Also does
-                // not take into account that participant's audio will
-                // be cut of mid-sentence. For better results, try to
-                // buffer until audio volume is silent for a "decent
-                // amount of time". Only relevant if Streaming
-                // recognition is not supported by the
-                // TranscriptionService
-                transcriber.getTranscriptionService().sendSingleRequest(
-                        request,
-                        this::notify);
+                request.release();
+            }
+        }
+
+        @Override
+        public void endOfSpeech()
+        {
+            if (speakerStreams != null)
+            {
+                speakerStreams.release(Participant.this);
+                return;
             }
-        });
+
+            TranscriptionService.StreamingRecognitionSession session
+                = Participant.this.session;
+            if (session != null)
+            {
+                session.endOfSpeech();
+            }
+        }
+
+        @Override
+        public void end()
+        {
+            TranscriptionService.StreamingRecognitionSession session = null;
+            boolean drained;
+            synchronized (Participant.this)
+            {
+                queuedEnds--;
+                drained = finishing && queuedEnds == 0;
+                // not pending when joined again in the meantime
+                if (endPending)
+                {
+                    endPending = false;
+                    session = Participant.this.session;
+                }
+            }
+
+            if (speakerStreams != null)
+            {
+                speakerStreams.release(Participant.this);
+            }
+            else if (session != null && !session.ended())
+            {
+                session.end();
+            }
+
+            if (drained)
+            {
+                transcriber.checkIfFinishedUp();
+            }
+        }
     }
 
     /**
-     * Returns the transcriber instance that created this participant.
-     * @return the transcriber instance that created this participant.
+     * Receives the audio of this participant which contains speech.
      */
-    public Transcriber getTranscriber()
+    private class GateListener
+        implements VoiceActivityGate.Listener
     {
-        return transcriber;
+        @Override
+        public void speechStarted()
+        {
+            // send the start of the utterance right away, so the session
+            // can open its stream while the rest is being buffered
+            flush();
+            if (resampler != null)
+            {
+                // the audio before was gated, it does not precede this one
+                resampler.reset();
+            }
+        }
+
+        @Override
+        public void audio(byte[] audio, int offset, int length)
+        {
+            forward(audio, offset, length);
+        }
+
+        @Override
+        public void speechEnded()
+        {
+            flush();
+            endOfSpeech();
+        }
     }
 }
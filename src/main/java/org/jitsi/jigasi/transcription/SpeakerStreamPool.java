@@ -0,0 +1,614 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.jitsi.jigasi.util.*;
+import org.jitsi.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A small, fixed amount of recognition sessions shared by all participants
+ * of a {@link Transcriber}, instead of a session per participant. Usually
+ * only one or two people talk at a time, so this makes the cost of
+ * transcribing a large room about the same as the cost of a small one.
+ * <p>
+ * The voice activity detection of the participants decides who is
+ * speaking. A participant takes a free stream when the first audio of its
+ * utterance is sent and keeps it until the utterance has been transcribed.
+ * While every stream is taken, the audio of other speakers waits in their
+ * bounded {@link AudioRequestQueue}. They are told when a stream becomes
+ * free, instead of asking again and again, those with the most audio
+ * waiting first, so the most active speakers get the streams.
+ * <p>
+ * A participant whose utterance ended keeps its stream for its final result
+ * for up to {@link #RELEASE_TIMEOUT_MS}, but only for
+ * {@link #IDLE_TAKEOVER_MS} when another speaker is waiting. A stream is
+ * never taken from a participant who is speaking.
+ * <p>
+ * The results of a stream are given to the participant who owned it when
+ * the utterance was sent, by the message ID of the result.
+ */
+public class SpeakerStreamPool
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger
+        = Logger.getLogger(SpeakerStreamPool.class);
+
+    /**
+     * The time in ms after the end of an utterance after which its stream
+     * is given to another speaker, when no final result came in.
+     */
+    final static long RELEASE_TIMEOUT_MS = 3000;
+
+    /**
+     * The time in ms after the end of an utterance after which its stream
+     * is given to a waiting speaker, when no final result came in.
+     */
+    final static long IDLE_TAKEOVER_MS = 1000;
+
+    /**
+     * The amount of message IDs of every stream for which the participant
+     * is remembered.
+     */
+    private final static int MAX_REMEMBERED_MESSAGES = 16;
+
+    /**
+     * A participant whose utterances are sent to the streams.
+     */
+    interface Speaker
+    {
+        /**
+         * Receive a result of an utterance of this speaker.
+         *
+         * @param result the result
+         */
+        void notify(TranscriptionResult result);
+
+        /**
+         * Called when a stream became free after this speaker did not get
+         * one.
+         */
+        void streamAvailable();
+
+        /**
+         * Get how much audio of this speaker waits for a stream. The most
+         * active speakers are the ones with the most.
+         *
+         * @return the amount of waiting requests
+         */
+        int getWaitingAudio();
+    }
+
+    /**
+     * The service creating the sessions.
+     */
+    private final TranscriptionService service;
+
+    /**
+     * Called when a session finished transcribing after being ended.
+     */
+    private final Runnable completedCallback;
+
+    /**
+     * The time in ms after the end of an utterance after which its stream
+     * is given to another speaker, when no final result came in.
+     */
+    private final long releaseTimeout;
+
+    /**
+     * The time in ms after the end of an utterance after which its stream
+     * is given to a waiting speaker, when no final result came in.
+     */
+    private final long idleTakeover;
+
+    /**
+     * The streams.
+     */
+    private final Stream[] streams;
+
+    /**
+     * The speakers which did not get a stream, to be told when one becomes
+     * free, oldest first.
+     */
+    private final Set<Speaker> waiting = new LinkedHashSet<>();
+
+    /**
+     * Whether the streams have been ended.
+     */
+    private boolean ended = false;
+
+    /**
+     * Create a pool.
+     *
+     * @param service the service creating the sessions
+     * @param completedCallback called when a session finished transcribing
+     * after being ended
+     * @param size the amount of streams
+     */
+    SpeakerStreamPool(TranscriptionService service,
+                      Runnable completedCallback,
+                      int size)
+    {
+        this(service, completedCallback, size,
+            RELEASE_TIMEOUT_MS, IDLE_TAKEOVER_MS);
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param service the service creating the sessions
+     * @param completedCallback called when a session finished transcribing
+     * after being ended
+     * @param size the amount of streams
+     * @param releaseTimeout the time in ms after the end of an utterance
+     * after which its stream is given to another speaker, when no final
+     * result came in
+     * @param idleTakeover the time in ms after the end of an utterance
+     * after which its stream is given to a waiting speaker, when no final
+     * result came in
+     */
+    SpeakerStreamPool(TranscriptionService service,
+                      Runnable completedCallback,
+                      int size,
+                      long releaseTimeout,
+                      long idleTakeover)
+    {
+        this.service = service;
+        this.completedCallback = completedCallback;
+        this.releaseTimeout = releaseTimeout;
+        this.idleTakeover = Math.min(idleTakeover, releaseTimeout);
+        this.streams = new Stream[Math.max(1, size)];
+        for (int i = 0; i < streams.length; i++)
+        {
+            streams[i] = new Stream();
+        }
+    }
+
+    /**
+     * Get the session to which the current utterance of a participant is
+     * sent, taking a free stream when it does not have one yet, or the
+     * stream of a participant whose utterance ended at least
+     * {@link #idleTakeover} ms ago. Otherwise the participant is told once
+     * a stream becomes free.
+     *
+     * @param participant the participant
+     * @return the session, or null when every stream is taken or the pool
+     * has been ended
+     */
+    synchronized TranscriptionService.StreamingRecognitionSession acquire(
+        Speaker participant)
+    {
+        if (ended)
+        {
+            return null;
+        }
+
+        // the stream of the previous utterance is kept, as the results of
+        // both belong to the same participant
+        for (Stream stream : streams)
+        {
+            if (stream.owner == participant)
+            {
+                stream.take(participant);
+                return stream.getSession();
+            }
+        }
+
+        Stream idlest = null;
+        for (Stream stream : streams)
+        {
+            if (stream.owner == null)
+            {
+                idlest = stream;
+                break;
+            }
+            if (!stream.speaking
+                && (idlest == null || stream.finished < idlest.finished))
+            {
+                idlest = stream;
+            }
+        }
+
+        if (idlest != null
+            && (idlest.owner == null
+                || System.currentTimeMillis() - idlest.finished
+                    >= idleTakeover))
+        {
+            idlest.take(participant);
+            waiting.remove(participant);
+            return idlest.getSession();
+        }
+
+        waiting.add(participant);
+        return null;
+    }
+
+    /**
+     * Get the session to which the current utterance of a participant is
+     * sent.
+     *
+     * @param participant the participant
+     * @return the session, or null when the participant has no stream
+     */
+    synchronized TranscriptionService.StreamingRecognitionSession getSession(
+        Speaker participant)
+    {
+        for (Stream stream : streams)
+        {
+            if (stream.owner == participant && stream.speaking)
+            {
+                return stream.session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tell the stream of a participant that its utterance ended. The
+     * stream is given to another speaker once the final result came in.
+     *
+     * @param participant the participant
+     */
+    void release(Speaker participant)
+    {
+        List<Speaker> toWake = null;
+        synchronized (this)
+        {
+            for (Stream stream : streams)
+            {
+                if (stream.owner == participant && stream.speaking
+                    && !stream.finish())
+                {
+                    toWake = takeWaiting();
+                }
+            }
+        }
+        wake(toWake);
+    }
+
+    /**
+     * End every session, after the audio which was already sent.
+     */
+    synchronized void end()
+    {
+        ended = true;
+        waiting.clear();
+        for (Stream stream : streams)
+        {
+            stream.end();
+        }
+    }
+
+    /**
+     * Get whether every session has finished transcribing after the pool
+     * was ended.
+     *
+     * @return true when completed
+     */
+    synchronized boolean isCompleted()
+    {
+        if (!ended)
+        {
+            return false;
+        }
+
+        for (Stream stream : streams)
+        {
+            if (stream.session != null && !stream.completed)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the amount of streams taken by a speaker.
+     *
+     * @return the amount of taken streams
+     */
+    public synchronized int getTakenStreams()
+    {
+        int taken = 0;
+        for (Stream stream : streams)
+        {
+            if (stream.owner != null)
+            {
+                taken++;
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Get the speakers waiting for a stream and forget them, as they are
+     * about to be told a stream is free. Must be called with the lock held.
+     *
+     * @return the waiting speakers, oldest first
+     */
+    private List<Speaker> takeWaiting()
+    {
+        if (waiting.isEmpty())
+        {
+            return null;
+        }
+
+        List<Speaker> speakers = new ArrayList<>(waiting);
+        waiting.clear();
+        return speakers;
+    }
+
+    /**
+     * Tell speakers that a stream is free, those with the most waiting
+     * audio first, as they try to take it in that order. Must be called
+     * without the lock held.
+     *
+     * @param speakers the speakers, may be null
+     */
+    private static void wake(List<Speaker> speakers)
+    {
+        if (speakers == null)
+        {
+            return;
+        }
+
+        if (speakers.size() > 1)
+        {
+            // asked once, as the amounts change while sorting
+            Map<Speaker, Integer> waitingAudio = new HashMap<>();
+            for (Speaker speaker : speakers)
+            {
+                waitingAudio.put(speaker, speaker.getWaitingAudio());
+            }
+            speakers.sort(Comparator.comparing(waitingAudio::get).reversed());
+        }
+        speakers.forEach(Speaker::streamAvailable);
+    }
+
+    /**
+     * A session and the participant it is transcribing. Guarded by the lock
+     * of the pool.
+     */
+    private class Stream
+        implements TranscriptionListener
+    {
+        /**
+         * The session, created when first needed.
+         */
+        private TranscriptionService.StreamingRecognitionSession session;
+
+        /**
+         * The participant whose audio is sent, or whose last utterance is
+         * being transcribed, or null when the stream is free.
+         */
+        private Speaker owner;
+
+        /**
+         * Whether the utterance of the owner is still being sent.
+         */
+        private boolean speaking = false;
+
+        /**
+         * The time in ms at which the last utterance ended.
+         */
+        private long finished = 0;
+
+        /**
+         * Frees the stream when the final result of the utterance does not
+         * come in, or null.
+         */
+        private HashedWheelTimer.Timeout releaseTimeout;
+
+        /**
+         * The participants to whom the results of the recent utterances
+         * belong, by message ID.
+         */
+        private final Map<UUID, Speaker> messageOwners
+            = new LinkedHashMap<UUID, Speaker>()
+            {
+                @Override
+                protected boolean removeEldestEntry(
+                    Map.Entry<UUID, Speaker> eldest)
+                {
+                    return size() > MAX_REMEMBERED_MESSAGES;
+                }
+            };
+
+        /**
+         * Whether the session finished transcribing after being ended.
+         */
+        private boolean completed = false;
+
+        /**
+         * Give the stream to a participant.
+         *
+         * @param participant the participant
+         */
+        void take(Speaker participant)
+        {
+            cancelReleaseTimeout();
+            owner = participant;
+            speaking = true;
+        }
+
+        /**
+         * Get the session, creating a new one when needed.
+         *
+         * @return the session
+         */
+        TranscriptionService.StreamingRecognitionSession getSession()
+        {
+            if (session == null || session.ended())
+            {
+                session = service.initStreamingSession();
+                session.addTranscriptionListener(this);
+            }
+            return session;
+        }
+
+        /**
+         * End the utterance of the owner and wait for its final result.
+         *
+         * @return false when the stream was freed right away
+         */
+        boolean finish()
+        {
+            speaking = false;
+            finished = System.currentTimeMillis();
+            session.endOfSpeech();
+
+            // checked first when a speaker may be waiting by then
+            if (scheduleReleaseTimeout(idleTakeover))
+            {
+                return true;
+            }
+
+            // jigasi is shutting down
+            owner = null;
+            return false;
+        }
+
+        /**
+         * Schedule {@link #releaseTimedOut()}.
+         *
+         * @param delay the delay in ms
+         * @return false when the timer has been stopped
+         */
+        private boolean scheduleReleaseTimeout(long delay)
+        {
+            try
+            {
+                releaseTimeout = SharedTimer.schedule(
+                    this::releaseTimedOut, delay, TimeUnit.MILLISECONDS);
+                return true;
+            }
+            catch (RejectedExecutionException e)
+            {
+                releaseTimeout = null;
+                return false;
+            }
+        }
+
+        /**
+         * End the session.
+         */
+        void end()
+        {
+            cancelReleaseTimeout();
+            owner = null;
+            speaking = false;
+            if (session != null)
+            {
+                session.end();
+            }
+        }
+
+        /**
+         * Free the stream when the final result of the last utterance did
+         * not come in, and another speaker is waiting or
+         * {@link SpeakerStreamPool#releaseTimeout} has passed.
+         */
+        private void releaseTimedOut()
+        {
+            List<Speaker> toWake = null;
+            synchronized (SpeakerStreamPool.this)
+            {
+                if (speaking || owner == null)
+                {
+                    return;
+                }
+
+                releaseTimeout = null;
+                long left = SpeakerStreamPool.this.releaseTimeout
+                    - (System.currentTimeMillis() - finished);
+                if (waiting.isEmpty() && left > 0
+                    && scheduleReleaseTimeout(left))
+                {
+                    // nobody needs the stream, keep waiting for the result
+                    return;
+                }
+
+                owner = null;
+                toWake = takeWaiting();
+            }
+            wake(toWake);
+        }
+
+        /**
+         * Cancel {@link #releaseTimeout}, if any.
+         */
+        private void cancelReleaseTimeout()
+        {
+            if (releaseTimeout != null)
+            {
+                releaseTimeout.cancel();
+                releaseTimeout = null;
+            }
+        }
+
+        @Override
+        public void notify(TranscriptionResult result)
+        {
+            Speaker participant;
+            List<Speaker> toWake = null;
+            synchronized (SpeakerStreamPool.this)
+            {
+                UUID messageID = result.getMessageID();
+                participant = messageOwners.get(messageID);
+                if (participant == null && owner != null)
+                {
+                    participant = owner;
+                    messageOwners.put(messageID, participant);
+                }
+
+                if (!result.isInterim() && !speaking
+                    && participant == owner)
+                {
+                    // the utterance has been transcribed
+                    cancelReleaseTimeout();
+                    owner = null;
+                    toWake = takeWaiting();
+                }
+            }
+            wake(toWake);
+
+            if (participant != null)
+            {
+                participant.notify(result);
+            }
+            else
+            {
+                logger.warn("Dropped a result without a participant");
+            }
+        }
+
+        @Override
+        public void completed()
+        {
+            synchronized (SpeakerStreamPool.this)
+            {
+                completed = true;
+            }
+            completedCallback.run();
+        }
+    }
+}
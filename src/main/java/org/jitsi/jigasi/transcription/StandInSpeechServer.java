@@ -0,0 +1,250 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import com.google.cloud.speech.v1.*;
+import io.grpc.*;
+import io.grpc.netty.*;
+import io.grpc.stub.*;
+
+import java.io.*;
+
+/**
+ * A deterministic stand-in for a local recognizer, implementing the
+ * <tt>google.cloud.speech.v1.Speech</tt> service as expected by
+ * {@link LocalTranscriptionService}. It does not look at the audio at all:
+ * every {@link #WORD_DURATION_MS} of audio is transcribed as the next word
+ * of {@link #VOCABULARY}, an interim result is sent for every word and a
+ * final one for every {@link #UTTERANCE_WORDS} words and when the stream is
+ * closed. This makes the results depend only on the amount of audio, which
+ * is what is needed for tests and load tests.
+ */
+public class StandInSpeechServer
+    extends SpeechGrpc.SpeechImplBase
+{
+    /**
+     * The words of the transcriptions, used in order.
+     */
+    final static String[] VOCABULARY = { "alpha", "bravo", "charlie",
+        "delta", "echo", "foxtrot", "golf", "hotel" };
+
+    /**
+     * The duration of the audio transcribed as a single word.
+     */
+    final static int WORD_DURATION_MS = 500;
+
+    /**
+     * The amount of words after which an utterance is final.
+     */
+    final static int UTTERANCE_WORDS = 6;
+
+    /**
+     * Start a stand-in recognizer listening on the given port.
+     *
+     * @param port the port to listen on
+     * @return the started server, to be shut down by the caller
+     * @throws IOException when the server could not be started
+     */
+    public static Server start(int port)
+        throws IOException
+    {
+        return NettyServerBuilder.forPort(port)
+            .addService(new StandInSpeechServer())
+            .build()
+            .start();
+    }
+
+    /**
+     * Get the amount of bytes of 16 bit mono audio per word.
+     *
+     * @param config the config of the audio
+     * @return the amount of bytes of one word
+     */
+    private static long bytesPerWord(RecognitionConfig config)
+    {
+        int sampleRate = config.getSampleRateHertz() > 0
+            ? config.getSampleRateHertz() : 16000;
+        return Math.max(1, 2L * sampleRate * WORD_DURATION_MS / 1000);
+    }
+
+    /**
+     * Create the transcription of a range of words.
+     *
+     * @param firstWord the index of the first word
+     * @param words the amount of words
+     * @return the transcription
+     */
+    private static String transcribe(long firstWord, long words)
+    {
+        StringBuilder transcript = new StringBuilder();
+        for (long i = firstWord; i < firstWord + words; i++)
+        {
+            if (transcript.length() > 0)
+            {
+                transcript.append(' ');
+            }
+            transcript.append(VOCABULARY[(int) (i % VOCABULARY.length)]);
+        }
+        return transcript.toString();
+    }
+
+    @Override
+    public void recognize(RecognizeRequest request,
+                          StreamObserver<RecognizeResponse> responseObserver)
+    {
+        long words = request.getAudio().getContent().size()
+            / bytesPerWord(request.getConfig());
+
+        responseObserver.onNext(RecognizeResponse.newBuilder()
+            .addResults(SpeechRecognitionResult.newBuilder()
+                .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                    .setTranscript(transcribe(0, words))
+                    .setConfidence(1)))
+            .build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<StreamingRecognizeRequest> streamingRecognize(
+        StreamObserver<StreamingRecognizeResponse> responseObserver)
+    {
+        return new RecognizeStream(responseObserver);
+    }
+
+    /**
+     * Transcribes the audio of a single stream. gRPC calls it for one
+     * message at a time, so it needs no synchronization.
+     */
+    private static class RecognizeStream
+        implements StreamObserver<StreamingRecognizeRequest>
+    {
+        /**
+         * Receives the results.
+         */
+        private final StreamObserver<StreamingRecognizeResponse> responses;
+
+        /**
+         * The amount of bytes transcribed as a single word, known once the
+         * config has been received.
+         */
+        private long bytesPerWord = 0;
+
+        /**
+         * The amount of bytes of audio which have been received.
+         */
+        private long audioBytes = 0;
+
+        /**
+         * The index of the first word of the current utterance.
+         */
+        private long utteranceStart = 0;
+
+        /**
+         * The amount of words which have been sent in results.
+         */
+        private long sentWords = 0;
+
+        /**
+         * Create the stream.
+         *
+         * @param responses receives the results
+         */
+        RecognizeStream(StreamObserver<StreamingRecognizeResponse> responses)
+        {
+            this.responses = responses;
+        }
+
+        @Override
+        public void onNext(StreamingRecognizeRequest request)
+        {
+            if (bytesPerWord == 0)
+            {
+                if (!request.hasStreamingConfig())
+                {
+                    responses.onError(Status.INVALID_ARGUMENT
+                        .withDescription("First request has no config")
+                        .asRuntimeException());
+                    return;
+                }
+
+                bytesPerWord
+                    = bytesPerWord(request.getStreamingConfig().getConfig());
+                return;
+            }
+
+            audioBytes += request.getAudioContent().size();
+
+            long words = audioBytes / bytesPerWord;
+            while (sentWords < words)
+            {
+                sentWords++;
+                if (sentWords - utteranceStart == UTTERANCE_WORDS)
+                {
+                    sendFinal();
+                }
+                else
+                {
+                    send(false);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t)
+        {
+            // the client is gone, nothing to send the results to
+        }
+
+        @Override
+        public void onCompleted()
+        {
+            if (sentWords > utteranceStart)
+            {
+                sendFinal();
+            }
+            responses.onCompleted();
+        }
+
+        /**
+         * Send the final result of the current utterance and start a new one.
+         */
+        private void sendFinal()
+        {
+            send(true);
+            utteranceStart = sentWords;
+        }
+
+        /**
+         * Send a result with the words of the current utterance.
+         *
+         * @param isFinal whether the utterance is final
+         */
+        private void send(boolean isFinal)
+        {
+            responses.onNext(StreamingRecognizeResponse.newBuilder()
+                .addResults(StreamingRecognitionResult.newBuilder()
+                    .setIsFinal(isFinal)
+                    .setStability(isFinal ? 1 : 0.5f)
+                    .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                        .setTranscript(transcribe(
+                            utteranceStart, sentWords - utteranceStart))
+                        .setConfidence(1)))
+                .build());
+        }
+    }
+}
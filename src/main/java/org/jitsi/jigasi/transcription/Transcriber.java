@@ -19,13 +19,18 @@ package org.jitsi.jigasi.transcription;
 
 import net.java.sip.communicator.service.protocol.*;
 import org.jitsi.impl.neomedia.device.*;
+import org.jitsi.jigasi.*;
 import org.jitsi.jigasi.transcription.action.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.service.configuration.*;
 import org.jitsi.util.*;
 
 import javax.media.Buffer;
+import javax.media.format.*;
 import javax.media.rtp.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * A transcriber object which will keep track of participants in a conference
@@ -42,6 +47,125 @@ public class Transcriber
      */
     private final static Logger logger = Logger.getLogger(Transcriber.class);
 
+    /**
+     * The maximum amount of released audio chunks kept by the pool of a
+     * transcriber for reuse
+     */
+    private final static int MAX_POOLED_AUDIO_CHUNKS = 32;
+
+    /**
+     * The property name for the language in which participants are
+     * transcribed when they did not tell in which language they speak
+     */
+    public final static String P_NAME_DEFAULT_LANGUAGE
+        = "org.jitsi.jigasi.transcription.DEFAULT_LANGUAGE";
+
+    /**
+     * The default language tag of participants
+     */
+    public final static String DEFAULT_LANGUAGE_DEFAULT_VALUE = "en-US";
+
+    /**
+     * The property name for the boolean value whether audio without speech
+     * should be kept from the {@link TranscriptionService}
+     */
+    public final static String P_NAME_VAD_ENABLED
+        = "org.jitsi.jigasi.transcription.VAD_ENABLED";
+
+    /**
+     * The property name for the class name of the
+     * {@link VoiceActivityDetector} to use
+     */
+    public final static String P_NAME_VAD_DETECTOR
+        = "org.jitsi.jigasi.transcription.VAD_DETECTOR";
+
+    /**
+     * The property name for the time in ms audio is still sent after the
+     * last speech was detected
+     */
+    public final static String P_NAME_VAD_HANGOVER
+        = "org.jitsi.jigasi.transcription.VAD_HANGOVER";
+
+    /**
+     * The property name for the time in ms of audio before speech onset
+     * which is sent as well
+     */
+    public final static String P_NAME_VAD_PRE_ROLL
+        = "org.jitsi.jigasi.transcription.VAD_PRE_ROLL";
+
+    /**
+     * The property name for the root mean square amplitude audio needs to
+     * have to be considered speech by the
+     * {@link EnergyVoiceActivityDetector}
+     */
+    public final static String P_NAME_VAD_ENERGY_THRESHOLD
+        = "org.jitsi.jigasi.transcription.VAD_ENERGY_THRESHOLD";
+
+    /**
+     * The property name for the maximum zero-crossing rate of audio
+     * considered speech by the {@link EnergyVoiceActivityDetector}
+     */
+    public final static String P_NAME_VAD_MAX_ZERO_CROSSING_RATE
+        = "org.jitsi.jigasi.transcription.VAD_MAX_ZERO_CROSSING_RATE";
+
+    /**
+     * Whether voice activity detection is enabled by default
+     */
+    public final static boolean VAD_ENABLED_DEFAULT_VALUE = false;
+
+    /**
+     * The default hangover in ms
+     */
+    public final static int VAD_HANGOVER_DEFAULT_VALUE = 800;
+
+    /**
+     * The default pre-roll in ms
+     */
+    public final static int VAD_PRE_ROLL_DEFAULT_VALUE = 200;
+
+    /**
+     * The property name for the amount of recognition sessions shared by
+     * the participants which are speaking. Every participant has its own
+     * session when not set
+     */
+    public final static String P_NAME_SPEAKER_STREAMS
+        = "org.jitsi.jigasi.transcription.SPEAKER_STREAMS";
+
+    /**
+     * The property name for the sample rate in Hz to which the audio of the
+     * participants is converted before it is sent, together with a downmix
+     * to mono. Audio is sent as it is read when not set
+     */
+    public final static String P_NAME_RESAMPLE_RATE
+        = "org.jitsi.jigasi.transcription.RESAMPLE_RATE";
+
+    /**
+     * The property name for the maximum amount of requests of a participant
+     * waiting to be sent to the {@link TranscriptionService}
+     */
+    public final static String P_NAME_AUDIO_QUEUE_SIZE
+        = "org.jitsi.jigasi.transcription.AUDIO_QUEUE_SIZE";
+
+    /**
+     * The property name for the {@link AudioRequestQueue.OverflowPolicy}
+     * used when the audio queue of a participant is full
+     */
+    public final static String P_NAME_AUDIO_QUEUE_OVERFLOW_POLICY
+        = "org.jitsi.jigasi.transcription.AUDIO_QUEUE_OVERFLOW_POLICY";
+
+    /**
+     * The default size of the audio queues. A request holds 500 ms of audio,
+     * so this is 10 seconds of audio
+     */
+    public final static int AUDIO_QUEUE_SIZE_DEFAULT_VALUE = 20;
+
+    /**
+     * The default overflow policy of the audio queues
+     */
+    public final static AudioRequestQueue.OverflowPolicy
+        AUDIO_QUEUE_OVERFLOW_POLICY_DEFAULT_VALUE
+            = AudioRequestQueue.OverflowPolicy.DROP_OLDEST;
+
     /**
      * The states the transcriber can be in. The Transcriber
      * can only go through one cycle. So once it is started it can never
@@ -81,9 +205,12 @@ public class Transcriber
 
     /**
      * Holds participants of the conference which need
-     * to be transcribed
+     * to be transcribed, by the SSRC of their audio. It is read for every
+     * audio packet by the mixing thread without locking and changed by the
+     * threads handling the chat room
      */
-    private Map<Long, Participant> participants = new HashMap<>();
+    private final ConcurrentLongObjectMap<Participant> participants
+        = new ConcurrentLongObjectMap<>();
 
     /**
      * The object which will hold the actual transcription
@@ -122,16 +249,99 @@ public class Transcriber
      * of audio packets. This is used to offload work from the thread dealing
      * with all packets, which only has 20 ms before new packets come in.
      * <p>
-     * Will be created in {@link Transcriber#start()} and shutdown in
-     * {@link Transcriber#stop()}
+     * Will be created in {@link Transcriber#start()} and shutdown once the
+     * audio queued when {@link Transcriber#stop()} was called has been sent
      */
     ExecutorService executorService;
 
+    /**
+     * Whether the audio queues of the participants have been drained after
+     * the transcriber was stopped, and {@link #executorService} and the
+     * shared streams were ended.
+     */
+    private final AtomicBoolean audioQueuesDrained = new AtomicBoolean();
+
     /**
      * The name of the room of the conference which will be transcribed
      */
     private String roomName;
 
+    /**
+     * The pool of chunks used by the participants to buffer their audio
+     * and send it to the {@link TranscriptionService}
+     */
+    private final AudioChunkPool audioChunkPool
+        = new AudioChunkPool(Participant.BUFFER_SIZE, MAX_POOLED_AUDIO_CHUNKS);
+
+    /**
+     * The language of participants who did not tell in which language they
+     * speak, or whose language is not supported
+     */
+    private volatile Locale defaultLocale;
+
+    /**
+     * The languages participants told they speak in, by the id of the
+     * participant. They are kept here as a participant may tell its language
+     * before its audio is known to the transcriber
+     */
+    private final Map<String, Locale> participantLocales
+        = new ConcurrentHashMap<>();
+
+    /**
+     * Whether the audio of the participants is given to a
+     * {@link VoiceActivityGate} before being sent
+     */
+    private final boolean vadEnabled;
+
+    /**
+     * The class name of the {@link VoiceActivityDetector} to use, or null to
+     * use the {@link EnergyVoiceActivityDetector}
+     */
+    private final String vadDetectorClassName;
+
+    /**
+     * The hangover in ms of the {@link VoiceActivityGate}s
+     */
+    private final int vadHangover;
+
+    /**
+     * The pre-roll in ms of the {@link VoiceActivityGate}s
+     */
+    private final int vadPreRoll;
+
+    /**
+     * The energy threshold of the {@link EnergyVoiceActivityDetector}
+     */
+    private final int vadEnergyThreshold;
+
+    /**
+     * The maximum zero-crossing rate of the
+     * {@link EnergyVoiceActivityDetector}
+     */
+    private final double vadMaxZeroCrossingRate;
+
+    /**
+     * The sessions shared by the participants which are speaking, or null
+     * when every participant has its own session
+     */
+    private final SpeakerStreamPool speakerStreamPool;
+
+    /**
+     * The sample rate to which the audio is converted, or 0 when it is sent
+     * as it is read
+     */
+    private final int resampleRate;
+
+    /**
+     * The size of the audio queues of the participants
+     */
+    private final int audioQueueSize;
+
+    /**
+     * The overflow policy of the audio queues of the participants
+     */
+    private final AudioRequestQueue.OverflowPolicy audioQueueOverflowPolicy;
+
     /**
      * Create a transcription object which can be used to add and remove
      * participants of a conference to a list of audio streams which will
@@ -152,6 +362,64 @@ public class Transcriber
         this.transcriptionService = service;
         addTranscriptionListener(this.transcript);
         this.roomName = roomName;
+
+        ConfigurationService config
+            = JigasiBundleActivator.getConfigurationService();
+        this.defaultLocale
+            = Locale.forLanguageTag(DEFAULT_LANGUAGE_DEFAULT_VALUE);
+        setDefaultLanguage(config.getString(
+            P_NAME_DEFAULT_LANGUAGE, DEFAULT_LANGUAGE_DEFAULT_VALUE));
+        this.vadEnabled
+            = config.getBoolean(P_NAME_VAD_ENABLED, VAD_ENABLED_DEFAULT_VALUE);
+        this.vadDetectorClassName = config.getString(P_NAME_VAD_DETECTOR);
+        this.vadHangover
+            = config.getInt(P_NAME_VAD_HANGOVER, VAD_HANGOVER_DEFAULT_VALUE);
+        this.vadPreRoll
+            = config.getInt(P_NAME_VAD_PRE_ROLL, VAD_PRE_ROLL_DEFAULT_VALUE);
+        this.vadEnergyThreshold = config.getInt(
+            P_NAME_VAD_ENERGY_THRESHOLD,
+            EnergyVoiceActivityDetector.ENERGY_THRESHOLD_DEFAULT_VALUE);
+        this.vadMaxZeroCrossingRate = config.getDouble(
+            P_NAME_VAD_MAX_ZERO_CROSSING_RATE,
+            EnergyVoiceActivityDetector.MAX_ZERO_CROSSING_RATE_DEFAULT_VALUE);
+        this.resampleRate = Math.max(0, config.getInt(P_NAME_RESAMPLE_RATE, 0));
+
+        int speakerStreams = config.getInt(P_NAME_SPEAKER_STREAMS, 0);
+        this.speakerStreamPool = speakerStreams > 0
+            ? new SpeakerStreamPool(
+                service, this::checkIfFinishedUp, speakerStreams)
+            : null;
+        this.audioQueueSize = config.getInt(
+            P_NAME_AUDIO_QUEUE_SIZE, AUDIO_QUEUE_SIZE_DEFAULT_VALUE);
+        this.audioQueueOverflowPolicy = parseOverflowPolicy(
+            config.getString(P_NAME_AUDIO_QUEUE_OVERFLOW_POLICY));
+    }
+
+    /**
+     * Parse the configured overflow policy of the audio queues.
+     *
+     * @param value the configured value, may be null
+     * @return the policy, or the default one when the value is not valid
+     */
+    private static AudioRequestQueue.OverflowPolicy parseOverflowPolicy(
+        String value)
+    {
+        if (value == null || value.trim().isEmpty())
+        {
+            return AUDIO_QUEUE_OVERFLOW_POLICY_DEFAULT_VALUE;
+        }
+
+        try
+        {
+            return AudioRequestQueue.OverflowPolicy.valueOf(
+                value.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            logger.warn("Unknown audio queue overflow policy " + value
+                + ", using " + AUDIO_QUEUE_OVERFLOW_POLICY_DEFAULT_VALUE);
+            return AUDIO_QUEUE_OVERFLOW_POLICY_DEFAULT_VALUE;
+        }
     }
 
 
@@ -176,18 +444,24 @@ public class Transcriber
      */
     public void add(ChatRoomMember chatMember, long ssrc)
     {
-        Participant participant;
-        if (this.participants.containsKey(ssrc))
+        Participant participant = this.participants.get(ssrc);
+        if (participant == null)
         {
-            participant = this.participants.get(ssrc);
-        }
-        else
-        {
-            participant = new Participant(this, chatMember, ssrc);
-            this.participants.put(ssrc, participant);
+            Participant newParticipant
+                = new Participant(this, chatMember, ssrc);
+            participant = this.participants.putIfAbsent(ssrc, newParticipant);
+            if (participant == null)
+            {
+                participant = newParticipant;
+            }
         }
 
         participant.joined();
+        if (finshingUp())
+        {
+            // joined while the audio of the others is being drained
+            participant.finish();
+        }
         TranscriptEvent event = transcript.notifyJoined(participant);
         if (event != null)
         {
@@ -207,9 +481,9 @@ public class Transcriber
      */
     public void remove(ChatRoomMember chatMember, long ssrc)
     {
-        if (this.participants.containsKey(ssrc))
+        Participant participant = this.participants.get(ssrc);
+        if (participant != null)
         {
-            Participant participant =  participants.get(ssrc);
             participant.left();
             TranscriptEvent event = transcript.notifyLeft(participant);
             if (event != null)
@@ -243,9 +517,7 @@ public class Transcriber
             this.executorService = Executors.newSingleThreadExecutor();
 
             List<Participant> participantsClone
-                = new ArrayList<>(this.participants.size());
-
-            participantsClone.addAll(this.participants.values());
+                = new ArrayList<>(this.participants.values());
 
             TranscriptEvent event
                 = this.transcript.started(roomName, participantsClone);
@@ -272,13 +544,24 @@ public class Transcriber
                 logger.debug("Transcriber is now finishing up");
 
             this.state = State.FINISHING_UP;
-            this.executorService.shutdown();
+
+            if (vadEnabled)
+            {
+                logVoiceActivityStats();
+            }
+            logAudioQueueStats();
 
             TranscriptEvent event = this.transcript.ended();
             fireTranscribeEvent(event);
             ActionServicesHandler.getInstance()
                 .notifyActionServices(this, event);
 
+            // the executor and the shared streams are ended once the audio
+            // queued until now has been sent
+            for (Participant participant : participants.values())
+            {
+                participant.finish();
+            }
             checkIfFinishedUp();
         }
         else
@@ -457,6 +740,15 @@ public class Transcriber
     {
         if (State.FINISHING_UP.equals(this.state))
         {
+            for (Participant participant : participants.values())
+            {
+                if (!participant.isDrained())
+                {
+                    return;
+                }
+            }
+            endAudioQueues();
+
             for (Participant participant : participants.values())
             {
                 if (!participant.isCompleted())
@@ -464,11 +756,19 @@ public class Transcriber
                     return;
                 }
             }
+            if (speakerStreamPool != null && !speakerStreamPool.isCompleted())
+            {
+                return;
+            }
 
             if (logger.isDebugEnabled())
                 logger.debug("Transcriber is now finished");
 
             this.state = State.FINISHED;
+            for (Participant participant : participants.values())
+            {
+                participant.dispose();
+            }
             for (TranscriptionListener listener : listeners)
             {
                 listener.completed();
@@ -476,6 +776,28 @@ public class Transcriber
         }
     }
 
+    /**
+     * Shut down {@link #executorService} and end the shared streams, once
+     * the audio queues of the participants have been drained. Does nothing
+     * when called again.
+     */
+    private void endAudioQueues()
+    {
+        if (!audioQueuesDrained.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("Audio queues of the transcriber are drained");
+
+        executorService.shutdown();
+        if (speakerStreamPool != null)
+        {
+            speakerStreamPool.end();
+        }
+    }
+
     /**
      * @return the {@link TranscriptionService}.
      */
@@ -498,6 +820,306 @@ public class Transcriber
         }
     }
 
+    /**
+     * Get the pool of chunks in which the participants of this transcriber
+     * buffer their audio.
+     *
+     * @return the {@link AudioChunkPool} of this transcriber
+     */
+    AudioChunkPool getAudioChunkPool()
+    {
+        return audioChunkPool;
+    }
+
+    /**
+     * Set the language in which participants are transcribed when they did
+     * not tell in which language they speak, e.g. from the configuration of
+     * the room. An unsupported language is ignored.
+     *
+     * @param languageTag the BCP-47 language tag
+     */
+    public void setDefaultLanguage(String languageTag)
+    {
+        Locale locale = toSupportedLocale(languageTag);
+        if (locale != null)
+        {
+            defaultLocale = locale;
+        }
+    }
+
+    /**
+     * Get the language in which participants are transcribed when they did
+     * not tell in which language they speak.
+     *
+     * @return the default locale
+     */
+    public Locale getDefaultLocale()
+    {
+        return defaultLocale;
+    }
+
+    /**
+     * Set the language a participant speaks in, e.g. from its presence in
+     * the room. The participant does not need to have been added yet.
+     *
+     * @param id the id of the participant, see {@link Participant#getId()}
+     * @param languageTag the BCP-47 language tag, or null to use the default
+     * language. An unsupported language is treated as null.
+     */
+    public void setParticipantLanguage(String id, String languageTag)
+    {
+        if (id == null)
+        {
+            return;
+        }
+
+        Locale locale = toSupportedLocale(languageTag);
+        Locale previous = locale == null
+            ? participantLocales.remove(id)
+            : participantLocales.put(id, locale);
+        if (Objects.equals(previous, locale))
+        {
+            return;
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("Participant " + id + " speaks "
+                + (locale == null ? "the default language" : locale));
+
+        for (Participant participant : participants.values())
+        {
+            if (id.equals(participant.getId()))
+            {
+                participant.setLocale(locale);
+            }
+        }
+    }
+
+    /**
+     * Get the language a participant told it speaks in.
+     *
+     * @param id the id of the participant
+     * @return the locale, or null when the participant did not tell or its
+     * language is not supported
+     */
+    Locale getParticipantLocale(String id)
+    {
+        return id == null ? null : participantLocales.get(id);
+    }
+
+    /**
+     * Get the locale of a language tag when it is supported by the
+     * {@link TranscriptionService}.
+     *
+     * @param languageTag the BCP-47 language tag
+     * @return the locale, or null when the tag is null or not supported
+     */
+    private Locale toSupportedLocale(String languageTag)
+    {
+        if (languageTag == null || languageTag.trim().isEmpty())
+        {
+            return null;
+        }
+
+        Locale locale = Locale.forLanguageTag(languageTag.trim());
+        if (!transcriptionService.isLanguageSupported(locale))
+        {
+            logger.warn("Language " + languageTag + " is not supported by "
+                + transcriptionService.getClass().getSimpleName());
+            return null;
+        }
+        return locale;
+    }
+
+    /**
+     * Create the gate through which a participant gives its audio, when
+     * voice activity detection is enabled or the speakers share their
+     * sessions.
+     *
+     * @param listener the listener which will receive the audio let through
+     * @return a new gate, or null when all audio should be sent
+     */
+    VoiceActivityGate createVoiceActivityGate(
+        VoiceActivityGate.Listener listener)
+    {
+        // the shared streams need to know who is speaking
+        if (!vadEnabled && speakerStreamPool == null)
+        {
+            return null;
+        }
+
+        return new VoiceActivityGate(
+            createVoiceActivityDetector(), vadHangover, vadPreRoll, listener);
+    }
+
+    /**
+     * Create the configured {@link VoiceActivityDetector}, falling back to
+     * an {@link EnergyVoiceActivityDetector} when the configured class
+     * cannot be instantiated.
+     *
+     * @return a new detector
+     */
+    private VoiceActivityDetector createVoiceActivityDetector()
+    {
+        if (vadDetectorClassName != null)
+        {
+            try
+            {
+                return (VoiceActivityDetector) Class
+                    .forName(vadDetectorClassName).newInstance();
+            }
+            catch (Exception e)
+            {
+                logger.error("Could not create VoiceActivityDetector "
+                    + vadDetectorClassName, e);
+            }
+        }
+
+        return new EnergyVoiceActivityDetector(
+            vadEnergyThreshold, vadMaxZeroCrossingRate);
+    }
+
+    /**
+     * Get the amount of audio bytes the participants sent to the
+     * {@link TranscriptionService}, which is all audio unless voice activity
+     * detection is enabled.
+     *
+     * @return the amount of bytes let through by voice activity detection
+     */
+    public long getVoiceActivityPassedBytes()
+    {
+        long passed = 0;
+        for (Participant participant : participants.values())
+        {
+            passed += participant.getVoiceActivityPassedBytes();
+        }
+        return passed;
+    }
+
+    /**
+     * Get the amount of audio bytes the participants did not send because
+     * they did not contain speech.
+     *
+     * @return the amount of bytes gated by voice activity detection
+     */
+    public long getVoiceActivityGatedBytes()
+    {
+        long gated = 0;
+        for (Participant participant : participants.values())
+        {
+            gated += participant.getVoiceActivityGatedBytes();
+        }
+        return gated;
+    }
+
+    /**
+     * Log how much audio was kept from the {@link TranscriptionService}.
+     */
+    private void logVoiceActivityStats()
+    {
+        long passed = getVoiceActivityPassedBytes();
+        long gated = getVoiceActivityGatedBytes();
+        long total = passed + gated;
+
+        logger.info("Voice activity detection in room " + roomName
+            + " sent " + passed + " of " + total + " bytes of audio"
+            + (total > 0 ? " (" + (100 * passed / total) + "%)" : ""));
+    }
+
+    /**
+     * Get the sessions shared by the participants which are speaking.
+     *
+     * @return the pool, or null when every participant has its own session
+     */
+    SpeakerStreamPool getSpeakerStreamPool()
+    {
+        return speakerStreamPool;
+    }
+
+    /**
+     * Create the resampler converting the audio a participant sends to the
+     * configured sample rate and to mono.
+     *
+     * @param format the format of the audio of the participant
+     * @return a new resampler, or null when the audio should be sent as it
+     * is read
+     */
+    AudioResampler createAudioResampler(AudioFormat format)
+    {
+        int inputRate = (int) format.getSampleRate();
+        if (resampleRate <= 0
+            || (inputRate <= resampleRate && format.getChannels() <= 1))
+        {
+            return null;
+        }
+
+        try
+        {
+            return new AudioResampler(
+                format, Math.min(inputRate, resampleRate));
+        }
+        catch (IllegalArgumentException e)
+        {
+            logger.warn("Sending audio without resampling: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Create the bounded queue through which a participant sends its audio
+     * to the {@link TranscriptionService}. It is drained on
+     * {@link #executorService}.
+     *
+     * @param sink the sink which will receive the audio
+     * @return a new queue
+     */
+    AudioRequestQueue createAudioRequestQueue(AudioRequestQueue.Sink sink)
+    {
+        return new AudioRequestQueue(
+            audioQueueSize, audioQueueOverflowPolicy, this::executeAudioTask,
+            sink);
+    }
+
+    /**
+     * Run a task of an audio queue on {@link #executorService}.
+     *
+     * @param task the task
+     * @throws RejectedExecutionException when the transcriber has not been
+     * started or is stopping
+     */
+    private void executeAudioTask(Runnable task)
+    {
+        ExecutorService executorService = this.executorService;
+        if (executorService == null)
+        {
+            throw new RejectedExecutionException(
+                "Transcriber has not been started");
+        }
+        executorService.execute(task);
+    }
+
+    /**
+     * Log how much audio was dropped or merged because the
+     * {@link TranscriptionService} did not keep up.
+     */
+    private void logAudioQueueStats()
+    {
+        long dropped = 0;
+        long coalesced = 0;
+        for (Participant participant : participants.values())
+        {
+            dropped += participant.getDroppedAudioRequests();
+            coalesced += participant.getCoalescedAudioRequests();
+        }
+
+        if (dropped > 0 || coalesced > 0)
+        {
+            logger.warn("Audio queues in room " + roomName + " dropped "
+                + dropped + " and merged " + coalesced + " requests ("
+                + audioQueueOverflowPolicy + ")");
+        }
+    }
+
     /**
      * Returns the name of the room of the conference which will be transcribed.
      * @return the room name.
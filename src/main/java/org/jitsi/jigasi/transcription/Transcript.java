@@ -17,12 +17,17 @@
  */
 package org.jitsi.jigasi.transcription;
 
+import java.io.*;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
- * A transcript of a conference. An instance of this class will hold the
- * complete transcript once a conference is over
+ * A transcript of a conference. An instance of this class only holds the
+ * start, the end and the initial participants of a conference. Every other
+ * event is handed to the {@link TranscriptPublisher.Promise}s as it is
+ * recorded, which store it so the complete transcript can be assembled once
+ * the conference is over
  *
  * @author Nik Vaessen
  */
@@ -44,24 +49,15 @@ public class Transcript
     }
 
     /**
-     * The list of all received speechEvents
+     * The promises which are given every recorded event
      */
-    private final List<SpeechEvent> speechEvents = new LinkedList<>();
+    private final List<TranscriptPublisher.Promise> promises
+        = new CopyOnWriteArrayList<>();
 
     /**
-     * The list of all received
+     * The participants for which a join event was recorded
      */
-    private final List<TranscriptEvent> joinedEvents = new LinkedList<>();
-
-    /**
-     * The list of all received
-     */
-    private final List<TranscriptEvent> leftEvents = new LinkedList<>();
-
-    /**
-     * The list of all received
-     */
-    private final List<TranscriptEvent> raisedHandEvents = new LinkedList<>();
+    private final Set<Participant> joinedParticipants = new HashSet<>();
 
     /**
      * An event without a name, which specifies when transcription started
@@ -126,7 +122,7 @@ public class Transcript
         if(started != null && !result.isInterim())
         {
             SpeechEvent speechEvent = new SpeechEvent(Instant.now(), result);
-            speechEvents.add(speechEvent);
+            recorded(speechEvent);
         }
     }
 
@@ -230,15 +226,12 @@ public class Transcript
         {
             // do not duplicate join events, can happen on conference start
             // because of WaitForConferenceMemberThread in transcript gw session
-            for (TranscriptEvent ev : joinedEvents)
-            {
-                if (ev.getParticipant().equals(participant))
-                    return null;
-            }
+            if (!joinedParticipants.add(participant))
+                return null;
 
             TranscriptEvent event = new TranscriptEvent(
                 Instant.now(), participant, TranscriptEventType.JOIN);
-            joinedEvents.add(event);
+            recorded(event);
 
             return event;
         }
@@ -259,7 +252,7 @@ public class Transcript
         {
             TranscriptEvent event = new TranscriptEvent(
                 Instant.now(), participant, TranscriptEventType.LEAVE);
-            leftEvents.add(event);
+            recorded(event);
 
             return event;
         }
@@ -280,7 +273,7 @@ public class Transcript
         {
             TranscriptEvent event = new TranscriptEvent(
                 Instant.now(), participant, TranscriptEventType.RAISE_HAND);
-            raisedHandEvents.add(event);
+            recorded(event);
 
             return event;
         }
@@ -289,25 +282,93 @@ public class Transcript
     }
 
     /**
-     * Get a formatted transcript of the events stored by this object
+     * Get the name of the room of the conference
+     *
+     * @return the room name
+     */
+    public String getRoomName()
+    {
+        return roomName;
+    }
+
+    /**
+     * Get when the transcription started
+     *
+     * @return the start, or null when it did not start
+     */
+    public Instant getStartTime()
+    {
+        TranscriptEvent started = this.started;
+        return started == null ? null : started.getTimeStamp();
+    }
+
+    /**
+     * Get when the transcription ended
+     *
+     * @return the end, or null when it did not end
+     */
+    public Instant getEndTime()
+    {
+        TranscriptEvent ended = this.ended;
+        return ended == null ? null : ended.getTimeStamp();
+    }
+
+    /**
+     * Get the participants who were present when the transcription started
+     *
+     * @return the initial participants
+     */
+    public List<Participant> getInitialParticipants()
+    {
+        return Collections.unmodifiableList(initialParticipantNames);
+    }
+
+    /**
+     * Add a promise which will be given every event recorded from now on
+     *
+     * @param promise the promise
+     */
+    public void addPublishPromise(TranscriptPublisher.Promise promise)
+    {
+        promises.add(promise);
+    }
+
+    /**
+     * Hand a recorded event to every promise
+     *
+     * @param event the event
+     */
+    private void recorded(TranscriptEvent event)
+    {
+        for (TranscriptPublisher.Promise promise : promises)
+        {
+            promise.recorded(event);
+        }
+    }
+
+    /**
+     * Write a formatted transcript of the events stored by this object and
+     * the events which were stored by a promise of the publisher
      *
      * @param publisher a publisher which has a formatter to create a transcript
      *                  in the desired type
-     * @param <T> the type in which the transcript will be stored
-     * @return a formatted transcript with type T
+     * @param events the segment in which the promise of the publisher stored
+     *               the formatted events, or null when there were none
+     * @param writer the writer of the transcript
+     * @throws IOException when reading the events or writing the transcript
+     * fails
      */
-    public <T> T getTranscript(AbstractTranscriptPublisher<T> publisher)
+    public void writeTranscript(AbstractTranscriptPublisher<?> publisher,
+                                TranscriptSegment events,
+                                Writer writer)
+        throws IOException
     {
-        return publisher.getFormatter()
+        publisher.getFormatter()
             .startedOn(started)
             .initialParticipants(initialParticipantNames)
             .tookPlaceInRoom(roomName)
-            .speechEvents(speechEvents)
-            .raiseHandEvents(raisedHandEvents)
-            .joinEvents(joinedEvents)
-            .leaveEvents(leftEvents)
             .endedOn(ended)
-            .finish();
+            .write(events, writer);
     }
 
 }
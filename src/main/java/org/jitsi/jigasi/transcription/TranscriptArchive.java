@@ -0,0 +1,737 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.jitsi.util.*;
+import org.json.simple.*;
+import org.json.simple.parser.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/**
+ * A transcript stored with an index, so parts of it can be found and read
+ * without going through the whole of it.
+ * <p>
+ * Every transcript of the archive is made of three files named after its id:
+ * <ul>
+ * <li><tt>&lt;id&gt;.jsonl</tt> holds the events, one JSON object per
+ * line, written while the conference goes on</li>
+ * <li><tt>&lt;id&gt;.idx</tt> holds the index of the events, written when
+ * the conference is over: for every event its time in ms since the epoch and
+ * the offset of its line in bytes, both as 8 byte big endian integers</li>
+ * <li><tt>&lt;id&gt;.meta.json</tt> describes the transcript: its room,
+ * start and end, participants, amount of events and size</li>
+ * </ul>
+ * The index of a transcript which is still being written is kept in memory,
+ * so it can be queried too.
+ * <p>
+ * The descriptions of an archive are read once, when it is first listed,
+ * and kept up to date as transcripts are closed. The index of a written
+ * transcript is only read when it is queried.
+ */
+public class TranscriptArchive
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger
+        = Logger.getLogger(TranscriptArchive.class);
+
+    /**
+     * The suffix of the file holding the events.
+     */
+    public final static String EVENTS_FILE_SUFFIX = ".jsonl";
+
+    /**
+     * The suffix of the file holding the index.
+     */
+    private final static String INDEX_FILE_SUFFIX = ".idx";
+
+    /**
+     * The suffix of the file describing the transcript.
+     */
+    private final static String METADATA_FILE_SUFFIX = ".meta.json";
+
+    /**
+     * The JSON key of the id of a transcript.
+     */
+    public final static String JSON_KEY_ID = "id";
+
+    /**
+     * The JSON key of the room of a transcript.
+     */
+    public final static String JSON_KEY_ROOM_NAME = "room_name";
+
+    /**
+     * The JSON key of the start of a transcript.
+     */
+    public final static String JSON_KEY_START_TIME = "start_time";
+
+    /**
+     * The JSON key of the end of a transcript.
+     */
+    public final static String JSON_KEY_END_TIME = "end_time";
+
+    /**
+     * The JSON key of the participants of a transcript.
+     */
+    public final static String JSON_KEY_PARTICIPANTS = "participants";
+
+    /**
+     * The JSON key of the id of a participant.
+     */
+    public final static String JSON_KEY_PARTICIPANT_ID = "id";
+
+    /**
+     * The JSON key of the name of a participant.
+     */
+    public final static String JSON_KEY_PARTICIPANT_NAME = "name";
+
+    /**
+     * The JSON key of the amount of events of a transcript.
+     */
+    public final static String JSON_KEY_EVENTS = "events";
+
+    /**
+     * The JSON key of the size in bytes of the events of a transcript.
+     */
+    public final static String JSON_KEY_SIZE = "size";
+
+    /**
+     * The JSON key telling whether a transcript is still being written.
+     */
+    public final static String JSON_KEY_LIVE = "live";
+
+    /**
+     * The pattern of the ids, which are UUIDs so they cannot point outside
+     * of the archive.
+     */
+    private final static Pattern ID_PATTERN
+        = Pattern.compile("[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12}");
+
+    /**
+     * The transcripts which are still being written, by id.
+     */
+    private final static Map<String, TranscriptArchive> liveArchives
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The transcripts which have been written, by id, of every archive
+     * directory which was read.
+     */
+    private final static Map<File, Map<String, TranscriptArchive>>
+        closedArchives = new ConcurrentHashMap<>();
+
+    /**
+     * The id of the transcript.
+     */
+    private final String id;
+
+    /**
+     * The directory of the archive.
+     */
+    private final File directory;
+
+    /**
+     * The name of the room.
+     */
+    private final String roomName;
+
+    /**
+     * The start of the transcript, or null.
+     */
+    private Instant startTime;
+
+    /**
+     * The end of the transcript, or null while it is still being written.
+     */
+    private Instant endTime;
+
+    /**
+     * The names of the participants by their id, in order of appearance.
+     */
+    private final Map<String, String> participants = new LinkedHashMap<>();
+
+    /**
+     * The time in ms since the epoch of every event. Never decreasing, so
+     * it can be searched. Null until the index of a written transcript is
+     * needed.
+     */
+    private long[] times;
+
+    /**
+     * The offset in bytes of the line of every event. Null until the index
+     * of a written transcript is needed.
+     */
+    private long[] offsets;
+
+    /**
+     * The amount of events.
+     */
+    private int count;
+
+    /**
+     * The size in bytes of all events.
+     */
+    private long size;
+
+    /**
+     * The segment the events are written to, null once closed or when
+     * loaded from disk.
+     */
+    private TranscriptSegment segment;
+
+    /**
+     * Create a transcript.
+     *
+     * @param directory the directory of the archive
+     * @param id the id of the transcript
+     * @param roomName the name of the room
+     */
+    private TranscriptArchive(File directory, String id, String roomName)
+    {
+        this.directory = directory;
+        this.id = id;
+        this.roomName = roomName;
+    }
+
+    /**
+     * Start a new transcript in an archive.
+     *
+     * @param directory the directory of the archive, created when needed
+     * @param roomName the name of the room
+     * @param startTime the start of the transcript, or null
+     * @param syncInterval the time in ms between two syncs of the events to
+     * disk, 0 to only sync when closing
+     * @return the transcript, to which the events can be appended
+     * @throws IOException when the file of the events cannot be opened
+     */
+    public static TranscriptArchive create(File directory,
+                                           String roomName,
+                                           Instant startTime,
+                                           long syncInterval)
+        throws IOException
+    {
+        Files.createDirectories(directory.toPath());
+
+        TranscriptArchive archive = new TranscriptArchive(
+            directory, UUID.randomUUID().toString(), roomName);
+        archive.times = new long[16];
+        archive.offsets = new long[16];
+        archive.startTime = startTime;
+        archive.segment = new TranscriptSegment(
+            archive.getEventsFile(), syncInterval);
+
+        liveArchives.put(archive.id, archive);
+        return archive;
+    }
+
+    /**
+     * Get a transcript of an archive.
+     *
+     * @param directory the directory of the archive
+     * @param id the id of the transcript
+     * @return the transcript, or null when there is none with this id
+     * @throws IOException when the transcript cannot be read
+     */
+    public static TranscriptArchive get(File directory, String id)
+        throws IOException
+    {
+        if (id == null || !ID_PATTERN.matcher(id).matches())
+        {
+            return null;
+        }
+
+        TranscriptArchive archive = liveArchives.get(id);
+        if (archive != null && archive.directory.equals(directory))
+        {
+            return archive;
+        }
+
+        Map<String, TranscriptArchive> closed = getClosedArchives(directory);
+        archive = closed.get(id);
+        if (archive != null)
+        {
+            return archive;
+        }
+
+        // written by someone else since the archive was read
+        File metadata = new File(directory, id + METADATA_FILE_SUFFIX);
+        if (!metadata.isFile())
+        {
+            return null;
+        }
+        archive = load(directory, id, metadata);
+        closed.putIfAbsent(id, archive);
+        return archive;
+    }
+
+    /**
+     * Get every transcript of an archive, including the ones which are still
+     * being written.
+     *
+     * @param directory the directory of the archive
+     * @return the transcripts, ordered by start. Transcripts which cannot
+     * be read are left out
+     */
+    public static List<TranscriptArchive> list(File directory)
+    {
+        Map<String, TranscriptArchive> archives
+            = new HashMap<>(getClosedArchives(directory));
+        for (TranscriptArchive archive : liveArchives.values())
+        {
+            if (archive.directory.equals(directory))
+            {
+                archives.put(archive.id, archive);
+            }
+        }
+
+        List<TranscriptArchive> sorted = new ArrayList<>(archives.values());
+        sorted.sort(Comparator.comparing(
+            TranscriptArchive::getStartTime,
+            Comparator.nullsFirst(Comparator.naturalOrder())));
+        return sorted;
+    }
+
+    /**
+     * Get the written transcripts of an archive, reading their descriptions
+     * the first time.
+     *
+     * @param directory the directory of the archive
+     * @return the transcripts by id
+     */
+    private static Map<String, TranscriptArchive> getClosedArchives(
+        File directory)
+    {
+        return closedArchives.computeIfAbsent(directory, dir -> {
+            Map<String, TranscriptArchive> archives
+                = new ConcurrentHashMap<>();
+            File[] files = dir.listFiles(
+                (d, name) -> name.endsWith(METADATA_FILE_SUFFIX));
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    String name = file.getName();
+                    String id = name.substring(
+                        0, name.length() - METADATA_FILE_SUFFIX.length());
+                    try
+                    {
+                        archives.put(id, load(dir, id, file));
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        logger.warn("Skipped archived transcript " + id, e);
+                    }
+                }
+            }
+            return archives;
+        });
+    }
+
+    /**
+     * Read the description of a transcript. Its index is read when needed.
+     *
+     * @param directory the directory of the archive
+     * @param id the id of the transcript
+     * @param metadata the file describing the transcript
+     * @return the transcript
+     * @throws IOException when the file cannot be read
+     */
+    private static TranscriptArchive load(
+        File directory, String id, File metadata)
+        throws IOException
+    {
+        JSONObject json;
+        try (Reader reader = Files.newBufferedReader(
+                metadata.toPath(), StandardCharsets.UTF_8))
+        {
+            json = (JSONObject) new JSONParser().parse(reader);
+        }
+        catch (ParseException | ClassCastException e)
+        {
+            throw new IOException("Invalid transcript description "
+                + metadata, e);
+        }
+
+        TranscriptArchive archive = new TranscriptArchive(
+            directory, id, (String) json.get(JSON_KEY_ROOM_NAME));
+        archive.count = ((Number) json.get(JSON_KEY_EVENTS)).intValue();
+        archive.startTime = parseInstant(json.get(JSON_KEY_START_TIME));
+        archive.endTime = parseInstant(json.get(JSON_KEY_END_TIME));
+        archive.size = ((Number) json.get(JSON_KEY_SIZE)).longValue();
+
+        Object participants = json.get(JSON_KEY_PARTICIPANTS);
+        if (participants instanceof JSONArray)
+        {
+            for (Object participant : (JSONArray) participants)
+            {
+                JSONObject p = (JSONObject) participant;
+                archive.participants.put(
+                    (String) p.get(JSON_KEY_PARTICIPANT_ID),
+                    (String) p.get(JSON_KEY_PARTICIPANT_NAME));
+            }
+        }
+
+        return archive;
+    }
+
+    /**
+     * Read the index of a written transcript, unless it is in memory.
+     *
+     * @throws IOException when the index cannot be read
+     */
+    private void loadIndex()
+        throws IOException
+    {
+        if (times != null)
+        {
+            return;
+        }
+
+        long[] times = new long[count];
+        long[] offsets = new long[count];
+        File index = new File(directory, id + INDEX_FILE_SUFFIX);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(index))))
+        {
+            for (int i = 0; i < count; i++)
+            {
+                times[i] = in.readLong();
+                offsets[i] = in.readLong();
+            }
+        }
+        this.times = times;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Parse an instant stored in a description.
+     *
+     * @param value the stored value, or null
+     * @return the instant, or null
+     */
+    private static Instant parseInstant(Object value)
+    {
+        return value == null ? null : Instant.parse((String) value);
+    }
+
+    /**
+     * Append an event. Ignored once the transcript is closed.
+     *
+     * @param time the time of the event
+     * @param entry the event, as a single line of JSON ending with a line
+     * separator
+     */
+    public synchronized void append(Instant time, String entry)
+    {
+        if (segment == null)
+        {
+            return;
+        }
+
+        if (count == times.length)
+        {
+            times = Arrays.copyOf(times, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+
+        long millis = time.toEpochMilli();
+        times[count] = count > 0 ? Math.max(times[count - 1], millis) : millis;
+        offsets[count] = size;
+        count++;
+
+        size += entry.getBytes(StandardCharsets.UTF_8).length;
+        segment.append(entry);
+    }
+
+    /**
+     * Add a participant of the transcript.
+     *
+     * @param participantId the id of the participant
+     * @param name the name of the participant, or null
+     */
+    public synchronized void addParticipant(String participantId, String name)
+    {
+        if (participantId != null)
+        {
+            participants.putIfAbsent(participantId, name);
+        }
+    }
+
+    /**
+     * Write the remaining events, the index and the description of the
+     * transcript. Has no effect when already closed.
+     *
+     * @param startTime the start of the transcript, or null to keep the one
+     * it was created with
+     * @param endTime the end of the transcript, or null to use the current
+     * time
+     * @throws IOException when writing the files failed
+     */
+    public synchronized void close(Instant startTime, Instant endTime)
+        throws IOException
+    {
+        if (segment == null)
+        {
+            return;
+        }
+
+        if (startTime != null)
+        {
+            this.startTime = startTime;
+        }
+        this.endTime = endTime != null ? endTime : Instant.now();
+        try
+        {
+            segment.close();
+            segment = null;
+
+            File index = new File(directory, id + INDEX_FILE_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(index))))
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    out.writeLong(times[i]);
+                    out.writeLong(offsets[i]);
+                }
+            }
+
+            // written last, as it is what makes the transcript listed
+            File metadata = new File(directory, id + METADATA_FILE_SUFFIX);
+            try (Writer writer = Files.newBufferedWriter(
+                    metadata.toPath(), StandardCharsets.UTF_8))
+            {
+                toJSON().writeJSONString(writer);
+            }
+
+            // listed without reading the description again, the index is
+            // read back when needed
+            getClosedArchives(directory).put(id, this);
+            times = null;
+            offsets = null;
+        }
+        finally
+        {
+            segment = null;
+            liveArchives.remove(id, this);
+        }
+    }
+
+    /**
+     * Get the id of the transcript.
+     *
+     * @return the id
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * Get the name of the room of the transcript.
+     *
+     * @return the room name
+     */
+    public String getRoomName()
+    {
+        return roomName;
+    }
+
+    /**
+     * Get the start of the transcript.
+     *
+     * @return the start, or null
+     */
+    public synchronized Instant getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * Get the end of the transcript.
+     *
+     * @return the end, or null while it is still being written
+     */
+    public synchronized Instant getEndTime()
+    {
+        return endTime;
+    }
+
+    /**
+     * Get whether the transcript is still being written.
+     *
+     * @return true when events can still be appended
+     */
+    public synchronized boolean isLive()
+    {
+        return segment != null;
+    }
+
+    /**
+     * Get the file holding the events.
+     *
+     * @return the file
+     */
+    public File getEventsFile()
+    {
+        return new File(directory, id + EVENTS_FILE_SUFFIX);
+    }
+
+    /**
+     * Get the amount of bytes of the events which can be read. While the
+     * transcript is being written, this ends with the last event which was
+     * completely written to disk.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getReadableSize()
+    {
+        if (segment == null)
+        {
+            return size;
+        }
+
+        long written = getEventsFile().length();
+        if (written >= size)
+        {
+            return size;
+        }
+
+        // the offset of the first event not completely written
+        int i = upperBound(offsets, count, written);
+        return i == 0 ? 0 : offsets[i - 1];
+    }
+
+    /**
+     * Find the events between two moments.
+     *
+     * @param from the first moment, inclusive, or null for the start
+     * @param to the last moment, exclusive, or null for the end
+     * @return the index of the first event, the amount of events, and the
+     * offsets in bytes of the start and the end (exclusive) of their lines
+     * @throws IOException when the index cannot be read
+     */
+    public synchronized long[] findRange(Instant from, Instant to)
+        throws IOException
+    {
+        loadIndex();
+        long readable = getReadableSize();
+        int readableCount = readable == size
+            ? count : lowerBound(offsets, count, readable);
+
+        int first = from == null
+            ? 0 : lowerBound(times, readableCount, from.toEpochMilli());
+        int last = to == null
+            ? readableCount
+            : lowerBound(times, readableCount, to.toEpochMilli());
+        last = Math.max(first, last);
+
+        long start = first < count ? offsets[first] : size;
+        long end = last < count ? offsets[last] : size;
+        return new long[] { first, last - first, start, end };
+    }
+
+    /**
+     * Describe the transcript in JSON.
+     *
+     * @return the description
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized JSONObject toJSON()
+    {
+        JSONObject json = new JSONObject();
+        json.put(JSON_KEY_ID, id);
+        json.put(JSON_KEY_ROOM_NAME, roomName);
+        if (startTime != null)
+        {
+            json.put(JSON_KEY_START_TIME, startTime.toString());
+        }
+        if (endTime != null)
+        {
+            json.put(JSON_KEY_END_TIME, endTime.toString());
+        }
+
+        JSONArray participantArray = new JSONArray();
+        for (Map.Entry<String, String> participant : participants.entrySet())
+        {
+            JSONObject p = new JSONObject();
+            p.put(JSON_KEY_PARTICIPANT_ID, participant.getKey());
+            p.put(JSON_KEY_PARTICIPANT_NAME, participant.getValue());
+            participantArray.add(p);
+        }
+        json.put(JSON_KEY_PARTICIPANTS, participantArray);
+
+        json.put(JSON_KEY_EVENTS, count);
+        json.put(JSON_KEY_SIZE, size);
+        if (segment != null)
+        {
+            json.put(JSON_KEY_LIVE, true);
+        }
+        return json;
+    }
+
+    /**
+     * Find the first of the sorted values which is not smaller than a key.
+     *
+     * @param values the sorted values
+     * @param length the amount of values
+     * @param key the key
+     * @return the index of the value, or <tt>length</tt> when every value is
+     * smaller
+     */
+    private static int lowerBound(long[] values, int length, long key)
+    {
+        int low = 0;
+        int high = length;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find the first of the sorted values which is bigger than a key.
+     *
+     * @param values the sorted values
+     * @param length the amount of values
+     * @param key the key
+     * @return the index of the value, or <tt>length</tt> when no value is
+     * bigger
+     */
+    private static int upperBound(long[] values, int length, long key)
+    {
+        return lowerBound(values, length, key + 1);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.jitsi.jigasi.*;
+import org.jitsi.util.*;
+import org.json.simple.*;
+
+import java.io.*;
+
+/**
+ * Stores transcripts in the {@link TranscriptArchive} in the archive
+ * directory. The events are formatted like the ones of
+ * {@link LocalJsonTranscriptHandler}.
+ * <p>
+ * The archive directory is kept out of the transcript directory, whose files
+ * are served to anyone who knows their name, as the archive lists every
+ * transcript.
+ */
+public class TranscriptArchivePublisher
+    extends LocalJsonTranscriptHandler
+{
+    /**
+     * The logger of this class
+     */
+    private static final Logger logger
+        = Logger.getLogger(TranscriptArchivePublisher.class);
+
+    /**
+     * Property name for the directory of the archive
+     */
+    public final static String P_NAME_ARCHIVE_DIRECTORY
+        = "org.jitsi.jigasi.transcription.ARCHIVE_DIRECTORY";
+
+    /**
+     * The default directory of the archive, next to the transcript directory
+     * instead of in it
+     */
+    public final static String ARCHIVE_DIRECTORY_DEFAULT_VALUE
+        = "/var/lib/jigasi/transcript-archive";
+
+    /**
+     * Get the directory of the archive
+     *
+     * @return the directory
+     */
+    public static File getArchiveDirectory()
+    {
+        return new File(JigasiBundleActivator.getConfigurationService()
+            .getString(P_NAME_ARCHIVE_DIRECTORY,
+                ARCHIVE_DIRECTORY_DEFAULT_VALUE));
+    }
+
+    @Override
+    public Promise getPublishPromise()
+    {
+        return new ArchivePromise();
+    }
+
+    /**
+     * Appends the events of a transcript to the archive as they are
+     * recorded, and writes its index once the conference is over
+     */
+    private class ArchivePromise
+        implements Promise
+    {
+        /**
+         * The transcript in the archive, created with the first event
+         */
+        private TranscriptArchive archive = null;
+
+        /**
+         * Whether the transcript could not be created in the archive
+         */
+        private boolean failed = false;
+
+        @Override
+        public boolean hasDescription()
+        {
+            return false;
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return "";
+        }
+
+        @Override
+        public synchronized void recorded(TranscriptEvent event)
+        {
+            if (failed)
+            {
+                return;
+            }
+
+            JSONObject formattedEvent = formatEvent(event);
+            if (formattedEvent == null)
+            {
+                return;
+            }
+
+            Participant participant = event.getParticipant();
+            if (archive == null)
+            {
+                try
+                {
+                    archive = TranscriptArchive.create(
+                        getArchiveDirectory(),
+                        participant == null
+                            ? "" : participant.getTranscriber().getRoomName(),
+                        event.getTimeStamp(),
+                        JigasiBundleActivator.getConfigurationService()
+                            .getLong(P_NAME_SEGMENT_SYNC_INTERVAL,
+                                SEGMENT_SYNC_INTERVAL_DEFAULT_VALUE));
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Unable to archive transcript", e);
+                    failed = true;
+                    return;
+                }
+            }
+
+            if (participant != null)
+            {
+                archive.addParticipant(
+                    participant.getId(), participant.getName());
+            }
+            archive.append(
+                event.getTimeStamp(), toSegmentEntry(formattedEvent));
+        }
+
+        @Override
+        public synchronized void publish(Transcript transcript)
+        {
+            if (archive == null)
+            {
+                return;
+            }
+
+            for (Participant participant : transcript.getInitialParticipants())
+            {
+                archive.addParticipant(
+                    participant.getId(), participant.getName());
+            }
+
+            try
+            {
+                archive.close(
+                    transcript.getStartTime(), transcript.getEndTime());
+                logger.info("Archived transcript " + archive.getId());
+            }
+            catch (IOException e)
+            {
+                logger.warn("Unable to write the index of archived transcript "
+                    + archive.getId(), e);
+            }
+        }
+    }
+}
@@ -42,6 +42,12 @@ public class TranscriptHandler
     public final static String P_NAME_SAVE_TXT
         = "org.jitsi.jigasi.transcription.SAVE_TXT";
 
+    /**
+     * Property name for saving transcript in the indexed archive
+     */
+    public final static String P_NAME_SAVE_ARCHIVE
+        = "org.jitsi.jigasi.transcription.SAVE_ARCHIVE";
+
     /**
      * Property name for sending result in json
      */
@@ -60,6 +66,13 @@ public class TranscriptHandler
     public final static String P_NAME_SEND_JSON_REMOTE
         = "org.jitsi.jigasi.transcription.SEND_JSON_REMOTE_URLS";
 
+    /**
+     * Property name for streaming results in json to the clients of the
+     * transcript server
+     */
+    public final static String P_NAME_STREAM_JSON
+        = "org.jitsi.jigasi.transcription.STREAM_JSON";
+
     /**
      * Whether to publish final transcripts by locally saving them in json
      * format
@@ -71,6 +84,12 @@ public class TranscriptHandler
      */
     private final static boolean SAVE_TXT = true;
 
+    /**
+     * Whether to publish final transcripts by storing them in the indexed
+     * archive
+     */
+    private final static boolean SAVE_ARCHIVE = false;
+
     /**
      * Whether to send results in json to
      * {@link net.java.sip.communicator.service.protocol.ChatRoom} of muc
@@ -83,6 +102,12 @@ public class TranscriptHandler
      */
     private final static boolean SEND_TXT = false;
 
+    /**
+     * Whether to stream results in json to the clients of the transcript
+     * server
+     */
+    private final static boolean STREAM_JSON = false;
+
     /**
      * The list of {@link TranscriptionResultPublisher} which will handle
      * {@link TranscriptionResult}s
@@ -115,6 +140,10 @@ public class TranscriptHandler
         {
             this.add((TranscriptPublisher) txtHandler);
         }
+        if(getStoreInArchive())
+        {
+            this.add((TranscriptPublisher) new TranscriptArchivePublisher());
+        }
         if(getSendInJSON())
         {
             this.add((TranscriptionResultPublisher) jsonHandler);
@@ -129,6 +158,11 @@ public class TranscriptHandler
             this.add((TranscriptionResultPublisher)
                 new RemotePublisherTranscriptionHandler(urls));
         }
+        if (getStreamInJSON())
+        {
+            this.add((TranscriptionResultPublisher)
+                new TranscriptStreamPublisher());
+        }
     }
 
     /**
@@ -251,6 +285,18 @@ public class TranscriptHandler
             .getString(P_NAME_SEND_JSON_REMOTE);
     }
 
+    /**
+     * Get whether to stream results in JSON to the clients of the transcript
+     * server
+     *
+     * @return true if results are streamed in json, false otherwise
+     */
+    private boolean getStreamInJSON()
+    {
+        return JigasiBundleActivator.getConfigurationService()
+            .getBoolean(P_NAME_STREAM_JSON, STREAM_JSON);
+    }
+
     /**
      * Get whether to save transcript in JSON
      *
@@ -262,6 +308,17 @@ public class TranscriptHandler
             .getBoolean(P_NAME_SAVE_JSON, SAVE_JSON);
     }
 
+    /**
+     * Get whether to save transcripts in the indexed archive
+     *
+     * @return true if saved in the archive, false otherwise
+     */
+    private boolean getStoreInArchive()
+    {
+        return JigasiBundleActivator.getConfigurationService()
+            .getBoolean(P_NAME_SAVE_ARCHIVE, SAVE_ARCHIVE);
+    }
+
     /**
      * Get whether to save transcripts in txt
      *
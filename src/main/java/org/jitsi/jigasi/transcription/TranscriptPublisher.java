@@ -54,6 +54,17 @@ public interface TranscriptPublisher
          */
         String getDescription();
 
+        /**
+         * Called for every event of the {@link Transcript} as soon as it is
+         * recorded, so the transcript can be stored while the conference goes
+         * on instead of all at once when it ends.
+         *
+         * @param event the event which was recorded
+         */
+        default void recorded(TranscriptEvent event)
+        {
+        }
+
         /**
          * Publish the given {@link Transcript} to the desired location.
          * Can only be called once.
@@ -0,0 +1,419 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.jitsi.jigasi.util.*;
+import org.jitsi.util.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * An append-only file holding the formatted events of a transcript, written
+ * while the conference goes on. Appending only queues the entry, the writes
+ * to disk happen in order on a small shared pool of threads, through a
+ * buffer which is flushed and synced to disk periodically. So a transcript
+ * does not have to be kept in memory until the conference ends, and a crash
+ * only loses the last moments of it.
+ * <p>
+ * Once closed, the segment can be read back to assemble the final
+ * transcript.
+ */
+public class TranscriptSegment
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger
+        = Logger.getLogger(TranscriptSegment.class);
+
+    /**
+     * The size of the buffer of every segment, in bytes.
+     */
+    private final static int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The amount of threads writing the segments of all conferences.
+     */
+    private final static int WRITER_THREADS = 2;
+
+    /**
+     * The threads writing the segments.
+     */
+    private static ExecutorService writerExecutor = null;
+
+    /**
+     * The file of this segment.
+     */
+    private final File file;
+
+    /**
+     * The channel writing to {@link #file}. Only accessed through
+     * {@link #executor}.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The entries which were not written to {@link #channel} yet. Only
+     * accessed through {@link #executor}.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Runs the writes of this segment in order.
+     */
+    private final SerialExecutor executor;
+
+    /**
+     * The time in ms between two syncs to disk, 0 to only sync when closing.
+     */
+    private final long syncInterval;
+
+    /**
+     * Whether entries were written since the last sync. Only accessed
+     * through {@link #executor}.
+     */
+    private boolean dirty = false;
+
+    /**
+     * The first error writing this segment, after which nothing is written
+     * anymore. Only accessed through {@link #executor}.
+     */
+    private IOException failure = null;
+
+    /**
+     * Whether this segment has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Opens a segment, appending to the file when it already exists.
+     *
+     * @param file the file of the segment
+     * @param syncInterval the time in ms between two syncs to disk, 0 to only
+     * sync when closing
+     * @throws IOException when the file cannot be opened
+     */
+    public TranscriptSegment(File file, long syncInterval)
+        throws IOException
+    {
+        this.file = file;
+        this.syncInterval = syncInterval;
+        this.channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+        this.executor = new SerialExecutor(getWriterExecutor());
+
+        scheduleSync();
+    }
+
+    /**
+     * Get the threads writing the segments, creating them when needed.
+     *
+     * @return the executor writing the segments
+     */
+    private static synchronized ExecutorService getWriterExecutor()
+    {
+        if (writerExecutor == null)
+        {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                WRITER_THREADS, WRITER_THREADS,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("transcript-writer"));
+            executor.allowCoreThreadTimeOut(true);
+            writerExecutor = executor;
+        }
+        return writerExecutor;
+    }
+
+    /**
+     * Get the file of this segment.
+     *
+     * @return the file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Queue an entry to be appended to this segment. Entries are written in
+     * the order they were appended. Ignored once the segment is closed.
+     *
+     * @param entry the entry, including its line separator
+     */
+    public void append(String entry)
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+        try
+        {
+            executor.execute(() -> write(bytes));
+        }
+        catch (RejectedExecutionException e)
+        {
+            logger.warn("Dropped transcript entry, " + file + " is closed");
+        }
+    }
+
+    /**
+     * Write every queued entry, sync the file to disk and close it. Blocks
+     * until done. Has no effect when already closed.
+     *
+     * @throws IOException when writing the segment failed at some point
+     */
+    public synchronized void close()
+        throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            try
+            {
+                flush(true);
+            }
+            finally
+            {
+                channel.close();
+            }
+            return null;
+        });
+        executor.execute(task);
+        executor.shutdown();
+
+        try
+        {
+            task.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "Interrupted while closing " + file);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException
+                ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Open a reader of the entries of this segment, which should be closed
+     * first.
+     *
+     * @return the reader
+     * @throws IOException when the file cannot be opened
+     */
+    public BufferedReader openReader()
+        throws IOException
+    {
+        return Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Delete the file of this segment, which should be closed first.
+     */
+    public void delete()
+    {
+        try
+        {
+            Files.deleteIfExists(file.toPath());
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to delete " + file, e);
+        }
+    }
+
+    /**
+     * Put an entry in the buffer, writing the buffer when it is full.
+     *
+     * @param bytes the encoded entry
+     */
+    private void write(byte[] bytes)
+    {
+        if (failure != null)
+        {
+            return;
+        }
+
+        try
+        {
+            if (bytes.length > buffer.remaining())
+            {
+                writeBuffer();
+            }
+
+            if (bytes.length > buffer.capacity())
+            {
+                writeFully(ByteBuffer.wrap(bytes));
+            }
+            else
+            {
+                buffer.put(bytes);
+            }
+            dirty = true;
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    /**
+     * Write the buffer to the file and sync the file to disk when needed.
+     *
+     * @param closing whether the segment is being closed, in which case a
+     * previous failure is thrown
+     * @throws IOException when writing fails
+     */
+    private void flush(boolean closing)
+        throws IOException
+    {
+        if (failure != null)
+        {
+            if (closing)
+            {
+                throw failure;
+            }
+            return;
+        }
+
+        if (!dirty)
+        {
+            return;
+        }
+
+        try
+        {
+            writeBuffer();
+            channel.force(false);
+            dirty = false;
+        }
+        catch (IOException e)
+        {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Write the content of the buffer to the file.
+     *
+     * @throws IOException when writing fails
+     */
+    private void writeBuffer()
+        throws IOException
+    {
+        buffer.flip();
+        try
+        {
+            writeFully(buffer);
+        }
+        finally
+        {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Write all remaining bytes of a buffer to the file.
+     *
+     * @param bytes the bytes to write
+     * @throws IOException when writing fails
+     */
+    private void writeFully(ByteBuffer bytes)
+        throws IOException
+    {
+        while (bytes.hasRemaining())
+        {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Remember the first failure, after which nothing is written anymore.
+     *
+     * @param e the failure
+     */
+    private void fail(IOException e)
+    {
+        if (failure == null)
+        {
+            failure = e;
+            logger.error("Failed to write transcript segment " + file, e);
+        }
+    }
+
+    /**
+     * Schedule the next periodic sync, unless syncing periodically is
+     * disabled or the segment is closed.
+     */
+    private void scheduleSync()
+    {
+        if (syncInterval <= 0 || closed)
+        {
+            return;
+        }
+
+        SharedTimer.schedule(
+            this::onSyncTimeout, syncInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands the periodic sync over to the writing threads, as the timer
+     * thread must not block on the disk.
+     */
+    private void onSyncTimeout()
+    {
+        try
+        {
+            executor.execute(() -> {
+                try
+                {
+                    flush(false);
+                }
+                catch (IOException e)
+                {
+                    // already logged
+                }
+                scheduleSync();
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // closed in the meantime
+        }
+    }
+}
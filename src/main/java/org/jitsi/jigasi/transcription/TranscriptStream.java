@@ -0,0 +1,353 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The live stream of the results and events of the transcript of a room,
+ * which is read by clients outside of the MUC. The latest events are kept in
+ * a ring buffer, so a subscriber which (re)connects can replay them from the
+ * id of the last event it has seen, and every subscriber reads at its own
+ * pace without holding back the others.
+ * <p>
+ * Clients find a stream by its id, which is random and hard to guess, so
+ * only those who were given its link in the room can follow it.
+ */
+public class TranscriptStream
+{
+    /**
+     * The streams of the rooms which are being transcribed, by room name.
+     */
+    private final static Map<String, TranscriptStream> streams
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The streams of the rooms which are being transcribed, by stream id.
+     */
+    private final static Map<String, TranscriptStream> streamsById
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The name of the room.
+     */
+    private final String roomName;
+
+    /**
+     * The random id with which clients find the stream.
+     */
+    private final String id = UUID.randomUUID().toString();
+
+    /**
+     * The ring buffer holding the latest events. The event with id
+     * <tt>n</tt> is stored at <tt>(n - 1) % events.length</tt>.
+     */
+    private final Event[] events;
+
+    /**
+     * The id of the last appended event, 0 when there is none yet.
+     */
+    private long lastId = 0;
+
+    /**
+     * Whether the transcription of the room is over.
+     */
+    private volatile boolean ended = false;
+
+    /**
+     * The listeners which are told about new events.
+     */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Create a stream.
+     *
+     * @param roomName the name of the room
+     * @param capacity the amount of events which can be replayed
+     */
+    public TranscriptStream(String roomName, int capacity)
+    {
+        this.roomName = roomName;
+        this.events = new Event[Math.max(1, capacity)];
+    }
+
+    /**
+     * Get the stream of a room, creating it when needed.
+     *
+     * @param roomName the name of the room
+     * @param capacity the amount of events which can be replayed, used when
+     * the stream is created
+     * @return the stream
+     */
+    public static TranscriptStream getOrCreate(String roomName, int capacity)
+    {
+        return streams.computeIfAbsent(roomName, name -> {
+            TranscriptStream stream = new TranscriptStream(name, capacity);
+            streamsById.put(stream.id, stream);
+            return stream;
+        });
+    }
+
+    /**
+     * Get the stream of a room.
+     *
+     * @param roomName the name of the room
+     * @return the stream, or null when the room is not being transcribed
+     */
+    public static TranscriptStream get(String roomName)
+    {
+        return streams.get(roomName);
+    }
+
+    /**
+     * Get a stream by its id.
+     *
+     * @param id the id of the stream
+     * @return the stream, or null when there is none with this id or its
+     * room is not being transcribed anymore
+     */
+    public static TranscriptStream getById(String id)
+    {
+        return streamsById.get(id);
+    }
+
+    /**
+     * Get the amount of rooms which have a stream.
+     *
+     * @return the amount of streams
+     */
+    public static int getStreamCount()
+    {
+        return streams.size();
+    }
+
+    /**
+     * Get the random id with which clients find this stream.
+     *
+     * @return the id
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * Get the name of the room of this stream.
+     *
+     * @return the name of the room
+     */
+    public String getRoomName()
+    {
+        return roomName;
+    }
+
+    /**
+     * Append an event and wake up the listeners. Ignored once the stream has
+     * ended.
+     *
+     * @param data the event, on a single line
+     * @return the id of the event, or -1 when the stream has ended
+     */
+    public long append(String data)
+    {
+        long id;
+        synchronized (events)
+        {
+            if (ended)
+            {
+                return -1;
+            }
+            id = ++lastId;
+            events[(int) ((id - 1) % events.length)] = new Event(id, data);
+        }
+
+        for (Listener listener : listeners)
+        {
+            listener.eventsAvailable(this);
+        }
+        return id;
+    }
+
+    /**
+     * Get the events which came after the given one and are still in the
+     * buffer. When the first returned event does not directly follow
+     * <tt>afterId</tt>, the events in between have been overwritten.
+     *
+     * @param afterId the id of the last event which was read, 0 to read all
+     * events still in the buffer
+     * @param max the maximum amount of events to return
+     * @return the events, oldest first
+     */
+    public List<Event> read(long afterId, int max)
+    {
+        synchronized (events)
+        {
+            long first = Math.max(
+                Math.max(0, afterId) + 1, lastId - events.length + 1);
+            long last = Math.min(lastId, first + max - 1);
+
+            List<Event> result = new ArrayList<>();
+            for (long id = first; id <= last; id++)
+            {
+                result.add(events[(int) ((id - 1) % events.length)]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Get the id of the last appended event.
+     *
+     * @return the id, 0 when there is none yet
+     */
+    public long getLastId()
+    {
+        synchronized (events)
+        {
+            return lastId;
+        }
+    }
+
+    /**
+     * End the stream as the transcription of the room is over. The events
+     * can still be read by the current subscribers, but the stream cannot be
+     * found anymore by new ones.
+     */
+    public void end()
+    {
+        synchronized (events)
+        {
+            if (ended)
+            {
+                return;
+            }
+            ended = true;
+        }
+        streams.remove(roomName, this);
+        streamsById.remove(id, this);
+
+        for (Listener listener : listeners)
+        {
+            listener.eventsAvailable(this);
+        }
+    }
+
+    /**
+     * Get whether the transcription of the room is over.
+     *
+     * @return true when no more events will be appended
+     */
+    public boolean isEnded()
+    {
+        return ended;
+    }
+
+    /**
+     * Add a listener.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get the amount of listeners of this stream.
+     *
+     * @return the amount of listeners
+     */
+    public int getListenerCount()
+    {
+        return listeners.size();
+    }
+
+    /**
+     * An event of the stream.
+     */
+    public static class Event
+    {
+        /**
+         * The id of the event, which increases by one for every event of the
+         * stream.
+         */
+        private final long id;
+
+        /**
+         * The event, on a single line.
+         */
+        private final String data;
+
+        /**
+         * Create an event.
+         *
+         * @param id the id of the event
+         * @param data the event
+         */
+        Event(long id, String data)
+        {
+            this.id = id;
+            this.data = data;
+        }
+
+        /**
+         * Get the id of the event.
+         *
+         * @return the id
+         */
+        public long getId()
+        {
+            return id;
+        }
+
+        /**
+         * Get the event.
+         *
+         * @return the event, on a single line
+         */
+        public String getData()
+        {
+            return data;
+        }
+    }
+
+    /**
+     * Is told when a stream has new events or has ended. It is called on the
+     * thread appending the event, so it should only schedule the reading.
+     */
+    public interface Listener
+    {
+        /**
+         * Called when events were appended to the stream or it ended.
+         *
+         * @param stream the stream
+         */
+        void eventsAvailable(TranscriptStream stream);
+    }
+}
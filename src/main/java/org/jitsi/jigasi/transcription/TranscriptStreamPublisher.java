@@ -0,0 +1,138 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import net.java.sip.communicator.service.protocol.*;
+import org.jitsi.jigasi.*;
+import org.json.simple.*;
+
+/**
+ * Publishes the results and events of a transcription to the
+ * {@link TranscriptStream} of the room, from which they are served to the
+ * clients by the transcript server. The messages are the same as the ones
+ * sent to the MUC by {@link LocalJsonTranscriptHandler}.
+ */
+public class TranscriptStreamPublisher
+    extends LocalJsonTranscriptHandler
+    implements TranscriptionEventListener
+{
+    /**
+     * The property name for the amount of events of a room which are kept
+     * to be replayed to clients which (re)connect.
+     */
+    public final static String P_NAME_STREAM_BUFFER_SIZE
+        = "org.jitsi.jigasi.transcription.STREAM_BUFFER_SIZE";
+
+    /**
+     * By default the last 256 events of a room can be replayed.
+     */
+    public final static int STREAM_BUFFER_SIZE_DEFAULT_VALUE = 256;
+
+    /**
+     * The amount of events of a room which can be replayed.
+     */
+    private final int bufferSize;
+
+    /**
+     * Create a publisher.
+     */
+    public TranscriptStreamPublisher()
+    {
+        this.bufferSize = JigasiBundleActivator.getConfigurationService()
+            .getInt(P_NAME_STREAM_BUFFER_SIZE,
+                STREAM_BUFFER_SIZE_DEFAULT_VALUE);
+    }
+
+    @Override
+    public void publish(ChatRoom room, TranscriptionResult result)
+    {
+        JSONObject eventObject = createJSONObject(result);
+
+        JSONObject encapsulatingObject = new JSONObject();
+        createEncapsulatingObject(encapsulatingObject, eventObject);
+
+        append(result.getParticipant().getTranscriber().getRoomName(),
+            encapsulatingObject);
+    }
+
+    @Override
+    public void notify(Transcriber transcriber, TranscriptEvent event)
+    {
+        switch (event.getEvent())
+        {
+            case START:
+                TranscriptStream.getOrCreate(
+                    transcriber.getRoomName(), bufferSize);
+                break;
+            case JOIN:
+            case LEAVE:
+                JSONObject object = new JSONObject();
+                addEventDescriptions(object, event);
+                append(transcriber.getRoomName(), object);
+                break;
+            case END:
+                TranscriptStream stream
+                    = TranscriptStream.get(transcriber.getRoomName());
+                if (stream != null)
+                {
+                    stream.end();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Get the text telling a room where its transcription can be followed
+     * live. The link holds the random id of the stream, which is the only
+     * way clients can find it.
+     *
+     * @param transcriber the transcriber of the room
+     * @return the text, or null when the room has no stream or URLs are not
+     * advertised
+     */
+    public String getDescription(Transcriber transcriber)
+    {
+        TranscriptStream stream
+            = TranscriptStream.get(transcriber.getRoomName());
+        if (stream == null || !advertiseURL())
+        {
+            return null;
+        }
+        return "Transcription can be followed live at " + getBaseURL()
+            + "stream/" + stream.getId() + ".\n";
+    }
+
+    /**
+     * Append a message to the stream of a room. The stream is created when
+     * the transcription starts, so results which come in after it ended do
+     * not open a new one.
+     *
+     * @param roomName the name of the room
+     * @param message the message
+     */
+    private void append(String roomName, JSONObject message)
+    {
+        TranscriptStream stream = TranscriptStream.get(roomName);
+        if (stream != null)
+        {
+            stream.append(message.toString());
+        }
+    }
+}
@@ -22,7 +22,11 @@ import java.util.*;
 
 /**
  * A TranscriptionRequest serves as a holder for some audio fragment
- * which needs to be transcribed
+ * which needs to be transcribed.
+ * <p>
+ * The audio is held in an {@link AudioChunk}. The {@link TranscriptionService}
+ * the request is given to becomes its owner and has to call
+ * {@link #release()} once it does not need the audio anymore
  *
  * @author Nik Vaessen
  */
@@ -32,7 +36,7 @@ public class TranscriptionRequest
     /**
      * The audio which needs to be transcribed
      */
-    private byte[] audio;
+    private AudioChunk audio;
 
     /**
      * The AudioFormat of the audio in this instance
@@ -55,6 +59,21 @@ public class TranscriptionRequest
      */
     public TranscriptionRequest(byte[] audio, AudioFormat format,
                                 Locale locale)
+    {
+        this(new AudioChunk(audio), format, locale);
+    }
+
+    /**
+     * Create a TranscriptionRequest which holds the audio to be
+     * transcribed along with its AudioFormat. The reference of the caller
+     * to the chunk is handed over to this request
+     *
+     * @param audio the chunk holding the audio fragment to be transcribed
+     * @param format the format of the given audio fragment
+     * @param locale the locale of the audio being spoken
+     */
+    public TranscriptionRequest(AudioChunk audio, AudioFormat format,
+                                Locale locale)
     {
         this.audio = audio;
         this.format = format;
@@ -62,15 +81,45 @@ public class TranscriptionRequest
     }
 
     /**
-     * The audio this instance is holding
+     * The audio this instance is holding. Only the first
+     * {@link #getAudioLength()} bytes of the array contain audio
      *
      * @return an audio fragment as an array of bytes
      */
     public byte[] getAudio()
+    {
+        return audio.getData();
+    }
+
+    /**
+     * Get the amount of bytes of audio this instance is holding
+     *
+     * @return the amount of bytes in {@link #getAudio()} which are audio
+     */
+    public int getAudioLength()
+    {
+        return audio.getLength();
+    }
+
+    /**
+     * Get the chunk holding the audio of this instance
+     *
+     * @return the chunk
+     */
+    public AudioChunk getAudioChunk()
     {
         return audio;
     }
 
+    /**
+     * Give up the audio of this request, as it has been sent or will never
+     * be sent. The audio must not be accessed afterwards
+     */
+    public void release()
+    {
+        audio.release();
+    }
+
     /**
      * Get the format of the audio this instance is holding
      *
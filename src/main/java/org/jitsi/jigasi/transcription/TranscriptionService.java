@@ -17,6 +17,7 @@
  */
 package org.jitsi.jigasi.transcription;
 
+import java.util.*;
 import java.util.function.*;
 
 /**
@@ -46,6 +47,9 @@ public interface TranscriptionService
      * transcription to be successful. Fragments longer than 60 seconds
      * might not be supported by most speech-to-text or will require
      * to much processing time to get a timely answer.
+     * <p>
+     * The service becomes the owner of the request and has to
+     * {@link TranscriptionRequest#release()} it when done with its audio.
      *
      * @param request the TranscriptionRequest which holds the audio
      * @param resultConsumer a Consumer of the transcription result
@@ -84,18 +88,32 @@ public interface TranscriptionService
      */
     boolean isConfiguredProperly();
 
+    /**
+     * Get whether this service can transcribe audio in the given language
+     *
+     * @param locale the language of the audio
+     * @return true when the language is supported, which is assumed unless
+     * the service knows which languages it supports
+     */
+    default boolean isLanguageSupported(Locale locale)
+    {
+        return true;
+    }
+
     /**
      * An interface for a session managing the transcription of a stream of
      * audio. Allows giving small packets of audio as well as subscribing
      * (multiple) listener(s) which will retrieve TranscriptionResults
-     * The AudioFormat and Locale of the audio are not expected to
-     * change during the session
+     * The AudioFormat of the audio is not expected to change during the
+     * session. The Locale may change between requests, in which case the
+     * session uses the new language from the next utterance on
      */
     interface StreamingRecognitionSession
     {
         /**
          * Give the next fragment of audio on the continuous stream of
-         * audio.
+         * audio. The session becomes the owner of the request and has to
+         * {@link TranscriptionRequest#release()} it when done with its audio.
          *
          * @param request a TranscriptionRequest which holds the next fragment
          *                of audio in a continuous stream
@@ -116,6 +134,28 @@ public interface TranscriptionService
          */
         boolean ended();
 
+        /**
+         * Tell the session that the participant stopped speaking, so it can
+         * finish the utterance now instead of waiting for audio to stop
+         * coming in. The session stays usable and new audio starts a new
+         * utterance. Sessions which can not make use of this ignore it.
+         */
+        default void endOfSpeech()
+        {
+        }
+
+        /**
+         * Get the amount of requests given to {@link #sendRequest} which
+         * have not been sent to the service yet. Used to keep audio out of
+         * the session while it does not keep up.
+         *
+         * @return the amount of unsent requests
+         */
+        default int getQueuedRequests()
+        {
+            return 0;
+        }
+
         /**
          * Add a TranscriptionListener which will be notified when a new
          * transcription result will come in
@@ -17,12 +17,8 @@
  */
 package org.jitsi.jigasi.transcription;
 
-import org.jitsi.util.*;
 import org.json.simple.*;
 
-import java.io.*;
-import java.net.*;
-
 /**
  * Utility functions used in the transcription package.
  *
@@ -30,43 +26,15 @@ import java.net.*;
  */
 public class Util
 {
-    /**
-     * The logger for this class
-     */
-    private final static org.jitsi.util.Logger logger
-        = Logger.getLogger(Util.class);
-
     /**
      * Posts json object to an address of a service to handle it and further
-     * process it.
+     * process it. The post is queued on the {@link HttpDeliveryService} and
+     * this method returns immediately.
      * @param address the address where to send the post request.
      * @param json the json object to send.
      */
     public static void postJSON(String address, JSONObject json)
     {
-        try
-        {
-            URL url = new URL(address);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setDoOutput(true);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-
-            OutputStream os = conn.getOutputStream();
-            os.write(json.toJSONString().getBytes());
-            os.flush();
-
-            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                logger.error("Error for action post received: "
-                    + conn.getResponseCode()
-                    + "(" + conn.getResponseMessage() + ")");
-            }
-
-            conn.disconnect();
-        }
-        catch (IOException e)
-        {
-            logger.error("Error posting transcription", e);
-        }
+        HttpDeliveryService.getInstance().post(address, json);
     }
 }
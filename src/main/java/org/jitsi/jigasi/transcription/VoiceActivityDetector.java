@@ -0,0 +1,48 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import javax.media.format.*;
+
+/**
+ * Decides whether a frame of audio contains speech. A
+ * {@link VoiceActivityGate} uses a detector to keep silence, muted audio and
+ * comfort noise from being sent to the {@link TranscriptionService}.
+ * <p>
+ * Every {@link Participant} gets its own instance, so a detector may keep
+ * state between frames. {@link #isSpeech(byte[], int, int, AudioFormat)} is
+ * called on the thread mixing the audio of the conference for every frame
+ * and must therefore be fast and should not allocate.
+ * <p>
+ * Implementations are created with their public no-argument constructor
+ * when their class is set as the
+ * {@link Transcriber#P_NAME_VAD_DETECTOR} property.
+ */
+public interface VoiceActivityDetector
+{
+    /**
+     * Get whether the given frame of audio contains speech
+     *
+     * @param audio the array holding the audio
+     * @param offset the offset of the audio in the array
+     * @param length the amount of bytes of audio
+     * @param format the format of the audio
+     * @return true when the frame contains speech
+     */
+    boolean isSpeech(byte[] audio, int offset, int length, AudioFormat format);
+}
@@ -0,0 +1,326 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import javax.media.format.*;
+
+/**
+ * Lets the audio of a participant through only while the participant is
+ * speaking, as decided by a {@link VoiceActivityDetector}.
+ * <p>
+ * Once speech stops, audio is still let through for a hangover period so
+ * short pauses do not cut an utterance in pieces and the recognizer hears the
+ * end of the last word. While gated, the most recent audio is kept in a
+ * small pre-roll buffer, which is let through first at speech onset so the
+ * start of the first word, which usually is too quiet to be detected, is not
+ * lost.
+ * <p>
+ * This class is not thread-safe, it is expected to only be given audio by the
+ * thread mixing the audio of the conference. Its counters may be read by any
+ * thread. It does not allocate after the first frame.
+ */
+public class VoiceActivityGate
+{
+    /**
+     * Receives the audio let through by a {@link VoiceActivityGate} and is
+     * notified when speech starts and stops.
+     */
+    public interface Listener
+    {
+        /**
+         * Called once the pre-roll and the frame in which speech was detected
+         * have been given to {@link #audio(byte[], int, int)}.
+         */
+        void speechStarted();
+
+        /**
+         * Called for audio which is let through.
+         *
+         * @param audio the array holding the audio
+         * @param offset the offset of the audio in the array
+         * @param length the amount of bytes of audio
+         */
+        void audio(byte[] audio, int offset, int length);
+
+        /**
+         * Called when the hangover after the last speech has passed. No
+         * audio is given until speech is detected again.
+         */
+        void speechEnded();
+    }
+
+    /**
+     * The detector deciding whether a frame contains speech.
+     */
+    private final VoiceActivityDetector detector;
+
+    /**
+     * The listener receiving the audio which is let through.
+     */
+    private final Listener listener;
+
+    /**
+     * The hangover in ms.
+     */
+    private final int hangoverMs;
+
+    /**
+     * The length of the pre-roll in ms.
+     */
+    private final int preRollMs;
+
+    /**
+     * The hangover in bytes, known once the first frame was given.
+     */
+    private long hangoverBytes;
+
+    /**
+     * The ring buffer holding the most recent gated audio, allocated when the
+     * first frame is given.
+     */
+    private byte[] preRoll;
+
+    /**
+     * The position in {@link #preRoll} at which the next gated byte is
+     * written.
+     */
+    private int preRollPosition = 0;
+
+    /**
+     * The amount of bytes in {@link #preRoll}.
+     */
+    private int preRollLength = 0;
+
+    /**
+     * Whether the participant is speaking or within the hangover.
+     */
+    private boolean speaking = false;
+
+    /**
+     * The amount of bytes of silence since the last frame with speech.
+     */
+    private long silentBytes = 0;
+
+    /**
+     * The amount of bytes let through.
+     */
+    private volatile long passedBytes = 0;
+
+    /**
+     * The amount of bytes kept back.
+     */
+    private volatile long gatedBytes = 0;
+
+    /**
+     * Create a new gate.
+     *
+     * @param detector the detector deciding whether a frame contains speech
+     * @param hangoverMs the time in ms audio is still let through after the
+     * last frame with speech
+     * @param preRollMs the time in ms of audio before speech onset which is
+     * let through at speech onset
+     * @param listener the listener which will receive the audio let through
+     */
+    public VoiceActivityGate(VoiceActivityDetector detector,
+                             int hangoverMs,
+                             int preRollMs,
+                             Listener listener)
+    {
+        this.detector = detector;
+        this.hangoverMs = Math.max(0, hangoverMs);
+        this.preRollMs = Math.max(0, preRollMs);
+        this.listener = listener;
+    }
+
+    /**
+     * Give the next frame of audio.
+     *
+     * @param audio the array holding the audio
+     * @param offset the offset of the audio in the array
+     * @param length the amount of bytes of audio
+     * @param format the format of the audio, which is assumed to not change
+     */
+    public void process(
+        byte[] audio, int offset, int length, AudioFormat format)
+    {
+        if (preRoll == null)
+        {
+            init(format);
+        }
+
+        if (detector.isSpeech(audio, offset, length, format))
+        {
+            silentBytes = 0;
+            if (speaking)
+            {
+                pass(audio, offset, length);
+            }
+            else
+            {
+                speaking = true;
+                passPreRoll();
+                pass(audio, offset, length);
+                listener.speechStarted();
+            }
+        }
+        else if (speaking)
+        {
+            silentBytes += length;
+            if (silentBytes <= hangoverBytes)
+            {
+                pass(audio, offset, length);
+            }
+            else
+            {
+                speaking = false;
+                listener.speechEnded();
+                gate(audio, offset, length);
+            }
+        }
+        else
+        {
+            gate(audio, offset, length);
+        }
+    }
+
+    /**
+     * Get whether audio is currently let through.
+     *
+     * @return true when the participant is speaking or within the hangover
+     */
+    public boolean isSpeaking()
+    {
+        return speaking;
+    }
+
+    /**
+     * Get the amount of bytes which were let through.
+     *
+     * @return the amount of bytes given to the listener
+     */
+    public long getPassedBytes()
+    {
+        return passedBytes;
+    }
+
+    /**
+     * Get the amount of bytes which were kept back because they did not
+     * contain speech.
+     *
+     * @return the amount of gated bytes
+     */
+    public long getGatedBytes()
+    {
+        return gatedBytes;
+    }
+
+    /**
+     * Compute the sizes depending on the format of the audio.
+     *
+     * @param format the format of the audio
+     */
+    private void init(AudioFormat format)
+    {
+        int channels = Math.max(1, format.getChannels());
+        double bytesPerMs = format.getSampleRate() * channels * 2 / 1000;
+
+        hangoverBytes = (long) (bytesPerMs * hangoverMs);
+
+        // keep whole samples so the pre-roll never starts halfway one
+        int frameSize = 2 * channels;
+        int preRollSize = (int) (bytesPerMs * preRollMs);
+        preRoll = new byte[preRollSize - preRollSize % frameSize];
+    }
+
+    /**
+     * Let audio through.
+     *
+     * @param audio the array holding the audio
+     * @param offset the offset of the audio in the array
+     * @param length the amount of bytes of audio
+     */
+    private void pass(byte[] audio, int offset, int length)
+    {
+        passedBytes += length;
+        listener.audio(audio, offset, length);
+    }
+
+    /**
+     * Keep audio back, remembering the last part of it in the pre-roll.
+     *
+     * @param audio the array holding the audio
+     * @param offset the offset of the audio in the array
+     * @param length the amount of bytes of audio
+     */
+    private void gate(byte[] audio, int offset, int length)
+    {
+        gatedBytes += length;
+
+        int capacity = preRoll.length;
+        if (capacity == 0)
+        {
+            return;
+        }
+        if (length >= capacity)
+        {
+            System.arraycopy(
+                audio, offset + length - capacity, preRoll, 0, capacity);
+            preRollPosition = 0;
+            preRollLength = capacity;
+            return;
+        }
+
+        int tail = Math.min(length, capacity - preRollPosition);
+        System.arraycopy(audio, offset, preRoll, preRollPosition, tail);
+        System.arraycopy(audio, offset + tail, preRoll, 0, length - tail);
+        preRollPosition = (preRollPosition + length) % capacity;
+        preRollLength = Math.min(capacity, preRollLength + length);
+    }
+
+    /**
+     * Let the audio in the pre-roll through, oldest first, and empty it.
+     */
+    private void passPreRoll()
+    {
+        if (preRollLength == 0)
+        {
+            return;
+        }
+
+        // the gated bytes are counted again as passed
+        gatedBytes -= preRollLength;
+
+        int start = preRollPosition - preRollLength;
+        if (start < 0)
+        {
+            start += preRoll.length;
+            pass(preRoll, start, preRoll.length - start);
+            if (preRollPosition > 0)
+            {
+                pass(preRoll, 0, preRollPosition);
+            }
+        }
+        else
+        {
+            pass(preRoll, start, preRollLength);
+        }
+
+        preRollPosition = 0;
+        preRollLength = 0;
+    }
+}
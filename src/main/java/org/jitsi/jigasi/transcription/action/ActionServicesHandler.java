@@ -19,13 +19,16 @@ package org.jitsi.jigasi.transcription.action;
 
 import net.java.sip.communicator.util.*;
 import org.jitsi.jigasi.transcription.*;
+import org.jitsi.jigasi.util.SharedTimer;
 import org.jitsi.service.configuration.*;
 import org.jitsi.util.Logger;
 import org.json.simple.*;
 import org.osgi.framework.*;
 
+import java.beans.*;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.stream.*;
 
 /**
@@ -38,7 +41,9 @@ import java.util.stream.*;
  * the transcription and that transcription (excluding everything up to the
  * end of the phrase) will be sent to a service specified in the URL property.
  *
- * Multiple actions can be defined.
+ * Multiple actions can be defined. All phrases are searched for at once by a
+ * {@link PhraseMatcher}. When the properties of the actions change, the
+ * actions are loaded again without restarting.
  *
  * @author Damian Minkov
  */
@@ -66,26 +71,46 @@ public class ActionServicesHandler
      */
     private static final String ACTION_URL_PROP_NAME = "URL";
 
+    /**
+     * The time in ms to wait after a property of the actions changed before
+     * loading them again, so that changing several properties at once causes
+     * a single reload.
+     */
+    private static final long RELOAD_DELAY = 500;
+
     /**
      * The single instance of this services handler.
      */
     private static ActionServicesHandler serviceHandlerInstance = null;
 
     /**
-     * List of configured actions.
+     * The configuration service the actions are loaded from.
      */
-    private List<ActionHandler> actions = new ArrayList<>();
+    private final ConfigurationService config;
 
     /**
-     * Map of patterns to detect and corresponding action.
+     * The configured actions, replaced as a whole when they are reloaded.
      */
-    private Map<Pattern, ActionHandler> patterns = new HashMap<>();
+    private volatile Actions actions;
 
     /**
      * Set of all conferences we had detected an action and service was
-     * notified for it.
+     * notified for it. Updated from the threads delivering the results of
+     * all conferences.
+     */
+    private final Map<String, Set<ActionHandler>> actionSources
+        = new ConcurrentHashMap<>();
+
+    /**
+     * Whether a reload of the actions has been scheduled.
      */
-    private Map<String, List<ActionHandler>> actionSources = new HashMap<>();
+    private final AtomicBoolean reloadScheduled = new AtomicBoolean();
+
+    /**
+     * Schedules a reload when a property of the actions changes.
+     */
+    private final PropertyChangeListener configListener
+        = this::configurationChanged;
 
     /**
      * Constructs this single instance of actions service handler and
@@ -94,33 +119,10 @@ public class ActionServicesHandler
      */
     private ActionServicesHandler(BundleContext ctx)
     {
-        ConfigurationService config =
-            ServiceUtils.getService(ctx, ConfigurationService.class);
-
-        List<String> actionProps =
-            config.getPropertyNamesByPrefix(ACTION_PROPS_PREFIX, false);
-
-        Set<String> actionNames = new HashSet<>();
-        for (String prop : actionProps)
-        {
-            prop = prop.substring(ACTION_PROPS_PREFIX.length() + 1);
-            prop = prop.substring(0, prop.indexOf('.'));
-            actionNames.add(prop);
-        }
-
-        for (String actionName : actionNames)
-        {
-            String ph = config.getString(ACTION_PROPS_PREFIX
-                + "." + actionName + "." + ACTION_PHRASE_PROP_NAME);
-            String url = config.getString(ACTION_PROPS_PREFIX
-                + "." + actionName + "." + ACTION_URL_PROP_NAME);
+        config = ServiceUtils.getService(ctx, ConfigurationService.class);
 
-            ActionHandler handler = new ActionHandler(actionName, ph, url);
-            actions.add(handler);
-            patterns.put(
-                Pattern.compile(Pattern.quote(ph), Pattern.CASE_INSENSITIVE),
-                handler);
-        }
+        actions = loadActions();
+        config.addPropertyChangeListener(configListener);
     }
 
     /**
@@ -147,7 +149,18 @@ public class ActionServicesHandler
      */
     public void stop()
     {
-        // do nothing for now
+        config.removePropertyChangeListener(configListener);
+    }
+
+    /**
+     * Loads the actions from the configuration again. Results which are
+     * received afterwards are matched against the new phrases, and the
+     * speech contexts of new recognition sessions contain them.
+     */
+    public void reload()
+    {
+        actions = loadActions();
+        GoogleCloudTranscriptionService.clearRecognitionConfigs();
     }
 
     /**
@@ -156,72 +169,72 @@ public class ActionServicesHandler
      */
     public List<String> getPhrases()
     {
-        return actions.stream()
+        return actions.handlers.stream()
             .map(a -> a.getPhrase())
             .collect(Collectors.toList());
     }
 
     /**
-     * A final notifications had been received, check it against the patterns
-     * and if something is detected post the results.
+     * A final notifications had been received, check it against the phrases
+     * and if something is detected post the results. Every action is notified
+     * at most once per result, for the first occurrence of its phrase.
      * @param result the transcription received.
      */
     public void notifyActionServices(TranscriptionResult result)
     {
-        for (Map.Entry<Pattern, ActionHandler> en : patterns.entrySet())
+        PhraseMatcher<ActionHandler> matcher = actions.matcher;
+        if (matcher.isEmpty())
+            return;
+
+        TranscriptionAlternative alt
+            = result.getAlternatives().iterator().next();
+        String msg = alt.getTranscription();
+
+        List<PhraseMatcher.Match<ActionHandler>> matches
+            = matcher.findAll(msg);
+        if (matches.isEmpty())
+            return;
+
+        String roomName
+            = result.getParticipant().getTranscriber().getRoomName();
+        Set<ActionHandler> notified = new HashSet<>();
+
+        for (PhraseMatcher.Match<ActionHandler> match : matches)
         {
-            TranscriptionAlternative alt
-                = result.getAlternatives().iterator().next();
-            String msg = alt.getTranscription();
-            Matcher match = en.getKey().matcher(msg);
-            if (match.find())
+            ActionHandler handler = match.getValue();
+            if (!notified.add(handler))
+                continue;
+
+            // lets modify it so we can remove the trigger command text
+            String newText = msg.substring(match.getEnd()).trim();
+            TranscriptionResult actionResult = new TranscriptionResult(
+                result.getParticipant(),
+                result.getMessageID(),
+                result.isInterim(),
+                result.getLanguage(),
+                result.getStability(),
+                new TranscriptionAlternative(newText, alt.getConfidence()));
+
+            JSONObject jsonResult =
+                LocalJsonTranscriptHandler.createJSONObject(actionResult);
+            jsonResult.put(
+                LocalJsonTranscriptHandler
+                    .JSON_KEY_FINAL_TRANSCRIPT_ROOM_NAME,
+                roomName);
+
+            if (logger.isDebugEnabled())
             {
-                // lets modify it so we can remove the trigger command text
-                String newText = msg.substring(match.end()).trim();
-                result = new TranscriptionResult(
-                    result.getParticipant(),
-                    result.getMessageID(),
-                    result.isInterim(),
-                    result.getLanguage(),
-                    result.getStability(),
-                    new TranscriptionAlternative(newText, alt.getConfidence()));
-
-                JSONObject jsonResult =
-                    LocalJsonTranscriptHandler.createJSONObject(result);
-                String roomName
-                    = result.getParticipant().getTranscriber().getRoomName();
-                jsonResult.put(
-                    LocalJsonTranscriptHandler
-                        .JSON_KEY_FINAL_TRANSCRIPT_ROOM_NAME,
-                    roomName);
-
-
-                ActionHandler handler = en.getValue();
-                if (logger.isDebugEnabled())
-                {
-                    logger.debug("Action detected:" + handler.getName()
-                        + ", will push to address:" + handler.getUrl());
-                }
-
-                // store that we had sent a result to that handler for this room
-                if (!actionSources.containsKey(roomName))
-                {
-                    List<ActionHandler> handlers = new ArrayList<>();
-                    handlers.add(handler);
-                    actionSources.put(roomName, handlers);
-                }
-                else
-                {
-                    List<ActionHandler> handlers = actionSources.get(roomName);
-                    if (!handlers.contains(handler))
-                    {
-                        handlers.add(handler);
-                    }
-                }
-
-                // post to action url
-                Util.postJSON(handler.getUrl(), jsonResult);
+                logger.debug("Action detected:" + handler.getName()
+                    + ", will push to address:" + handler.getUrl());
             }
+
+            // store that we had sent a result to that handler for this room
+            actionSources
+                .computeIfAbsent(roomName, k -> ConcurrentHashMap.newKeySet())
+                .add(handler);
+
+            // post to action url
+            Util.postJSON(handler.getUrl(), jsonResult);
         }
     }
 
@@ -235,10 +248,12 @@ public class ActionServicesHandler
     public void notifyActionServices(
         Transcriber transcriber, TranscriptEvent event)
     {
-        String roomName = transcriber.getRoomName();
+        if (event.getEvent() != Transcript.TranscriptEventType.END)
+            return;
 
-        if (event.getEvent() != Transcript.TranscriptEventType.END
-            || !actionSources.containsKey(roomName))
+        String roomName = transcriber.getRoomName();
+        Set<ActionHandler> handlers = actionSources.remove(roomName);
+        if (handlers == null)
             return;
 
         JSONObject object = new JSONObject();
@@ -251,9 +266,111 @@ public class ActionServicesHandler
         object.put(LocalJsonTranscriptHandler.JSON_KEY_EVENT_TIMESTAMP,
             event.getTimeStamp().toString());
 
-        for (ActionHandler handler : actionSources.remove(roomName))
+        for (ActionHandler handler : handlers)
         {
             Util.postJSON(handler.getUrl(), object);
         }
     }
+
+    /**
+     * Reads the configured actions and builds the matcher of their phrases.
+     *
+     * @return the actions
+     */
+    private Actions loadActions()
+    {
+        List<String> actionProps =
+            config.getPropertyNamesByPrefix(ACTION_PROPS_PREFIX, false);
+
+        Set<String> actionNames = new TreeSet<>();
+        for (String prop : actionProps)
+        {
+            if (!prop.startsWith(ACTION_PROPS_PREFIX + "."))
+                continue;
+
+            prop = prop.substring(ACTION_PROPS_PREFIX.length() + 1);
+            int dot = prop.indexOf('.');
+            if (dot > 0)
+            {
+                actionNames.add(prop.substring(0, dot));
+            }
+        }
+
+        List<ActionHandler> handlers = new ArrayList<>();
+        PhraseMatcher.Builder<ActionHandler> builder
+            = new PhraseMatcher.Builder<>();
+        for (String actionName : actionNames)
+        {
+            String ph = config.getString(ACTION_PROPS_PREFIX
+                + "." + actionName + "." + ACTION_PHRASE_PROP_NAME);
+            String url = config.getString(ACTION_PROPS_PREFIX
+                + "." + actionName + "." + ACTION_URL_PROP_NAME);
+
+            if (ph == null || ph.trim().isEmpty() || url == null)
+            {
+                logger.warn("Ignoring action " + actionName
+                    + " without a phrase or url");
+                continue;
+            }
+
+            ActionHandler handler = new ActionHandler(actionName, ph, url);
+            handlers.add(handler);
+            builder.add(ph, handler);
+        }
+
+        logger.info("Loaded " + handlers.size() + " actions");
+
+        return new Actions(
+            Collections.unmodifiableList(handlers), builder.build());
+    }
+
+    /**
+     * Schedules a reload of the actions when one of their properties changed.
+     *
+     * @param evt the change of a property
+     */
+    private void configurationChanged(PropertyChangeEvent evt)
+    {
+        String name = evt.getPropertyName();
+        if (name == null || !name.startsWith(ACTION_PROPS_PREFIX + "."))
+            return;
+
+        if (reloadScheduled.compareAndSet(false, true))
+        {
+            SharedTimer.schedule(() -> {
+                reloadScheduled.set(false);
+                reload();
+            }, RELOAD_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The actions loaded from the configuration at some point, with the
+     * matcher of their phrases.
+     */
+    private static class Actions
+    {
+        /**
+         * The configured actions.
+         */
+        private final List<ActionHandler> handlers;
+
+        /**
+         * Finds the phrases of {@link #handlers}.
+         */
+        private final PhraseMatcher<ActionHandler> matcher;
+
+        /**
+         * Create the actions.
+         *
+         * @param handlers the configured actions
+         * @param matcher the matcher of their phrases
+         */
+        Actions(
+            List<ActionHandler> handlers, PhraseMatcher<ActionHandler> matcher)
+        {
+            this.handlers = handlers;
+            this.matcher = matcher;
+        }
+    }
 }
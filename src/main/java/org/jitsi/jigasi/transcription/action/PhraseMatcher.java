@@ -0,0 +1,375 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription.action;
+
+import java.util.*;
+
+/**
+ * Finds every occurrence of a set of phrases in a text in a single pass,
+ * using an Aho-Corasick automaton. The case of the phrases and the text is
+ * ignored.
+ * <p>
+ * A matcher is immutable once built and can be used by several threads at
+ * once.
+ *
+ * @param <T> the type of the values associated with the phrases
+ */
+public class PhraseMatcher<T>
+{
+    /**
+     * An empty array of children or outputs.
+     */
+    private final static int[] EMPTY = new int[0];
+
+    /**
+     * The characters leading to the children of every node, sorted.
+     */
+    private final char[][] labels;
+
+    /**
+     * The children of every node, in the order of {@link #labels}.
+     */
+    private final int[][] children;
+
+    /**
+     * The node to continue with, for every node, when the next character does
+     * not lead to a child: the node of the longest proper suffix of its path
+     * which is also a prefix of a phrase.
+     */
+    private final int[] failures;
+
+    /**
+     * The phrases ending at every node, including those ending at the nodes
+     * of its failure chain.
+     */
+    private final int[][] outputs;
+
+    /**
+     * The length of every phrase.
+     */
+    private final int[] lengths;
+
+    /**
+     * The value of every phrase.
+     */
+    private final List<T> values;
+
+    /**
+     * Builds the automaton for the given phrases.
+     *
+     * @param phrases the phrases
+     * @param values the value of every phrase
+     */
+    private PhraseMatcher(List<String> phrases, List<T> values)
+    {
+        // build the trie, node 0 being the root
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(new ArrayList<>());
+
+        lengths = new int[phrases.size()];
+        for (int p = 0; p < phrases.size(); p++)
+        {
+            String phrase = phrases.get(p);
+            int node = 0;
+            for (int i = 0; i < phrase.length(); i++)
+            {
+                char c = fold(phrase.charAt(i));
+                Integer child = trie.get(node).get(c);
+                if (child == null)
+                {
+                    child = trie.size();
+                    trie.add(new TreeMap<>());
+                    ends.add(new ArrayList<>());
+                    trie.get(node).put(c, child);
+                }
+                node = child;
+            }
+            ends.get(node).add(p);
+            lengths[p] = phrase.length();
+        }
+
+        int size = trie.size();
+        labels = new char[size][];
+        children = new int[size][];
+        for (int node = 0; node < size; node++)
+        {
+            TreeMap<Character, Integer> edges = trie.get(node);
+            labels[node] = new char[edges.size()];
+            children[node] = edges.isEmpty() ? EMPTY : new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet())
+            {
+                labels[node][i] = edge.getKey();
+                children[node][i] = edge.getValue();
+                i++;
+            }
+        }
+
+        // compute the failure links breadth first, so the failure node of
+        // every node is complete before the node itself
+        failures = new int[size];
+        outputs = new int[size][];
+        outputs[0] = toArray(ends.get(0), EMPTY);
+
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : children[0])
+        {
+            failures[child] = 0;
+            outputs[child] = toArray(ends.get(child), outputs[0]);
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty())
+        {
+            int node = queue.poll();
+            for (int i = 0; i < children[node].length; i++)
+            {
+                char c = labels[node][i];
+                int child = children[node][i];
+
+                int failure = failures[node];
+                int next;
+                while ((next = getChild(failure, c)) < 0 && failure != 0)
+                {
+                    failure = failures[failure];
+                }
+                failures[child] = next < 0 ? 0 : next;
+                outputs[child]
+                    = toArray(ends.get(child), outputs[failures[child]]);
+                queue.add(child);
+            }
+        }
+
+        this.values = Collections.unmodifiableList(new ArrayList<>(values));
+    }
+
+    /**
+     * Find every occurrence of the phrases in a text. Occurrences may
+     * overlap.
+     *
+     * @param text the text to search
+     * @return the occurrences, ordered by the position of their end
+     */
+    public List<Match<T>> findAll(CharSequence text)
+    {
+        List<Match<T>> matches = null;
+        int node = 0;
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = fold(text.charAt(i));
+
+            int next;
+            while ((next = getChild(node, c)) < 0 && node != 0)
+            {
+                node = failures[node];
+            }
+            node = next < 0 ? 0 : next;
+
+            for (int phrase : outputs[node])
+            {
+                if (matches == null)
+                {
+                    matches = new ArrayList<>();
+                }
+                matches.add(new Match<>(
+                    values.get(phrase), i + 1 - lengths[phrase], i + 1));
+            }
+        }
+
+        return matches == null ? Collections.emptyList() : matches;
+    }
+
+    /**
+     * Get whether this matcher has no phrases.
+     *
+     * @return true when nothing will ever be found
+     */
+    public boolean isEmpty()
+    {
+        return values.isEmpty();
+    }
+
+    /**
+     * Get the child of a node reached through a character.
+     *
+     * @param node the node
+     * @param c the folded character
+     * @return the child, or -1 when there is none
+     */
+    private int getChild(int node, char c)
+    {
+        int i = Arrays.binarySearch(labels[node], c);
+        return i < 0 ? -1 : children[node][i];
+    }
+
+    /**
+     * Fold the case of a character, so that characters which only differ in
+     * case are equal. Unlike {@link String#toLowerCase()} this never changes
+     * the length of a text, so positions in the folded text are also
+     * positions in the original one.
+     *
+     * @param c the character
+     * @return the folded character
+     */
+    private static char fold(char c)
+    {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Concatenate the phrases ending at a node with those of its failure
+     * node.
+     *
+     * @param own the phrases ending at the node
+     * @param inherited the outputs of the failure node
+     * @return the outputs of the node
+     */
+    private static int[] toArray(List<Integer> own, int[] inherited)
+    {
+        if (own.isEmpty())
+        {
+            return inherited;
+        }
+
+        int[] result = new int[own.size() + inherited.length];
+        for (int i = 0; i < own.size(); i++)
+        {
+            result[i] = own.get(i);
+        }
+        System.arraycopy(
+            inherited, 0, result, own.size(), inherited.length);
+        return result;
+    }
+
+    /**
+     * Collects the phrases of a {@link PhraseMatcher}.
+     *
+     * @param <T> the type of the values associated with the phrases
+     */
+    public static class Builder<T>
+    {
+        /**
+         * The phrases added so far.
+         */
+        private final List<String> phrases = new ArrayList<>();
+
+        /**
+         * The value of every phrase.
+         */
+        private final List<T> values = new ArrayList<>();
+
+        /**
+         * Add a phrase. The same phrase can be added several times with
+         * different values.
+         *
+         * @param phrase the phrase, which must not be empty
+         * @param value the value reported when the phrase is found
+         * @return this builder
+         */
+        public Builder<T> add(String phrase, T value)
+        {
+            if (phrase == null || phrase.isEmpty())
+            {
+                throw new IllegalArgumentException("Empty phrase");
+            }
+
+            phrases.add(phrase);
+            values.add(value);
+            return this;
+        }
+
+        /**
+         * Build the matcher of the phrases added so far.
+         *
+         * @return the matcher
+         */
+        public PhraseMatcher<T> build()
+        {
+            return new PhraseMatcher<>(phrases, values);
+        }
+    }
+
+    /**
+     * An occurrence of a phrase in a text.
+     *
+     * @param <T> the type of the value of the phrase
+     */
+    public static class Match<T>
+    {
+        /**
+         * The value of the phrase.
+         */
+        private final T value;
+
+        /**
+         * The index of the first character of the occurrence.
+         */
+        private final int start;
+
+        /**
+         * The index after the last character of the occurrence.
+         */
+        private final int end;
+
+        /**
+         * Create a match.
+         *
+         * @param value the value of the phrase
+         * @param start the index of the first character
+         * @param end the index after the last character
+         */
+        Match(T value, int start, int end)
+        {
+            this.value = value;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Get the value of the phrase which was found.
+         *
+         * @return the value
+         */
+        public T getValue()
+        {
+            return value;
+        }
+
+        /**
+         * Get the index of the first character of the occurrence.
+         *
+         * @return the start index
+         */
+        public int getStart()
+        {
+            return start;
+        }
+
+        /**
+         * Get the index after the last character of the occurrence.
+         *
+         * @return the end index
+         */
+        public int getEnd()
+        {
+            return end;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import org.jitsi.jigasi.*;
+import org.jitsi.service.configuration.*;
+import org.jitsi.util.*;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+
+/**
+ * Gives access to the executor running the blocking work of the gateway, like
+ * registering accounts and signaling calls. How it runs the work is selected
+ * once, when it is first used:
+ * <ul>
+ * <li><tt>platform</tt>, the default, reuses a pool of threads which grows as
+ * needed;</li>
+ * <li><tt>virtual</tt> runs every task on its own virtual thread, so
+ * thousands of calls blocking at the same time do not need thousands of
+ * threads. It needs a JVM which supports virtual threads, on older ones the
+ * platform mode is used.</li>
+ * </ul>
+ */
+public class BlockingTaskExecutor
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger
+        = Logger.getLogger(BlockingTaskExecutor.class);
+
+    /**
+     * The property name for the mode in which the blocking work is run,
+     * <tt>platform</tt> or <tt>virtual</tt>.
+     */
+    public final static String P_NAME_EXECUTION_MODE
+        = "org.jitsi.jigasi.EXECUTION_MODE";
+
+    /**
+     * The mode running the work on a pool of platform threads.
+     */
+    public final static String MODE_PLATFORM = "platform";
+
+    /**
+     * The mode running every task on its own virtual thread.
+     */
+    public final static String MODE_VIRTUAL = "virtual";
+
+    /**
+     * The default execution mode.
+     */
+    public final static String EXECUTION_MODE_DEFAULT_VALUE = MODE_PLATFORM;
+
+    /**
+     * The prefix of the names of the threads running the work.
+     */
+    private final static String THREAD_NAME_PREFIX = "gateway-blocking";
+
+    /**
+     * The executor, created when first used.
+     */
+    private static ExecutorService executor = null;
+
+    /**
+     * Whether {@link #executor} runs the tasks on virtual threads.
+     */
+    private static boolean virtual = false;
+
+    /**
+     * Get the executor running the blocking work, creating it when needed.
+     *
+     * @return the executor
+     */
+    public static synchronized ExecutorService getExecutor()
+    {
+        if (executor != null)
+        {
+            return executor;
+        }
+
+        String mode = EXECUTION_MODE_DEFAULT_VALUE;
+        ConfigurationService config
+            = JigasiBundleActivator.getConfigurationService();
+        if (config != null)
+        {
+            mode = config.getString(P_NAME_EXECUTION_MODE, mode).trim();
+        }
+
+        if (MODE_VIRTUAL.equalsIgnoreCase(mode))
+        {
+            executor = createVirtualExecutor();
+            virtual = executor != null;
+        }
+        else if (!MODE_PLATFORM.equalsIgnoreCase(mode))
+        {
+            logger.warn("Unknown execution mode " + mode);
+        }
+
+        if (executor == null)
+        {
+            executor = new ThreadPoolExecutor(
+                0, Integer.MAX_VALUE,
+                60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                new NamedThreadFactory(THREAD_NAME_PREFIX));
+        }
+
+        logger.info("Running blocking work on "
+            + (virtual ? "virtual" : "platform") + " threads");
+        return executor;
+    }
+
+    /**
+     * Get whether the blocking work is run on virtual threads.
+     *
+     * @return true in the virtual mode, when the JVM supports it
+     */
+    public static boolean isVirtual()
+    {
+        getExecutor();
+        synchronized (BlockingTaskExecutor.class)
+        {
+            return virtual;
+        }
+    }
+
+    /**
+     * Run a blocking task.
+     *
+     * @param task the task
+     */
+    public static void execute(Runnable task)
+    {
+        getExecutor().execute(task);
+    }
+
+    /**
+     * Create an executor starting a named virtual thread for every task. The
+     * JVM support is looked up at runtime, as the code is built for JVMs which
+     * do not have virtual threads.
+     *
+     * @return the executor or null when the JVM has no virtual threads
+     */
+    private static ExecutorService createVirtualExecutor()
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass
+                .getMethod("name", String.class, long.class)
+                .invoke(builder, THREAD_NAME_PREFIX + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass
+                .getMethod("factory")
+                .invoke(builder);
+
+            return (ExecutorService) Executors.class
+                .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, factory);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            Throwable cause = e instanceof InvocationTargetException
+                ? e.getCause() : e;
+            logger.warn("Virtual threads are not supported by this JVM ("
+                + System.getProperty("java.version") + "): " + cause);
+            return null;
+        }
+    }
+}
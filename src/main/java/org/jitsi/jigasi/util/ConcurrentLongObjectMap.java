@@ -0,0 +1,284 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import java.util.*;
+
+/**
+ * A map from primitive <tt>long</tt> keys to objects, made for lookups on the
+ * media path, e.g. finding the participant an SSRC belongs to for every
+ * packet.
+ * <p>
+ * The entries are kept in an open addressing table with linear probing. Reads
+ * do not lock and do not allocate, as the key is never boxed. Writes copy the
+ * table under a lock and publish the copy through a volatile field, so a
+ * reader always sees a complete table. This makes writes O(n), which is fine
+ * for maps which are read many times more often than they are changed.
+ * <p>
+ * Null values are not allowed.
+ *
+ * @param <V> the type of the values
+ */
+public class ConcurrentLongObjectMap<V>
+{
+    /**
+     * The smallest capacity of a table.
+     */
+    private final static int MIN_CAPACITY = 8;
+
+    /**
+     * The table every reader uses. It is never modified once published.
+     */
+    private volatile Table table = new Table(MIN_CAPACITY);
+
+    /**
+     * Get the value mapped to the given key.
+     *
+     * @param key the key
+     * @return the value, or null when the key is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key)
+    {
+        Table table = this.table;
+        int mask = table.keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask)
+        {
+            Object value = table.values[i];
+            if (value == null)
+            {
+                return null;
+            }
+            if (table.keys[i] == key)
+            {
+                return (V) value;
+            }
+        }
+    }
+
+    /**
+     * Get whether the given key is mapped.
+     *
+     * @param key the key
+     * @return true when a value is mapped to the key
+     */
+    public boolean containsKey(long key)
+    {
+        return get(key) != null;
+    }
+
+    /**
+     * Map the given value to the given key, replacing the value already
+     * mapped to it.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the value which was mapped to the key, or null
+     */
+    public synchronized V put(long key, V value)
+    {
+        Objects.requireNonNull(value, "value");
+
+        V previous = get(key);
+        Table copy = copy(table.size + (previous == null ? 1 : 0), key);
+        copy.insert(key, value);
+        table = copy;
+
+        return previous;
+    }
+
+    /**
+     * Map the given value to the given key, unless a value is already mapped
+     * to it.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the value already mapped to the key, or null when the given
+     * value was mapped
+     */
+    public synchronized V putIfAbsent(long key, V value)
+    {
+        V previous = get(key);
+        if (previous == null)
+        {
+            put(key, value);
+        }
+        return previous;
+    }
+
+    /**
+     * Remove the value mapped to the given key.
+     *
+     * @param key the key
+     * @return the removed value, or null when the key was not mapped
+     */
+    public synchronized V remove(long key)
+    {
+        V previous = get(key);
+        if (previous != null)
+        {
+            table = copy(table.size - 1, key);
+        }
+        return previous;
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public synchronized void clear()
+    {
+        table = new Table(MIN_CAPACITY);
+    }
+
+    /**
+     * Get the amount of entries.
+     *
+     * @return the amount of mapped keys
+     */
+    public int size()
+    {
+        return table.size;
+    }
+
+    /**
+     * Get whether there are no entries.
+     *
+     * @return true when no key is mapped
+     */
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    /**
+     * Get the values of this map at the time of the call. Later changes of
+     * the map are not reflected in the returned collection.
+     *
+     * @return an unmodifiable snapshot of the values
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values()
+    {
+        Table table = this.table;
+        List<V> values = new ArrayList<>(table.size);
+        for (Object value : table.values)
+        {
+            if (value != null)
+            {
+                values.add((V) value);
+            }
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Create a table which can hold the given amount of entries, holding
+     * every entry of the current table except the one of the given key.
+     *
+     * @param size the amount of entries the new table will hold
+     * @param skipKey the key which is not copied
+     * @return the new table
+     */
+    private Table copy(int size, long skipKey)
+    {
+        // keep the load factor at or below 0.5 so probe sequences stay short
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 2)
+        {
+            capacity <<= 1;
+        }
+
+        Table table = this.table;
+        Table copy = new Table(capacity);
+        for (int i = 0; i < table.keys.length; i++)
+        {
+            Object value = table.values[i];
+            if (value != null && table.keys[i] != skipKey)
+            {
+                copy.insert(table.keys[i], value);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Spread the bits of a key, as SSRCs and other ids are not guaranteed to
+     * be random in their lower bits.
+     *
+     * @param key the key
+     * @return the hash of the key
+     */
+    private static int hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * The arrays of an open addressing table.
+     */
+    private static class Table
+    {
+        /**
+         * The keys, valid where {@link #values} is not null.
+         */
+        final long[] keys;
+
+        /**
+         * The values, null for a free slot.
+         */
+        final Object[] values;
+
+        /**
+         * The amount of entries.
+         */
+        int size = 0;
+
+        /**
+         * Create an empty table.
+         *
+         * @param capacity the amount of slots, a power of two
+         */
+        Table(int capacity)
+        {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+
+        /**
+         * Put an entry in the first free slot of its probe sequence. Only
+         * called on a table which is not yet published and does not contain
+         * the key.
+         *
+         * @param key the key
+         * @param value the value
+         */
+        void insert(long key, Object value)
+        {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != null)
+            {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+    }
+}
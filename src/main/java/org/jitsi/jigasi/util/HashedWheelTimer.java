@@ -0,0 +1,465 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import org.jitsi.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A timer which can hold a large amount of pending timeouts using a single
+ * thread. Timeouts are put in the buckets of a wheel which is advanced every
+ * tick, so adding and cancelling a timeout is O(1) and the precision is one
+ * tick. This makes it suited for the many idle and delay timeouts of calls
+ * and sessions, which are mostly cancelled or rescheduled before they expire.
+ * <p>
+ * The tasks of expired timeouts are run on the thread of the timer and
+ * should therefore be short, or hand their work over to an executor.
+ */
+public class HashedWheelTimer
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger
+        = Logger.getLogger(HashedWheelTimer.class);
+
+    /**
+     * The duration of a tick in nanoseconds.
+     */
+    private final long tickDuration;
+
+    /**
+     * The buckets of the wheel. Only accessed by the worker thread.
+     */
+    private final Bucket[] wheel;
+
+    /**
+     * Used to find the bucket of a tick, as the wheel has a power of two
+     * length.
+     */
+    private final int mask;
+
+    /**
+     * The timeouts which were added but not yet put in a bucket.
+     */
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The amount of timeouts which have neither expired nor been cancelled.
+     */
+    private final AtomicInteger pendingTimeouts = new AtomicInteger();
+
+    /**
+     * The thread advancing the wheel.
+     */
+    private final Thread workerThread;
+
+    /**
+     * The time at which the worker thread started, in nanoseconds.
+     */
+    private final long startTime;
+
+    /**
+     * Whether this timer has been stopped.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Create a new timer and start its thread.
+     *
+     * @param name the name of the thread of the timer
+     * @param tickDuration the duration of a tick
+     * @param unit the unit of <tt>tickDuration</tt>
+     * @param ticksPerWheel the amount of buckets of the wheel, rounded up to a
+     * power of two
+     */
+    public HashedWheelTimer(
+        String name, long tickDuration, TimeUnit unit, int ticksPerWheel)
+    {
+        if (tickDuration <= 0)
+        {
+            throw new IllegalArgumentException(
+                "tickDuration must be positive: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+        {
+            throw new IllegalArgumentException(
+                "ticksPerWheel out of range: " + ticksPerWheel);
+        }
+
+        int wheelLength = Integer.highestOneBit(ticksPerWheel);
+        if (wheelLength < ticksPerWheel)
+        {
+            wheelLength <<= 1;
+        }
+
+        this.wheel = new Bucket[wheelLength];
+        for (int i = 0; i < wheelLength; i++)
+        {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheelLength - 1;
+        this.tickDuration = unit.toNanos(tickDuration);
+
+        this.startTime = System.nanoTime();
+        this.workerThread = new Thread(this::run, name);
+        this.workerThread.setDaemon(true);
+        this.workerThread.start();
+    }
+
+    /**
+     * Schedule a task to be run once after the given delay.
+     *
+     * @param task the task to run
+     * @param delay the delay after which to run the task
+     * @param unit the unit of <tt>delay</tt>
+     * @return a handle which can be used to cancel the task
+     * @throws RejectedExecutionException when the timer has been stopped
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        if (stopped)
+        {
+            throw new RejectedExecutionException("Timer has been stopped");
+        }
+
+        long deadline
+            = System.nanoTime() + Math.max(0, unit.toNanos(delay)) - startTime;
+        Timeout timeout = new Timeout(task, deadline);
+
+        pendingTimeouts.incrementAndGet();
+        newTimeouts.add(timeout);
+
+        return timeout;
+    }
+
+    /**
+     * Get the amount of timeouts which have neither expired nor been
+     * cancelled.
+     *
+     * @return the amount of pending timeouts
+     */
+    public int getPendingTimeouts()
+    {
+        return pendingTimeouts.get();
+    }
+
+    /**
+     * Stop the timer. Pending timeouts will never expire.
+     */
+    public void stop()
+    {
+        stopped = true;
+        workerThread.interrupt();
+    }
+
+    /**
+     * Advances the wheel every tick until stopped.
+     */
+    private void run()
+    {
+        long tick = 0;
+        while (!stopped)
+        {
+            if (!waitForNextTick(tick))
+            {
+                break;
+            }
+
+            transferNewTimeouts(tick);
+            wheel[(int) (tick & mask)].expireTimeouts();
+            tick++;
+        }
+    }
+
+    /**
+     * Wait until the given tick is over.
+     *
+     * @param tick the current tick
+     * @return false when the timer has been stopped while waiting
+     */
+    private boolean waitForNextTick(long tick)
+    {
+        long deadline = tickDuration * (tick + 1);
+
+        while (true)
+        {
+            long now = System.nanoTime() - startTime;
+            long sleepMs = (deadline - now + 999999) / 1000000;
+            if (sleepMs <= 0)
+            {
+                return true;
+            }
+
+            try
+            {
+                Thread.sleep(sleepMs);
+            }
+            catch (InterruptedException e)
+            {
+                if (stopped)
+                {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the timeouts added since the last tick to their bucket.
+     *
+     * @param tick the current tick
+     */
+    private void transferNewTimeouts(long tick)
+    {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null)
+        {
+            if (timeout.isCancelled())
+            {
+                continue;
+            }
+
+            long calculated = timeout.deadline / tickDuration;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+
+            // a deadline in the past expires with the current tick
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * A task scheduled on a {@link HashedWheelTimer}.
+     */
+    public class Timeout
+    {
+        /**
+         * The state of a timeout which is waiting to expire.
+         */
+        private static final int ST_PENDING = 0;
+
+        /**
+         * The state of a timeout which has been cancelled.
+         */
+        private static final int ST_CANCELLED = 1;
+
+        /**
+         * The state of a timeout whose task has been run.
+         */
+        private static final int ST_EXPIRED = 2;
+
+        /**
+         * The task to run.
+         */
+        private final Runnable task;
+
+        /**
+         * The deadline relative to {@link #startTime}, in nanoseconds.
+         */
+        private final long deadline;
+
+        /**
+         * The amount of turns of the wheel left before expiring.
+         */
+        private long remainingRounds;
+
+        /**
+         * The state of this timeout.
+         */
+        private final AtomicInteger state = new AtomicInteger(ST_PENDING);
+
+        /**
+         * The next timeout in the same bucket.
+         */
+        private Timeout next;
+
+        /**
+         * The previous timeout in the same bucket.
+         */
+        private Timeout prev;
+
+        /**
+         * Create a timeout.
+         *
+         * @param task the task to run
+         * @param deadline the deadline relative to {@link #startTime}
+         */
+        private Timeout(Runnable task, long deadline)
+        {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel this timeout. Has no effect when it has already expired.
+         *
+         * @return true when the timeout was cancelled, false when it had
+         * already expired or been cancelled
+         */
+        public boolean cancel()
+        {
+            if (!state.compareAndSet(ST_PENDING, ST_CANCELLED))
+            {
+                return false;
+            }
+
+            // it is removed from its bucket by the worker thread
+            pendingTimeouts.decrementAndGet();
+            return true;
+        }
+
+        /**
+         * Get whether this timeout has been cancelled.
+         *
+         * @return true when cancelled
+         */
+        public boolean isCancelled()
+        {
+            return state.get() == ST_CANCELLED;
+        }
+
+        /**
+         * Get whether the task of this timeout has been run.
+         *
+         * @return true when expired
+         */
+        public boolean isExpired()
+        {
+            return state.get() == ST_EXPIRED;
+        }
+
+        /**
+         * Run the task of this timeout, unless it has been cancelled.
+         */
+        private void expire()
+        {
+            if (!state.compareAndSet(ST_PENDING, ST_EXPIRED))
+            {
+                return;
+            }
+
+            pendingTimeouts.decrementAndGet();
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                logger.error("Timer task failed", t);
+            }
+        }
+    }
+
+    /**
+     * A bucket of the wheel, holding a doubly linked list of timeouts.
+     */
+    private static class Bucket
+    {
+        /**
+         * The first timeout of the list.
+         */
+        private Timeout head;
+
+        /**
+         * The last timeout of the list.
+         */
+        private Timeout tail;
+
+        /**
+         * Add a timeout at the end of the list.
+         *
+         * @param timeout the timeout to add
+         */
+        void add(Timeout timeout)
+        {
+            if (head == null)
+            {
+                head = tail = timeout;
+            }
+            else
+            {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        /**
+         * Expire every timeout of this bucket which is in its last round,
+         * remove the cancelled ones and count down the rounds of the others.
+         */
+        void expireTimeouts()
+        {
+            Timeout timeout = head;
+            while (timeout != null)
+            {
+                Timeout next = timeout.next;
+                if (timeout.isCancelled())
+                {
+                    remove(timeout);
+                }
+                else if (timeout.remainingRounds <= 0)
+                {
+                    // as the wheel is advanced in order, the deadline of a
+                    // timeout in its last round is always within this tick
+                    remove(timeout);
+                    timeout.expire();
+                }
+                else
+                {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        /**
+         * Remove a timeout from the list.
+         *
+         * @param timeout the timeout to remove
+         */
+        private void remove(Timeout timeout)
+        {
+            Timeout next = timeout.next;
+            if (timeout.prev != null)
+            {
+                timeout.prev.next = next;
+            }
+            if (next != null)
+            {
+                next.prev = timeout.prev;
+            }
+
+            if (timeout == head)
+            {
+                head = next;
+            }
+            if (timeout == tail)
+            {
+                tail = timeout.prev;
+            }
+
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+}
@@ -0,0 +1,668 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import org.jitsi.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Runs tasks on the threads of a shared {@link Executor}, one at a time and
+ * in order for the same key (e.g. a call) while tasks of different keys run
+ * in parallel.
+ * <p>
+ * A task can be made of steps with delays in between, during which no thread
+ * is used and the following tasks of its key keep waiting, instead of
+ * sleeping on a thread of the pool.
+ * <p>
+ * A task can also have several keys, e.g. when it touches several calls. It
+ * runs after the tasks submitted before it for any of its keys, and the
+ * tasks submitted after it for any of them wait for it.
+ */
+public class KeyedExecutor
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger = Logger.getLogger(KeyedExecutor.class);
+
+    /**
+     * The executor providing the threads.
+     */
+    private final Executor executor;
+
+    /**
+     * The queues of the keys which have tasks.
+     */
+    private final Map<Object, KeyQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * The amount of tasks which were submitted and are not done yet.
+     */
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+
+    /**
+     * The amount of tasks which have started.
+     */
+    private final AtomicLong startedTasks = new AtomicLong();
+
+    /**
+     * The sum of the times tasks waited before starting, in ms.
+     */
+    private final AtomicLong totalWaitTime = new AtomicLong();
+
+    /**
+     * The longest time a task waited before starting, in ms.
+     */
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    /**
+     * Notified when there are no pending tasks anymore.
+     */
+    private final Object idleLock = new Object();
+
+    /**
+     * Held while a task with several keys is added to their queues, so two
+     * such tasks are in the same order in every queue and never wait for
+     * each other.
+     */
+    private final Object multiKeyLock = new Object();
+
+    /**
+     * Create a new executor.
+     *
+     * @param executor the executor which will provide the threads
+     */
+    public KeyedExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Run a task after the tasks submitted before for the same key.
+     *
+     * @param key the key of the task
+     * @param task the task
+     */
+    public void execute(Object key, Runnable task)
+    {
+        execute(key, () -> {
+            task.run();
+            return SteppedTask.DONE;
+        });
+    }
+
+    /**
+     * Run a task made of steps after the tasks submitted before for the same
+     * key.
+     *
+     * @param key the key of the task
+     * @param task the task
+     */
+    public void execute(Object key, SteppedTask task)
+    {
+        pendingTasks.incrementAndGet();
+        enqueue(key, new Entry(task, null));
+    }
+
+    /**
+     * Run a task made of steps after the tasks submitted before for any of
+     * its keys. The tasks submitted after it for any of the keys wait until
+     * it is done.
+     *
+     * @param keys the keys of the task
+     * @param task the task
+     */
+    public void execute(Collection<?> keys, SteppedTask task)
+    {
+        Set<Object> distinctKeys = new LinkedHashSet<>(keys);
+        if (distinctKeys.isEmpty())
+        {
+            throw new IllegalArgumentException("A task needs a key");
+        }
+        if (distinctKeys.size() == 1)
+        {
+            execute(distinctKeys.iterator().next(), task);
+            return;
+        }
+
+        Group group = new Group(distinctKeys.size());
+        pendingTasks.incrementAndGet();
+        synchronized (multiKeyLock)
+        {
+            for (Object key : distinctKeys)
+            {
+                enqueue(key, new Entry(task, group));
+            }
+        }
+    }
+
+    /**
+     * Add a task at the end of the queue of a key, starting the queue when
+     * it was idle.
+     *
+     * @param key the key
+     * @param entry the task
+     */
+    private void enqueue(Object key, Entry entry)
+    {
+        while (true)
+        {
+            KeyQueue queue = queues.computeIfAbsent(key, KeyQueue::new);
+            boolean start;
+            synchronized (queue)
+            {
+                if (queue.removed)
+                {
+                    // it got empty in the meantime
+                    continue;
+                }
+
+                queue.entries.add(entry);
+                start = !queue.running;
+                queue.running = true;
+            }
+
+            if (start)
+            {
+                schedule(queue);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Run a task after a delay, after the tasks submitted before it for the
+     * same key at that time. No thread is used while waiting.
+     *
+     * @param key the key of the task
+     * @param task the task
+     * @param delay the delay after which to submit the task
+     * @param unit the unit of <tt>delay</tt>
+     * @return a handle which can be used to cancel the task before it is
+     * submitted
+     * @throws RejectedExecutionException when the shared timer has been
+     * stopped
+     */
+    public HashedWheelTimer.Timeout schedule(
+        Object key, Runnable task, long delay, TimeUnit unit)
+    {
+        return SharedTimer.schedule(() -> execute(key, task), delay, unit);
+    }
+
+    /**
+     * Get the amount of tasks which were submitted and are not done yet.
+     *
+     * @return the amount of pending tasks
+     */
+    public int getPendingTasks()
+    {
+        return pendingTasks.get();
+    }
+
+    /**
+     * Get the amount of keys which have pending tasks.
+     *
+     * @return the amount of keys
+     */
+    public int getActiveKeys()
+    {
+        return queues.size();
+    }
+
+    /**
+     * Get the average time tasks waited before they started.
+     *
+     * @return the average wait in ms
+     */
+    public long getAverageWaitTime()
+    {
+        long started = startedTasks.get();
+        return started == 0 ? 0 : totalWaitTime.get() / started;
+    }
+
+    /**
+     * Get the longest time a task waited before it started.
+     *
+     * @return the longest wait in ms
+     */
+    public long getMaxWaitTime()
+    {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * Wait until every submitted task is done.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of <tt>timeout</tt>
+     * @return true when every task is done, false when the time ran out
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleLock)
+        {
+            while (pendingTasks.get() > 0)
+            {
+                long left = deadline - System.nanoTime();
+                if (left <= 0)
+                {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(idleLock, left);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Give a step of the queue of a key to the backing executor.
+     *
+     * @param queue the queue
+     */
+    private void schedule(KeyQueue queue)
+    {
+        try
+        {
+            executor.execute(() -> runStep(queue));
+        }
+        catch (RejectedExecutionException e)
+        {
+            logger.error("Backing executor rejected the tasks of "
+                + queue.key, e);
+            drop(queue);
+        }
+    }
+
+    /**
+     * Run the next step of the first task of the queue of a key, and schedule
+     * what comes after it.
+     *
+     * @param queue the queue
+     */
+    private void runStep(KeyQueue queue)
+    {
+        Entry entry;
+        synchronized (queue)
+        {
+            entry = queue.entries.peek();
+        }
+
+        if (entry.group != null)
+        {
+            switch (entry.group.arrive(queue))
+            {
+            case WAIT:
+                // the last queue to get to the task runs it and resumes
+                // this one once it is done
+                return;
+            case SKIP:
+                resume(queue);
+                return;
+            default:
+                break;
+            }
+        }
+
+        if (!entry.started)
+        {
+            entry.started = true;
+            long wait = System.currentTimeMillis() - entry.submitted;
+            startedTasks.incrementAndGet();
+            totalWaitTime.addAndGet(wait);
+            maxWaitTime.accumulateAndGet(wait, Math::max);
+        }
+
+        long delay;
+        try
+        {
+            delay = entry.task.runStep();
+        }
+        catch (Throwable t)
+        {
+            logger.error("Task of " + queue.key + " failed", t);
+            delay = SteppedTask.DONE;
+        }
+
+        if (delay < 0)
+        {
+            boolean more = removeFirst(queue);
+            if (entry.group != null)
+            {
+                entry.group.waiting.forEach(this::resume);
+            }
+            taskDone();
+
+            if (!more)
+            {
+                return;
+            }
+            delay = 0;
+        }
+
+        if (delay == 0)
+        {
+            schedule(queue);
+            return;
+        }
+
+        try
+        {
+            SharedTimer.schedule(
+                () -> schedule(queue), delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the timer is stopped, do not wait
+            schedule(queue);
+        }
+    }
+
+    /**
+     * Remove the first task of a queue, which is done.
+     *
+     * @param queue the queue
+     * @return true when the queue has more tasks
+     */
+    private boolean removeFirst(KeyQueue queue)
+    {
+        synchronized (queue)
+        {
+            queue.entries.poll();
+            if (!queue.entries.isEmpty())
+            {
+                return true;
+            }
+
+            queue.running = false;
+            queue.removed = true;
+            queues.remove(queue.key, queue);
+            return false;
+        }
+    }
+
+    /**
+     * Go on with the tasks of a queue which waited for a task with several
+     * keys, which is done.
+     *
+     * @param queue the queue
+     */
+    private void resume(KeyQueue queue)
+    {
+        if (removeFirst(queue))
+        {
+            schedule(queue);
+        }
+    }
+
+    /**
+     * Drop the tasks of a queue which cannot be run.
+     *
+     * @param queue the queue
+     */
+    private void drop(KeyQueue queue)
+    {
+        List<Entry> dropped;
+        synchronized (queue)
+        {
+            dropped = new ArrayList<>(queue.entries);
+            queue.entries.clear();
+            queue.running = false;
+            queue.removed = true;
+            queues.remove(queue.key, queue);
+        }
+
+        for (Entry entry : dropped)
+        {
+            if (entry.group == null)
+            {
+                taskDone();
+                continue;
+            }
+
+            // the task can not run anymore, the other queues which have it
+            // skip it
+            List<KeyQueue> waiting = entry.group.cancel();
+            if (waiting != null)
+            {
+                waiting.forEach(this::resume);
+                taskDone();
+            }
+        }
+    }
+
+    /**
+     * Count a task which is done, waking up the threads waiting for all tasks
+     * to be done.
+     */
+    private void taskDone()
+    {
+        if (pendingTasks.decrementAndGet() == 0)
+        {
+            synchronized (idleLock)
+            {
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A task made of steps, which are run one after the other with a delay
+     * in between.
+     */
+    public interface SteppedTask
+    {
+        /**
+         * The value returned by {@link #runStep()} when the task is done.
+         */
+        long DONE = -1;
+
+        /**
+         * Run the next step of the task.
+         *
+         * @return the time in ms to wait before running the next step, 0 to
+         * run it right away, or {@link #DONE} when the task is done
+         */
+        long runStep();
+    }
+
+    /**
+     * What a queue does when it gets to a task with several keys.
+     */
+    private enum Arrival
+    {
+        /**
+         * Run the task, as every other queue got to it.
+         */
+        RUN,
+
+        /**
+         * Wait until the task is done.
+         */
+        WAIT,
+
+        /**
+         * Skip the task, as it has been dropped.
+         */
+        SKIP
+    }
+
+    /**
+     * The queues of the keys of a task with several keys.
+     */
+    private static class Group
+    {
+        /**
+         * The queues which got to the task and wait for it.
+         */
+        final List<KeyQueue> waiting = new ArrayList<>();
+
+        /**
+         * The amount of queues which did not get to the task yet.
+         */
+        private int missing;
+
+        /**
+         * The queue running the task, null until every queue got to it.
+         */
+        private KeyQueue runner = null;
+
+        /**
+         * Whether the task has been dropped.
+         */
+        private boolean cancelled = false;
+
+        /**
+         * Create a group.
+         *
+         * @param size the amount of keys of the task
+         */
+        Group(int size)
+        {
+            this.missing = size;
+        }
+
+        /**
+         * Tell the group a queue got to the task.
+         *
+         * @param queue the queue
+         * @return what the queue has to do
+         */
+        synchronized Arrival arrive(KeyQueue queue)
+        {
+            if (cancelled)
+            {
+                return Arrival.SKIP;
+            }
+            if (queue == runner)
+            {
+                return Arrival.RUN;
+            }
+            if (--missing > 0)
+            {
+                waiting.add(queue);
+                return Arrival.WAIT;
+            }
+
+            runner = queue;
+            return Arrival.RUN;
+        }
+
+        /**
+         * Drop the task.
+         *
+         * @return the queues waiting for the task, or null when it was
+         * already dropped
+         */
+        synchronized List<KeyQueue> cancel()
+        {
+            if (cancelled)
+            {
+                return null;
+            }
+
+            cancelled = true;
+            List<KeyQueue> queues = new ArrayList<>(waiting);
+            waiting.clear();
+            return queues;
+        }
+    }
+
+    /**
+     * A submitted task.
+     */
+    private static class Entry
+    {
+        /**
+         * The task.
+         */
+        final SteppedTask task;
+
+        /**
+         * The queues of the keys of the task, or null when it has a single
+         * key.
+         */
+        final Group group;
+
+        /**
+         * The time in ms at which the task was submitted.
+         */
+        final long submitted = System.currentTimeMillis();
+
+        /**
+         * Whether the first step of the task has been run. Only accessed by
+         * the thread running the steps of the queue.
+         */
+        boolean started = false;
+
+        /**
+         * Create an entry.
+         *
+         * @param task the task
+         * @param group the queues of the keys of the task, or null when it
+         * has a single key
+         */
+        Entry(SteppedTask task, Group group)
+        {
+            this.task = task;
+            this.group = group;
+        }
+    }
+
+    /**
+     * The tasks of a key, of which only the first one is run at any time.
+     */
+    private static class KeyQueue
+    {
+        /**
+         * The key.
+         */
+        final Object key;
+
+        /**
+         * The tasks, the first one being the one which is run.
+         */
+        final Queue<Entry> entries = new ArrayDeque<>();
+
+        /**
+         * Whether the steps of the first task are being run or scheduled.
+         */
+        boolean running = false;
+
+        /**
+         * Whether this queue got empty and was removed from the queues, so
+         * tasks cannot be added to it anymore.
+         */
+        boolean removed = false;
+
+        /**
+         * Create a queue.
+         *
+         * @param key the key of the queue
+         */
+        KeyQueue(Object key)
+        {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A {@link ThreadFactory} creating daemon threads whose names consist of a
+ * prefix and a sequence number, so the threads of shared pools can be told
+ * apart in thread dumps.
+ */
+public class NamedThreadFactory
+    implements ThreadFactory
+{
+    /**
+     * The prefix of the names of the created threads.
+     */
+    private final String prefix;
+
+    /**
+     * The sequence number of the next thread.
+     */
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    /**
+     * Create a new factory.
+     *
+     * @param prefix the prefix of the names of the created threads
+     */
+    public NamedThreadFactory(String prefix)
+    {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r)
+    {
+        Thread thread
+            = new Thread(r, prefix + "-" + threadNumber.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
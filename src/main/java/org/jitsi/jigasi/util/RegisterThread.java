@@ -22,13 +22,15 @@ import net.java.sip.communicator.util.*;
 import org.jitsi.jigasi.*;
 
 /**
- * Thread does the job of registering given <tt>ProtocolProviderService</tt>.
+ * Does the job of registering given <tt>ProtocolProviderService</tt>. It is
+ * run on the {@link BlockingTaskExecutor}, as registering blocks until the
+ * server answered.
  *
  * @author Pawel Domas
  * @author George Politis
  */
 public class RegisterThread
-    extends Thread
+    implements Runnable
 {
     /**
      * The logger.
@@ -0,0 +1,221 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import org.jitsi.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An {@link Executor} which runs its tasks one at a time and in the order
+ * they were submitted, on the threads of a shared backing {@link Executor}.
+ * This gives every user (e.g. a recognition session) its own ordered queue
+ * without dedicating a thread to it.
+ * <p>
+ * At most {@link #MAX_TASKS_PER_RUN} tasks are run in a row before the
+ * thread is handed back to the backing executor, so a busy queue cannot
+ * starve the others.
+ */
+public class SerialExecutor
+    implements Executor
+{
+    /**
+     * The logger of this class.
+     */
+    private final static Logger logger = Logger.getLogger(SerialExecutor.class);
+
+    /**
+     * The maximum amount of tasks run in a row on a thread of the backing
+     * executor.
+     */
+    private final static int MAX_TASKS_PER_RUN = 16;
+
+    /**
+     * The executor providing the threads.
+     */
+    private final Executor executor;
+
+    /**
+     * The tasks waiting to be run. Also used as the lock for
+     * {@link #running}.
+     */
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    /**
+     * Whether the tasks of this executor are currently being run, or are
+     * scheduled to be run, on the backing executor.
+     */
+    private boolean running = false;
+
+    /**
+     * Whether this executor does not accept new tasks anymore.
+     */
+    private volatile boolean shutdown = false;
+
+    /**
+     * The runnable draining {@link #tasks} on the backing executor.
+     */
+    private final Runnable drainer = this::drain;
+
+    /**
+     * Create a new serial executor.
+     *
+     * @param executor the executor which will provide the threads
+     */
+    public SerialExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RejectedExecutionException when this executor has been shut down
+     * or the backing executor does not accept tasks anymore
+     */
+    @Override
+    public void execute(Runnable task)
+    {
+        boolean schedule;
+        synchronized (tasks)
+        {
+            if (shutdown)
+            {
+                throw new RejectedExecutionException(
+                    "SerialExecutor has been shut down");
+            }
+
+            tasks.add(task);
+            schedule = !running;
+            running = true;
+        }
+
+        if (schedule)
+        {
+            schedule();
+        }
+    }
+
+    /**
+     * Stop accepting new tasks. Tasks which are already queued will still be
+     * run.
+     */
+    public void shutdown()
+    {
+        synchronized (tasks)
+        {
+            shutdown = true;
+        }
+    }
+
+    /**
+     * Get whether this executor has been shut down.
+     *
+     * @return true when new tasks are not accepted anymore
+     */
+    public boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    /**
+     * Get the amount of tasks waiting to be run.
+     *
+     * @return the amount of queued tasks
+     */
+    public int getQueueSize()
+    {
+        synchronized (tasks)
+        {
+            return tasks.size();
+        }
+    }
+
+    /**
+     * Give {@link #drainer} to the backing executor.
+     */
+    private void schedule()
+    {
+        try
+        {
+            executor.execute(drainer);
+        }
+        catch (RejectedExecutionException e)
+        {
+            int dropped;
+            synchronized (tasks)
+            {
+                dropped = tasks.size();
+                tasks.clear();
+                running = false;
+            }
+            logger.warn("Backing executor rejected tasks, dropped " + dropped);
+            throw e;
+        }
+    }
+
+    /**
+     * Run queued tasks until the queue is empty or
+     * {@link #MAX_TASKS_PER_RUN} tasks have been run.
+     */
+    private void drain()
+    {
+        for (int i = 0; i < MAX_TASKS_PER_RUN; i++)
+        {
+            Runnable task;
+            synchronized (tasks)
+            {
+                task = tasks.poll();
+                if (task == null)
+                {
+                    running = false;
+                    return;
+                }
+            }
+
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                logger.error("Task of SerialExecutor failed", t);
+            }
+        }
+
+        synchronized (tasks)
+        {
+            if (tasks.isEmpty())
+            {
+                running = false;
+                return;
+            }
+        }
+
+        // let other queues use the thread, we continue later
+        try
+        {
+            schedule();
+        }
+        catch (RejectedExecutionException e)
+        {
+            // already logged
+        }
+    }
+}
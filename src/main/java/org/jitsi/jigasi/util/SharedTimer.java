@@ -0,0 +1,85 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import java.util.concurrent.*;
+
+/**
+ * Gives access to the single {@link HashedWheelTimer} of the process, which
+ * is used for idle timeouts and delayed actions instead of sleeping threads.
+ */
+public class SharedTimer
+{
+    /**
+     * The duration of a tick of the timer in ms, which is also its precision.
+     */
+    private final static long TICK_DURATION_MS = 50;
+
+    /**
+     * The amount of buckets of the wheel. With 50 ms ticks, a turn of the
+     * wheel takes a bit more than 25 seconds.
+     */
+    private final static int TICKS_PER_WHEEL = 512;
+
+    /**
+     * The timer, created when first used.
+     */
+    private static HashedWheelTimer timer = null;
+
+    /**
+     * Get the shared timer, creating it when needed.
+     *
+     * @return the timer
+     */
+    public static synchronized HashedWheelTimer getTimer()
+    {
+        if (timer == null)
+        {
+            timer = new HashedWheelTimer(
+                "jigasi-timer",
+                TICK_DURATION_MS, TimeUnit.MILLISECONDS,
+                TICKS_PER_WHEEL);
+        }
+        return timer;
+    }
+
+    /**
+     * Get the amount of timeouts of the shared timer which have neither
+     * expired nor been cancelled, without creating the timer.
+     *
+     * @return the amount of pending timeouts
+     */
+    public static synchronized int getPendingTimeouts()
+    {
+        return timer == null ? 0 : timer.getPendingTimeouts();
+    }
+
+    /**
+     * Schedule a task on the shared timer.
+     *
+     * @param task the task to run, which should be short
+     * @param delay the delay after which to run the task
+     * @param unit the unit of <tt>delay</tt>
+     * @return a handle which can be used to cancel the task
+     */
+    public static HashedWheelTimer.Timeout schedule(
+        Runnable task, long delay, TimeUnit unit)
+    {
+        return getTimer().schedule(task, delay, unit);
+    }
+}
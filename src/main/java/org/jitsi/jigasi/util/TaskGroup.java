@@ -0,0 +1,141 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The blocking tasks of a single owner (e.g. a gateway session), which are
+ * run on a shared executor and can be cancelled as a unit. Once cancelled,
+ * the running tasks are interrupted and no new task is accepted, so nothing
+ * started for the owner outlives it.
+ */
+public class TaskGroup
+{
+    /**
+     * The executor running the tasks.
+     */
+    private final Executor executor;
+
+    /**
+     * The tasks which were submitted and are not done yet.
+     */
+    private final Set<Future<?>> tasks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Whether this group has been cancelled.
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Create a new group.
+     *
+     * @param executor the executor which will run the tasks
+     */
+    public TaskGroup(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Run a task as part of this group.
+     *
+     * @param task the task
+     * @return the future of the task
+     * @throws RejectedExecutionException when this group has been cancelled
+     * or the executor does not accept tasks anymore
+     */
+    public Future<?> execute(Runnable task)
+    {
+        // the task leaves the group before its result is set, so it is not
+        // counted anymore once its future is done
+        FutureTask<?>[] self = new FutureTask<?>[1];
+        FutureTask<Void> future = new FutureTask<Void>(() -> {
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                tasks.remove(self[0]);
+            }
+        }, null)
+        {
+            @Override
+            protected void done()
+            {
+                // when cancelled before it ran
+                tasks.remove(this);
+            }
+        };
+        self[0] = future;
+
+        tasks.add(future);
+        if (cancelled)
+        {
+            // the task may have been added after cancel() went over them
+            tasks.remove(future);
+            throw new RejectedExecutionException("TaskGroup is cancelled");
+        }
+
+        try
+        {
+            executor.execute(future);
+        }
+        catch (RejectedExecutionException e)
+        {
+            tasks.remove(future);
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Cancel every task of this group, interrupting those which are running,
+     * and stop accepting new tasks.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        for (Future<?> task : tasks)
+        {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Get whether this group has been cancelled.
+     *
+     * @return true when cancelled
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Get the amount of tasks of this group which are not done yet.
+     *
+     * @return the amount of tasks
+     */
+    public int getActiveCount()
+    {
+        return tasks.size();
+    }
+}
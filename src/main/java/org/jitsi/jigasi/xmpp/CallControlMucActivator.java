@@ -240,9 +240,8 @@ public class CallControlMucActivator
                 JigasiBundleActivator.osgiContext,
                 ProtocolNames.JABBER);
 
-        new RegisterThread(
-            pps, xmppProviderFactory.loadPassword(pps.getAccountID()))
-                .start();
+        BlockingTaskExecutor.execute(new RegisterThread(
+            pps, xmppProviderFactory.loadPassword(pps.getAccountID())));
     }
 
     /**
@@ -348,7 +347,7 @@ public class CallControlMucActivator
             osgiContext, SipGateway.class);
 
         int participants = 0;
-        for(SipGatewaySession ses : gateway.getActiveSessions())
+        for(SipGatewaySession ses : gateway.getSessions())
         {
             participants += ses.getJvbChatRoom().getMembersCount();
         }
@@ -401,7 +400,7 @@ public class CallControlMucActivator
 
                 ColibriStatsExtension stats = new ColibriStatsExtension();
                 stats.addStat(new ColibriStatsExtension.Stat("conferences",
-                    gateway.getActiveSessions().size()));
+                    gateway.getSessionCount()));
                 stats.addStat(new ColibriStatsExtension.Stat("participants",
                     participantsCount));
 
@@ -429,7 +428,7 @@ public class CallControlMucActivator
             osgiContext, SipGateway.class);
 
         int participants = 0;
-        for(SipGatewaySession ses : gateway.getActiveSessions())
+        for(SipGatewaySession ses : gateway.getSessions())
         {
             participants += ses.getJvbChatRoom().getMembersCount();
         }
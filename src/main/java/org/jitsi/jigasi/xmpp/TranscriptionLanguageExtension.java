@@ -0,0 +1,70 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
+
+/**
+ * The packet extension added by a participant to its MUC presence to tell
+ * in which language it speaks, so it can be transcribed in that language.
+ * The language is given as a BCP-47 language tag in the text of the element,
+ * e.g.
+ * <tt>&lt;transcription_language&gt;de-DE&lt;/transcription_language&gt;</tt>
+ */
+public class TranscriptionLanguageExtension
+    extends AbstractPacketExtension
+{
+    /**
+     * XML element name of this packet extension.
+     */
+    public static final String ELEMENT_NAME = "transcription_language";
+
+    /**
+     * The namespace of this packet extension.
+     */
+    public static final String NAMESPACE = "jabber:client";
+
+    /**
+     * Constructs new TranscriptionLanguageExtension.
+     */
+    public TranscriptionLanguageExtension()
+    {
+        super(NAMESPACE, ELEMENT_NAME);
+    }
+
+    /**
+     * Get the language tag of the participant.
+     *
+     * @return the language tag, or null when not set
+     */
+    public String getLanguageTag()
+    {
+        String text = getText();
+        return text == null || text.trim().isEmpty() ? null : text.trim();
+    }
+
+    /**
+     * Set the language tag of the participant.
+     *
+     * @param languageTag the BCP-47 language tag
+     */
+    public void setLanguageTag(String languageTag)
+    {
+        setText(languageTag);
+    }
+}
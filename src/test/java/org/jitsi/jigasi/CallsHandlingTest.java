@@ -89,7 +89,7 @@ public class CallsHandlingTest
     {
         focus.tearDown();
 
-        CallManager.restartPool();
+        CallManager.awaitIdle(5, TimeUnit.SECONDS);
 
         BundleContext ctx = JigasiBundleActivator.osgiContext;
 
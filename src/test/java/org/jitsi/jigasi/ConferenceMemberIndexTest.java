@@ -0,0 +1,169 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests resolving the {@link ConferenceMember}s of joining and leaving
+ * members with the {@link ConferenceMemberIndex}.
+ */
+@RunWith(JUnit4.class)
+public class ConferenceMemberIndexTest
+{
+    private final List<CallPeerConferenceListener> listeners
+        = new ArrayList<>();
+
+    private final List<ConferenceMember> initialMembers = new ArrayList<>();
+
+    private ConferenceMemberIndex index;
+
+    @Before
+    public void setUp()
+    {
+        index = new ConferenceMemberIndex(200);
+        initialMembers.add(member("room@conference.example.com/initial"));
+        index.attach(peer());
+    }
+
+    @After
+    public void tearDown()
+    {
+        index.detach();
+        assertTrue(listeners.isEmpty());
+    }
+
+    @Test
+    public void testWaitingJoinIsResolvedWhenMemberIsAdded()
+        throws Exception
+    {
+        assertNotNull(index.get("initial"));
+
+        CountDownLatch resolved = new CountDownLatch(1);
+        index.whenAdded("late", member -> resolved.countDown());
+        assertEquals(1, index.getPendingCount());
+
+        fireAdded(member("room@conference.example.com/late"));
+        assertEquals(0, resolved.getCount());
+        assertEquals(0, index.getPendingCount());
+    }
+
+    @Test
+    public void testRemovedMemberIsKeptForLeave()
+    {
+        ConferenceMember member = member("room@conference.example.com/gone");
+        fireAdded(member);
+
+        for (CallPeerConferenceListener listener : listeners)
+        {
+            listener.conferenceMemberRemoved(
+                new CallPeerConferenceEvent(
+                    peer(),
+                    CallPeerConferenceEvent.CONFERENCE_MEMBER_REMOVED,
+                    member));
+        }
+
+        assertNull(index.get("gone"));
+        assertSame(member, index.remove("gone"));
+        assertNull(index.remove("gone"));
+    }
+
+    @Test
+    public void testWaitingJoinExpires()
+        throws Exception
+    {
+        index.whenAdded("never", member -> fail("no such member"));
+        assertEquals(1, index.getPendingCount());
+
+        Thread.sleep(500);
+        assertEquals(0, index.getPendingCount());
+
+        fireAdded(member("room@conference.example.com/never"));
+    }
+
+    private void fireAdded(ConferenceMember member)
+    {
+        for (CallPeerConferenceListener listener : listeners)
+        {
+            listener.conferenceMemberAdded(
+                new CallPeerConferenceEvent(
+                    peer(),
+                    CallPeerConferenceEvent.CONFERENCE_MEMBER_ADDED,
+                    member));
+        }
+    }
+
+    private ConferenceMember member(String address)
+    {
+        return proxy(ConferenceMember.class, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+            case "getAddress":
+                return address;
+            case "toString":
+                return address;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                return null;
+            }
+        });
+    }
+
+    private CallPeer peer()
+    {
+        return proxy(CallPeer.class, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+            case "addCallPeerConferenceListener":
+                listeners.add((CallPeerConferenceListener) args[0]);
+                return null;
+            case "removeCallPeerConferenceListener":
+                listeners.remove(args[0]);
+                return null;
+            case "getConferenceMembers":
+                return initialMembers;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                return null;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return (T) Proxy.newProxyInstance(
+            type.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+}
@@ -17,6 +17,9 @@
  */
 package org.jitsi.jigasi;
 
+import org.jitsi.jigasi.transcription.*;
+import org.jitsi.jigasi.transcription.action.*;
+import org.jitsi.jigasi.util.*;
 import org.jitsi.jigasi.xmpp.rayo.*;
 import org.junit.runner.*;
 import org.junit.runners.*;
@@ -27,9 +30,26 @@ import org.junit.runners.*;
 @RunWith(Suite.class)
 @Suite.SuiteClasses(
     {
+        AudioChunkPoolTest.class,
+        AudioRequestQueueTest.class,
+        AudioResamplerTest.class,
         CallsHandlingTest.class,
+        ConcurrentLongObjectMapTest.class,
+        ConferenceMemberIndexTest.class,
         DialIqProviderTest.class,
-        RefIqProviderTest.class
+        FlacEncoderTest.class,
+        HashedWheelTimerTest.class,
+        InterimResultCoalescerTest.class,
+        KeyedExecutorTest.class,
+        LocalTranscriptionServiceTest.class,
+        PhraseMatcherTest.class,
+        RefIqProviderTest.class,
+        SpeakerStreamPoolTest.class,
+        TaskGroupTest.class,
+        TranscriptArchiveTest.class,
+        TranscriptSegmentTest.class,
+        TranscriptStreamTest.class,
+        VoiceActivityGateTest.class
     })
 public class JigasiTestSuite
 {
@@ -0,0 +1,74 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the reference counting and reuse of {@link AudioChunk}s.
+ */
+@RunWith(JUnit4.class)
+public class AudioChunkPoolTest
+{
+    @Test
+    public void testChunkIsReusedAfterLastRelease()
+    {
+        AudioChunkPool pool = new AudioChunkPool(8, 2);
+
+        AudioChunk chunk = pool.acquire();
+        chunk.append(new byte[] { 1, 2, 3 }, 0, 3);
+        chunk.retain();
+
+        chunk.release();
+        // still held once, a new chunk has to be allocated
+        assertNotSame(chunk, pool.acquire());
+
+        chunk.release();
+        AudioChunk reused = pool.acquire();
+        assertSame(chunk, reused);
+        assertEquals(0, reused.getLength());
+        assertEquals(8, reused.remaining());
+        assertEquals(2, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void testAppendStopsAtCapacity()
+    {
+        AudioChunkPool pool = new AudioChunkPool(4, 1);
+        AudioChunk chunk = pool.acquire();
+
+        byte[] audio = new byte[] { 1, 2, 3, 4, 5, 6 };
+        assertEquals(4, chunk.append(audio, 1, 5));
+        assertEquals(4, chunk.getLength());
+        assertEquals(0, chunk.remaining());
+        assertEquals(2, chunk.getData()[0]);
+        assertEquals(5, chunk.getData()[3]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseTooOften()
+    {
+        AudioChunk chunk = new AudioChunk(new byte[4]);
+        chunk.release();
+        chunk.release();
+    }
+}
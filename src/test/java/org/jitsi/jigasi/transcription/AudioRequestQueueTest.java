@@ -0,0 +1,319 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import javax.media.format.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the backpressure and the overflow policies of the
+ * {@link AudioRequestQueue}.
+ */
+@RunWith(JUnit4.class)
+public class AudioRequestQueueTest
+{
+    private final static AudioFormat FORMAT = new AudioFormat(
+        AudioFormat.LINEAR, 16000, 16, 1,
+        AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED);
+
+    private final static int FRAME_LENGTH = 640;
+
+    /**
+     * The drainers given to the executor of the queue, run by the tests.
+     */
+    private final List<Runnable> tasks
+        = Collections.synchronizedList(new ArrayList<>());
+
+    private final Recorder sink = new Recorder();
+
+    @Test
+    public void testBacklogKeepsAudioInQueue()
+        throws InterruptedException
+    {
+        AudioRequestQueue queue = createQueue(
+            AudioRequestQueue.OverflowPolicy.DROP_OLDEST);
+        sink.backlog = 10;
+
+        TranscriptionRequest first = request(3000);
+        queue.offer(first);
+        TranscriptionRequest second = request(3000);
+        queue.offer(second);
+        queue.offer(request(3000));
+        runTasks();
+
+        assertTrue(sink.sent.isEmpty());
+        assertEquals(2, queue.getSize());
+        assertEquals(1, queue.getDroppedCount());
+
+        // the queue tries again once the session had time to send
+        sink.backlog = 0;
+        for (int i = 0; i < 100 && tasks.isEmpty(); i++)
+        {
+            Thread.sleep(10);
+        }
+        runTasks();
+
+        assertEquals(2, sink.sent.size());
+        assertSame(second, sink.sent.get(0));
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testDropSilenceKeepsSpeech()
+    {
+        AudioRequestQueue queue = createQueue(
+            AudioRequestQueue.OverflowPolicy.DROP_SILENCE);
+        sink.backlog = 10;
+
+        TranscriptionRequest speech = request(3000);
+        TranscriptionRequest silence = request(10);
+        queue.offer(speech);
+        queue.offer(silence);
+        queue.offer(request(3000));
+
+        sink.backlog = 0;
+        runTasks();
+
+        assertEquals(2, sink.sent.size());
+        assertSame(speech, sink.sent.get(0));
+        assertFalse(sink.sent.contains(silence));
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testCoalesceKeepsAllAudio()
+    {
+        AudioRequestQueue queue = createQueue(
+            AudioRequestQueue.OverflowPolicy.COALESCE);
+        sink.backlog = 10;
+
+        queue.offer(request(3000));
+        queue.offer(request(3000));
+        queue.offer(request(3000));
+        queue.offerEndOfSpeech();
+
+        sink.backlog = 0;
+        runTasks();
+
+        assertEquals(2, sink.sent.size());
+        assertEquals(2 * FRAME_LENGTH, sink.sent.get(0).getAudioLength());
+        assertEquals(FRAME_LENGTH, sink.sent.get(1).getAudioLength());
+        assertEquals(1, sink.endsOfSpeech);
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(1, queue.getCoalescedCount());
+    }
+
+    @Test
+    public void testEndFollowsQueuedAudio()
+        throws InterruptedException
+    {
+        AudioRequestQueue queue = createQueue(
+            AudioRequestQueue.OverflowPolicy.DROP_OLDEST);
+        sink.backlog = 10;
+
+        queue.offer(request(3000));
+        queue.offer(request(3000));
+        queue.offerEnd();
+        runTasks();
+
+        assertEquals(0, sink.ends);
+
+        sink.backlog = 0;
+        for (int i = 0; i < 100 && tasks.isEmpty(); i++)
+        {
+            Thread.sleep(10);
+        }
+        runTasks();
+
+        assertEquals(1, sink.ends);
+        assertEquals(2, sink.sentBeforeEnd);
+        assertEquals(2, sink.sent.size());
+    }
+
+    @Test
+    public void testWakeDrainsAfterSinkWasNotAvailable()
+    {
+        AudioRequestQueue queue = createQueue(
+            AudioRequestQueue.OverflowPolicy.DROP_OLDEST);
+        sink.available = false;
+
+        queue.offer(request(3000));
+        queue.offer(request(3000));
+        runTasks();
+
+        // the queue waits to be woken instead of trying again
+        assertTrue(sink.sent.isEmpty());
+        assertTrue(tasks.isEmpty());
+
+        sink.available = true;
+        queue.wake();
+        runTasks();
+
+        assertEquals(2, sink.sent.size());
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testWakeWhileAcquiringIsNotLost()
+        throws InterruptedException
+    {
+        AudioRequestQueue queue = createQueue(
+            AudioRequestQueue.OverflowPolicy.DROP_OLDEST);
+        sink.available = false;
+        sink.onAcquire = () ->
+        {
+            // a stream becomes free while the queue asks for one, and the
+            // mixing thread does not wait for the sink to add audio
+            Thread producer = new Thread(() -> queue.offer(request(3000)));
+            producer.start();
+            try
+            {
+                producer.join(1000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            assertFalse(producer.isAlive());
+
+            sink.available = true;
+            queue.wake();
+        };
+
+        queue.offer(request(3000));
+        runTasks();
+
+        assertEquals(2, sink.sent.size());
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testEndIsDeliveredWhenQueueCanNotBeDrained()
+    {
+        AudioRequestQueue queue = new AudioRequestQueue(2,
+            AudioRequestQueue.OverflowPolicy.DROP_OLDEST,
+            task ->
+            {
+                throw new RejectedExecutionException("stopped");
+            },
+            sink);
+
+        queue.offer(request(3000));
+        queue.offerEnd();
+
+        // the audio is lost, but the session is not left open
+        assertTrue(sink.sent.isEmpty());
+        assertEquals(1, sink.ends);
+        assertEquals(0, queue.getSize());
+    }
+
+    private AudioRequestQueue createQueue(
+        AudioRequestQueue.OverflowPolicy policy)
+    {
+        return new AudioRequestQueue(2, policy, tasks::add, sink);
+    }
+
+    private void runTasks()
+    {
+        List<Runnable> toRun;
+        synchronized (tasks)
+        {
+            toRun = new ArrayList<>(tasks);
+            tasks.clear();
+        }
+        toRun.forEach(Runnable::run);
+    }
+
+    private static TranscriptionRequest request(int amplitude)
+    {
+        byte[] frame = new byte[FRAME_LENGTH];
+        for (int i = 0; i < FRAME_LENGTH / 2; i++)
+        {
+            int sample = (i / 40) % 2 == 0 ? amplitude : -amplitude;
+            frame[2 * i] = (byte) sample;
+            frame[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return new TranscriptionRequest(frame, FORMAT, Locale.ENGLISH);
+    }
+
+    /**
+     * Records what a queue gives to its sink.
+     */
+    private static class Recorder
+        implements AudioRequestQueue.Sink
+    {
+        int backlog = 0;
+
+        volatile boolean available = true;
+
+        Runnable onAcquire;
+
+        final List<TranscriptionRequest> sent = new ArrayList<>();
+
+        int endsOfSpeech = 0;
+
+        int ends = 0;
+
+        int sentBeforeEnd = -1;
+
+        @Override
+        public boolean acquire()
+        {
+            boolean result = available;
+            if (onAcquire != null)
+            {
+                Runnable action = onAcquire;
+                onAcquire = null;
+                action.run();
+            }
+            return result;
+        }
+
+        @Override
+        public int getBacklog()
+        {
+            return backlog;
+        }
+
+        @Override
+        public void send(TranscriptionRequest request)
+        {
+            sent.add(request);
+        }
+
+        @Override
+        public void endOfSpeech()
+        {
+            endsOfSpeech++;
+        }
+
+        @Override
+        public void end()
+        {
+            ends++;
+            sentBeforeEnd = sent.size();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import javax.media.format.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the downmix and the sample rate conversion of the
+ * {@link AudioResampler}.
+ */
+@RunWith(JUnit4.class)
+public class AudioResamplerTest
+{
+    /**
+     * 20 ms of 48 kHz audio.
+     */
+    private final static int SAMPLES = 960;
+
+    @Test
+    public void testSpeechIsKept()
+    {
+        AudioResampler resampler
+            = new AudioResampler(format(48000, 1), 16000);
+        byte[] output = new byte[resampler.getMaxOutputLength(2 * SAMPLES)];
+
+        // the first packet fills the history of the filter
+        resampler.process(sine(1000, 1), 0, 2 * SAMPLES, output, 0);
+        int length
+            = resampler.process(sine(1000, 1), 0, 2 * SAMPLES, output, 0);
+
+        assertEquals(2 * SAMPLES / 3, length);
+        assertEquals(10000, peak(output, length), 500);
+        assertEquals(16000, resampler.getOutputFormat().getSampleRate(), 0);
+        assertEquals(1, resampler.getOutputFormat().getChannels());
+    }
+
+    @Test
+    public void testHighFrequenciesAreFiltered()
+    {
+        AudioResampler resampler
+            = new AudioResampler(format(48000, 1), 16000);
+        byte[] output = new byte[resampler.getMaxOutputLength(2 * SAMPLES)];
+
+        // would alias to 4 kHz without filtering
+        resampler.process(sine(12000, 1), 0, 2 * SAMPLES, output, 0);
+        int length
+            = resampler.process(sine(12000, 1), 0, 2 * SAMPLES, output, 0);
+
+        assertTrue(peak(output, length) < 1000);
+    }
+
+    @Test
+    public void testStereoIsDownmixed()
+    {
+        AudioResampler resampler
+            = new AudioResampler(format(48000, 2), 48000);
+        byte[] output = new byte[resampler.getMaxOutputLength(4 * SAMPLES)];
+
+        resampler.process(sine(1000, 2), 0, 4 * SAMPLES, output, 0);
+        int length
+            = resampler.process(sine(1000, 2), 0, 4 * SAMPLES, output, 0);
+
+        assertEquals(2 * SAMPLES, length);
+        assertEquals(10000, peak(output, length), 500);
+    }
+
+    private static AudioFormat format(int sampleRate, int channels)
+    {
+        return new AudioFormat(
+            AudioFormat.LINEAR, sampleRate, 16, channels,
+            AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED);
+    }
+
+    /**
+     * 20 ms of a 48 kHz sine with an amplitude of 10000, in every channel.
+     */
+    private static byte[] sine(int frequency, int channels)
+    {
+        byte[] audio = new byte[2 * channels * SAMPLES];
+        for (int i = 0, pos = 0; i < SAMPLES; i++)
+        {
+            int sample = (int) (10000
+                * Math.sin(2 * Math.PI * frequency * i / 48000));
+            for (int c = 0; c < channels; c++)
+            {
+                audio[pos++] = (byte) sample;
+                audio[pos++] = (byte) (sample >> 8);
+            }
+        }
+        return audio;
+    }
+
+    private static int peak(byte[] audio, int length)
+    {
+        int peak = 0;
+        for (int i = 0; i < length; i += 2)
+        {
+            int sample = (audio[i + 1] << 8) | (audio[i] & 0xff);
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        return peak;
+    }
+}
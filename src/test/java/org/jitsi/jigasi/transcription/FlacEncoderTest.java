@@ -0,0 +1,115 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import javax.media.format.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the framing of the {@link FlacEncoder}.
+ */
+@RunWith(JUnit4.class)
+public class FlacEncoderTest
+{
+    private final static AudioFormat FORMAT = new AudioFormat(
+        AudioFormat.LINEAR, 16000, 16, 1,
+        AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED);
+
+    private final FlacEncoder encoder = new FlacEncoder(FORMAT);
+
+    @Test
+    public void testStreamHeader()
+    {
+        int length = encoder.encodeStreamHeader();
+        byte[] data = encoder.getData();
+
+        assertEquals(42, length);
+        assertEquals("fLaC", new String(data, 0, 4));
+        // last metadata block, STREAMINFO, 34 bytes
+        assertEquals((byte) 0x80, data[4]);
+        assertEquals(34, data[7]);
+    }
+
+    @Test
+    public void testSilenceIsConstant()
+    {
+        int length = encoder.encode(new byte[2 * 1000], 0, 2 * 1000);
+
+        // frame header, constant subframe and CRC
+        assertTrue(length < 20);
+        assertFrame(encoder.getData(), 0, length);
+    }
+
+    @Test
+    public void testLongAudioIsSplitIntoFrames()
+    {
+        int samples = FlacEncoder.MAX_BLOCK_SIZE + 1000;
+        byte[] audio = new byte[2 * samples];
+        for (int i = 0; i < samples; i++)
+        {
+            int sample = (int) (8000 * Math.sin(i * 0.05));
+            audio[2 * i] = (byte) sample;
+            audio[2 * i + 1] = (byte) (sample >> 8);
+        }
+
+        int length = encoder.encode(audio, 0, audio.length);
+        byte[] data = encoder.getData();
+
+        // a predictable signal compresses well
+        assertTrue(length < audio.length / 2);
+
+        int second = -1;
+        for (int i = 1; i < length - 1; i++)
+        {
+            if ((data[i] & 0xff) == 0xff && (data[i + 1] & 0xff) == 0xf9)
+            {
+                second = i;
+            }
+        }
+        assertTrue(second > 0);
+        assertFrame(data, 0, second);
+        assertFrame(data, second, length - second);
+    }
+
+    /**
+     * Check the sync code and the CRC-16 of a frame, which makes the CRC of
+     * the whole frame zero.
+     */
+    private static void assertFrame(byte[] data, int offset, int length)
+    {
+        assertEquals(0xff, data[offset] & 0xff);
+        assertEquals(0xf9, data[offset + 1] & 0xff);
+
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            crc ^= (data[i] & 0xff) << 8;
+            for (int bit = 0; bit < 8; bit++)
+            {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x8005 : crc << 1;
+            }
+            crc &= 0xffff;
+        }
+        assertEquals(0, crc);
+    }
+}
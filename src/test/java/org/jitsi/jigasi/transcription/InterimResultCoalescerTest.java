@@ -0,0 +1,131 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests which interim results the {@link InterimResultCoalescer} drops,
+ * holds back and publishes.
+ */
+@RunWith(JUnit4.class)
+public class InterimResultCoalescerTest
+{
+    /**
+     * The key of the only speaker of the tests.
+     */
+    private final static Object SPEAKER = new Object();
+
+    private final List<TranscriptionResult> published
+        = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testUnchangedInterimIsSuppressed()
+    {
+        InterimResultCoalescer coalescer = createCoalescer(0);
+        UUID message = UUID.randomUUID();
+
+        TranscriptionResult first = result(message, true, "hello", 0.5);
+        coalescer.notify(first);
+        coalescer.notify(result(message, true, "hello", 0.5));
+        TranscriptionResult changed
+            = result(message, true, "hello there", 0.5);
+        coalescer.notify(changed);
+
+        assertEquals(Arrays.asList(first, changed), published);
+        assertEquals(1, coalescer.getSuppressedCount());
+    }
+
+    @Test
+    public void testInterimResultsAreThrottled()
+        throws InterruptedException
+    {
+        InterimResultCoalescer coalescer = createCoalescer(100);
+        UUID message = UUID.randomUUID();
+
+        TranscriptionResult first = result(message, true, "one", 0.5);
+        coalescer.notify(first);
+        coalescer.notify(result(message, true, "one two", 0.5));
+        TranscriptionResult latest
+            = result(message, true, "one two three", 0.5);
+        coalescer.notify(latest);
+
+        // only the latest one is published, once the interval is over
+        assertEquals(Collections.singletonList(first), published);
+        for (int i = 0; i < 200 && published.size() < 2; i++)
+        {
+            Thread.sleep(10);
+        }
+
+        assertEquals(Arrays.asList(first, latest), published);
+        assertEquals(1, coalescer.getSuppressedCount());
+    }
+
+    @Test
+    public void testFinalResultFlushesHeldBackInterim()
+    {
+        InterimResultCoalescer coalescer
+            = createCoalescer(TimeUnit.MINUTES.toMillis(1));
+        UUID firstMessage = UUID.randomUUID();
+        UUID secondMessage = UUID.randomUUID();
+
+        TranscriptionResult first = result(firstMessage, true, "one", 0.5);
+        coalescer.notify(first);
+        TranscriptionResult heldBack
+            = result(firstMessage, true, "one two", 0.5);
+        coalescer.notify(heldBack);
+
+        // the final result of another utterance publishes the held back
+        // interim result before itself
+        TranscriptionResult otherFinal
+            = result(secondMessage, false, "hi", 0.9);
+        coalescer.notify(otherFinal);
+        assertEquals(Arrays.asList(first, heldBack, otherFinal), published);
+
+        // the final result of the same utterance replaces it
+        UUID thirdMessage = UUID.randomUUID();
+        coalescer.notify(result(thirdMessage, true, "three", 0.5));
+        TranscriptionResult sameFinal
+            = result(thirdMessage, false, "three four", 0.9);
+        coalescer.notify(sameFinal);
+
+        assertEquals(4, published.size());
+        assertSame(sameFinal, published.get(3));
+        assertEquals(1, coalescer.getSuppressedCount());
+    }
+
+    private InterimResultCoalescer createCoalescer(long interval)
+    {
+        return new InterimResultCoalescer(
+            interval, published::add, Runnable::run, result -> SPEAKER);
+    }
+
+    private static TranscriptionResult result(
+        UUID messageID, boolean interim, String text, double stability)
+    {
+        return new TranscriptionResult(null, messageID, interim, "en",
+            stability, new TranscriptionAlternative(text));
+    }
+}
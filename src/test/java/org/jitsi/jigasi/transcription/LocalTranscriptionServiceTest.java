@@ -0,0 +1,141 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import io.grpc.*;
+import io.grpc.inprocess.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import javax.media.format.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link LocalTranscriptionService} against the
+ * {@link StandInSpeechServer}.
+ */
+@RunWith(JUnit4.class)
+public class LocalTranscriptionServiceTest
+{
+    /**
+     * 16 kHz mono signed 16 bit audio.
+     */
+    private final static AudioFormat FORMAT
+        = new AudioFormat(AudioFormat.LINEAR, 16000, 16, 1);
+
+    /**
+     * The length in bytes of 20 ms of {@link #FORMAT}.
+     */
+    private final static int FRAME_LENGTH = 640;
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    private LocalTranscriptionService service;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        String name = "stand-in-" + UUID.randomUUID();
+        server = InProcessServerBuilder.forName(name)
+            .addService(new StandInSpeechServer())
+            .build()
+            .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        service = new LocalTranscriptionService(channel);
+    }
+
+    @After
+    public void tearDown()
+    {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void testStreamingSession()
+        throws Exception
+    {
+        List<TranscriptionResult> finalResults
+            = new CopyOnWriteArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+
+        TranscriptionService.StreamingRecognitionSession session
+            = service.initStreamingSession();
+        session.addTranscriptionListener(new TranscriptionListener()
+        {
+            @Override
+            public void notify(TranscriptionResult result)
+            {
+                if (!result.isInterim())
+                {
+                    finalResults.add(result);
+                }
+            }
+
+            @Override
+            public void completed()
+            {
+                completed.countDown();
+            }
+        });
+
+        // 3.5 seconds of audio, 7 words of which the first 6 are an
+        // utterance
+        for (int i = 0; i < 175; i++)
+        {
+            session.sendRequest(new TranscriptionRequest(
+                new byte[FRAME_LENGTH], FORMAT, Locale.US));
+        }
+        session.end();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertTrue(session.ended());
+        assertEquals(2, finalResults.size());
+        assertEquals("alpha bravo charlie delta echo foxtrot",
+            getTranscription(finalResults.get(0)));
+        assertEquals("golf", getTranscription(finalResults.get(1)));
+        assertEquals("en-US", finalResults.get(1).getLanguage());
+        assertFalse(finalResults.get(0).getMessageID().equals(
+            finalResults.get(1).getMessageID()));
+    }
+
+    @Test
+    public void testSingleRequest()
+    {
+        List<TranscriptionResult> results = new ArrayList<>();
+
+        // 1 second of audio
+        service.sendSingleRequest(new TranscriptionRequest(
+            new byte[50 * FRAME_LENGTH], FORMAT, Locale.US), results::add);
+
+        assertEquals(1, results.size());
+        assertEquals("alpha bravo", getTranscription(results.get(0)));
+    }
+
+    private static String getTranscription(TranscriptionResult result)
+    {
+        return result.getAlternatives().iterator().next().getTranscription();
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests how the {@link SpeakerStreamPool} gives its streams to the speakers
+ * and their results back to them.
+ */
+@RunWith(JUnit4.class)
+public class SpeakerStreamPoolTest
+{
+    private final FakeService service = new FakeService();
+
+    private final List<Recorder> woken
+        = Collections.synchronizedList(new ArrayList<>());
+
+    private final Recorder first = new Recorder();
+
+    private final Recorder second = new Recorder();
+
+    private final Recorder third = new Recorder();
+
+    @Test
+    public void testExhaustedPoolWakesWaitingSpeaker()
+    {
+        SpeakerStreamPool pool = new SpeakerStreamPool(
+            service, () -> {}, 1, TimeUnit.MINUTES.toMillis(1),
+            TimeUnit.MINUTES.toMillis(1));
+
+        assertNotNull(pool.acquire(first));
+        assertNull(pool.acquire(second));
+        assertEquals(1, pool.getTakenStreams());
+
+        // the stream is free once the utterance has been transcribed
+        pool.release(first);
+        assertEquals(0, second.woken);
+        service.sessions.get(0).notify(result(UUID.randomUUID(), false));
+
+        assertEquals(1, second.woken);
+        assertEquals(0, pool.getTakenStreams());
+        assertNotNull(pool.acquire(second));
+    }
+
+    @Test
+    public void testStreamIsReleasedAfterTimeout()
+        throws InterruptedException
+    {
+        SpeakerStreamPool pool = new SpeakerStreamPool(
+            service, () -> {}, 1, 50, 50);
+
+        assertNotNull(pool.acquire(first));
+        pool.release(first);
+        assertNull(pool.acquire(second));
+
+        // no final result comes in
+        for (int i = 0; i < 200 && second.woken == 0; i++)
+        {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, second.woken);
+        assertNotNull(pool.acquire(second));
+    }
+
+    @Test
+    public void testResultsGoToOwnerOfUtterance()
+    {
+        SpeakerStreamPool pool = new SpeakerStreamPool(
+            service, () -> {}, 1, TimeUnit.MINUTES.toMillis(1),
+            TimeUnit.MINUTES.toMillis(1));
+
+        UUID firstMessage = UUID.randomUUID();
+        assertNotNull(pool.acquire(first));
+        FakeSession session = service.sessions.get(0);
+        session.notify(result(firstMessage, true));
+        pool.release(first);
+        session.notify(result(firstMessage, false));
+
+        // the same session now transcribes the second speaker, while a late
+        // result of the first utterance still comes in
+        assertSame(session, pool.acquire(second));
+        UUID secondMessage = UUID.randomUUID();
+        session.notify(result(secondMessage, true));
+        session.notify(result(firstMessage, false));
+
+        assertEquals(3, first.results.size());
+        assertEquals(1, second.results.size());
+        assertEquals(secondMessage, second.results.get(0).getMessageID());
+    }
+
+    @Test
+    public void testWaitingSpeakerTakesIdleStream()
+        throws InterruptedException
+    {
+        SpeakerStreamPool pool = new SpeakerStreamPool(
+            service, () -> {}, 1, TimeUnit.MINUTES.toMillis(1), 50);
+
+        assertNotNull(pool.acquire(first));
+        pool.release(first);
+        assertNull(pool.acquire(second));
+
+        // the final result of the first utterance does not come in, the
+        // waiting speaker does not wait for the release timeout
+        for (int i = 0; i < 200 && second.woken == 0; i++)
+        {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, second.woken);
+        assertNotNull(pool.acquire(second));
+    }
+
+    @Test
+    public void testIdleStreamIsTakenWhenSpeakerComesLater()
+        throws InterruptedException
+    {
+        SpeakerStreamPool pool = new SpeakerStreamPool(
+            service, () -> {}, 1, TimeUnit.MINUTES.toMillis(1), 50);
+
+        assertNotNull(pool.acquire(first));
+        pool.release(first);
+        Thread.sleep(100);
+
+        assertNotNull(pool.acquire(second));
+        assertNull(pool.acquire(first));
+    }
+
+    @Test
+    public void testStreamIsNotTakenFromSpeaker()
+        throws InterruptedException
+    {
+        SpeakerStreamPool pool = new SpeakerStreamPool(
+            service, () -> {}, 1, TimeUnit.MINUTES.toMillis(1), 50);
+
+        assertNotNull(pool.acquire(first));
+        assertNull(pool.acquire(second));
+        Thread.sleep(100);
+
+        assertEquals(0, second.woken);
+        assertNull(pool.acquire(second));
+    }
+
+    @Test
+    public void testMostActiveWaitingSpeakerIsWokenFirst()
+    {
+        SpeakerStreamPool pool = new SpeakerStreamPool(
+            service, () -> {}, 1, TimeUnit.MINUTES.toMillis(1),
+            TimeUnit.MINUTES.toMillis(1));
+
+        assertNotNull(pool.acquire(first));
+        second.waitingAudio = 1;
+        assertNull(pool.acquire(second));
+        third.waitingAudio = 5;
+        assertNull(pool.acquire(third));
+
+        pool.release(first);
+        service.sessions.get(0).notify(result(UUID.randomUUID(), false));
+
+        assertEquals(Arrays.asList(third, second), woken);
+    }
+
+    private static TranscriptionResult result(UUID messageID, boolean interim)
+    {
+        return new TranscriptionResult(null, messageID, interim, "en", 1.0);
+    }
+
+    /**
+     * Records what the pool tells a speaker.
+     */
+    private class Recorder
+        implements SpeakerStreamPool.Speaker
+    {
+        final List<TranscriptionResult> results = new ArrayList<>();
+
+        volatile int woken = 0;
+
+        int waitingAudio = 0;
+
+        @Override
+        public void notify(TranscriptionResult result)
+        {
+            results.add(result);
+        }
+
+        @Override
+        public void streamAvailable()
+        {
+            woken++;
+            SpeakerStreamPoolTest.this.woken.add(this);
+        }
+
+        @Override
+        public int getWaitingAudio()
+        {
+            return waitingAudio;
+        }
+    }
+
+    /**
+     * Creates {@link FakeSession}s.
+     */
+    private static class FakeService
+        implements TranscriptionService
+    {
+        final List<FakeSession> sessions = new ArrayList<>();
+
+        @Override
+        public boolean supportsFragmentTranscription()
+        {
+            return false;
+        }
+
+        @Override
+        public void sendSingleRequest(
+            TranscriptionRequest request,
+            Consumer<TranscriptionResult> resultConsumer)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean supportsStreamRecognition()
+        {
+            return true;
+        }
+
+        @Override
+        public StreamingRecognitionSession initStreamingSession()
+        {
+            FakeSession session = new FakeSession();
+            sessions.add(session);
+            return session;
+        }
+
+        @Override
+        public boolean isConfiguredProperly()
+        {
+            return true;
+        }
+    }
+
+    /**
+     * A session whose results are given by the tests.
+     */
+    private static class FakeSession
+        implements TranscriptionService.StreamingRecognitionSession
+    {
+        private final List<TranscriptionListener> listeners
+            = new ArrayList<>();
+
+        private boolean ended = false;
+
+        void notify(TranscriptionResult result)
+        {
+            listeners.forEach(listener -> listener.notify(result));
+        }
+
+        @Override
+        public void sendRequest(TranscriptionRequest request)
+        {
+            request.release();
+        }
+
+        @Override
+        public void end()
+        {
+            ended = true;
+        }
+
+        @Override
+        public boolean ended()
+        {
+            return ended;
+        }
+
+        @Override
+        public void addTranscriptionListener(TranscriptionListener listener)
+        {
+            listeners.add(listener);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests finding the events of a time range of a {@link TranscriptArchive}.
+ */
+@RunWith(JUnit4.class)
+public class TranscriptArchiveTest
+{
+    private File directory;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = Files.createTempDirectory("archive").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testFindRangeAfterReload()
+        throws IOException
+    {
+        Instant start = Instant.parse("2017-09-01T10:00:00Z");
+        TranscriptArchive archive
+            = TranscriptArchive.create(directory, "room", start, 0);
+        archive.addParticipant("a", "Alice");
+        for (int i = 0; i < 10; i++)
+        {
+            // not only ASCII, offsets are in bytes
+            archive.append(start.plusSeconds(60 * i),
+                "{\"n\":" + i + ",\"t\":\"\u00e9\"}\n");
+        }
+        assertTrue(archive.isLive());
+        archive.close(null, start.plusSeconds(600));
+
+        TranscriptArchive loaded
+            = TranscriptArchive.get(directory, archive.getId());
+        assertNotNull(loaded);
+        assertFalse(loaded.isLive());
+        assertEquals("room", loaded.getRoomName());
+        assertEquals(start, loaded.getStartTime());
+
+        // the last three minutes
+        long[] range = loaded.findRange(start.plusSeconds(420), null);
+        assertEquals(7, range[0]);
+        assertEquals(3, range[1]);
+        assertEquals(loaded.getReadableSize(), range[3]);
+
+        byte[] events = Files.readAllBytes(archive.getEventsFile().toPath());
+        String part = new String(events, (int) range[2],
+            (int) (range[3] - range[2]), StandardCharsets.UTF_8);
+        assertTrue(part.startsWith("{\"n\":7,"));
+        assertEquals(3, part.split("\n").length);
+
+        List<TranscriptArchive> list = TranscriptArchive.list(directory);
+        assertEquals(1, list.size());
+        assertEquals(archive.getId(), list.get(0).getId());
+
+        assertNull(TranscriptArchive.get(directory, "../" + archive.getId()));
+    }
+
+    @Test
+    public void testListKeepsDescriptions()
+        throws IOException
+    {
+        Instant start = Instant.parse("2017-09-01T10:00:00Z");
+        TranscriptArchive first
+            = TranscriptArchive.create(directory, "first", start, 0);
+        first.append(start, "{}\n");
+        first.close(null, start.plusSeconds(60));
+        assertEquals(1, TranscriptArchive.list(directory).size());
+
+        // the descriptions are not read again for every listing
+        File metadata = new File(directory, first.getId() + ".meta.json");
+        assertTrue(metadata.delete());
+        TranscriptArchive second = TranscriptArchive.create(
+            directory, "second", start.plusSeconds(120), 0);
+        second.append(start.plusSeconds(120), "{}\n");
+
+        List<TranscriptArchive> list = TranscriptArchive.list(directory);
+        assertEquals(2, list.size());
+        assertTrue(list.get(1).isLive());
+
+        // and the ones closed since then are added
+        second.close(null, start.plusSeconds(180));
+        list = TranscriptArchive.list(directory);
+        assertEquals(2, list.size());
+        assertSame(second, list.get(1));
+        assertFalse(second.isLive());
+        assertEquals(1, second.findRange(null, null)[1]);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.io.*;
+import java.nio.file.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests appending to and reading back a {@link TranscriptSegment}.
+ */
+@RunWith(JUnit4.class)
+public class TranscriptSegmentTest
+{
+    private File file;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = Files.createTempFile("transcript", ".segment").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void testEntriesAreWrittenInOrder()
+        throws IOException
+    {
+        TranscriptSegment segment = new TranscriptSegment(file, 10);
+
+        // more than the buffer, and an entry larger than the buffer
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+        {
+            large.append('x');
+        }
+        for (int i = 0; i < 1000; i++)
+        {
+            segment.append("entry " + i + " \u00e9\n");
+        }
+        segment.append(large + "\n");
+        segment.close();
+
+        // ignored once closed
+        segment.append("late\n");
+
+        try (BufferedReader reader = segment.openReader())
+        {
+            for (int i = 0; i < 1000; i++)
+            {
+                assertEquals("entry " + i + " \u00e9", reader.readLine());
+            }
+            assertEquals(large.toString(), reader.readLine());
+            assertNull(reader.readLine());
+        }
+
+        segment.delete();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testEntriesAreFlushedBeforeClosing()
+        throws Exception
+    {
+        TranscriptSegment segment = new TranscriptSegment(file, 10);
+        segment.append("first\n");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (file.length() == 0 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals("first\n".length(), file.length());
+
+        segment.close();
+    }
+}
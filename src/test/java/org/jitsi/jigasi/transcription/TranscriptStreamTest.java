@@ -0,0 +1,77 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the replay and the end of a {@link TranscriptStream}.
+ */
+@RunWith(JUnit4.class)
+public class TranscriptStreamTest
+{
+    @Test
+    public void testReplayFromOffset()
+    {
+        TranscriptStream stream = new TranscriptStream("room", 3);
+        for (int i = 1; i <= 5; i++)
+        {
+            assertEquals(i, stream.append("event " + i));
+        }
+
+        // the first two events have been overwritten
+        List<TranscriptStream.Event> events = stream.read(0, 10);
+        assertEquals(3, events.size());
+        assertEquals(3, events.get(0).getId());
+        assertEquals("event 5", events.get(2).getData());
+
+        events = stream.read(3, 1);
+        assertEquals(1, events.size());
+        assertEquals(4, events.get(0).getId());
+
+        assertTrue(stream.read(5, 10).isEmpty());
+    }
+
+    @Test
+    public void testEnd()
+    {
+        TranscriptStream stream = TranscriptStream.getOrCreate("ending", 4);
+        assertSame(stream, TranscriptStream.get("ending"));
+        assertSame(stream, TranscriptStream.getById(stream.getId()));
+        assertNull(TranscriptStream.getById("ending"));
+
+        AtomicInteger wakeUps = new AtomicInteger();
+        stream.addListener(s -> wakeUps.incrementAndGet());
+        stream.append("last words");
+        stream.end();
+
+        assertEquals(2, wakeUps.get());
+        assertTrue(stream.isEnded());
+        assertNull(TranscriptStream.get("ending"));
+        assertNull(TranscriptStream.getById(stream.getId()));
+        assertEquals(-1, stream.append("too late"));
+        assertEquals(1, stream.read(0, 10).size());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import javax.media.format.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link EnergyVoiceActivityDetector} and the hangover and pre-roll
+ * of the {@link VoiceActivityGate}.
+ */
+@RunWith(JUnit4.class)
+public class VoiceActivityGateTest
+{
+    /**
+     * 16 kHz mono, so a 20 ms frame is 640 bytes and a ms is 32 bytes.
+     */
+    private final static AudioFormat FORMAT = new AudioFormat(
+        AudioFormat.LINEAR, 16000, 16, 1,
+        AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED);
+
+    private final static int FRAME_LENGTH = 640;
+
+    private final byte[] speech = frame(200, 3000);
+
+    private final byte[] silence = frame(200, 10);
+
+    private final Recorder recorder = new Recorder();
+
+    @Test
+    public void testDetector()
+    {
+        VoiceActivityDetector detector = new EnergyVoiceActivityDetector();
+
+        assertTrue(detector.isSpeech(speech, 0, FRAME_LENGTH, FORMAT));
+        assertFalse(detector.isSpeech(silence, 0, FRAME_LENGTH, FORMAT));
+        // loud, but crossing zero every sample
+        assertFalse(
+            detector.isSpeech(frame(8000, 3000), 0, FRAME_LENGTH, FORMAT));
+    }
+
+    @Test
+    public void testSilenceIsGated()
+    {
+        VoiceActivityGate gate = new VoiceActivityGate(
+            new EnergyVoiceActivityDetector(), 40, 0, recorder);
+
+        for (int i = 0; i < 5; i++)
+        {
+            gate.process(silence, 0, FRAME_LENGTH, FORMAT);
+        }
+
+        assertEquals(0, recorder.passed);
+        assertEquals(0, recorder.started);
+        assertEquals(5 * FRAME_LENGTH, gate.getGatedBytes());
+        assertEquals(0, gate.getPassedBytes());
+    }
+
+    @Test
+    public void testHangoverAndPreRoll()
+    {
+        // 40 ms hangover is 2 frames, 30 ms pre-roll is 960 bytes
+        VoiceActivityGate gate = new VoiceActivityGate(
+            new EnergyVoiceActivityDetector(), 40, 30, recorder);
+
+        gate.process(silence, 0, FRAME_LENGTH, FORMAT);
+        gate.process(silence, 0, FRAME_LENGTH, FORMAT);
+        gate.process(speech, 0, FRAME_LENGTH, FORMAT);
+
+        assertEquals(1, recorder.started);
+        assertEquals(960 + FRAME_LENGTH, recorder.passed);
+
+        gate.process(silence, 0, FRAME_LENGTH, FORMAT);
+        gate.process(silence, 0, FRAME_LENGTH, FORMAT);
+        assertTrue(gate.isSpeaking());
+        assertEquals(0, recorder.ended);
+
+        gate.process(silence, 0, FRAME_LENGTH, FORMAT);
+        assertFalse(gate.isSpeaking());
+        assertEquals(1, recorder.ended);
+
+        assertEquals(960 + 3 * FRAME_LENGTH, gate.getPassedBytes());
+        assertEquals(6 * FRAME_LENGTH,
+            gate.getPassedBytes() + gate.getGatedBytes());
+    }
+
+    /**
+     * Create a frame holding a square wave.
+     *
+     * @param frequency the frequency of the wave in Hz
+     * @param amplitude the amplitude of the wave
+     * @return the frame
+     */
+    private static byte[] frame(int frequency, int amplitude)
+    {
+        byte[] frame = new byte[FRAME_LENGTH];
+        int halfPeriod = Math.max(1, 16000 / frequency / 2);
+        for (int i = 0; i < FRAME_LENGTH / 2; i++)
+        {
+            int sample = (i / halfPeriod) % 2 == 0 ? amplitude : -amplitude;
+            frame[2 * i] = (byte) sample;
+            frame[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return frame;
+    }
+
+    /**
+     * Counts what a gate gives to its listener.
+     */
+    private static class Recorder
+        implements VoiceActivityGate.Listener
+    {
+        int started = 0;
+
+        int ended = 0;
+
+        long passed = 0;
+
+        @Override
+        public void speechStarted()
+        {
+            started++;
+        }
+
+        @Override
+        public void audio(byte[] audio, int offset, int length)
+        {
+            passed += length;
+        }
+
+        @Override
+        public void speechEnded()
+        {
+            ended++;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription.action;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests finding phrases with a {@link PhraseMatcher}.
+ */
+@RunWith(JUnit4.class)
+public class PhraseMatcherTest
+{
+    @Test
+    public void testFindsOverlappingPhrasesIgnoringCase()
+    {
+        PhraseMatcher<String> matcher = new PhraseMatcher.Builder<String>()
+            .add("he", "he")
+            .add("she", "she")
+            .add("his", "his")
+            .add("hers", "hers")
+            .build();
+
+        List<PhraseMatcher.Match<String>> matches
+            = matcher.findAll("uSHErs and his");
+
+        assertEquals(4, matches.size());
+        assertMatch(matches.get(0), "she", 1, 4);
+        assertMatch(matches.get(1), "he", 2, 4);
+        assertMatch(matches.get(2), "hers", 2, 6);
+        assertMatch(matches.get(3), "his", 11, 14);
+    }
+
+    @Test
+    public void testSamePhraseWithSeveralValues()
+    {
+        PhraseMatcher<Integer> matcher = new PhraseMatcher.Builder<Integer>()
+            .add("Jitsi kick", 1)
+            .add("jitsi KICK", 2)
+            .add("jitsi mute", 3)
+            .build();
+
+        List<PhraseMatcher.Match<Integer>> matches
+            = matcher.findAll("ok jitsi kick john");
+
+        assertEquals(2, matches.size());
+        assertEquals(13, matches.get(0).getEnd());
+        assertEquals(13, matches.get(1).getEnd());
+        assertTrue(matcher.findAll("jitsi kic").isEmpty());
+    }
+
+    @Test
+    public void testEmptyMatcher()
+    {
+        PhraseMatcher<String> matcher
+            = new PhraseMatcher.Builder<String>().build();
+
+        assertTrue(matcher.isEmpty());
+        assertTrue(matcher.findAll("anything").isEmpty());
+    }
+
+    private static void assertMatch(
+        PhraseMatcher.Match<String> match, String value, int start, int end)
+    {
+        assertEquals(value, match.getValue());
+        assertEquals(start, match.getStart());
+        assertEquals(end, match.getEnd());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ConcurrentLongObjectMap}.
+ */
+@RunWith(JUnit4.class)
+public class ConcurrentLongObjectMapTest
+{
+    @Test
+    public void testPutGetRemove()
+    {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>();
+
+        assertNull(map.put(0xffffffffL, "a"));
+        assertNull(map.put(0L, "b"));
+        assertEquals("a", map.put(0xffffffffL, "c"));
+
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(0xffffffffL));
+        assertEquals("b", map.get(0L));
+        assertNull(map.get(1L));
+
+        assertEquals("b", map.putIfAbsent(0L, "d"));
+        assertEquals("b", map.remove(0L));
+        assertNull(map.remove(0L));
+        assertFalse(map.containsKey(0L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testGrowAndRemoveKeepProbing()
+    {
+        ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<>();
+
+        // keys which only differ in their upper bits
+        for (long i = 0; i < 1000; i++)
+        {
+            map.put(i << 32, i);
+        }
+        for (long i = 0; i < 1000; i += 2)
+        {
+            map.remove(i << 32);
+        }
+
+        assertEquals(500, map.size());
+        for (long i = 0; i < 1000; i++)
+        {
+            assertEquals(i % 2 == 0 ? null : (Long) i, map.get(i << 32));
+        }
+
+        List<Long> values = map.values();
+        assertEquals(500, values.size());
+        map.clear();
+        assertEquals(500, values.size());
+        assertTrue(map.isEmpty());
+    }
+}
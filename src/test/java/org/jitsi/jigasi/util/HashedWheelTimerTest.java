@@ -0,0 +1,131 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests expiring and cancelling timeouts of the {@link HashedWheelTimer}.
+ */
+@RunWith(JUnit4.class)
+public class HashedWheelTimerTest
+{
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setUp()
+    {
+        // a small wheel, so timeouts need several rounds
+        timer = new HashedWheelTimer(
+            "test-timer", 10, TimeUnit.MILLISECONDS, 8);
+    }
+
+    @After
+    public void tearDown()
+    {
+        timer.stop();
+    }
+
+    @Test
+    public void testTimeoutExpires()
+        throws Exception
+    {
+        CountDownLatch expired = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        HashedWheelTimer.Timeout timeout = timer.schedule(
+            expired::countDown, 200, TimeUnit.MILLISECONDS);
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        long elapsedMs
+            = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("expired too early: " + elapsedMs, elapsedMs >= 190);
+        assertTrue(timeout.isExpired());
+        assertEquals(0, timer.getPendingTimeouts());
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotExpire()
+        throws Exception
+    {
+        AtomicBoolean cancelledRan = new AtomicBoolean();
+        CountDownLatch expired = new CountDownLatch(1);
+
+        HashedWheelTimer.Timeout timeout = timer.schedule(
+            () -> cancelledRan.set(true), 50, TimeUnit.MILLISECONDS);
+        timer.schedule(expired::countDown, 150, TimeUnit.MILLISECONDS);
+        assertEquals(2, timer.getPendingTimeouts());
+
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertEquals(1, timer.getPendingTimeouts());
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertFalse(cancelledRan.get());
+        assertTrue(timeout.isCancelled());
+    }
+
+    @Test
+    public void testSerialExecutorKeepsOrder()
+        throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try
+        {
+            SerialExecutor executor = new SerialExecutor(pool);
+            StringBuffer order = new StringBuffer();
+            CountDownLatch done = new CountDownLatch(1);
+
+            for (int i = 0; i < 50; i++)
+            {
+                int n = i;
+                executor.execute(() -> order.append(n).append(','));
+            }
+            executor.execute(done::countDown);
+            executor.shutdown();
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 50; i++)
+            {
+                expected.append(i).append(',');
+            }
+            assertEquals(expected.toString(), order.toString());
+            assertTrue(executor.isShutdown());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testSerialExecutorRejectsAfterShutdown()
+    {
+        SerialExecutor executor = new SerialExecutor(Runnable::run);
+        executor.shutdown();
+        executor.execute(() -> {});
+    }
+}
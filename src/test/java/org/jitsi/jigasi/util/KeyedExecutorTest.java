@@ -0,0 +1,159 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the ordering per key and the delays of the {@link KeyedExecutor}.
+ */
+@RunWith(JUnit4.class)
+public class KeyedExecutorTest
+{
+    private ExecutorService pool;
+
+    @Before
+    public void setUp()
+    {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testTasksOfAKeyKeepOrderAcrossDelays()
+        throws Exception
+    {
+        KeyedExecutor executor = new KeyedExecutor(pool);
+        StringBuffer order = new StringBuffer();
+        long start = System.nanoTime();
+
+        int[] steps = { 0 };
+        executor.execute("a", () -> {
+            order.append("a").append(steps[0]).append(',');
+            return ++steps[0] < 3 ? 100 : KeyedExecutor.SteppedTask.DONE;
+        });
+        executor.execute("a", () -> order.append("a3,"));
+        assertEquals(2, executor.getPendingTasks());
+        assertEquals(1, executor.getActiveKeys());
+
+        assertTrue(executor.awaitIdle(5, TimeUnit.SECONDS));
+        long elapsedMs
+            = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("delays were skipped: " + elapsedMs, elapsedMs >= 190);
+        assertEquals("a0,a1,a2,a3,", order.toString());
+        assertEquals(0, executor.getActiveKeys());
+        assertTrue(executor.getMaxWaitTime() >= 190);
+    }
+
+    @Test
+    public void testKeysDoNotWaitForEachOther()
+        throws Exception
+    {
+        KeyedExecutor executor = new KeyedExecutor(pool);
+        CountDownLatch released = new CountDownLatch(1);
+        CountDownLatch otherRan = new CountDownLatch(1);
+
+        executor.execute("a", () -> {
+            try
+            {
+                released.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute("b", otherRan::countDown);
+
+        assertTrue(otherRan.await(5, TimeUnit.SECONDS));
+        assertFalse(executor.awaitIdle(50, TimeUnit.MILLISECONDS));
+
+        released.countDown();
+        assertTrue(executor.awaitIdle(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getPendingTasks());
+    }
+
+    @Test
+    public void testTaskWithSeveralKeysIsOrderedWithEachKey()
+        throws Exception
+    {
+        KeyedExecutor executor = new KeyedExecutor(pool);
+        StringBuffer order = new StringBuffer();
+
+        int[] steps = { 0 };
+        executor.execute("a", () -> {
+            order.append("a").append(steps[0]).append(',');
+            return ++steps[0] < 2 ? 100 : KeyedExecutor.SteppedTask.DONE;
+        });
+        executor.execute("b", () -> order.append("b0,"));
+        int[] mergeSteps = { 0 };
+        executor.execute(Arrays.asList("a", "b", "c"), () -> {
+            order.append("ab").append(mergeSteps[0]).append(',');
+            return ++mergeSteps[0] < 2 ? 50 : KeyedExecutor.SteppedTask.DONE;
+        });
+        executor.execute("b", () -> order.append("b1,"));
+        executor.execute("c", () -> order.append("c0,"));
+
+        assertTrue(executor.awaitIdle(5, TimeUnit.SECONDS));
+        String result = order.toString();
+        assertTrue(result, result.startsWith("a0,")
+            || result.startsWith("b0,"));
+        assertTrue(result, result.indexOf("a1,") < result.indexOf("ab0,"));
+        assertTrue(result, result.indexOf("b0,") < result.indexOf("ab0,"));
+        assertTrue(result, result.indexOf("ab1,") < result.indexOf("b1,"));
+        assertTrue(result, result.indexOf("ab1,") < result.indexOf("c0,"));
+        assertEquals(0, executor.getActiveKeys());
+    }
+
+    @Test
+    public void testTasksWithSameKeysDoNotWaitForEachOther()
+        throws Exception
+    {
+        KeyedExecutor executor = new KeyedExecutor(pool);
+        AtomicInteger done = new AtomicInteger();
+
+        for (int i = 0; i < 200; i++)
+        {
+            List<String> keys = i % 2 == 0
+                ? Arrays.asList("a", "b") : Arrays.asList("b", "a");
+            executor.execute(keys, () -> {
+                done.incrementAndGet();
+                return KeyedExecutor.SteppedTask.DONE;
+            });
+            executor.execute(i % 2 == 0 ? "a" : "b", () -> {
+                done.incrementAndGet();
+            });
+        }
+
+        assertTrue(executor.awaitIdle(5, TimeUnit.SECONDS));
+        assertEquals(400, done.get());
+    }
+}
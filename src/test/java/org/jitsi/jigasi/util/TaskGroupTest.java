@@ -0,0 +1,96 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests cancelling the tasks of a {@link TaskGroup} as a unit.
+ */
+@RunWith(JUnit4.class)
+public class TaskGroupTest
+{
+    private ExecutorService pool;
+
+    @Before
+    public void setUp()
+    {
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testCancelInterruptsRunningTasks()
+        throws Exception
+    {
+        TaskGroup group = new TaskGroup(pool);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch interrupted = new CountDownLatch(2);
+
+        for (int i = 0; i < 2; i++)
+        {
+            group.execute(() -> {
+                started.countDown();
+                try
+                {
+                    Thread.sleep(10000);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted.countDown();
+                }
+            });
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(2, group.getActiveCount());
+
+        group.cancel();
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(group.isCancelled());
+        assertEquals(0, group.getActiveCount());
+    }
+
+    @Test
+    public void testDoneTasksLeaveTheGroup()
+        throws Exception
+    {
+        TaskGroup group = new TaskGroup(pool);
+        group.execute(() -> {}).get(5, TimeUnit.SECONDS);
+        assertEquals(0, group.getActiveCount());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectsAfterCancel()
+    {
+        TaskGroup group = new TaskGroup(pool);
+        group.cancel();
+        group.execute(() -> {});
+    }
+}